@@ -6,6 +6,7 @@ package com.mobilabsolutions.payment.adyen.configuration
 
 import org.json.JSONException
 import org.json.JSONObject
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.context.annotation.Configuration
 
 /**
@@ -23,6 +24,21 @@ class AdyenProperties {
     val shopperInteraction = "ContAuth"
     val sepaPaymentMethod = "sepadirectdebit"
     val threeDSecure = "scheme"
+
+    @Value("\${payment.adyen.http.connectTimeout:5000}")
+    var connectTimeout: Long = 5000
+
+    @Value("\${payment.adyen.http.paymentReadTimeout:30000}")
+    var paymentReadTimeout: Long = 30000
+
+    @Value("\${payment.adyen.http.modificationReadTimeout:15000}")
+    var modificationReadTimeout: Long = 15000
+
+    @Value("\${payment.adyen.http.recurringReadTimeout:10000}")
+    var recurringReadTimeout: Long = 10000
+
+    @Value("\${payment.adyen.http.threads:20}")
+    var httpThreads: Int = 20
 }
 
 internal fun JSONObject.getStringSafe(key: String): String? {
@@ -6,6 +6,7 @@ package com.mobilabsolutions.payment.adyen.service
 
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.mobilabsolutions.payment.adyen.configuration.AdyenProperties
+import com.mobilabsolutions.payment.adyen.configuration.getStringSafe
 import com.mobilabsolutions.payment.adyen.data.enum.AdyenMode
 import com.mobilabsolutions.payment.adyen.model.request.AdyenCaptureRequestModel
 import com.mobilabsolutions.payment.adyen.model.request.AdyenDeleteAliasRequestModel
@@ -19,9 +20,21 @@ import com.mobilabsolutions.payment.model.PspConfigModel
 import com.mobilabsolutions.server.commons.exception.ApiError
 import com.mobilabsolutions.server.commons.exception.ApiErrorCode
 import mu.KLogging
+import org.json.JSONException
 import org.json.JSONObject
+import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
 import org.springframework.stereotype.Service
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CompletionException
+import java.util.concurrent.Executors
+import javax.annotation.PreDestroy
 
 /**
  * @author <a href="mailto:mohamed.osman@mobilabsolutions.com">Mohamed Osman</a>
@@ -45,6 +58,14 @@ class AdyenClient(
         const val ERROR_MESSAGE = "message"
     }
 
+    private val httpExecutor = Executors.newFixedThreadPool(adyenProperties.httpThreads)
+
+    private val httpClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(Duration.ofMillis(adyenProperties.connectTimeout))
+        .executor(httpExecutor)
+        .build()
+
     /**
      * Makes a payment and registers a credit card with 3D Secure
      *
@@ -58,16 +79,24 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): Adyen3DSResponseModel {
+        return await(registerCreditCardWith3DSAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [registerCreditCardWith3DS]
+     */
+    fun registerCreditCardWith3DSAsync(
+        request: AdyenPaymentRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<Adyen3DSResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testCheckoutBaseUrl + PAYMENT_URL
         else adyenProperties.liveCheckoutBaseUrl.format(pspConfig.urlPrefix) + PAYMENT_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-        return Adyen3DSResponseModel(response.jsonObject)
+        return post(paymentUrl, apiKey!!, request, adyenProperties.paymentReadTimeout).thenApply { response ->
+            Adyen3DSResponseModel(parseBody(response))
+        }
     }
 
     /**
@@ -83,17 +112,24 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): Adyen3DSResponseModel {
+        return await(verify3DSAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [verify3DS]
+     */
+    fun verify3DSAsync(
+        request: AdyenVerify3DSRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<Adyen3DSResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testCheckoutBaseUrl + VERIFY_PAYMENT_URL
         else adyenProperties.liveCheckoutBaseUrl.format(pspConfig.urlPrefix) + VERIFY_PAYMENT_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-
-        return Adyen3DSResponseModel(response.jsonObject)
+        return post(paymentUrl, apiKey!!, request, adyenProperties.paymentReadTimeout).thenApply { response ->
+            Adyen3DSResponseModel(parseBody(response))
+        }
     }
 
     /**
@@ -109,17 +145,24 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): AdyenPaymentResponseModel {
+        return await(authorizationAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [authorization]
+     */
+    fun authorizationAsync(
+        request: AdyenPaymentRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<AdyenPaymentResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testPaymentBaseUrl + AUTHORIZATION_URL
         else adyenProperties.livePaymentBaseUrl.format(pspConfig.urlPrefix) + AUTHORIZATION_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-
-        return AdyenPaymentResponseModel(response.jsonObject)
+        return post(paymentUrl, apiKey!!, request, adyenProperties.paymentReadTimeout).thenApply { response ->
+            AdyenPaymentResponseModel(parseBody(response))
+        }
     }
 
     /**
@@ -135,17 +178,24 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): AdyenPaymentResponseModel {
+        return await(preauthorizationAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [preauthorization]
+     */
+    fun preauthorizationAsync(
+        request: AdyenPaymentRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<AdyenPaymentResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testPaymentBaseUrl + PREAUTH_URL
         else adyenProperties.livePaymentBaseUrl.format(pspConfig.urlPrefix) + PREAUTH_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-
-        return AdyenPaymentResponseModel(response.jsonObject)
+        return post(paymentUrl, apiKey!!, request, adyenProperties.paymentReadTimeout).thenApply { response ->
+            AdyenPaymentResponseModel(parseBody(response))
+        }
     }
 
     /**
@@ -161,17 +211,24 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): AdyenPaymentResponseModel {
+        return await(captureAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [capture]
+     */
+    fun captureAsync(
+        request: AdyenCaptureRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<AdyenPaymentResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testPaymentBaseUrl + CAPTURE_URL
         else adyenProperties.livePaymentBaseUrl.format(pspConfig.urlPrefix) + CAPTURE_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-
-        return AdyenPaymentResponseModel(response.jsonObject)
+        return post(paymentUrl, apiKey!!, request, adyenProperties.modificationReadTimeout).thenApply { response ->
+            AdyenPaymentResponseModel(parseBody(response))
+        }
     }
 
     /**
@@ -187,17 +244,24 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): AdyenPaymentResponseModel {
+        return await(reverseAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [reverse]
+     */
+    fun reverseAsync(
+        request: AdyenReverseRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<AdyenPaymentResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testPaymentBaseUrl + REVERSE_URL
         else adyenProperties.livePaymentBaseUrl.format(pspConfig.urlPrefix) + REVERSE_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-
-        return AdyenPaymentResponseModel(response.jsonObject)
+        return post(paymentUrl, apiKey!!, request, adyenProperties.modificationReadTimeout).thenApply { response ->
+            AdyenPaymentResponseModel(parseBody(response))
+        }
     }
 
     /**
@@ -213,23 +277,30 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): AdyenPaymentResponseModel {
+        return await(sepaPaymentAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [sepaPayment]
+     */
+    fun sepaPaymentAsync(
+        request: AdyenPaymentRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<AdyenPaymentResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testCheckoutBaseUrl + PAYMENT_URL
         else adyenProperties.liveCheckoutBaseUrl.format(pspConfig.urlPrefix) + PAYMENT_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-
-        if (HttpStatus.OK.value() != response.statusCode) {
-            throw ApiError.builder().withErrorCode(ApiErrorCode.PSP_MODULE_ERROR)
-                .withMessage("Error during authorizing Adyen payment")
-                .withError(response.jsonObject.getString(ERROR_MESSAGE)).build().asException()
+        return post(paymentUrl, apiKey!!, request, adyenProperties.paymentReadTimeout).thenApply { response ->
+            val body = parseBody(response)
+            if (HttpStatus.OK.value() != response.statusCode()) {
+                throw ApiError.builder().withErrorCode(ApiErrorCode.PSP_MODULE_ERROR)
+                    .withMessage("Error during authorizing Adyen payment")
+                    .withError(body.getStringSafe(ERROR_MESSAGE) ?: "HTTP status ${response.statusCode()}").build().asException()
+            }
+            AdyenPaymentResponseModel(body)
         }
-
-        return AdyenPaymentResponseModel(response.jsonObject)
     }
 
     /**
@@ -245,17 +316,24 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): AdyenPaymentResponseModel {
+        return await(refundAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [refund]
+     */
+    fun refundAsync(
+        request: AdyenRefundRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<AdyenPaymentResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testPaymentBaseUrl + REFUND_URL
         else adyenProperties.livePaymentBaseUrl.format(pspConfig.urlPrefix) + REFUND_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-
-        return AdyenPaymentResponseModel(response.jsonObject)
+        return post(paymentUrl, apiKey!!, request, adyenProperties.modificationReadTimeout).thenApply { response ->
+            AdyenPaymentResponseModel(parseBody(response))
+        }
     }
 
     /**
@@ -271,17 +349,24 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ): AdyenPaymentResponseModel {
+        return await(sepaRefundAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [sepaRefund]
+     */
+    fun sepaRefundAsync(
+        request: AdyenRefundRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<AdyenPaymentResponseModel> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testPaymentBaseUrl + SEPA_REFUND_URL
         else adyenProperties.livePaymentBaseUrl.format(pspConfig.urlPrefix) + SEPA_REFUND_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
-
-        return AdyenPaymentResponseModel(response.jsonObject)
+        return post(paymentUrl, apiKey!!, request, adyenProperties.modificationReadTimeout).thenApply { response ->
+            AdyenPaymentResponseModel(parseBody(response))
+        }
     }
 
     /**
@@ -296,20 +381,74 @@ class AdyenClient(
         pspConfig: PspConfigModel,
         mode: String
     ) {
+        await(deleteAliasAsync(request, pspConfig, mode))
+    }
+
+    /**
+     * Non-blocking variant of [deleteAlias]
+     */
+    fun deleteAliasAsync(
+        request: AdyenDeleteAliasRequestModel,
+        pspConfig: PspConfigModel,
+        mode: String
+    ): CompletableFuture<Void> {
         val apiKey = if (mode == AdyenMode.TEST.mode) pspConfig.sandboxPublicKey else pspConfig.publicKey
         val paymentUrl = if (mode == AdyenMode.TEST.mode) adyenProperties.testRecurringBaseUrl + DELETE_ALIAS_URL
         else adyenProperties.liveRecurringBaseUrl.format(pspConfig.urlPrefix) + DELETE_ALIAS_URL
 
-        val response = khttp.post(
-            url = paymentUrl,
-            headers = mapOf(API_KEY to apiKey!!),
-            json = JSONObject(objectMapper.writeValueAsString(request))
-        )
+        return post(paymentUrl, apiKey!!, request, adyenProperties.recurringReadTimeout).thenAccept { response ->
+            val body = parseBody(response)
+            if (HttpStatus.OK.value() != response.statusCode()) {
+                throw ApiError.builder().withErrorCode(ApiErrorCode.PSP_MODULE_ERROR)
+                    .withMessage("Error during deleting Adyen alias")
+                    .withError(body.getStringSafe(ERROR_MESSAGE) ?: "HTTP status ${response.statusCode()}").build().asException()
+            }
+        }
+    }
+
+    @PreDestroy
+    fun shutdown() {
+        httpExecutor.shutdown()
+    }
+
+    private fun post(url: String, apiKey: String, request: Any, readTimeout: Long): CompletableFuture<HttpResponse<String>> {
+        val httpRequest = HttpRequest.newBuilder(URI.create(url))
+            .timeout(Duration.ofMillis(readTimeout))
+            .header(API_KEY, apiKey)
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .header(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON_VALUE)
+            .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(request)))
+            .build()
+        return httpClient.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString())
+    }
+
+    /**
+     * Parses the JSON body of an Adyen response. Server errors and bodies that are not JSON leave the outcome of
+     * the operation unknown, they are reported as PSP communication errors.
+     *
+     * @param response Adyen response
+     * @return response body
+     */
+    private fun parseBody(response: HttpResponse<String>): JSONObject {
+        if (response.statusCode() >= HttpStatus.INTERNAL_SERVER_ERROR.value()) {
+            throw ApiError.builder().withErrorCode(ApiErrorCode.PSP_COMMUNICATION_ERROR)
+                .withMessage("Adyen responded with a server error")
+                .withError("HTTP status ${response.statusCode()}").build().asException()
+        }
+        try {
+            return JSONObject(response.body())
+        } catch (exception: JSONException) {
+            throw ApiError.builder().withErrorCode(ApiErrorCode.PSP_COMMUNICATION_ERROR)
+                .withMessage("Adyen responded with an unreadable body")
+                .withError("HTTP status ${response.statusCode()}").build().asException()
+        }
+    }
 
-        if (HttpStatus.OK.value() != response.statusCode) {
-            throw ApiError.builder().withErrorCode(ApiErrorCode.PSP_MODULE_ERROR)
-                .withMessage("Error during deleting Adyen alias")
-                .withError(response.jsonObject.getString(ERROR_MESSAGE)).build().asException()
+    private fun <T> await(future: CompletableFuture<T>): T {
+        try {
+            return future.join()
+        } catch (exception: CompletionException) {
+            throw exception.cause ?: exception
         }
     }
 }
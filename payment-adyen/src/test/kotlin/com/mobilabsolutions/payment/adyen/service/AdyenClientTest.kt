@@ -0,0 +1,107 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.adyen.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.adyen.configuration.AdyenProperties
+import com.mobilabsolutions.payment.adyen.data.enum.AdyenMode
+import com.mobilabsolutions.payment.adyen.model.request.AdyenAmountRequestModel
+import com.mobilabsolutions.payment.adyen.model.request.AdyenCaptureRequestModel
+import com.mobilabsolutions.payment.adyen.model.request.AdyenPaymentMethodRequestModel
+import com.mobilabsolutions.payment.adyen.model.request.AdyenPaymentRequestModel
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import com.mobilabsolutions.server.commons.exception.ApiException
+import com.sun.net.httpserver.HttpServer
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.Mockito
+import java.net.InetSocketAddress
+
+/**
+ * Sends requests to a local HTTP server that answers like Adyen does during an outage
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class AdyenClientTest {
+    private val pspConfig = PspConfigModel(PaymentServiceProvider.ADYEN.toString(), null, null, null, null, "merchant account", "public key",
+        null, null, null, true, "EUR", "DE", "de-DE", "random-mobilab", null, null)
+    private val amount = AdyenAmountRequestModel(300, "EUR")
+    private val sepaRequest = AdyenPaymentRequestModel(amount, null, null, null, null, null, null, "reference", "merchant account", null,
+        AdyenPaymentMethodRequestModel("sepadirectdebit", "Max Mustermann", "DE87123456781234567890", null, null, null, null, null), null, null, null, null)
+    private val responses = mutableMapOf<String, Pair<Int, String>>()
+
+    private lateinit var server: HttpServer
+    private lateinit var adyenClient: AdyenClient
+
+    @BeforeAll
+    fun beforeAll() {
+        server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/") { exchange ->
+            val (status, body) = responses.getValue(exchange.requestURI.path)
+            val bytes = body.toByteArray()
+            exchange.sendResponseHeaders(status, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        }
+        server.start()
+
+        val baseUrl = "http://localhost:${server.address.port}"
+        val adyenProperties = Mockito.spy(AdyenProperties())
+        Mockito.doReturn(baseUrl).`when`(adyenProperties).testCheckoutBaseUrl
+        Mockito.doReturn(baseUrl).`when`(adyenProperties).testPaymentBaseUrl
+        adyenClient = AdyenClient(adyenProperties, ObjectMapper())
+    }
+
+    @AfterAll
+    fun afterAll() {
+        adyenClient.shutdown()
+        server.stop(0)
+    }
+
+    @Test
+    fun `report SEPA payment server error as communication error`() {
+        responses[AdyenClient.PAYMENT_URL] = 503 to "{\"status\":503,\"message\":\"Service unavailable\"}"
+
+        val exception = Assertions.assertThrows(ApiException::class.java) { adyenClient.sepaPayment(sepaRequest, pspConfig, AdyenMode.TEST.mode) }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_COMMUNICATION_ERROR, exception.errorCode())
+    }
+
+    @Test
+    fun `report capture server error as communication error`() {
+        responses[AdyenClient.CAPTURE_URL] = 500 to "{\"status\":500,\"message\":\"Internal error\"}"
+
+        val exception = Assertions.assertThrows(ApiException::class.java) {
+            adyenClient.capture(AdyenCaptureRequestModel("12345", amount, "37293728", "merchant account"), pspConfig, AdyenMode.TEST.mode)
+        }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_COMMUNICATION_ERROR, exception.errorCode())
+    }
+
+    @Test
+    fun `report unreadable response as communication error`() {
+        responses[AdyenClient.CAPTURE_URL] = 200 to "<html>Bad gateway</html>"
+
+        val exception = Assertions.assertThrows(ApiException::class.java) {
+            adyenClient.capture(AdyenCaptureRequestModel("12345", amount, "37293728", "merchant account"), pspConfig, AdyenMode.TEST.mode)
+        }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_COMMUNICATION_ERROR, exception.errorCode())
+    }
+
+    @Test
+    fun `report rejected SEPA payment as module error`() {
+        responses[AdyenClient.PAYMENT_URL] = 422 to "{\"status\":422,\"message\":\"Invalid IBAN\"}"
+
+        val exception = Assertions.assertThrows(ApiException::class.java) { adyenClient.sepaPayment(sepaRequest, pspConfig, AdyenMode.TEST.mode) }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_MODULE_ERROR, exception.errorCode())
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.adyen.configuration.AdyenProperties
+import com.mobilabsolutions.payment.adyen.model.request.AdyenPaymentRequestModel
+import com.mobilabsolutions.payment.adyen.model.response.AdyenPaymentResponseModel
+import com.mobilabsolutions.payment.adyen.service.AdyenClient
+import com.mobilabsolutions.payment.adyen.service.AdyenPsp
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.payment.model.request.PspPaymentRequestModel
+import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
+import com.mobilabsolutions.server.commons.util.RandomStringGenerator
+import com.sun.net.httpserver.HttpServer
+import org.json.JSONObject
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.springframework.http.HttpStatus
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Authorizes a credit card payment through the Adyen PSP against a local stand-in for Adyen, once with the shared
+ * pooled HTTP client of [AdyenClient] and once with a new connection per request like the former khttp calls. The
+ * latency is sampled, so the JSON results hold its percentiles including p99. The stand-in speaks plain HTTP, so
+ * the TLS handshake that a new connection to Adyen also pays is not part of the results.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+open class AdyenClientLatencyBenchmark {
+    companion object {
+        private const val AUTHORIZATION_RESPONSE = "{\"pspReference\":\"8815658961765250\",\"resultCode\":\"Authorised\"}"
+    }
+
+    @Param("pooled", "khttp")
+    @JvmField
+    var client: String = ""
+
+    @Param("0", "20")
+    @JvmField
+    var adyenLatencyMillis: Long = 0
+
+    private lateinit var adyen: HttpServer
+    private lateinit var adyenExecutor: ExecutorService
+    private lateinit var adyenClient: AdyenClient
+    private lateinit var adyenPsp: AdyenPsp
+    private val authorizeRequest = PspPaymentRequestModel(
+        aliasId = Fixtures.ALIAS_ID,
+        extra = Fixtures.aliasExtra,
+        paymentData = Fixtures.paymentRequest.paymentData,
+        pspAlias = "sje324andls",
+        pspConfig = Fixtures.adyenConfig,
+        purchaseId = null
+    )
+
+    @Setup
+    fun setUp() {
+        adyenExecutor = Executors.newCachedThreadPool()
+        adyen = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0).apply {
+            createContext(AdyenClient.AUTHORIZATION_URL) { exchange ->
+                exchange.requestBody.use { it.readAllBytes() }
+                if (adyenLatencyMillis > 0) Thread.sleep(adyenLatencyMillis)
+                val body = AUTHORIZATION_RESPONSE.toByteArray()
+                exchange.sendResponseHeaders(HttpStatus.OK.value(), body.size.toLong())
+                exchange.responseBody.use { it.write(body) }
+            }
+            executor = adyenExecutor
+            start()
+        }
+
+        val adyenProperties = LocalAdyenProperties("http://${adyen.address.hostString}:${adyen.address.port}")
+        adyenClient = if (client == "khttp") KhttpAdyenClient(adyenProperties, Fixtures.objectMapper) else AdyenClient(adyenProperties, Fixtures.objectMapper)
+        adyenPsp = AdyenPsp(adyenClient, adyenProperties, RandomStringGenerator(), Fixtures.objectMapper)
+    }
+
+    @Benchmark
+    fun authorize(): PspPaymentResponseModel {
+        return adyenPsp.authorize(authorizeRequest, true)
+    }
+
+    @TearDown
+    fun tearDown() {
+        adyenClient.shutdown()
+        adyen.stop(0)
+        adyenExecutor.shutdownNow()
+    }
+
+    /**
+     * Adyen properties that point the test payment endpoints to the local stand-in
+     */
+    private class LocalAdyenProperties(private val baseUrl: String) : AdyenProperties() {
+        override val testPaymentBaseUrl: String
+            get() = baseUrl
+    }
+
+    /**
+     * Adyen client that authorizes like the former client did, with a khttp request on a new connection
+     */
+    private class KhttpAdyenClient(private val adyenProperties: AdyenProperties, private val objectMapper: ObjectMapper) : AdyenClient(adyenProperties, objectMapper) {
+        override fun authorization(request: AdyenPaymentRequestModel, pspConfig: PspConfigModel, mode: String): AdyenPaymentResponseModel {
+            val response = khttp.post(
+                url = adyenProperties.testPaymentBaseUrl + AUTHORIZATION_URL,
+                headers = mapOf(API_KEY to pspConfig.sandboxPublicKey!!),
+                json = JSONObject(objectMapper.writeValueAsString(request))
+            )
+            return AdyenPaymentResponseModel(response.jsonObject)
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.adyen.configuration.AdyenProperties
+import com.mobilabsolutions.payment.adyen.model.request.AdyenPaymentRequestModel
+import com.mobilabsolutions.payment.adyen.model.response.AdyenPaymentResponseModel
+import com.mobilabsolutions.payment.adyen.service.AdyenClient
+import com.mobilabsolutions.payment.adyen.service.AdyenPsp
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.payment.model.request.PspPaymentRequestModel
+import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
+import com.mobilabsolutions.server.commons.util.RandomStringGenerator
+import org.json.JSONObject
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Maps a credit card authorization to an Adyen payment request, writes the request body and maps the Adyen
+ * response back. The HTTP call itself is replaced by a canned Adyen response.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class AdyenPspBenchmark {
+    private val adyenClient = CannedAdyenClient(AdyenProperties(), Fixtures.objectMapper)
+    private val adyenPsp = AdyenPsp(adyenClient, AdyenProperties(), RandomStringGenerator(), Fixtures.objectMapper)
+    private val authorizeRequest = PspPaymentRequestModel(
+        aliasId = Fixtures.ALIAS_ID,
+        extra = Fixtures.aliasExtra,
+        paymentData = Fixtures.paymentRequest.paymentData,
+        pspAlias = "sje324andls",
+        pspConfig = Fixtures.adyenConfig,
+        purchaseId = null
+    )
+
+    @Benchmark
+    fun authorize(): PspPaymentResponseModel {
+        return adyenPsp.authorize(authorizeRequest, true)
+    }
+
+    @TearDown
+    fun tearDown() {
+        adyenClient.shutdown()
+    }
+
+    /**
+     * Adyen client that writes the request body like the real client and answers with a canned authorization
+     */
+    private class CannedAdyenClient(adyenProperties: AdyenProperties, private val objectMapper: ObjectMapper) : AdyenClient(adyenProperties, objectMapper) {
+        private val response = "{\"pspReference\":\"8815658961765250\",\"resultCode\":\"Authorised\"}"
+        var requestBytes = 0L
+
+        override fun authorization(request: AdyenPaymentRequestModel, pspConfig: PspConfigModel, mode: String): AdyenPaymentResponseModel {
+            requestBytes += objectMapper.writeValueAsBytes(request).size
+            return AdyenPaymentResponseModel(JSONObject(response))
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import org.openjdk.jmh.Main
+
+/**
+ * Runs the JMH benchmarks with the regular JMH command line. Results are written as JSON to jmh-result.json,
+ * unless another result format is requested with -rf.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+fun main(args: Array<String>) {
+    Main.main(if ("-rf" in args) args else arrayOf("-rf", "json") + args)
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.payment.bspayone.configuration.BsPayoneProperties
+import com.mobilabsolutions.payment.bspayone.data.enum.BsPayoneClearingType
+import com.mobilabsolutions.payment.bspayone.data.enum.BsPayoneMode
+import com.mobilabsolutions.payment.bspayone.model.request.BsPayonePaymentRequestModel
+import com.mobilabsolutions.payment.bspayone.model.response.BsPayonePaymentResponseModel
+import com.mobilabsolutions.payment.bspayone.service.BsPayoneClient
+import com.mobilabsolutions.payment.bspayone.service.BsPayoneHashingService
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.model.PspConfigModel
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import org.springframework.http.HttpStatus
+import org.springframework.http.client.ClientHttpRequestFactory
+import org.springframework.mock.http.client.MockClientHttpRequest
+import org.springframework.mock.http.client.MockClientHttpResponse
+import org.springframework.web.client.RestTemplate
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sends a BS Payone authorization through the client: form body encoding, the RestTemplate message conversion
+ * and response parsing. The request factory answers with a canned BS Payone response instead of calling the API.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class BsPayoneClientBenchmark {
+    private val bsPayoneProperties = BsPayoneProperties()
+    private val pspConfig = PspConfigModel(PaymentServiceProvider.BS_PAYONE.toString(), "mobilab", "2030968", "key 123",
+        "42949", null, null, null, null, null, true, null, null, null, null, null, null)
+    private val paymentRequest = BsPayonePaymentRequestModel("42949", BsPayoneClearingType.CC.type, "8DANasUsXZ", "500", "EUR",
+        "12378", "Müller & Söhne", "DE", "Berlin", "1234", null, null)
+    private val responseBody = "status=APPROVED\ntxid=325198651\nuserid=146720352\n".toByteArray()
+    private val requestFactory = ClientHttpRequestFactory { uri, httpMethod ->
+        MockClientHttpRequest(httpMethod, uri).apply { setResponse(MockClientHttpResponse(responseBody, HttpStatus.OK)) }
+    }
+    private val bsPayoneClient = BsPayoneClient(RestTemplate(requestFactory), bsPayoneProperties, BsPayoneHashingService(bsPayoneProperties))
+
+    @Benchmark
+    fun authorization(): BsPayonePaymentResponseModel {
+        return bsPayoneClient.authorization(paymentRequest, pspConfig, BsPayoneMode.TEST.mode)
+    }
+}
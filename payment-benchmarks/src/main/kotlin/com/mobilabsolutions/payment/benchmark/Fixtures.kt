@@ -0,0 +1,106 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.data.Alias
+import com.mobilabsolutions.payment.data.Merchant
+import com.mobilabsolutions.payment.data.enum.PaymentMethod
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.model.AliasExtraModel
+import com.mobilabsolutions.payment.model.CreditCardConfigModel
+import com.mobilabsolutions.payment.model.PersonalDataModel
+import com.mobilabsolutions.payment.model.PspConfigListModel
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.payment.model.request.PaymentDataRequestModel
+import com.mobilabsolutions.payment.model.request.PaymentRequestModel
+import com.mobilabsolutions.server.commons.CommonConfiguration
+
+/**
+ * Payment data shared by the benchmarks, shaped like the data of a credit card payment in production
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+object Fixtures {
+    const val MERCHANT_ID = "mobilab"
+    const val SECRET_KEY = "secret key"
+    const val ALIAS_ID = "alias id"
+
+    val objectMapper: ObjectMapper = CommonConfiguration().jsonMapper()
+
+    val adyenConfig = PspConfigModel(
+        type = PaymentServiceProvider.ADYEN.name,
+        merchantId = "mobilab",
+        portalId = null,
+        key = null,
+        accountId = null,
+        sandboxMerchantId = "MobilabSolutionsGmbHCOM",
+        sandboxPublicKey = "AQEqhmfxLI3MaBFLw0m",
+        sandboxPrivateKey = null,
+        publicKey = "AQEqhmfxLI3MaBFLw0m",
+        privateKey = null,
+        default = true,
+        currency = "EUR",
+        country = "DE",
+        locale = "de-DE",
+        urlPrefix = "random-mobilab",
+        sandboxClientEncryptionKey = null,
+        clientEncryptionKey = null
+    )
+
+    val aliasExtra = AliasExtraModel(
+        ccConfig = CreditCardConfigModel(
+            ccMask = "1111",
+            ccExpiry = "10/2030",
+            ccType = "VISA",
+            ccHolderName = "Max Mustermann",
+            encryptedCardNumber = null,
+            encryptedExpiryMonth = null,
+            encryptedExpiryYear = null,
+            encryptedSecurityCode = null,
+            returnUrl = null,
+            nonce = null,
+            deviceData = null
+        ),
+        sepaConfig = null,
+        payPalConfig = null,
+        threeDSecureConfig = null,
+        personalData = PersonalDataModel(
+            email = "test@test.com",
+            customerIP = "61.294.12.12",
+            firstName = "Max",
+            lastName = "Mustermann",
+            street = "Brienner Str. 12",
+            zip = "80333",
+            city = "Munich",
+            country = "DE",
+            customerReference = "oIXHpTAfEPSleWXT6Khe"
+        ),
+        paymentMethod = PaymentMethod.CC.name,
+        channel = null
+    )
+
+    val paymentRequest = PaymentRequestModel(
+        aliasId = ALIAS_ID,
+        paymentData = PaymentDataRequestModel(300, "EUR", "Book purchase"),
+        purchaseId = "37293728",
+        customerId = "oIXHpTAfEPSleWXT6Khe"
+    )
+
+    fun merchant() = Merchant(
+        id = MERCHANT_ID,
+        defaultCurrency = "EUR",
+        timezone = "Europe/Berlin",
+        pspConfig = objectMapper.writeValueAsString(PspConfigListModel(mutableListOf(adyenConfig)))
+    )
+
+    fun alias(merchant: Merchant) = Alias(
+        id = ALIAS_ID,
+        pspAlias = "sje324andls",
+        extra = objectMapper.writeValueAsString(aliasExtra),
+        psp = PaymentServiceProvider.ADYEN,
+        merchant = merchant
+    )
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.payment.data.Transaction
+import com.mobilabsolutions.payment.data.enum.PaymentMethod
+import com.mobilabsolutions.payment.data.enum.TransactionAction
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.data.repository.MerchantRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRollupRepository
+import com.mobilabsolutions.payment.model.KeyPerformanceModel
+import com.mobilabsolutions.payment.model.response.NotificationsResponseModel
+import com.mobilabsolutions.payment.model.response.PaymentMethodsOverviewResponseModel
+import com.mobilabsolutions.payment.service.HomeService
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.sql.Timestamp
+import java.time.Instant
+import java.time.temporal.ChronoUnit
+import java.util.concurrent.TimeUnit
+
+/**
+ * Aggregates the dashboard figures of the home screen from synthetic hourly transaction rollups and
+ * transactions with notifications, as returned by the repositories for a merchant with the given number of rows
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class HomeServiceBenchmark {
+    @Param("168", "5000")
+    @JvmField
+    var rows: Int = 0
+
+    private lateinit var homeService: HomeService
+
+    @Setup
+    fun setUp() {
+        val merchant = Fixtures.merchant()
+        val now = Instant.now().truncatedTo(ChronoUnit.HOURS)
+        val actions = listOf(TransactionAction.AUTH, TransactionAction.CAPTURE, TransactionAction.REFUND, TransactionAction.CHARGEBACK)
+        val paymentMethods = listOf(PaymentMethod.CC, PaymentMethod.SEPA, PaymentMethod.PAY_PAL)
+
+        val rollups = (0 until rows).map {
+            arrayOf<Any>(Timestamp.from(now.minus((it % (7 * 24)).toLong(), ChronoUnit.HOURS)), actions[it % actions.size].name,
+                paymentMethods[it % paymentMethods.size].name, (it % 20 + 1).toLong(), ((it % 20 + 1) * 300).toLong())
+        }
+        val transactions = (0 until rows).map {
+            Transaction(
+                transactionId = "transaction-$it",
+                amount = 300,
+                currencyId = "EUR",
+                action = if (it % 2 == 0) TransactionAction.REFUND else TransactionAction.CHARGEBACK,
+                status = if (it % 5 == 0) TransactionStatus.FAIL else TransactionStatus.SUCCESS,
+                paymentMethod = paymentMethods[it % paymentMethods.size],
+                notification = true,
+                merchant = merchant
+            ).apply { createdDate = now.minus((it % (7 * 24)).toLong(), ChronoUnit.HOURS) }
+        }
+
+        homeService = HomeService(
+            stub<TransactionRepository>(mapOf("getTransactionsWithNotification" to { _: Array<out Any?> -> transactions })),
+            stub<MerchantRepository>(mapOf("getMerchantById" to { _: Array<out Any?> -> merchant })),
+            stub<TransactionRollupRepository>(mapOf("getSuccessfulTransactionRollups" to { _: Array<out Any?> -> rollups }))
+        )
+    }
+
+    @Benchmark
+    fun getKeyPerformance(): KeyPerformanceModel {
+        return homeService.getKeyPerformance(Fixtures.MERCHANT_ID)
+    }
+
+    @Benchmark
+    fun getPaymentMethodsOverview(): PaymentMethodsOverviewResponseModel {
+        return homeService.getPaymentMethodsOverview(Fixtures.MERCHANT_ID)
+    }
+
+    @Benchmark
+    fun getNotifications(): NotificationsResponseModel {
+        return homeService.getNotifications(Fixtures.MERCHANT_ID)
+    }
+}
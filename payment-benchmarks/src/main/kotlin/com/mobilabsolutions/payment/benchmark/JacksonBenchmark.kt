@@ -0,0 +1,59 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.model.PaymentInfoModel
+import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Writes and reads the JSON stored with every transaction record, the payment information and the PSP response,
+ * with the object mapper the services use
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class JacksonBenchmark {
+    private val objectMapper = Fixtures.objectMapper
+    private val paymentInfo = PaymentInfoModel(Fixtures.aliasExtra, Fixtures.adyenConfig)
+    private val paymentInfoJson = objectMapper.writeValueAsString(paymentInfo)
+    private val pspResponse = PspPaymentResponseModel("8815658961765250", TransactionStatus.SUCCESS, "oIXHpTAfEPSleWXT6Khe", null, null)
+    private val pspResponseJson = objectMapper.writeValueAsString(pspResponse)
+
+    @Benchmark
+    fun writePaymentInfo(): String {
+        return objectMapper.writeValueAsString(paymentInfo)
+    }
+
+    @Benchmark
+    fun readPaymentInfo(): PaymentInfoModel {
+        return objectMapper.readValue(paymentInfoJson, PaymentInfoModel::class.java)
+    }
+
+    @Benchmark
+    fun writePspPaymentResponse(): String {
+        return objectMapper.writeValueAsString(pspResponse)
+    }
+
+    @Benchmark
+    fun readPspPaymentResponse(): PspPaymentResponseModel {
+        return objectMapper.readValue(pspResponseJson, PspPaymentResponseModel::class.java)
+    }
+}
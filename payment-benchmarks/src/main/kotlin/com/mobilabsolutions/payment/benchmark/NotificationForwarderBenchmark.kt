@@ -0,0 +1,112 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.payment.adyen.configuration.AdyenProperties
+import com.mobilabsolutions.payment.adyen.service.AdyenClient
+import com.mobilabsolutions.payment.adyen.service.AdyenPsp
+import com.mobilabsolutions.payment.data.enum.NotificationStatus
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.notifications.data.Notification
+import com.mobilabsolutions.payment.notifications.data.NotificationId
+import com.mobilabsolutions.payment.notifications.data.repository.NotificationRepository
+import com.mobilabsolutions.payment.notifications.service.NotificationClient
+import com.mobilabsolutions.payment.notifications.service.NotificationForwarder
+import com.mobilabsolutions.payment.notifications.service.NotificationService
+import com.mobilabsolutions.payment.notifications.service.PspRegistry
+import com.mobilabsolutions.server.commons.util.RandomStringGenerator
+import com.sun.net.httpserver.HttpServer
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.springframework.http.HttpStatus
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Forwards one batch of Adyen notifications per operation to a local stand-in for payment-ws, which accepts
+ * every batch. Notifications per second are the operations per second multiplied by the batch size.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+open class NotificationForwarderBenchmark {
+    @Param("10", "100")
+    @JvmField
+    var batchSize: Int = 0
+
+    private lateinit var paymentWs: HttpServer
+    private lateinit var adyenClient: AdyenClient
+    private lateinit var notificationForwarder: NotificationForwarder
+
+    @Setup
+    fun setUp() {
+        paymentWs = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0).apply {
+            createContext("/notifications") { exchange ->
+                exchange.requestBody.use { it.readAllBytes() }
+                exchange.sendResponseHeaders(HttpStatus.CREATED.value(), -1)
+                exchange.close()
+            }
+            start()
+        }
+
+        val notifications = (0 until batchSize).map {
+            Notification(
+                notificationId = NotificationId(pspTransactionId = "88156589617652$it", pspEvent = "AUTHORISATION"),
+                status = NotificationStatus.CREATED,
+                psp = PaymentServiceProvider.ADYEN,
+                message = "{\"amount\":{\"value\":300,\"currency\":\"EUR\"},\"pspReference\":\"88156589617652$it\"," +
+                    "\"eventCode\":\"AUTHORISATION\",\"merchantReference\":\"37293728\",\"success\":\"true\"}"
+            )
+        }
+        val claims = AtomicLong()
+        val notificationRepository = stub<NotificationRepository>(mapOf(
+            "findNotificationByPsp" to { _: Array<out Any?> -> if (claims.getAndIncrement() % 2 == 0L) notifications else emptyList<Notification>() }
+        ))
+
+        adyenClient = AdyenClient(AdyenProperties(), Fixtures.objectMapper)
+        val pspRegistry = PspRegistry(listOf(AdyenPsp(adyenClient, AdyenProperties(), RandomStringGenerator(), Fixtures.objectMapper)))
+        pspRegistry.init()
+
+        notificationForwarder = NotificationForwarder(
+            NotificationService(notificationRepository, Fixtures.objectMapper),
+            pspRegistry,
+            NotificationClient(Fixtures.objectMapper, 5000, 30000),
+            "http://${paymentWs.address.hostString}:${paymentWs.address.port}/notifications",
+            "payment-api-key",
+            batchSize,
+            60,
+            10,
+            3600
+        )
+    }
+
+    @Benchmark
+    fun processNotifications() {
+        notificationForwarder.processNotifications(PaymentServiceProvider.ADYEN.name)
+    }
+
+    @TearDown
+    fun tearDown() {
+        paymentWs.stop(0)
+        adyenClient.shutdown()
+    }
+}
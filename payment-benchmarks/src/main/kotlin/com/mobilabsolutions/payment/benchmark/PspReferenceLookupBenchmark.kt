@@ -0,0 +1,108 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import liquibase.Liquibase
+import liquibase.database.DatabaseFactory
+import liquibase.database.jvm.JdbcConnection
+import liquibase.resource.ClassLoaderResourceAccessor
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import org.springframework.data.jpa.repository.Query
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.jdbc.datasource.SingleConnectionDataSource
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+
+/**
+ * Looks up the transaction of an incoming PSP notification by its PSP transaction id, once with the former filter on
+ * the PSP response and once with the query of [TransactionRepository.getByPspReference] on the indexed column.
+ * Operations per second are the notifications per second the lookup allows.
+ *
+ * Runs against the PostgreSQL database given with -Dbenchmark.jdbc.url, -Dbenchmark.jdbc.user and
+ * -Dbenchmark.jdbc.password. The database is migrated with the payment-ws changelog and its transaction records are
+ * replaced with synthetic ones, so use a database that can be discarded, for example one started with
+ * `docker run -p 5432:5432 -e POSTGRES_DB=payment-benchmark -e POSTGRES_PASSWORD=postgres postgres:9.6`.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+open class PspReferenceLookupBenchmark {
+    companion object {
+        private const val RESPONSE_QUERY = "SELECT * FROM transaction_record tr WHERE CAST(tr.psp_response AS json)#>>'{pspTransactionId}' = :pspTransactionId " +
+            "ORDER BY created_date DESC LIMIT 1"
+    }
+
+    @Param("1000000", "10000000")
+    @JvmField
+    var rows: Int = 0
+
+    private val columnQuery = TransactionRepository::class.java.getMethod("getByPspReference", String::class.java).getAnnotation(Query::class.java).value
+    private lateinit var dataSource: SingleConnectionDataSource
+    private lateinit var jdbcTemplate: NamedParameterJdbcTemplate
+
+    @Setup
+    fun setUp() {
+        dataSource = SingleConnectionDataSource(
+            System.getProperty("benchmark.jdbc.url", "jdbc:postgresql://localhost:5432/payment-benchmark"),
+            System.getProperty("benchmark.jdbc.user", "postgres"),
+            System.getProperty("benchmark.jdbc.password", "postgres"),
+            true
+        )
+        val database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(JdbcConnection(dataSource.connection))
+        Liquibase("db/changelog/changelog-dev.xml", ClassLoaderResourceAccessor(), database).update("")
+
+        // Triggers are disabled while seeding, so the records are not announced as live data
+        val template = JdbcTemplate(dataSource)
+        template.execute("TRUNCATE transaction_record CASCADE")
+        template.execute("INSERT INTO merchant (id, created_date, last_modified_date) VALUES ('${Fixtures.MERCHANT_ID}', timezone('UTC', now()), timezone('UTC', now())) " +
+            "ON CONFLICT (id) DO NOTHING")
+        template.execute("ALTER TABLE transaction_record DISABLE TRIGGER USER")
+        template.execute("INSERT INTO transaction_record (created_date, last_modified_date, merchant_id, transaction_id, psp_transaction_id, " +
+            "action, status, payment_method, amount, currency_id, psp_response) " +
+            "SELECT TIMESTAMP '2019-01-01' + i * INTERVAL '1 second', timezone('UTC', now()), '${Fixtures.MERCHANT_ID}', 'transaction-' || i, 'psp-' || i, " +
+            "'AUTH', 'SUCCESS', 'CC', 300, 'EUR', '{\"pspTransactionId\":\"psp-' || i || '\",\"status\":\"SUCCESS\"}' " +
+            "FROM generate_series(1, $rows) i")
+        template.execute("ALTER TABLE transaction_record ENABLE TRIGGER USER")
+        template.execute("ANALYZE transaction_record")
+        jdbcTemplate = NamedParameterJdbcTemplate(dataSource)
+    }
+
+    @Benchmark
+    fun responseLookup(): List<Map<String, Any?>> {
+        return lookup(RESPONSE_QUERY)
+    }
+
+    @Benchmark
+    fun columnLookup(): List<Map<String, Any?>> {
+        return lookup(columnQuery)
+    }
+
+    @TearDown
+    fun tearDown() {
+        dataSource.destroy()
+    }
+
+    private fun lookup(query: String): List<Map<String, Any?>> {
+        return jdbcTemplate.queryForList(query, mapOf("pspTransactionId" to "psp-${ThreadLocalRandom.current().nextInt(1, rows + 1)}"))
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.server.commons.util.RequestHashing
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Hashes a payment request with each supported request hashing algorithm
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class RequestHashingBenchmark {
+    @Param("md5", "sha256", "murmur3_128")
+    lateinit var algorithm: String
+
+    private lateinit var requestHashing: RequestHashing
+
+    @Setup
+    fun setUp() {
+        requestHashing = RequestHashing(Fixtures.objectMapper, algorithm)
+    }
+
+    @Benchmark
+    fun hashRequest(): String {
+        return requestHashing.hashRequest(Fixtures.paymentRequest)
+    }
+}
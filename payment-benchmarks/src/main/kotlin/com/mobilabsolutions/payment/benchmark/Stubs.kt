@@ -0,0 +1,44 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import java.lang.reflect.Proxy
+
+/**
+ * Creates an in-memory implementation of a repository interface. Methods with an answer return its result,
+ * all other methods do nothing and return a default value, so benchmarks measure the service code only.
+ *
+ * @param answers answers by method name
+ * @return repository stub
+ */
+inline fun <reified T> stub(answers: Map<String, (Array<out Any?>) -> Any?> = emptyMap()): T {
+    return Proxy.newProxyInstance(T::class.java.classLoader, arrayOf(T::class.java)) { proxy, method, args ->
+        val arguments = args ?: emptyArray()
+        when (method.name) {
+            in answers -> answers.getValue(method.name).invoke(arguments)
+            "equals" -> proxy === arguments[0]
+            "hashCode" -> System.identityHashCode(proxy)
+            "toString" -> "${T::class.java.simpleName} stub"
+            else -> defaultValue(method.returnType)
+        }
+    } as T
+}
+
+/**
+ * Returns the value an unanswered stub method returns for the given return type
+ *
+ * @param type return type
+ * @return default value
+ */
+fun defaultValue(type: Class<*>): Any? {
+    return when (type) {
+        Boolean::class.javaPrimitiveType -> false
+        Int::class.javaPrimitiveType -> 0
+        Long::class.javaPrimitiveType -> 0L
+        Double::class.javaPrimitiveType -> 0.0
+        List::class.java, Collection::class.java, Iterable::class.java -> emptyList<Any>()
+        else -> null
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.payment.model.response.PaymentResponseModel
+import com.mobilabsolutions.payment.service.TransactionService
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Authorizes a credit card payment end-to-end through the transaction service: API key and alias lookup,
+ * request hashing, idempotent key reservation, the resilient PSP call and completion of the pending transaction.
+ * Repositories are in-memory stubs and the PSP answers after the configured latency, so the results show the
+ * service overhead per payment. Run with -t to see how PSP latency affects concurrent payments.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+open class TransactionAuthorizeBenchmark {
+    @Param("0", "50")
+    @JvmField
+    var pspLatencyMillis: Long = 0
+
+    private lateinit var transactionService: TransactionService
+    private val idempotentKeys = AtomicLong()
+
+    @Setup
+    fun setUp() {
+        transactionService = TransactionServiceFactory.create(pspLatencyMillis)
+    }
+
+    @Benchmark
+    fun authorize(): PaymentResponseModel {
+        return transactionService.authorize(Fixtures.SECRET_KEY, "idempotent-key-${idempotentKeys.incrementAndGet()}", true, Fixtures.paymentRequest)
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.payment.model.response.PaymentResponseModel
+import com.mobilabsolutions.payment.service.TransactionService
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Threads
+import org.openjdk.jmh.annotations.Warmup
+import org.springframework.transaction.CannotCreateTransactionException
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.TransactionDefinition
+import org.springframework.transaction.TransactionStatus
+import org.springframework.transaction.support.SimpleTransactionStatus
+import org.springframework.transaction.support.TransactionTemplate
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Authorizes payments from more threads than there are database connections, with transactions that each hold one
+ * of a fixed number of connections like a connection pool of that size. With holdConnection the whole authorization
+ * runs in one transaction, like it did before the PSP call was moved out of it, so a connection is held while the PSP
+ * answers. Without it only recording the pending transaction and applying the PSP response hold a connection. The
+ * payments per second show the throughput a pool of the given size sustains against a PSP with the given latency.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(64)
+@Fork(1)
+open class TransactionPoolBenchmark {
+    companion object {
+        private const val CONNECTION_TIMEOUT_SECONDS = 30L
+    }
+
+    @Param("10")
+    @JvmField
+    var poolSize: Int = 0
+
+    @Param("50")
+    @JvmField
+    var pspLatencyMillis: Long = 0
+
+    @Param("true", "false")
+    @JvmField
+    var holdConnection: Boolean = false
+
+    private lateinit var transactionService: TransactionService
+    private lateinit var transactionTemplate: TransactionTemplate
+    private val idempotentKeys = AtomicLong()
+
+    @Setup
+    fun setUp() {
+        val transactionManager = PooledTransactionManager(poolSize)
+        transactionService = TransactionServiceFactory.create(pspLatencyMillis, transactionManager)
+        transactionTemplate = TransactionTemplate(transactionManager)
+    }
+
+    @Benchmark
+    fun authorize(): PaymentResponseModel {
+        val idempotentKey = "idempotent-key-${idempotentKeys.incrementAndGet()}"
+        return if (holdConnection) {
+            transactionTemplate.execute { transactionService.authorize(Fixtures.SECRET_KEY, idempotentKey, true, Fixtures.paymentRequest) }!!
+        } else {
+            transactionService.authorize(Fixtures.SECRET_KEY, idempotentKey, true, Fixtures.paymentRequest)
+        }
+    }
+
+    /**
+     * Transaction manager that holds one of a fixed number of connections for every outermost transaction and waits
+     * for a free one like a connection pool does. Inner transactions join the outermost transaction of their thread.
+     */
+    private class PooledTransactionManager(poolSize: Int) : PlatformTransactionManager {
+        private val connections = Semaphore(poolSize)
+        private val depth = ThreadLocal.withInitial { 0 }
+
+        override fun getTransaction(definition: TransactionDefinition?): TransactionStatus {
+            val outermost = depth.get() == 0
+            if (outermost && !connections.tryAcquire(CONNECTION_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw CannotCreateTransactionException("Connection is not available, request timed out after $CONNECTION_TIMEOUT_SECONDS seconds")
+            }
+            depth.set(depth.get() + 1)
+            return SimpleTransactionStatus(outermost)
+        }
+
+        override fun commit(status: TransactionStatus) = release()
+
+        override fun rollback(status: TransactionStatus) = release()
+
+        private fun release() {
+            depth.set(depth.get() - 1)
+            if (depth.get() == 0) connections.release()
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.benchmark
+
+import com.mobilabsolutions.payment.data.Transaction
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.data.repository.AliasRepository
+import com.mobilabsolutions.payment.data.repository.IdempotencyReservationRepository
+import com.mobilabsolutions.payment.data.repository.MerchantApiKeyRepository
+import com.mobilabsolutions.payment.data.repository.MerchantRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRollupRepository
+import com.mobilabsolutions.payment.data.repository.TransactionStateRepository
+import com.mobilabsolutions.payment.model.PspAliasConfigModel
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.payment.model.PspNotificationModel
+import com.mobilabsolutions.payment.model.request.PspCaptureRequestModel
+import com.mobilabsolutions.payment.model.request.PspDeleteAliasRequestModel
+import com.mobilabsolutions.payment.model.request.PspPaymentRequestModel
+import com.mobilabsolutions.payment.model.request.PspRefundRequestModel
+import com.mobilabsolutions.payment.model.request.PspRegisterAliasRequestModel
+import com.mobilabsolutions.payment.model.request.PspReversalRequestModel
+import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
+import com.mobilabsolutions.payment.model.response.PspRegisterAliasResponseModel
+import com.mobilabsolutions.payment.service.PendingTransactionService
+import com.mobilabsolutions.payment.service.Psp
+import com.mobilabsolutions.payment.service.PspConfigCache
+import com.mobilabsolutions.payment.service.PspRegistry
+import com.mobilabsolutions.payment.service.TransactionService
+import com.mobilabsolutions.payment.service.TransactionStateService
+import com.mobilabsolutions.server.commons.util.RequestHashing
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.springframework.aop.framework.ProxyFactory
+import org.springframework.transaction.PlatformTransactionManager
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource
+import org.springframework.transaction.interceptor.TransactionInterceptor
+import java.time.Instant
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Builds the transaction service over in-memory repository stubs and a PSP that approves every payment after a
+ * fixed latency, so the benchmarks measure the service code only
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+object TransactionServiceFactory {
+
+    /**
+     * Creates the transaction service. When a transaction manager is given, the transactional methods of the
+     * pending transaction service run in its transactions, like they do behind the Spring proxy.
+     *
+     * @param pspLatencyMillis latency of the PSP
+     * @param transactionManager transaction manager, null to run without transactions
+     * @return transaction service
+     */
+    fun create(pspLatencyMillis: Long, transactionManager: PlatformTransactionManager? = null): TransactionService {
+        val objectMapper = Fixtures.objectMapper
+        val merchant = Fixtures.merchant()
+        val alias = Fixtures.alias(merchant)
+        val transactionIds = AtomicLong()
+        // The service reads the generated id from the entity it saved, like Hibernate the stub assigns it to the id field
+        val transactionIdField = Transaction::class.java.getDeclaredField("id").apply { isAccessible = true }
+
+        val transactionRepository = stub<TransactionRepository>(mapOf(
+            "save" to { args: Array<out Any?> ->
+                (args[0] as Transaction).apply {
+                    transactionIdField.set(this, transactionIds.incrementAndGet())
+                    createdDate = Instant.now()
+                }
+            },
+            "completePendingTransaction" to { _: Array<out Any?> -> 1 }
+        ))
+        val idempotencyReservationRepository = stub<IdempotencyReservationRepository>(mapOf(
+            "reserveIdempotentKey" to { _: Array<out Any?> -> 1 }
+        ))
+        val transactionStateService = TransactionStateService(stub<TransactionStateRepository>(), stub<TransactionRollupRepository>())
+        val pspRegistry = PspRegistry(listOf(FakePsp(pspLatencyMillis)), SimpleMeterRegistry(), 20, 100, 20, 10, 50, 10000, 80, 30000)
+        pspRegistry.init()
+
+        val pendingTransactionService = PendingTransactionService(transactionRepository, idempotencyReservationRepository,
+            transactionStateService, objectMapper, 300, 100, 2000)
+
+        return TransactionService(
+            transactionRepository,
+            stub<MerchantApiKeyRepository>(mapOf("getActiveMerchantId" to { _: Array<out Any?> -> merchant.id })),
+            stub<AliasRepository>(mapOf("getFirstByIdAndActive" to { _: Array<out Any?> -> alias })),
+            stub<MerchantRepository>(mapOf("getMerchantById" to { _: Array<out Any?> -> merchant })),
+            pspRegistry,
+            RequestHashing(objectMapper, "md5"),
+            objectMapper,
+            PspConfigCache(objectMapper),
+            transactionStateService,
+            if (transactionManager == null) pendingTransactionService else transactional(pendingTransactionService, transactionManager)
+        )
+    }
+
+    private fun transactional(pendingTransactionService: PendingTransactionService, transactionManager: PlatformTransactionManager): PendingTransactionService {
+        return ProxyFactory(pendingTransactionService).apply {
+            isProxyTargetClass = true
+            addAdvice(TransactionInterceptor(transactionManager, AnnotationTransactionAttributeSource()))
+        }.proxy as PendingTransactionService
+    }
+
+    /**
+     * PSP that approves every payment after a fixed latency
+     */
+    private class FakePsp(private val latencyMillis: Long) : Psp {
+        override fun getProvider() = PaymentServiceProvider.ADYEN
+
+        override fun authorize(pspPaymentRequestModel: PspPaymentRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel {
+            if (latencyMillis > 0) Thread.sleep(latencyMillis)
+            return PspPaymentResponseModel("8815658961765250", TransactionStatus.SUCCESS, null, null, null)
+        }
+
+        override fun calculatePspConfig(pspConfigModel: PspConfigModel?, pspTestMode: Boolean?): PspAliasConfigModel? = null
+
+        override fun registerAlias(pspRegisterAliasRequestModel: PspRegisterAliasRequestModel, pspTestMode: Boolean?): PspRegisterAliasResponseModel? =
+            throw UnsupportedOperationException()
+
+        override fun verify3DSAlias(pspRegisterAliasRequestModel: PspRegisterAliasRequestModel, pspTestMode: Boolean?): PspRegisterAliasResponseModel? =
+            throw UnsupportedOperationException()
+
+        override fun preauthorize(pspPaymentRequestModel: PspPaymentRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+            throw UnsupportedOperationException()
+
+        override fun capture(pspCaptureRequestModel: PspCaptureRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+            throw UnsupportedOperationException()
+
+        override fun reverse(pspReversalRequestModel: PspReversalRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+            throw UnsupportedOperationException()
+
+        override fun refund(pspRefundRequestModel: PspRefundRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+            throw UnsupportedOperationException()
+
+        override fun deleteAlias(pspDeleteAliasRequestModel: PspDeleteAliasRequestModel, pspTestMode: Boolean?): Unit =
+            throw UnsupportedOperationException()
+
+        override fun getPspNotification(pspTransactionId: String?, pspEvent: String?, pspMessage: String?): PspNotificationModel =
+            throw UnsupportedOperationException()
+    }
+}
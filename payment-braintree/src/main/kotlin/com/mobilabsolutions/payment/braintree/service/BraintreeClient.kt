@@ -11,7 +11,10 @@ import com.braintreegateway.PaymentMethodRequest
 import com.braintreegateway.Result
 import com.braintreegateway.Transaction
 import com.braintreegateway.TransactionRequest
+import com.braintreegateway.exceptions.AuthenticationException
+import com.braintreegateway.exceptions.AuthorizationException
 import com.braintreegateway.exceptions.BraintreeException
+import com.braintreegateway.exceptions.ConfigurationException
 import com.braintreegateway.exceptions.NotFoundException
 import com.mobilabsolutions.payment.braintree.data.enum.BraintreeMode
 import com.mobilabsolutions.payment.braintree.model.request.BraintreeCaptureRequestModel
@@ -25,6 +28,7 @@ import com.mobilabsolutions.payment.data.enum.PaymentMethod
 import com.mobilabsolutions.payment.model.PspConfigModel
 import com.mobilabsolutions.server.commons.exception.ApiError
 import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import com.mobilabsolutions.server.commons.exception.ApiException
 import mu.KLogging
 import org.springframework.stereotype.Service
 import java.math.BigDecimal
@@ -33,7 +37,9 @@ import java.math.BigDecimal
  * @author <a href="mailto:jovana@mobilabsolutions.com">Jovana Veskovic</a>
  */
 @Service
-class BraintreeClient {
+class BraintreeClient(
+    private val braintreeGatewayCache: BraintreeGatewayCache
+) {
 
     companion object : KLogging()
 
@@ -49,8 +55,7 @@ class BraintreeClient {
             val braintreeGateway = configureBraintreeGateway(pspConfigModel, mode)
             return braintreeGateway.clientToken().generate()
         } catch (exception: BraintreeException) {
-            logger.error { exception.message }
-            throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Unexpected error during Braintree client token generation").asException()
+            throw pspError(exception, "Unexpected error during Braintree client token generation")
         }
     }
 
@@ -87,8 +92,7 @@ class BraintreeClient {
                 if (paymentMethod == PaymentMethod.PAY_PAL.name) (paymentMethodResponse.target as PayPalAccount).billingAgreementId else null
             )
         } catch (exception: BraintreeException) {
-            logger.error { exception.message }
-            throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Unexpected error during registration").asException()
+            throw pspError(exception, "Unexpected error during registration")
         }
     }
 
@@ -107,8 +111,7 @@ class BraintreeClient {
             logger.error { exception.message }
             throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Alias doesn't exist at Braintree").asException()
         } catch (exception: BraintreeException) {
-            logger.error { exception.message }
-            throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Error during alias deletion").asException()
+            throw pspError(exception, "Error during alias deletion")
         }
     }
 
@@ -133,8 +136,7 @@ class BraintreeClient {
 
             return parseBraintreeResult(result)
         } catch (exception: BraintreeException) {
-            logger.error { exception.message }
-            throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Unexpected error during preauthorization").asException()
+            throw pspError(exception, "Unexpected error during preauthorization")
         }
     }
 
@@ -160,8 +162,7 @@ class BraintreeClient {
 
             return parseBraintreeResult(result)
         } catch (exception: BraintreeException) {
-            logger.error { exception.message }
-            throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Unexpected error during authorization").asException()
+            throw pspError(exception, "Unexpected error during authorization")
         }
     }
 
@@ -183,8 +184,7 @@ class BraintreeClient {
 
             return parseBraintreeResult(result)
         } catch (exception: BraintreeException) {
-            logger.error { exception.message }
-            throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Unexpected error during refund").asException()
+            throw pspError(exception, "Unexpected error during refund")
         }
     }
 
@@ -204,8 +204,7 @@ class BraintreeClient {
             )
             return parseBraintreeResult(result)
         } catch (exception: BraintreeException) {
-            logger.error { exception.message }
-            throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Unexpected error during reverse").asException()
+            throw pspError(exception, "Unexpected error during reverse")
         }
     }
 
@@ -224,13 +223,12 @@ class BraintreeClient {
 
             return parseBraintreeResult(result)
         } catch (exception: BraintreeException) {
-            logger.error { exception.message }
-            throw ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Unexpected error during capture").asException()
+            throw pspError(exception, "Unexpected error during capture")
         }
     }
 
     /**
-     * Creats a Braintree gateway based on the mode and Braintree PSP configuration
+     * Returns the cached Braintree gateway for the mode and Braintree PSP configuration
      *
      * @param pspConfigModel Braintree configuration
      * @param mode sandbox or production mode
@@ -238,14 +236,14 @@ class BraintreeClient {
      */
     private fun configureBraintreeGateway(pspConfigModel: PspConfigModel, mode: String): BraintreeGateway {
         if (mode == BraintreeMode.PRODUCTION.mode)
-            return BraintreeGateway(
+            return braintreeGatewayCache.getGateway(
                 mode,
                 pspConfigModel.merchantId,
                 pspConfigModel.publicKey,
                 pspConfigModel.privateKey
             )
 
-        return BraintreeGateway(
+        return braintreeGatewayCache.getGateway(
             mode,
             pspConfigModel.sandboxMerchantId,
             pspConfigModel.sandboxPublicKey,
@@ -286,6 +284,24 @@ class BraintreeClient {
         }
     }
 
+    /**
+     * Maps a Braintree exception to an API error. Rejected credentials, configurations and missing resources are
+     * PSP module errors, anything else, such as a timeout or an unavailable gateway, leaves the outcome of the
+     * operation unknown and is reported as a PSP communication error.
+     *
+     * @param exception Braintree exception
+     * @param message error message
+     * @return API exception
+     */
+    private fun pspError(exception: BraintreeException, message: String): ApiException {
+        logger.error { exception.message }
+        val errorCode = when (exception) {
+            is AuthenticationException, is AuthorizationException, is ConfigurationException, is NotFoundException -> ApiErrorCode.PSP_MODULE_ERROR
+            else -> ApiErrorCode.PSP_COMMUNICATION_ERROR
+        }
+        return ApiError.ofErrorCode(errorCode, message).asException()
+    }
+
     private fun isEmptyOrNull(value: String?): Boolean {
         if (value != null && value.isNotEmpty())
             return false
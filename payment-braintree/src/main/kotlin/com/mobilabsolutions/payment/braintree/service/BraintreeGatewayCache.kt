@@ -0,0 +1,83 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.braintree.service
+
+import com.braintreegateway.BraintreeGateway
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import io.micrometer.core.instrument.Counter
+import io.micrometer.core.instrument.MeterRegistry
+import mu.KLogging
+import org.springframework.stereotype.Component
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps Braintree gateways per mode, merchant id and public key, so that their HTTP configuration is reused
+ * across requests. A cached gateway is replaced as soon as the private key of the given configuration differs,
+ * and gateways of configurations that are no longer used expire.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Component
+class BraintreeGatewayCache(meterRegistry: MeterRegistry) {
+
+    companion object : KLogging() {
+        private const val MAX_GATEWAYS = 10000L
+        private const val EXPIRE_AFTER_ACCESS_HOURS = 1L
+        private const val GATEWAY_METRIC = "braintree.gateway.requests"
+        private const val CACHED_GATEWAYS_METRIC = "braintree.gateway.cached"
+    }
+
+    private val gateways: Cache<GatewayKey, CachedGateway> = Caffeine.newBuilder()
+        .maximumSize(MAX_GATEWAYS)
+        .expireAfterAccess(EXPIRE_AFTER_ACCESS_HOURS, TimeUnit.HOURS)
+        .build()
+
+    private val createdGateways = Counter.builder(GATEWAY_METRIC).tag("result", "created").register(meterRegistry)
+    private val reusedGateways = Counter.builder(GATEWAY_METRIC).tag("result", "reused").register(meterRegistry)
+
+    init {
+        meterRegistry.gauge(CACHED_GATEWAYS_METRIC, gateways) { it.estimatedSize().toDouble() }
+    }
+
+    /**
+     * Returns the gateway for the given credentials, creating it if it is not cached or its private key changed.
+     * Cached gateways are read without locking, the cache entry is only computed on a miss or a changed key.
+     *
+     * @param mode sandbox or production mode
+     * @param merchantId Braintree merchant id
+     * @param publicKey Braintree public key
+     * @param privateKey Braintree private key
+     * @return Braintree gateway
+     */
+    fun getGateway(mode: String, merchantId: String?, publicKey: String?, privateKey: String?): BraintreeGateway {
+        val key = GatewayKey(mode, merchantId, publicKey)
+        gateways.getIfPresent(key)?.takeIf { it.privateKey == privateKey }?.let {
+            reusedGateways.increment()
+            return it.gateway
+        }
+
+        var created = false
+        val cached = gateways.asMap().compute(key) { _, cached ->
+            if (cached != null && cached.privateKey == privateKey) {
+                cached
+            } else {
+                created = true
+                CachedGateway(privateKey, BraintreeGateway(mode, merchantId, publicKey, privateKey))
+            }
+        }
+        if (created) {
+            logger.info("Created Braintree gateway for merchant {} in {} mode", merchantId, mode)
+            createdGateways.increment()
+        } else {
+            reusedGateways.increment()
+        }
+        return cached!!.gateway
+    }
+
+    private data class GatewayKey(val mode: String, val merchantId: String?, val publicKey: String?)
+
+    private class CachedGateway(val privateKey: String?, val gateway: BraintreeGateway)
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.braintree.service
+
+import com.braintreegateway.BraintreeGateway
+import com.braintreegateway.exceptions.AuthenticationException
+import com.braintreegateway.exceptions.ServerException
+import com.braintreegateway.exceptions.UnexpectedException
+import com.mobilabsolutions.payment.braintree.data.enum.BraintreeMode
+import com.mobilabsolutions.payment.braintree.model.request.BraintreeCaptureRequestModel
+import com.mobilabsolutions.payment.braintree.model.request.BraintreePaymentRequestModel
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import com.mobilabsolutions.server.commons.exception.ApiException
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.Mockito
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class BraintreeClientTest {
+    private val mode = BraintreeMode.SANDBOX.mode
+    private val pspConfig = PspConfigModel(PaymentServiceProvider.BRAINTREE.toString(), null, null, null, null, "sandbox merchant id",
+        "sandbox public key", "sandbox private key", null, null, true, null, null, null, null, null, null)
+    private val paymentRequest = BraintreePaymentRequestModel("1000", "token", "device data")
+
+    private lateinit var braintreeGateway: BraintreeGateway
+    private lateinit var braintreeClient: BraintreeClient
+
+    @BeforeEach
+    fun beforeEach() {
+        braintreeGateway = Mockito.mock(BraintreeGateway::class.java, Mockito.RETURNS_DEEP_STUBS)
+        val braintreeGatewayCache = Mockito.mock(BraintreeGatewayCache::class.java)
+        Mockito.`when`(braintreeGatewayCache.getGateway(Mockito.anyString(), Mockito.any(), Mockito.any(), Mockito.any()))
+            .thenReturn(braintreeGateway)
+        braintreeClient = BraintreeClient(braintreeGatewayCache)
+    }
+
+    @Test
+    fun `report timeouts as PSP communication errors`() {
+        Mockito.`when`(braintreeGateway.transaction().sale(Mockito.any())).thenThrow(UnexpectedException("Read timed out"))
+
+        val exception = Assertions.assertThrows(ApiException::class.java) { braintreeClient.authorization(paymentRequest, pspConfig, mode) }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_COMMUNICATION_ERROR, exception.errorCode())
+    }
+
+    @Test
+    fun `report unavailable gateway as PSP communication error`() {
+        Mockito.`when`(braintreeGateway.transaction().submitForSettlement(Mockito.anyString())).thenThrow(ServerException())
+
+        val exception = Assertions.assertThrows(ApiException::class.java) {
+            braintreeClient.capture(BraintreeCaptureRequestModel("psp transaction id"), pspConfig, mode)
+        }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_COMMUNICATION_ERROR, exception.errorCode())
+    }
+
+    @Test
+    fun `report rejected credentials as PSP module error`() {
+        Mockito.`when`(braintreeGateway.transaction().sale(Mockito.any())).thenThrow(AuthenticationException())
+
+        val exception = Assertions.assertThrows(ApiException::class.java) { braintreeClient.authorization(paymentRequest, pspConfig, mode) }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_MODULE_ERROR, exception.errorCode())
+    }
+}
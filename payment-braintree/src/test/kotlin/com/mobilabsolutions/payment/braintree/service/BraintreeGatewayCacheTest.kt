@@ -0,0 +1,52 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.braintree.service
+
+import com.mobilabsolutions.payment.braintree.data.enum.BraintreeMode
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class BraintreeGatewayCacheTest {
+    private val mode = BraintreeMode.SANDBOX.mode
+    private val merchantId = "some merchant id"
+    private val publicKey = "some public key"
+    private val privateKey = "some private key"
+
+    @Test
+    fun `reuse gateway for same credentials`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val braintreeGatewayCache = BraintreeGatewayCache(meterRegistry)
+
+        val gateway = braintreeGatewayCache.getGateway(mode, merchantId, publicKey, privateKey)
+
+        Assertions.assertSame(gateway, braintreeGatewayCache.getGateway(mode, merchantId, publicKey, privateKey))
+        Assertions.assertEquals(1.0, meterRegistry.get("braintree.gateway.requests").tag("result", "created").counter().count())
+        Assertions.assertEquals(1.0, meterRegistry.get("braintree.gateway.requests").tag("result", "reused").counter().count())
+    }
+
+    @Test
+    fun `create new gateway for changed private key`() {
+        val braintreeGatewayCache = BraintreeGatewayCache(SimpleMeterRegistry())
+
+        val gateway = braintreeGatewayCache.getGateway(mode, merchantId, publicKey, privateKey)
+
+        Assertions.assertNotSame(gateway, braintreeGatewayCache.getGateway(mode, merchantId, publicKey, "other private key"))
+    }
+
+    @Test
+    fun `create separate gateways for different merchants`() {
+        val braintreeGatewayCache = BraintreeGatewayCache(SimpleMeterRegistry())
+
+        val gateway = braintreeGatewayCache.getGateway(mode, merchantId, publicKey, privateKey)
+
+        Assertions.assertNotSame(gateway, braintreeGatewayCache.getGateway(mode, "other merchant id", publicKey, privateKey))
+    }
+}
@@ -26,4 +26,10 @@ data class BsPayoneCaptureRequestModel(
     @ApiModelProperty(value = "Currency", example = "EUR")
     @field:NotNull
     val currency: String?
-)
+) : BsPayoneRequest {
+    override fun writeTo(form: BsPayoneForm) {
+        form.add("txid", pspTransactionId)
+            .add("amount", amount)
+            .add("currency", currency)
+    }
+}
@@ -24,4 +24,10 @@ data class BsPayoneDeleteAliasRequestModel(
     @ApiModelProperty(value = "Whether the bank account data should be deleted", example = "no")
     @JsonProperty(value = "delete_bankaccountdata")
     private val deleteBankAccountData: String?
-)
+) : BsPayoneRequest {
+    override fun writeTo(form: BsPayoneForm) {
+        form.add("customerid", customerId)
+            .add("delete_carddata", deleteCardData)
+            .add("delete_bankaccountdata", deleteBankAccountData)
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.bspayone.model.request
+
+import java.net.URLEncoder
+import java.nio.charset.StandardCharsets
+
+/**
+ * URL encoded BS Payone form body. Parameter names are plain ASCII and written as they are, only values are
+ * encoded. Parameters without a value are left out.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class BsPayoneForm(capacity: Int = 256) {
+    private val body = StringBuilder(capacity)
+
+    fun add(name: String, value: Any?): BsPayoneForm {
+        if (value == null) return this
+        if (body.isNotEmpty()) body.append('&')
+        body.append(name).append('=').append(URLEncoder.encode(value.toString(), StandardCharsets.UTF_8))
+        return this
+    }
+
+    /**
+     * Appends an already encoded block of parameters
+     *
+     * @param encoded encoded parameters
+     * @return form
+     */
+    fun addEncoded(encoded: String): BsPayoneForm {
+        if (encoded.isEmpty()) return this
+        if (body.isNotEmpty()) body.append('&')
+        body.append(encoded)
+        return this
+    }
+
+    override fun toString() = body.toString()
+}
@@ -63,4 +63,19 @@ data class BsPayonePaymentRequestModel(
 
     @ApiModelProperty(value = "Bank Identifier Code", example = "TESTTEST")
     val bic: String?
-)
+) : BsPayoneRequest {
+    override fun writeTo(form: BsPayoneForm) {
+        form.add("aid", accountId)
+            .add("clearingtype", clearingType)
+            .add("reference", reference)
+            .add("amount", amount)
+            .add("currency", currency)
+            .add("customerid", customerId)
+            .add("lastname", lastName)
+            .add("country", country)
+            .add("city", city)
+            .add("pseudocardpan", pspAlias)
+            .add("iban", iban)
+            .add("bic", bic)
+    }
+}
@@ -31,4 +31,11 @@ data class BsPayoneRefundRequestModel(
     @ApiModelProperty(value = "Currency", example = "EUR")
     @field:NotNull
     val currency: String?
-)
+) : BsPayoneRequest {
+    override fun writeTo(form: BsPayoneForm) {
+        form.add("txid", pspTransactionId)
+            .add("sequencenumber", sequenceNumber)
+            .add("amount", amount)
+            .add("currency", currency)
+    }
+}
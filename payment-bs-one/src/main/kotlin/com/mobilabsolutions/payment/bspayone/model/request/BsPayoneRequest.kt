@@ -0,0 +1,18 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.bspayone.model.request
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+interface BsPayoneRequest {
+
+    /**
+     * Writes the request parameters to the BS Payone form
+     *
+     * @param form BS Payone form
+     */
+    fun writeTo(form: BsPayoneForm)
+}
@@ -4,23 +4,30 @@
 
 package com.mobilabsolutions.payment.bspayone.service
 
-import com.fasterxml.jackson.core.type.TypeReference
-import com.fasterxml.jackson.databind.ObjectMapper
-import com.google.common.collect.Maps
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
 import com.mobilabsolutions.payment.bspayone.configuration.BsPayoneProperties
 import com.mobilabsolutions.payment.bspayone.data.enum.BsPayoneRequestType
+import com.mobilabsolutions.payment.bspayone.data.enum.BsPayoneResponseStatus
 import com.mobilabsolutions.payment.bspayone.model.request.BsPayoneCaptureRequestModel
 import com.mobilabsolutions.payment.bspayone.model.request.BsPayoneDeleteAliasRequestModel
-import com.mobilabsolutions.payment.bspayone.model.response.BsPayoneDeleteAliasResponseModel
+import com.mobilabsolutions.payment.bspayone.model.request.BsPayoneForm
 import com.mobilabsolutions.payment.bspayone.model.request.BsPayonePaymentRequestModel
-import com.mobilabsolutions.payment.bspayone.model.response.BsPayonePaymentResponseModel
 import com.mobilabsolutions.payment.bspayone.model.request.BsPayoneRefundRequestModel
-import com.mobilabsolutions.payment.bspayone.model.request.BsPayoneStandardParametersModel
+import com.mobilabsolutions.payment.bspayone.model.request.BsPayoneRequest
+import com.mobilabsolutions.payment.bspayone.model.response.BsPayoneDeleteAliasResponseModel
+import com.mobilabsolutions.payment.bspayone.model.response.BsPayonePaymentResponseModel
 import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.server.commons.exception.ApiError
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
+import org.springframework.http.MediaType
 import org.springframework.stereotype.Service
-import org.springframework.util.LinkedMultiValueMap
-import org.springframework.util.MultiValueMap
+import org.springframework.web.client.HttpClientErrorException
+import org.springframework.web.client.RestClientException
 import org.springframework.web.client.RestTemplate
+import java.util.concurrent.TimeUnit
 
 /**
  * @author <a href="mailto:jovana@mobilabsolutions.com">Jovana Veskovic</a>
@@ -28,10 +35,19 @@ import org.springframework.web.client.RestTemplate
 @Service
 class BsPayoneClient(
     private val restTemplate: RestTemplate,
-    private val jsonMapper: ObjectMapper,
     private val bsPayoneProperties: BsPayoneProperties,
     private val bsPayoneHashingService: BsPayoneHashingService
 ) {
+    companion object {
+        private const val MAX_STANDARD_PARAMETERS = 10000L
+        private const val EXPIRE_AFTER_ACCESS_HOURS = 1L
+    }
+
+    private val standardParameters: Cache<MerchantPortal, CachedStandardParameters> = Caffeine.newBuilder()
+        .maximumSize(MAX_STANDARD_PARAMETERS)
+        .expireAfterAccess(EXPIRE_AFTER_ACCESS_HOURS, TimeUnit.HOURS)
+        .build()
+    private val formHeaders = HttpHeaders().apply { contentType = MediaType.APPLICATION_FORM_URLENCODED }
 
     /**
      * Sends a preauthorization request to BS Payone
@@ -43,8 +59,7 @@ class BsPayoneClient(
      */
     fun preauthorization(paymentRequest: BsPayonePaymentRequestModel, pspConfigModel: PspConfigModel, mode: String): BsPayonePaymentResponseModel {
         val request = createStandardRequest(paymentRequest, pspConfigModel, BsPayoneRequestType.PREAUTHORIZATION.type, mode)
-        val response = restTemplate.postForEntity(bsPayoneProperties.baseUrl, request, String::class.java)
-        return convertToResponse(response.body!!, BsPayonePaymentResponseModel::class.java)
+        return toPaymentResponse(parseResponse(post(request)))
     }
 
     /**
@@ -57,8 +72,7 @@ class BsPayoneClient(
      */
     fun authorization(paymentRequest: BsPayonePaymentRequestModel, pspConfigModel: PspConfigModel, mode: String): BsPayonePaymentResponseModel {
         val request = createStandardRequest(paymentRequest, pspConfigModel, BsPayoneRequestType.AUTHORIZATION.type, mode)
-        val response = restTemplate.postForEntity(bsPayoneProperties.baseUrl, request, String::class.java)
-        return convertToResponse(response.body!!, BsPayonePaymentResponseModel::class.java)
+        return toPaymentResponse(parseResponse(post(request)))
     }
 
     /**
@@ -71,8 +85,7 @@ class BsPayoneClient(
     */
     fun capture(paymentRequest: BsPayoneCaptureRequestModel, pspConfigModel: PspConfigModel, mode: String): BsPayonePaymentResponseModel {
         val request = createStandardRequest(paymentRequest, pspConfigModel, BsPayoneRequestType.CAPTURE.type, mode)
-        val response = restTemplate.postForEntity(bsPayoneProperties.baseUrl, request, String::class.java)
-        return convertToResponse(response.body!!, BsPayonePaymentResponseModel::class.java)
+        return toPaymentResponse(parseResponse(post(request)))
     }
 
     /**
@@ -85,8 +98,7 @@ class BsPayoneClient(
      */
     fun refund(refundRequest: BsPayoneRefundRequestModel, pspConfigModel: PspConfigModel, mode: String): BsPayonePaymentResponseModel {
         val request = createStandardRequest(refundRequest, pspConfigModel, BsPayoneRequestType.REFUND.type, mode)
-        val response = restTemplate.postForEntity(bsPayoneProperties.baseUrl, request, String::class.java)
-        return convertToResponse(response.body!!, BsPayonePaymentResponseModel::class.java)
+        return toPaymentResponse(parseResponse(post(request)))
     }
 
     /**
@@ -99,69 +111,120 @@ class BsPayoneClient(
      */
     fun deleteAlias(deleteAliasRequest: BsPayoneDeleteAliasRequestModel, pspConfigModel: PspConfigModel, mode: String): BsPayoneDeleteAliasResponseModel {
         val request = createStandardRequest(deleteAliasRequest, pspConfigModel, BsPayoneRequestType.UPDATE_USER.type, mode)
-        val response = restTemplate.postForEntity(bsPayoneProperties.baseUrl, request, String::class.java)
-        return convertToResponse(response.body!!, BsPayoneDeleteAliasResponseModel::class.java)
+        return toDeleteAliasResponse(parseResponse(post(request)))
     }
 
     /**
-     * Creates a BS Payone request with standard parameters
+     * Creates a BS Payone form request with standard parameters
      *
      * @param request BS Payone request
      * @param pspConfigModel BS Payone configuration
      * @param requestType BS Payone request type
      * @param mode BS Payone mode
-     * @return BS Payone request as key/ value map
+     * @return BS Payone form request
      */
     private fun createStandardRequest(
-        request: Any,
+        request: BsPayoneRequest,
         pspConfigModel: PspConfigModel,
         requestType: String,
         mode: String
-    ): MultiValueMap<String, Any> {
-        val result = convertToKeyValue(request)
-        result.putAll(convertToKeyValue(getBsPayoneStandardParameters(pspConfigModel, requestType, mode)))
-        return result
+    ): HttpEntity<String> {
+        val form = BsPayoneForm()
+        request.writeTo(form)
+        form.addEncoded(getBsPayoneStandardParameters(pspConfigModel))
+            .add("mode", mode)
+            .add("request", requestType)
+        return HttpEntity(form.toString(), formHeaders)
     }
 
     /**
-     * Converts a BS Payone response body to internal response
+     * Posts a request to BS Payone. Rejected requests are reported as PSP module errors, server errors and failed
+     * connections leave the outcome of the operation unknown and are reported as PSP communication errors.
      *
-     * @param body response body
-     * @param response response class
-     * @return internal response
+     * @param request BS Payone form request
+     * @return response body
      */
-    private fun <T> convertToResponse(body: String, response: Class<T>): T {
-        val params = body.split("\\r?\\n".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-        val map = params.map { s ->
-            val parts = s.split("=".toRegex(), 2).toTypedArray()
-            Maps.immutableEntry(parts[0], parts[1])
-        }.map { it.key to it.value }.toMap()
-        return jsonMapper.convertValue(map, response)
+    private fun post(request: HttpEntity<String>): String {
+        val response = try {
+            restTemplate.postForEntity(bsPayoneProperties.baseUrl, request, String::class.java)
+        } catch (exception: HttpClientErrorException) {
+            throw ApiError.builder().withErrorCode(ApiErrorCode.PSP_MODULE_ERROR)
+                .withMessage("BS Payone rejected the request")
+                .withError("HTTP status ${exception.rawStatusCode}").build().asException()
+        } catch (exception: RestClientException) {
+            throw ApiError.builder().withErrorCode(ApiErrorCode.PSP_COMMUNICATION_ERROR)
+                .withMessage("Communication with BS Payone failed")
+                .withError(exception.message ?: exception.javaClass.simpleName).build().asException()
+        }
+        return response.body ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_COMMUNICATION_ERROR, "BS Payone responded without a body").asException()
     }
 
     /**
-     * Converts the request to key/value map
+     * Returns the encoded BS Payone standard parameters of the merchant. They are cached per merchant and portal,
+     * so the key is not hashed again for every request. Cached parameters are read without locking and only
+     * recomputed on a miss or as soon as the key of the configuration changes, and parameters of configurations that
+     * are no longer used expire.
      *
-     * @param request BS Payone request
-     * @return key/ value map
+     * @param pspConfigModel PSP Configuration
+     * @return encoded standard parameters
      */
-    private fun convertToKeyValue(request: Any): MultiValueMap<String, Any> {
-        val params: Map<String, Any> = jsonMapper.convertValue(request, object : TypeReference<Map<String, Any>>() {})
-        val map = LinkedMultiValueMap<String, Any>()
-        map.setAll(params)
-        return map
+    private fun getBsPayoneStandardParameters(pspConfigModel: PspConfigModel): String {
+        val merchantPortal = MerchantPortal(pspConfigModel.merchantId, pspConfigModel.portalId)
+        standardParameters.getIfPresent(merchantPortal)?.takeIf { it.key == pspConfigModel.key }?.let { return it.parameters }
+
+        val cached = standardParameters.asMap().compute(merchantPortal) { _, cached ->
+            if (cached != null && cached.key == pspConfigModel.key) {
+                cached
+            } else {
+                CachedStandardParameters(pspConfigModel.key, BsPayoneForm(128)
+                    .add("mid", pspConfigModel.merchantId)
+                    .add("portalid", pspConfigModel.portalId)
+                    .add("key", bsPayoneHashingService.hashKey(pspConfigModel.key))
+                    .add("api_version", bsPayoneProperties.apiVersion)
+                    .add("encoding", bsPayoneProperties.encoding)
+                    .toString())
+            }
+        }
+        return cached!!.parameters
     }
 
     /**
-     * Returns BS Payone standard parameters
+     * Parses a BS Payone key=value response body in a single pass
      *
-     * @param pspConfigModel PSP Configuration
-     * @param bsPayoneRequestType BS payone request type
-     * @param mode BS Payone mode
-     * @return BS Payone standard parameters model
+     * @param body response body
+     * @return response parameters
      */
-    private fun getBsPayoneStandardParameters(pspConfigModel: PspConfigModel, bsPayoneRequestType: String, mode: String): BsPayoneStandardParametersModel {
-        return BsPayoneStandardParametersModel(pspConfigModel.merchantId, pspConfigModel.portalId, bsPayoneHashingService.hashKey(pspConfigModel.key),
-            bsPayoneProperties.apiVersion, mode, bsPayoneRequestType, bsPayoneProperties.encoding)
+    private fun parseResponse(body: String): Map<String, String> {
+        val params = HashMap<String, String>()
+        var start = 0
+        while (start < body.length) {
+            var end = body.indexOf('\n', start)
+            if (end == -1) end = body.length
+            val lineEnd = if (end > start && body[end - 1] == '\r') end - 1 else end
+            val separator = body.indexOf('=', start)
+            if (separator in start until lineEnd) params[body.substring(start, separator)] = body.substring(separator + 1, lineEnd)
+            start = end + 1
+        }
+        return params
     }
+
+    private fun toPaymentResponse(params: Map<String, String>) = BsPayonePaymentResponseModel(
+        status = params["status"]?.let { BsPayoneResponseStatus.valueOf(it) },
+        transactionId = params["txid"],
+        customerId = params["userid"],
+        errorCode = params["errorcode"],
+        errorMessage = params["errormessage"],
+        customerMessage = params["customermessage"]
+    )
+
+    private fun toDeleteAliasResponse(params: Map<String, String>) = BsPayoneDeleteAliasResponseModel(
+        status = params["status"]?.let { BsPayoneResponseStatus.valueOf(it) },
+        errorCode = params["errorcode"],
+        errorMessage = params["errormessage"],
+        customerMessage = params["customermessage"]
+    )
+
+    private data class MerchantPortal(val merchantId: String?, val portalId: String?)
+
+    private class CachedStandardParameters(val key: String?, val parameters: String)
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.bspayone.service
+
+import com.mobilabsolutions.payment.bspayone.configuration.BsPayoneProperties
+import com.mobilabsolutions.payment.bspayone.data.enum.BsPayoneClearingType
+import com.mobilabsolutions.payment.bspayone.data.enum.BsPayoneMode
+import com.mobilabsolutions.payment.bspayone.data.enum.BsPayoneResponseStatus
+import com.mobilabsolutions.payment.bspayone.model.request.BsPayoneCaptureRequestModel
+import com.mobilabsolutions.payment.bspayone.model.request.BsPayonePaymentRequestModel
+import com.mobilabsolutions.payment.bspayone.model.response.BsPayonePaymentResponseModel
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import com.mobilabsolutions.server.commons.exception.ApiException
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers
+import org.mockito.Mockito
+import org.springframework.http.HttpEntity
+import org.springframework.http.HttpStatus
+import org.springframework.http.MediaType
+import org.springframework.http.ResponseEntity
+import org.springframework.web.client.HttpServerErrorException
+import org.springframework.web.client.RestTemplate
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class BsPayoneClientTest {
+    private val bsPayoneProperties = BsPayoneProperties()
+    private val pspConfig = PspConfigModel(PaymentServiceProvider.BS_PAYONE.toString(), "mobilab", "2030968", "key 123",
+        "42949", null, null, null, null, null, true, null, null, null, null, null, null)
+    private val paymentRequest = BsPayonePaymentRequestModel("42949", BsPayoneClearingType.CC.type, "8DANasUsXZ", "500", "EUR",
+        "12378", "Müller & Söhne", "DE", "Berlin", "1234", null, null)
+
+    @Test
+    fun `write payment request as form body`() {
+        val restTemplate = mockRestTemplate("status=APPROVED\ntxid=42\nuserid=12")
+        val hashingService = BsPayoneHashingService(bsPayoneProperties)
+        BsPayoneClient(restTemplate, bsPayoneProperties, hashingService).preauthorization(paymentRequest, pspConfig, BsPayoneMode.TEST.mode)
+
+        val request = ArgumentCaptor.forClass(HttpEntity::class.java)
+        Mockito.verify(restTemplate).postForEntity(Mockito.eq(bsPayoneProperties.baseUrl), request.capture(), Mockito.eq(String::class.java))
+        Assertions.assertEquals(MediaType.APPLICATION_FORM_URLENCODED, request.value.headers.contentType)
+        Assertions.assertEquals("aid=42949&clearingtype=cc&reference=8DANasUsXZ&amount=500&currency=EUR&customerid=12378" +
+            "&lastname=M%C3%BCller+%26+S%C3%B6hne&country=DE&city=Berlin&pseudocardpan=1234&mid=mobilab&portalid=2030968" +
+            "&key=${hashingService.hashKey(pspConfig.key)}&api_version=3.11&encoding=UTF-8&mode=test&request=preauthorization", request.value.body)
+    }
+
+    @Test
+    fun `hash merchant key once per configuration`() {
+        val restTemplate = mockRestTemplate("status=APPROVED\ntxid=42")
+        val hashingService = Mockito.spy(BsPayoneHashingService(bsPayoneProperties))
+        val client = BsPayoneClient(restTemplate, bsPayoneProperties, hashingService)
+
+        client.preauthorization(paymentRequest, pspConfig, BsPayoneMode.TEST.mode)
+        client.capture(BsPayoneCaptureRequestModel("42", "500", "EUR"), pspConfig, BsPayoneMode.TEST.mode)
+
+        Mockito.verify(hashingService, Mockito.times(1)).hashKey(pspConfig.key)
+    }
+
+    @Test
+    fun `hash merchant key again when it changes`() {
+        val restTemplate = mockRestTemplate("status=APPROVED\ntxid=42")
+        val hashingService = Mockito.spy(BsPayoneHashingService(bsPayoneProperties))
+        val client = BsPayoneClient(restTemplate, bsPayoneProperties, hashingService)
+        val rotatedConfig = pspConfig.copy(key = "key 456")
+
+        client.preauthorization(paymentRequest, pspConfig, BsPayoneMode.TEST.mode)
+        client.preauthorization(paymentRequest, rotatedConfig, BsPayoneMode.TEST.mode)
+
+        Mockito.verify(hashingService, Mockito.times(1)).hashKey(pspConfig.key)
+        Mockito.verify(hashingService, Mockito.times(1)).hashKey(rotatedConfig.key)
+        val request = ArgumentCaptor.forClass(HttpEntity::class.java)
+        Mockito.verify(restTemplate, Mockito.times(2)).postForEntity(Mockito.eq(bsPayoneProperties.baseUrl), request.capture(), Mockito.eq(String::class.java))
+        Assertions.assertTrue((request.value.body as String).contains("&key=${hashingService.hashKey(rotatedConfig.key)}&"))
+    }
+
+    @Test
+    fun `parse response body`() {
+        val restTemplate = mockRestTemplate("status=ERROR\r\nerrorcode=1003\r\nerrormessage=Amount too low\r\ncustomermessage=a=b\r\n")
+        val response = BsPayoneClient(restTemplate, bsPayoneProperties, BsPayoneHashingService(bsPayoneProperties))
+            .authorization(paymentRequest, pspConfig, BsPayoneMode.TEST.mode)
+
+        Assertions.assertEquals(BsPayonePaymentResponseModel(BsPayoneResponseStatus.ERROR, null, null, "1003", "Amount too low", "a=b"), response)
+    }
+
+    @Test
+    fun `report server error as communication error`() {
+        val restTemplate = Mockito.mock(RestTemplate::class.java)
+        Mockito.`when`(restTemplate.postForEntity(Mockito.eq(bsPayoneProperties.baseUrl), ArgumentMatchers.any(), Mockito.eq(String::class.java)))
+            .thenThrow(HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE))
+        val client = BsPayoneClient(restTemplate, bsPayoneProperties, BsPayoneHashingService(bsPayoneProperties))
+
+        val exception = Assertions.assertThrows(ApiException::class.java) { client.authorization(paymentRequest, pspConfig, BsPayoneMode.TEST.mode) }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_COMMUNICATION_ERROR, exception.errorCode())
+    }
+
+    private fun mockRestTemplate(responseBody: String): RestTemplate {
+        val restTemplate = Mockito.mock(RestTemplate::class.java)
+        Mockito.`when`(restTemplate.postForEntity(Mockito.eq(bsPayoneProperties.baseUrl), ArgumentMatchers.any(), Mockito.eq(String::class.java)))
+            .thenReturn(ResponseEntity.ok(responseBody))
+        return restTemplate
+    }
+}
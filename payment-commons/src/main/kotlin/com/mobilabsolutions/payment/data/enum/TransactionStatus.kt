@@ -10,5 +10,6 @@ package com.mobilabsolutions.payment.data.enum
 enum class TransactionStatus {
     SUCCESS,
     FAIL,
-    PENDING
+    PENDING,
+    UNKNOWN
 }
@@ -54,8 +54,13 @@ enum class ApiErrorCode(val code: String, val message: String, val httpStatus: H
     PSP_ALIAS_NOT_FOUND("3024", "PSP alias is required for this PSP", HttpStatus.BAD_REQUEST),
     PSP_TRANSACTION_NOT_FOUND("3025", "There is no transaction for given PSP transaction ID and action", HttpStatus.BAD_REQUEST),
     REPORT_FILTER_NOT_FOUND("3026", "Given report filter name cannot be found", HttpStatus.BAD_REQUEST),
+    INVALID_TRANSACTION_CURSOR("3027", "Given transaction page cursor is invalid", HttpStatus.BAD_REQUEST),
+    IDEMPOTENT_REQUEST_IN_PROGRESS("3028", "A request with the same idempotent key is still in progress.", HttpStatus.CONFLICT),
 
     PSP_MODULE_ERROR("4000", "Unexpected PSP operation error.", HttpStatus.INTERNAL_SERVER_ERROR),
+    PSP_UNAVAILABLE("4001", "PSP is temporarily unavailable, please try again later.", HttpStatus.SERVICE_UNAVAILABLE),
+    PSP_BUSY("4002", "Too many concurrent requests to the PSP, please try again later.", HttpStatus.SERVICE_UNAVAILABLE),
+    PSP_COMMUNICATION_ERROR("4003", "Communication with the PSP failed, the outcome of the operation is unknown.", HttpStatus.BAD_GATEWAY),
 
     SDK_GENERAL_ERROR("5000", "Unexpected SDK error.", HttpStatus.INTERNAL_SERVER_ERROR)
 }
@@ -14,6 +14,7 @@ class ApiException : RuntimeException {
 
     companion object {
         const val STATUS_NON_ERROR_HTTP_STATUS_CODE = "status: non-error http status code"
+        private const val ERROR_CODE_PROPERTY = "error_code"
     }
 
     constructor(apiError: ApiError) : super(apiError.message().orElse(null)) {
@@ -66,4 +67,6 @@ class ApiException : RuntimeException {
     fun status() = status
 
     fun apiError() = apiError
+
+    fun errorCode() = ApiErrorCode.values().find { it.code == apiError.details()[ERROR_CODE_PROPERTY] }
 }
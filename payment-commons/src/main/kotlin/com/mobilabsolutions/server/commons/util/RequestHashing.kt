@@ -5,15 +5,41 @@
 package com.mobilabsolutions.server.commons.util
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.ObjectWriter
+import com.fasterxml.jackson.databind.SerializationFeature
+import com.google.common.hash.Funnels
+import com.google.common.hash.HashFunction
 import com.google.common.hash.Hashing
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Component
 
 /**
+ * Hashes request models to detect idempotent key reuse with different parameters. The request is serialized
+ * straight into the hasher, properties are written in declaration order and map entries sorted by key, so
+ * equal requests always produce the same hash.
+ *
  * @author <a href="mailto:jovana@mobilabsolutions.com">Jovana Veskovic</a>
  */
 @Component
-class RequestHashing(private val objectMapper: ObjectMapper) {
+class RequestHashing(
+    objectMapper: ObjectMapper,
+    @Value("\${payment.request.hashing.algorithm:md5}") algorithm: String
+) {
+    companion object {
+        private val HASH_FUNCTIONS = mapOf<String, HashFunction>(
+            "md5" to Hashing.md5(),
+            "sha256" to Hashing.sha256(),
+            "murmur3_128" to Hashing.murmur3_128()
+        )
+    }
+
+    private val hashFunction = HASH_FUNCTIONS[algorithm.toLowerCase()]
+        ?: throw IllegalArgumentException("Unsupported request hashing algorithm '$algorithm', expected one of ${HASH_FUNCTIONS.keys}")
+    private val writer: ObjectWriter = objectMapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+
     fun hashRequest(request: Any): String {
-        return Hashing.md5().hashString(objectMapper.writeValueAsString(request), Charsets.UTF_8).toString()
+        val hasher = hashFunction.newHasher()
+        writer.writeValue(Funnels.asOutputStream(hasher), request)
+        return hasher.hash().toString()
     }
 }
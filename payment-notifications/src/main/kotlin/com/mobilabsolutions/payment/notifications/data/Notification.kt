@@ -8,6 +8,7 @@ import com.mobilabsolutions.payment.data.configuration.AutoGeneratedIdTimeAudita
 import com.mobilabsolutions.payment.data.enum.NotificationStatus
 import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
 import org.hibernate.annotations.Type
+import java.time.Instant
 import javax.persistence.Column
 import javax.persistence.EmbeddedId
 import javax.persistence.Entity
@@ -36,7 +37,13 @@ class Notification(
 
     @Enumerated(EnumType.STRING)
     @Column(name = "psp")
-    var psp: PaymentServiceProvider? = null
+    var psp: PaymentServiceProvider? = null,
+
+    @Column(name = "attempts")
+    var attempts: Int? = 0,
+
+    @Column(name = "lease_until")
+    var leaseUntil: Instant? = null
 ) : AutoGeneratedIdTimeAuditable() {
     override fun equals(other: Any?): Boolean {
         if (this === other) return true
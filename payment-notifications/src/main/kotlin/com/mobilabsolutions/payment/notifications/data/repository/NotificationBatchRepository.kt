@@ -0,0 +1,21 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.notifications.data.repository
+
+import com.mobilabsolutions.payment.notifications.data.Notification
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+interface NotificationBatchRepository {
+
+    /**
+     * Inserts the notifications with multi-row inserts, notifications that already exist are skipped
+     *
+     * @param notifications Notifications
+     * @return number of inserted notifications
+     */
+    fun insertNotifications(notifications: List<Notification>): Int
+}
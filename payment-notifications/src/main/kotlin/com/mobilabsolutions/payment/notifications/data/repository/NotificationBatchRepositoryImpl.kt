@@ -0,0 +1,32 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.notifications.data.repository
+
+import com.mobilabsolutions.payment.notifications.data.Notification
+import org.springframework.jdbc.core.JdbcTemplate
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class NotificationBatchRepositoryImpl(
+    private val jdbcTemplate: JdbcTemplate
+) : NotificationBatchRepository {
+    companion object {
+        private const val INSERT_NOTIFICATION = "INSERT INTO notification (psp_transaction_id, psp_event, status, psp, message, attempts, created_date, last_modified_date) VALUES "
+        private const val NOTIFICATION_VALUES = "(?, ?, ?, ?, ?, 0, timezone('UTC', now()), timezone('UTC', now()))"
+        private const val ON_CONFLICT = " ON CONFLICT (psp_event, psp_transaction_id) DO NOTHING RETURNING psp_transaction_id"
+        private const val MAX_ROWS_PER_STATEMENT = 1000
+    }
+
+    override fun insertNotifications(notifications: List<Notification>): Int {
+        return notifications.chunked(MAX_ROWS_PER_STATEMENT).sumBy { chunk ->
+            val sql = INSERT_NOTIFICATION + chunk.joinToString(", ") { NOTIFICATION_VALUES } + ON_CONFLICT
+            val arguments = chunk.flatMap {
+                listOf(it.notificationId.pspTransactionId, it.notificationId.pspEvent, it.status?.name, it.psp?.name, it.message)
+            }
+            jdbcTemplate.queryForList(sql, String::class.java, *arguments.toTypedArray()).size
+        }
+    }
+}
@@ -5,17 +5,36 @@
 package com.mobilabsolutions.payment.notifications.data.repository
 
 import com.mobilabsolutions.payment.data.configuration.BaseRepository
+import com.mobilabsolutions.payment.data.enum.NotificationStatus
 import com.mobilabsolutions.payment.notifications.data.Notification
+import com.mobilabsolutions.payment.notifications.data.NotificationId
+import org.springframework.data.jpa.repository.Modifying
 import org.springframework.data.jpa.repository.Query
 import org.springframework.data.repository.query.Param
 import org.springframework.stereotype.Repository
+import java.time.Instant
 
 /**
  * @author <a href="mailto:doruk@mobilabsolutions.com">Doruk Coskun</a>
  */
 @Repository
-interface NotificationRepository : BaseRepository<Notification, String> {
+interface NotificationRepository : BaseRepository<Notification, String>, NotificationBatchRepository {
 
-    @Query("SELECT * FROM notification nt WHERE nt.status IN ('CREATED', 'FAIL') AND nt.psp = :psp ORDER BY nt.created_date ASC LIMIT :limit FOR UPDATE OF nt SKIP LOCKED", nativeQuery = true)
+    @Query("SELECT * FROM notification nt WHERE nt.status IN ('CREATED', 'FAIL') AND nt.psp = :psp " +
+        "AND (nt.lease_until IS NULL OR nt.lease_until < timezone('UTC', now())) " +
+        "ORDER BY nt.created_date ASC LIMIT :limit FOR UPDATE OF nt SKIP LOCKED", nativeQuery = true)
     fun findNotificationByPsp(@Param("psp") psp: String, @Param("limit") limit: Int): List<Notification>
+
+    @Modifying
+    @Query("UPDATE Notification nt SET nt.leaseUntil = :leaseUntil WHERE nt.notificationId IN :notificationIds")
+    fun leaseNotifications(@Param("notificationIds") notificationIds: List<NotificationId>, @Param("leaseUntil") leaseUntil: Instant): Int
+
+    @Modifying
+    @Query("UPDATE Notification nt SET nt.status = :status, nt.attempts = nt.attempts + 1, nt.leaseUntil = :retryAt, nt.lastModifiedDate = CURRENT_TIMESTAMP " +
+        "WHERE nt.notificationId IN :notificationIds")
+    fun updateNotificationStatus(
+        @Param("notificationIds") notificationIds: List<NotificationId>,
+        @Param("status") status: NotificationStatus,
+        @Param("retryAt") retryAt: Instant?
+    ): Int
 }
@@ -7,16 +7,36 @@ package com.mobilabsolutions.payment.notifications.service
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.mobilabsolutions.payment.model.PspNotificationModel
 import com.mobilabsolutions.payment.model.request.PspNotificationListRequestModel
-import org.json.JSONObject
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpHeaders
+import org.springframework.http.MediaType
 import org.springframework.stereotype.Component
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.time.Duration
 
 /**
+ * Forwards notifications to the sdk backend over a shared HTTP client, so connections are kept alive and reused
+ * between batches.
+ *
  * @author <a href="mailto:doruk@mobilabsolutions.com">Doruk Coskun</a>
  */
 @Component
 class NotificationClient(
-    private val objectMapper: ObjectMapper
+    private val objectMapper: ObjectMapper,
+    @Value("\${payment.ws.notification.connectTimeout:5000}") connectTimeout: Long,
+    @Value("\${payment.ws.notification.readTimeout:30000}") private val readTimeout: Long
 ) {
+    companion object {
+        private const val API_KEY = "API-KEY"
+    }
+
+    private val httpClient = HttpClient.newBuilder()
+        .connectTimeout(Duration.ofMillis(connectTimeout))
+        .build()
+
     /**
      * Sends notifications to sdk backend
      *
@@ -30,14 +50,14 @@ class NotificationClient(
         paymentApiKey: String,
         notifications: MutableList<PspNotificationModel>
     ): Int {
-        return khttp.put(
-            url = paymentURL,
-            headers = mapOf("API-KEY" to paymentApiKey),
-            json = JSONObject(objectMapper.writeValueAsString(PspNotificationListRequestModel().apply {
-                this.notifications.addAll(
-                    notifications
-                )
-            }))
-        ).statusCode
+        val request = HttpRequest.newBuilder(URI.create(paymentURL))
+            .timeout(Duration.ofMillis(readTimeout))
+            .header(API_KEY, paymentApiKey)
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+            .PUT(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(PspNotificationListRequestModel().apply {
+                this.notifications.addAll(notifications)
+            })))
+            .build()
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode()
     }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.notifications.service
+
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.model.PspNotificationModel
+import com.mobilabsolutions.payment.notifications.data.Notification
+import com.mobilabsolutions.server.commons.exception.ApiError
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import mu.KLogging
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpStatus
+import org.springframework.stereotype.Component
+import java.time.Instant
+
+/**
+ * Forwards pending PSP notifications to payment-ws in leased batches. The HTTP call is made outside of any
+ * database transaction, so no row locks are held while waiting for payment-ws.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Component
+class NotificationForwarder(
+    private val notificationService: NotificationService,
+    private val pspRegistry: PspRegistry,
+    private val notificationClient: NotificationClient,
+    @Value("\${payment.ws.notification.url:}") private val paymentURL: String,
+    @Value("\${payment.ws.notification.apiKey:}") private val paymentApiKey: String,
+    @Value("\${payment.notification.processing.batch-size:100}") private val batchSize: Int,
+    @Value("\${payment.notification.processing.lease-seconds:60}") private val leaseSeconds: Long,
+    @Value("\${payment.notification.processing.backoff-seconds:10}") private val backoffSeconds: Long,
+    @Value("\${payment.notification.processing.max-backoff-seconds:3600}") private val maxBackoffSeconds: Long
+) {
+    companion object : KLogging() {
+        private val UNAVAILABLE_STATUSES = setOf(HttpStatus.BAD_GATEWAY.value(), HttpStatus.SERVICE_UNAVAILABLE.value(), HttpStatus.GATEWAY_TIMEOUT.value())
+    }
+
+    /**
+     * Forwards pending notifications of the PSP batch by batch, until a batch is not full or none of its notifications
+     * is delivered. Notifications that cannot be read or delivered are retried with their own backoff.
+     *
+     * @param psp Payment service provider
+     */
+    fun processNotifications(psp: String) {
+        logger.info("Picking notifications for $psp")
+        val pspImpl = pspRegistry.find(PaymentServiceProvider.valueOf(psp))
+            ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_IMPL_NOT_FOUND, "PSP implementation '$psp' cannot be found").asException()
+
+        do {
+            val notifications = notificationService.claimNotifications(psp, batchSize, leaseSeconds)
+            if (notifications.isEmpty()) return
+            logger.info { "Processing ${notifications.size} notifications for $psp" }
+
+            val converted = notifications.map { notification ->
+                notification to try {
+                    pspImpl.getPspNotification(notification.notificationId.pspTransactionId, notification.notificationId.pspEvent, notification.message)
+                } catch (exception: Exception) {
+                    logger.warn { "Reading $psp notification '${notification.notificationId.pspEvent}' of '${notification.notificationId.pspTransactionId}' failed: ${exception.message}" }
+                    null
+                }
+            }
+            val (convertible, unconvertible) = converted.partition { it.second != null }
+
+            val undelivered = deliver(psp, convertible.map { it.first to it.second!! })
+            val failed = unconvertible.map { it.first } + undelivered
+            val now = Instant.now()
+            notificationService.failNotifications(failed.associate { it.notificationId to retryAt(now, it.attempts ?: 0) })
+        } while (undelivered.size < convertible.size && notifications.size == batchSize)
+    }
+
+    /**
+     * Sends the notifications to payment-ws and completes them once they are accepted. A batch that payment-ws
+     * rejects is split in halves that are sent on their own, so a notification that payment-ws cannot process only
+     * fails itself. A batch is not split when payment-ws cannot be reached or is unavailable.
+     *
+     * @param psp Payment service provider
+     * @param notifications Notifications with their converted models
+     * @return notifications that were not delivered
+     */
+    private fun deliver(psp: String, notifications: List<Pair<Notification, PspNotificationModel>>): List<Notification> {
+        if (notifications.isEmpty()) return emptyList()
+        val status = try {
+            notificationClient.sendNotifications(paymentURL, paymentApiKey, notifications.map { it.second }.toMutableList())
+        } catch (exception: Exception) {
+            logger.warn { "Forwarding notifications for $psp failed: ${exception.message}" }
+            return notifications.map { it.first }
+        }
+        if (status == HttpStatus.CREATED.value()) {
+            notificationService.completeNotifications(notifications.map { it.first.notificationId })
+            return emptyList()
+        }
+
+        logger.warn { "Forwarding ${notifications.size} notifications for $psp was answered with $status" }
+        if (notifications.size == 1 || status in UNAVAILABLE_STATUSES) return notifications.map { it.first }
+        val half = notifications.size / 2
+        return deliver(psp, notifications.subList(0, half)) + deliver(psp, notifications.subList(half, notifications.size))
+    }
+
+    /**
+     * Returns the time of the next attempt, the backoff doubles with every failed attempt of the notification
+     *
+     * @param now current time
+     * @param attempts failed attempts of the notification
+     * @return time of the next attempt
+     */
+    private fun retryAt(now: Instant, attempts: Int): Instant {
+        val backoff = backoffSeconds * (1L shl attempts.coerceIn(0, 20))
+        return now.plusSeconds(backoff.coerceAtMost(maxBackoffSeconds))
+    }
+}
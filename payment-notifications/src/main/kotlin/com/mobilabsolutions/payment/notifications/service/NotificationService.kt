@@ -12,14 +12,10 @@ import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
 import com.mobilabsolutions.payment.notifications.data.Notification
 import com.mobilabsolutions.payment.notifications.data.NotificationId
 import com.mobilabsolutions.payment.notifications.data.repository.NotificationRepository
-import com.mobilabsolutions.server.commons.exception.ApiError
-import com.mobilabsolutions.server.commons.exception.ApiErrorCode
 import mu.KLogging
-import org.springframework.beans.factory.annotation.Value
-import org.springframework.http.HttpStatus
 import org.springframework.stereotype.Service
 import org.springframework.transaction.annotation.Transactional
-import java.util.stream.Collectors
+import java.time.Instant
 
 /**
  * @author <a href="mailto:doruk@mobilabsolutions.com">Doruk Coskun</a>
@@ -27,70 +23,72 @@ import java.util.stream.Collectors
 @Service
 class NotificationService(
     private val notificationRepository: NotificationRepository,
-    private val pspRegistry: PspRegistry,
-    private val notificationClient: NotificationClient,
     private val objectMapper: ObjectMapper
 ) {
     companion object : KLogging()
 
-    @Value("\${payment.ws.notification.url:}")
-    private lateinit var paymentURL: String
-
-    @Value("\${payment.ws.notification.apiKey:}")
-    private lateinit var paymentApiKey: String
-
     /**
-     * Saves Adyen notifications and returns confirmation message
+     * Saves Adyen notifications in one batch and returns confirmation message. Redelivered notifications
+     * are skipped.
      *
      * @param adyenNotificationRequestModel Adyen notification request model
      * @return Adyen notification response model
      */
     @Transactional
     fun saveAdyenNotifications(adyenNotificationRequestModel: AdyenNotificationRequestModel?): AdyenNotificationResponseModel {
-        logger.info(
-            "Adding Adyen transaction notifications for references ${adyenNotificationRequestModel?.notificationItems?.stream()?.map { it.notificationRequestItem?.pspReference }?.collect(
-                Collectors.joining(",")
-            )}"
-        )
-        adyenNotificationRequestModel?.notificationItems?.forEach {
-            notificationRepository.save(Notification(
+        val notifications = adyenNotificationRequestModel?.notificationItems?.map {
+            Notification(
                 notificationId = NotificationId(pspTransactionId = it.notificationRequestItem?.pspReference, pspEvent = it.notificationRequestItem?.eventCode),
                 status = NotificationStatus.CREATED,
                 psp = PaymentServiceProvider.ADYEN,
                 message = objectMapper.writeValueAsString(it.notificationRequestItem)
-            ))
-        }
+            )
+        } ?: emptyList()
+        val inserted = notificationRepository.insertNotifications(notifications)
+        logger.info { "Added $inserted of ${notifications.size} Adyen transaction notifications" }
         return AdyenNotificationResponseModel(
             notificationResponse = "[accepted]"
         )
     }
 
     /**
-     * Processes transaction notifications and updates their statuses
+     * Claims the oldest pending notifications of the PSP by leasing them. The row locks are only held until the
+     * lease is written, leased notifications are skipped by other workers until the lease expires.
      *
      * @param psp Payment service provider
+     * @param batchSize maximum number of notifications to claim
+     * @param leaseSeconds lease duration in seconds
+     * @return claimed notifications
      */
     @Transactional
-    fun processNotifications(psp: String) {
-        logger.info("Picking notifications for $psp")
-        val pspImpl = pspRegistry.find(PaymentServiceProvider.valueOf(psp))
-            ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_IMPL_NOT_FOUND, "PSP implementation '$psp' cannot be found").asException()
-
-        val notifications = notificationRepository.findNotificationByPsp(psp, 2)
-
-        notifications.forEach {
-            logger.info { "Processing PSP transaction ${it.notificationId.pspTransactionId} and status ${it.status}" }
-        }
-
-        val notificationModels = notifications.stream().map {
-            pspImpl.getPspNotification(it.notificationId.pspTransactionId, it.notificationId.pspEvent, it.message)
-        }.collect(Collectors.toList())
+    fun claimNotifications(psp: String, batchSize: Int, leaseSeconds: Long): List<Notification> {
+        val notifications = notificationRepository.findNotificationByPsp(psp, batchSize)
+        if (notifications.isNotEmpty())
+            notificationRepository.leaseNotifications(notifications.map { it.notificationId }, Instant.now().plusSeconds(leaseSeconds))
+        return notifications
+    }
 
-        val statusCode = notificationClient.sendNotifications(paymentURL, paymentApiKey, notificationModels)
+    /**
+     * Marks delivered notifications as successful with a single statement
+     *
+     * @param notificationIds Notification IDs
+     */
+    @Transactional
+    fun completeNotifications(notificationIds: List<NotificationId>) {
+        if (notificationIds.isEmpty()) return
+        notificationRepository.updateNotificationStatus(notificationIds, NotificationStatus.SUCCESS, null)
+    }
 
-        notifications.forEach {
-            it.status = if (statusCode == HttpStatus.CREATED.value()) NotificationStatus.SUCCESS else NotificationStatus.FAIL
-            notificationRepository.save(it)
+    /**
+     * Marks notifications that could not be delivered as failed and counts the attempt. Each notification is
+     * retried at its own time, notifications sharing a retry time are updated with a single statement.
+     *
+     * @param retryAts time of the next attempt by notification ID
+     */
+    @Transactional
+    fun failNotifications(retryAts: Map<NotificationId, Instant>) {
+        retryAts.entries.groupBy({ it.value }, { it.key }).forEach { (retryAt, notificationIds) ->
+            notificationRepository.updateNotificationStatus(notificationIds, NotificationStatus.FAIL, retryAt)
         }
     }
 }
@@ -18,7 +18,7 @@ import org.springframework.stereotype.Component
  */
 @Component
 class ScheduledTasks(
-    private val notificationService: NotificationService
+    private val notificationForwarder: NotificationForwarder
 ) {
     companion object : KLogging()
 
@@ -42,7 +42,7 @@ class ScheduledTasks(
                 }
                 repeat(parallelism.toInt()) {
                     GlobalScope.launch(Dispatchers.IO) {
-                        notificationService.processNotifications(psp)
+                        notificationForwarder.processNotifications(psp)
                     }
                 }
             }
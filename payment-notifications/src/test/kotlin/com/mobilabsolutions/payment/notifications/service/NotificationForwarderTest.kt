@@ -0,0 +1,171 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.notifications.service
+
+import com.mobilabsolutions.payment.data.enum.NotificationStatus
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.data.enum.TransactionAction
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.model.PspNotificationModel
+import com.mobilabsolutions.payment.notifications.data.Notification
+import com.mobilabsolutions.payment.notifications.data.NotificationId
+import com.mobilabsolutions.payment.service.Psp
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers.anyList
+import org.mockito.ArgumentMatchers.anyString
+import org.mockito.Mockito
+import org.mockito.Mockito.eq
+import org.mockito.Mockito.never
+import org.mockito.Mockito.times
+import org.mockito.Mockito.verify
+import java.time.Duration
+import java.time.Instant
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class NotificationForwarderTest {
+    private val psp = PaymentServiceProvider.ADYEN.name
+    private val paymentURL = "test-url.com"
+    private val paymentApiKey = "test-api-key"
+    private val batchSize = 2
+    private val notifications = listOf(notification("1234", "AUTHORISATION"), notification("123", "CAPTURE"))
+    private val notificationIds = notifications.map { it.notificationId }
+
+    @Test
+    fun `forward Adyen notifications in one batch`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        val notificationClient = Mockito.mock(NotificationClient::class.java)
+        Mockito.`when`(notificationService.claimNotifications(psp, batchSize, 60)).thenReturn(notifications, emptyList())
+        Mockito.`when`(notificationClient.sendNotifications(eq(paymentURL), eq(paymentApiKey), anyList())).thenReturn(201)
+
+        forwarder(notificationService, notificationClient).processNotifications(psp)
+
+        verify(notificationClient, times(1)).sendNotifications(anyString(), anyString(), anyList())
+        verify(notificationService, times(1)).completeNotifications(notificationIds)
+        verify(notificationService, times(2)).claimNotifications(psp, batchSize, 60)
+    }
+
+    @Test
+    fun `mark Adyen notifications failed when payment-ws is unavailable`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        val notificationClient = Mockito.mock(NotificationClient::class.java)
+        Mockito.`when`(notificationService.claimNotifications(psp, batchSize, 60)).thenReturn(notifications)
+        Mockito.`when`(notificationClient.sendNotifications(eq(paymentURL), eq(paymentApiKey), anyList()))
+            .thenThrow(RuntimeException("Connection refused"))
+
+        forwarder(notificationService, notificationClient).processNotifications(psp)
+
+        val retryAts = retryAtCaptor()
+        verify(notificationService, times(1)).failNotifications(retryAts.capture())
+        Assertions.assertEquals(notificationIds.toSet(), retryAts.value.keys)
+        verify(notificationService, never()).completeNotifications(anyList())
+        verify(notificationService, times(1)).claimNotifications(psp, batchSize, 60)
+    }
+
+    @Test
+    fun `back off failed notifications by their own attempts`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        val notificationClient = Mockito.mock(NotificationClient::class.java)
+        val retried = listOf(notification("1234", "AUTHORISATION", 0), notification("123", "CAPTURE", 3))
+        Mockito.`when`(notificationService.claimNotifications(psp, batchSize, 60)).thenReturn(retried)
+        Mockito.`when`(notificationClient.sendNotifications(eq(paymentURL), eq(paymentApiKey), anyList())).thenReturn(500)
+
+        val before = Instant.now()
+        forwarder(notificationService, notificationClient).processNotifications(psp)
+
+        val retryAts = retryAtCaptor()
+        verify(notificationService, times(1)).failNotifications(retryAts.capture())
+        val firstRetry = Duration.between(before, retryAts.value.getValue(retried[0].notificationId)).seconds
+        val secondRetry = Duration.between(before, retryAts.value.getValue(retried[1].notificationId)).seconds
+        Assertions.assertTrue(firstRetry in 10..11) { "First attempt retried after $firstRetry seconds" }
+        Assertions.assertTrue(secondRetry in 80..81) { "Fourth attempt retried after $secondRetry seconds" }
+    }
+
+    @Test
+    fun `fail notifications that cannot be read and forward the others`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        val notificationClient = Mockito.mock(NotificationClient::class.java)
+        val pspImpl = pspImpl()
+        Mockito.`when`(pspImpl.getPspNotification("123", "CAPTURE", "{}")).thenThrow(RuntimeException("Malformed notification"))
+        Mockito.`when`(notificationService.claimNotifications(psp, batchSize, 60)).thenReturn(notifications, emptyList())
+        Mockito.`when`(notificationClient.sendNotifications(eq(paymentURL), eq(paymentApiKey), anyList())).thenReturn(201)
+
+        forwarder(notificationService, notificationClient, pspImpl).processNotifications(psp)
+
+        verify(notificationService, times(1)).completeNotifications(listOf(notificationIds[0]))
+        val retryAts = retryAtCaptor()
+        verify(notificationService, times(1)).failNotifications(retryAts.capture())
+        Assertions.assertEquals(setOf(notificationIds[1]), retryAts.value.keys)
+    }
+
+    @Test
+    fun `split a rejected batch to fail only the notification payment-ws cannot process`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        val notificationClient = Mockito.mock(NotificationClient::class.java)
+        val pspImpl = pspImpl()
+        Mockito.`when`(pspImpl.getPspNotification("123", "CAPTURE", "{}")).thenReturn(
+            PspNotificationModel(pspTransactionId = "123", paymentData = null, transactionAction = "UNKNOWN_ACTION", transactionStatus = TransactionStatus.SUCCESS.name)
+        )
+        Mockito.`when`(notificationService.claimNotifications(psp, batchSize, 60)).thenReturn(notifications, emptyList())
+        Mockito.`when`(notificationClient.sendNotifications(eq(paymentURL), eq(paymentApiKey), anyList())).thenAnswer { invocation ->
+            if (invocation.getArgument<List<PspNotificationModel>>(2).any { it.pspTransactionId == "123" }) 500 else 201
+        }
+
+        forwarder(notificationService, notificationClient, pspImpl).processNotifications(psp)
+
+        verify(notificationClient, times(3)).sendNotifications(anyString(), anyString(), anyList())
+        verify(notificationService, times(1)).completeNotifications(listOf(notificationIds[0]))
+        val retryAts = retryAtCaptor()
+        verify(notificationService, times(1)).failNotifications(retryAts.capture())
+        Assertions.assertEquals(setOf(notificationIds[1]), retryAts.value.keys)
+        verify(notificationService, times(2)).claimNotifications(psp, batchSize, 60)
+    }
+
+    @Test
+    fun `do not split a batch while payment-ws is unavailable`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        val notificationClient = Mockito.mock(NotificationClient::class.java)
+        Mockito.`when`(notificationService.claimNotifications(psp, batchSize, 60)).thenReturn(notifications)
+        Mockito.`when`(notificationClient.sendNotifications(eq(paymentURL), eq(paymentApiKey), anyList())).thenReturn(503)
+
+        forwarder(notificationService, notificationClient).processNotifications(psp)
+
+        verify(notificationClient, times(1)).sendNotifications(anyString(), anyString(), anyList())
+        val retryAts = retryAtCaptor()
+        verify(notificationService, times(1)).failNotifications(retryAts.capture())
+        Assertions.assertEquals(notificationIds.toSet(), retryAts.value.keys)
+        verify(notificationService, times(1)).claimNotifications(psp, batchSize, 60)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun retryAtCaptor() = ArgumentCaptor.forClass(Map::class.java) as ArgumentCaptor<Map<NotificationId, Instant>>
+
+    private fun pspImpl(): Psp {
+        val pspImpl = Mockito.mock(Psp::class.java)
+        Mockito.`when`(pspImpl.getPspNotification(anyString(), anyString(), anyString())).thenReturn(
+            PspNotificationModel(pspTransactionId = "1234", paymentData = null, transactionAction = TransactionAction.AUTH.name, transactionStatus = TransactionStatus.SUCCESS.name)
+        )
+        return pspImpl
+    }
+
+    private fun forwarder(notificationService: NotificationService, notificationClient: NotificationClient, pspImpl: Psp = pspImpl()): NotificationForwarder {
+        val pspRegistry = Mockito.mock(PspRegistry::class.java)
+        Mockito.`when`(pspRegistry.find(PaymentServiceProvider.ADYEN)).thenReturn(pspImpl)
+        return NotificationForwarder(notificationService, pspRegistry, notificationClient, paymentURL, paymentApiKey, batchSize, 60, 10, 3600)
+    }
+
+    private fun notification(pspTransactionId: String, pspEvent: String, attempts: Int = 0) = Notification(
+        notificationId = NotificationId(pspTransactionId = pspTransactionId, pspEvent = pspEvent),
+        status = NotificationStatus.CREATED,
+        psp = PaymentServiceProvider.ADYEN,
+        message = "{}",
+        attempts = attempts
+    )
+}
@@ -10,24 +10,17 @@ import com.mobilabsolutions.payment.adyen.model.AdyenNotificationItemModel
 import com.mobilabsolutions.payment.adyen.model.request.AdyenNotificationRequestModel
 import com.mobilabsolutions.payment.data.enum.NotificationStatus
 import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
-import com.mobilabsolutions.payment.data.enum.TransactionAction
-import com.mobilabsolutions.payment.data.enum.TransactionStatus
-import com.mobilabsolutions.payment.model.PspNotificationModel
-import com.mobilabsolutions.payment.model.request.PaymentDataRequestModel
 import com.mobilabsolutions.payment.notifications.data.Notification
 import com.mobilabsolutions.payment.notifications.data.NotificationId
 import com.mobilabsolutions.payment.notifications.data.repository.NotificationRepository
-import com.mobilabsolutions.payment.service.Psp
 import com.mobilabsolutions.server.commons.CommonConfiguration
+import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.TestInstance
 import org.junit.jupiter.api.extension.ExtendWith
 import org.mockito.ArgumentMatchers.any
-import org.mockito.ArgumentMatchers.anyList
-import org.mockito.ArgumentMatchers.anyString
 import org.mockito.InjectMocks
-import org.mockito.Mock
 import org.mockito.Mockito
 import org.mockito.Mockito.mock
 import org.mockito.Mockito.reset
@@ -38,7 +31,7 @@ import org.mockito.Spy
 import org.mockito.junit.jupiter.MockitoExtension
 import org.mockito.junit.jupiter.MockitoSettings
 import org.mockito.quality.Strictness
-import org.springframework.test.util.ReflectionTestUtils
+import java.time.Instant
 
 /**
  * @author <a href="mailto:doruk@mobilabsolutions.com">Doruk Coskun</a>
@@ -53,14 +46,6 @@ class NotificationServiceTest {
 
     private val notificationRepository = mock(NotificationRepository::class.java)
 
-    private val notificationClient = mock(NotificationClient::class.java)
-
-    @Mock
-    private lateinit var pspRegistry: PspRegistry
-
-    @Mock
-    private lateinit var psp: Psp
-
     @Spy
     val objectMapper: ObjectMapper = CommonConfiguration().jsonMapper()
 
@@ -94,63 +79,53 @@ class NotificationServiceTest {
         success = "false"
     )
 
-    private val paymentURL = "test-url.com"
-    private val paymentApiKey = "test-api-key"
     private val successAdyenNotificationEntity = AdyenNotificationItemListModel(succesAdyenNotification).toNotification(PaymentServiceProvider.ADYEN)
     private val falseAdyenNotificationEntity = AdyenNotificationItemListModel(falseAdyenNotification).toNotification(PaymentServiceProvider.ADYEN)
     private val adyenNotificationRequestModel = AdyenNotificationRequestModel(
         live = "false",
         notificationItems = mutableListOf(AdyenNotificationItemListModel(succesAdyenNotification), AdyenNotificationItemListModel(falseAdyenNotification))
     )
-    private val notificationModels = mutableListOf(
-        PspNotificationModel(
-            pspTransactionId = "1234",
-            paymentData = PaymentDataRequestModel(
-                amount = 1,
-                currency = "EUR",
-                reason = "test"
-            ),
-            transactionAction = TransactionAction.AUTH.name,
-            transactionStatus = TransactionStatus.SUCCESS.name
-        ),
-        PspNotificationModel(
-            pspTransactionId = "123",
-            paymentData = PaymentDataRequestModel(
-                amount = 1,
-                currency = "EUR",
-                reason = "test"
-            ),
-            transactionAction = TransactionAction.CAPTURE.name,
-            transactionStatus = TransactionStatus.SUCCESS.name
-        )
-    )
 
     @BeforeAll
     fun beforeAll() {
         MockitoAnnotations.initMocks(this)
-        ReflectionTestUtils.setField(notificationService, "paymentURL", paymentURL)
-        ReflectionTestUtils.setField(notificationService, "paymentApiKey", paymentApiKey)
+    }
 
-        Mockito.`when`(pspRegistry.find(PaymentServiceProvider.ADYEN)).thenReturn(psp)
+    @Test
+    fun `accept and persist incoming Adyen transactions successfully`() {
+        notificationService.saveAdyenNotifications(adyenNotificationRequestModel)
+        verify(notificationRepository, times(1)).insertNotifications(listOf(successAdyenNotificationEntity, falseAdyenNotificationEntity))
+        reset(notificationRepository)
+    }
+
+    @Test
+    fun `claim and lease Adyen notifications successfully`() {
         Mockito.`when`(notificationRepository.findNotificationByPsp(PaymentServiceProvider.ADYEN.name, 2)).thenReturn(
             mutableListOf(successAdyenNotificationEntity, falseAdyenNotificationEntity)
         )
-        Mockito.`when`(notificationClient.sendNotifications(paymentURL, paymentApiKey, notificationModels)).thenReturn(201)
+        val notifications = notificationService.claimNotifications(PaymentServiceProvider.ADYEN.name, 2, 60)
+        Assertions.assertEquals(2, notifications.size)
+        verify(notificationRepository, times(1)).leaseNotifications(
+            Mockito.eq(listOf(successAdyenNotificationEntity.notificationId, falseAdyenNotificationEntity.notificationId)), any(Instant::class.java))
     }
 
     @Test
-    fun `accept and persist incoming Adyen transactions successfully`() {
-        notificationService.saveAdyenNotifications(adyenNotificationRequestModel)
-        verify(notificationRepository, times(2)).save(any(Notification::class.java))
-        reset(notificationRepository)
+    fun `complete delivered notifications with a single update`() {
+        val notificationIds = listOf(successAdyenNotificationEntity.notificationId, falseAdyenNotificationEntity.notificationId)
+        notificationService.completeNotifications(notificationIds)
+        verify(notificationRepository, times(1)).updateNotificationStatus(notificationIds, NotificationStatus.SUCCESS, null)
     }
 
     @Test
-    fun `process Adyen transactions successfully`() {
-        notificationService.processNotifications(PaymentServiceProvider.ADYEN.name)
-        verify(notificationClient, times(1)).sendNotifications(anyString(), anyString(), anyList())
-        verify(notificationRepository, times(2)).save(any(Notification::class.java))
-        reset(notificationRepository)
+    fun `fail notifications with one update per retry time`() {
+        val firstRetry = Instant.now().plusSeconds(10)
+        val secondRetry = Instant.now().plusSeconds(80)
+        notificationService.failNotifications(mapOf(
+            successAdyenNotificationEntity.notificationId to firstRetry,
+            falseAdyenNotificationEntity.notificationId to secondRetry
+        ))
+        verify(notificationRepository, times(1)).updateNotificationStatus(listOf(successAdyenNotificationEntity.notificationId), NotificationStatus.FAIL, firstRetry)
+        verify(notificationRepository, times(1)).updateNotificationStatus(listOf(falseAdyenNotificationEntity.notificationId), NotificationStatus.FAIL, secondRetry)
     }
 
     private fun AdyenNotificationItemListModel.toNotification(psp: PaymentServiceProvider): Notification {
@@ -0,0 +1,39 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.configuration
+
+import org.springframework.boot.autoconfigure.cache.CacheProperties
+import org.springframework.boot.context.properties.EnableConfigurationProperties
+import org.springframework.cache.CacheManager
+import org.springframework.cache.annotation.EnableCaching
+import org.springframework.cache.caffeine.CaffeineCacheManager
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy
+import org.springframework.context.annotation.Bean
+import org.springframework.context.annotation.Configuration
+
+/**
+ * Enables the Caffeine backed caches defined in `spring.cache.*`. Puts and evictions made inside a database
+ * transaction are applied after it commits, so a concurrent reader cannot cache the state from before the commit
+ * again. Entries expire after the configured TTL, which bounds staleness for writes made on other nodes.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Configuration
+@EnableCaching
+@EnableConfigurationProperties(CacheProperties::class)
+class CacheConfiguration {
+    companion object {
+        const val MERCHANT_API_KEY_CACHE = "merchantApiKeys"
+        const val MERCHANT_USERS_CACHE = "merchantUsers"
+    }
+
+    @Bean
+    fun cacheManager(cacheProperties: CacheProperties): CacheManager {
+        val cacheManager = CaffeineCacheManager()
+        cacheProperties.caffeine.spec?.let { cacheManager.setCacheSpecification(it) }
+        cacheManager.setCacheNames(cacheProperties.cacheNames)
+        return TransactionAwareCacheManagerProxy(cacheManager)
+    }
+}
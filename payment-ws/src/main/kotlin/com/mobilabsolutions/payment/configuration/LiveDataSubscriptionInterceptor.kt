@@ -0,0 +1,51 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.configuration
+
+import com.mobilabsolutions.payment.data.repository.MerchantUserRepository
+import com.mobilabsolutions.payment.service.PgListener
+import org.springframework.messaging.Message
+import org.springframework.messaging.MessageChannel
+import org.springframework.messaging.simp.stomp.StompCommand
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor
+import org.springframework.messaging.support.ChannelInterceptor
+import org.springframework.messaging.support.MessageHeaderAccessor
+import org.springframework.security.access.AccessDeniedException
+import org.springframework.stereotype.Component
+
+/**
+ * Only lets users of a merchant, or admins, subscribe to the live transaction topic of that merchant. The broker
+ * matches subscriptions as patterns, so pattern destinations and any other destination under the broker prefix
+ * are rejected.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Component
+class LiveDataSubscriptionInterceptor(
+    private val merchantUserRepository: MerchantUserRepository
+) : ChannelInterceptor {
+    companion object {
+        private const val BROKER_PREFIX = "/topic"
+        private val PATTERN_CHARACTERS = charArrayOf('*', '?', '{')
+    }
+
+    override fun preSend(message: Message<*>, channel: MessageChannel): Message<*>? {
+        val accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor::class.java)
+        val destination = accessor?.destination
+        if (accessor?.command != StompCommand.SUBSCRIBE || destination == null) return message
+
+        if (destination.indexOfAny(PATTERN_CHARACTERS) >= 0)
+            throw AccessDeniedException("Subscription to destination pattern '$destination' is not allowed")
+        if (destination.startsWith(BROKER_PREFIX)) {
+            val merchantId = destination.removePrefix(PgListener.TOPIC_PREFIX)
+            if (!destination.startsWith(PgListener.TOPIC_PREFIX) || merchantId.isEmpty() || merchantId.contains('/'))
+                throw AccessDeniedException("Subscription to '$destination' is not allowed")
+            val email = accessor.user?.name
+            if (email == null || !merchantUserRepository.getMerchantUserEmails(merchantId).contains(email))
+                throw AccessDeniedException("Subscription to live data of merchant '$merchantId' is not allowed")
+        }
+        return message
+    }
+}
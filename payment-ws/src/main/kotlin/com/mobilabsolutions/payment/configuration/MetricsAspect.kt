@@ -0,0 +1,55 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.configuration
+
+import com.mobilabsolutions.payment.service.MetricTags
+import io.micrometer.core.instrument.MeterRegistry
+import org.aspectj.lang.ProceedingJoinPoint
+import org.aspectj.lang.annotation.Around
+import org.aspectj.lang.annotation.Aspect
+import org.springframework.stereotype.Component
+import java.util.concurrent.TimeUnit
+
+/**
+ * Times the public operations of the transaction and alias services and the transaction repository queries,
+ * tagged with the operation, its outcome and error code. Streamed queries are timed until the stream is opened.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Aspect
+@Component
+class MetricsAspect(private val meterRegistry: MeterRegistry) {
+    companion object {
+        const val SERVICE_TIMER = "payment.service.calls"
+        const val REPOSITORY_TIMER = "payment.repository.queries"
+        private const val TRANSACTION_REPOSITORY = "TransactionRepository"
+    }
+
+    @Around("execution(public * com.mobilabsolutions.payment.service.TransactionService.*(..)) || " +
+        "execution(public * com.mobilabsolutions.payment.service.AliasService.*(..))")
+    fun timeServiceOperation(joinPoint: ProceedingJoinPoint): Any? {
+        return time(joinPoint, SERVICE_TIMER, "service", joinPoint.signature.declaringType.simpleName)
+    }
+
+    @Around("execution(* com.mobilabsolutions.payment.data.repository.TransactionRepository.*(..))")
+    fun timeRepositoryQuery(joinPoint: ProceedingJoinPoint): Any? {
+        return time(joinPoint, REPOSITORY_TIMER, "repository", TRANSACTION_REPOSITORY)
+    }
+
+    private fun time(joinPoint: ProceedingJoinPoint, name: String, componentTag: String, component: String): Any? {
+        val start = System.nanoTime()
+        var error: Throwable? = null
+        try {
+            return joinPoint.proceed()
+        } catch (exception: Throwable) {
+            error = exception
+            throw exception
+        } finally {
+            meterRegistry.timer(name, componentTag, component, "operation", joinPoint.signature.name,
+                "outcome", MetricTags.outcome(error), "error", MetricTags.error(error))
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS)
+        }
+    }
+}
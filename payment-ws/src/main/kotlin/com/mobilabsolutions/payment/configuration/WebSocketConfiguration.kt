@@ -5,6 +5,7 @@
 package com.mobilabsolutions.payment.configuration
 
 import org.springframework.context.annotation.Configuration
+import org.springframework.messaging.simp.config.ChannelRegistration
 import org.springframework.messaging.simp.config.MessageBrokerRegistry
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry
@@ -15,7 +16,9 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
  */
 @Configuration
 @EnableWebSocketMessageBroker
-class WebSocketConfiguration : WebSocketMessageBrokerConfigurer {
+class WebSocketConfiguration(
+    private val liveDataSubscriptionInterceptor: LiveDataSubscriptionInterceptor
+) : WebSocketMessageBrokerConfigurer {
 
     override fun configureMessageBroker(registry: MessageBrokerRegistry) {
         registry.enableSimpleBroker("/topic")
@@ -25,4 +28,8 @@ class WebSocketConfiguration : WebSocketMessageBrokerConfigurer {
     override fun registerStompEndpoints(registry: StompEndpointRegistry) {
         registry.addEndpoint("/app").setAllowedOrigins("*").withSockJS()
     }
+
+    override fun configureClientInboundChannel(registration: ChannelRegistration) {
+        registration.interceptors(liveDataSubscriptionInterceptor)
+    }
 }
@@ -12,10 +12,13 @@ import com.mobilabsolutions.payment.model.request.PaymentDataRequestModel
 import com.mobilabsolutions.payment.model.request.PspConfigRequestModel
 import com.mobilabsolutions.payment.model.request.PspUpsertConfigRequestModel
 import com.mobilabsolutions.payment.model.request.ReversalRequestModel
+import com.mobilabsolutions.payment.model.request.TransactionResolutionRequestModel
 import com.mobilabsolutions.payment.model.request.WebhookCredentialsRequestModel
 import com.mobilabsolutions.payment.service.MerchantService
+import com.mobilabsolutions.payment.service.PendingTransactionService
 import com.mobilabsolutions.payment.service.TransactionDetailsService
 import com.mobilabsolutions.payment.service.TransactionService
+import com.mobilabsolutions.payment.service.TransactionStateService
 import com.mobilabsolutions.payment.validation.DateValidator
 import com.mobilabsolutions.payment.validation.PaymentMethodEnumValidator
 import com.mobilabsolutions.payment.validation.TransactionActionEnumValidator
@@ -39,6 +42,8 @@ import org.springframework.web.bind.annotation.RestController
 import org.springframework.web.multipart.MultipartFile
 import javax.servlet.http.HttpServletResponse
 import javax.validation.Valid
+import javax.validation.constraints.Max
+import javax.validation.constraints.Min
 import javax.validation.constraints.Size
 
 /**
@@ -50,7 +55,9 @@ import javax.validation.constraints.Size
 class MerchantController(
     private val merchantService: MerchantService,
     private val transactionDetailsService: TransactionDetailsService,
-    private val transactionService: TransactionService
+    private val transactionService: TransactionService,
+    private val transactionStateService: TransactionStateService,
+    private val pendingTransactionService: PendingTransactionService
 ) {
     companion object {
         const val BASE_MERCHANT_URL = "merchant"
@@ -59,6 +66,9 @@ class MerchantController(
         const val TRANSACTION_DETAILS_URL = "/{Merchant-Id}/transactions/{Transaction-Id}"
         const val TRANSACTION_URL = "/{Merchant-Id}/transactions"
         const val TRANSACTION_CSV_URL = "/{Merchant-Id}/transactions/csv"
+        const val TRANSACTION_PAGE_URL = "/{Merchant-Id}/transactions/page"
+        const val TRANSACTION_STATE_REBUILD_URL = "/transactions/state/rebuild"
+        const val TRANSACTION_RESOLUTION_URL = "/{Merchant-Id}/transactions/{Transaction-Id}/resolution"
         const val CAPTURE_URL = "/{Merchant-Id}/preauthorization/{Transaction-Id}/capture"
         const val REVERSE_URL = "/{Merchant-Id}/preauthorization/{Transaction-Id}/reverse"
         const val REFUND_URL = "/{Merchant-Id}/authorization/{Transaction-Id}/refund"
@@ -221,6 +231,62 @@ class MerchantController(
     ) = transactionDetailsService.getTransactionsByFilters(merchantId, createdAtStart, createdAtEnd, paymentMethod,
         action, status, text, limit ?: 10, offset ?: 0)
 
+    @ApiOperation(value = "Gets a page of filtered transactions, the next page is requested with the returned cursor")
+    @ApiResponses(
+        ApiResponse(code = 200, message = "Successfully queried transactions"),
+        ApiResponse(code = 400, message = "Invalid limit or cursor"),
+        ApiResponse(code = 401, message = "Unauthorized access"),
+        ApiResponse(code = 403, message = "Forbidden access"),
+        ApiResponse(code = 404, message = "Resource not found")
+    )
+    @RequestMapping(
+        TRANSACTION_PAGE_URL,
+        method = [RequestMethod.GET],
+        produces = [MediaType.APPLICATION_JSON_VALUE]
+    )
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAuthority(#merchantId) or hasAuthority('admin')")
+    fun getTransactionPageByFilters(
+        @PathVariable("Merchant-Id") merchantId: String,
+        @DateValidator @RequestParam(required = false) createdAtStart: String?,
+        @DateValidator @RequestParam(required = false) createdAtEnd: String?,
+        @ApiParam(value = "Payment method", example = "Values: CC, SEPA, PAY_PAL, GOOGLE_PAY, APPLE_PAY, KLARNA") @PaymentMethodEnumValidator(PaymentMethod = PaymentMethod::class) @RequestParam(required = false) paymentMethod: String?,
+        @ApiParam(value = "Transaction action", example = "Values: PREAUTH, AUTH, REVERSAL, REFUND, CAPTURE") @TransactionActionEnumValidator(TransactionAction = TransactionAction::class) @RequestParam(required = false) action: String?,
+        @ApiParam(value = "Transaction status", example = "Values: SUCCESS, FAIL") @TransactionStatusEnumValidator(TransactionStatus = TransactionStatus::class) @RequestParam(required = false) status: String?,
+        @RequestParam(required = false) text: String?,
+        @ApiParam(value = "Page size, between 1 and 100") @Min(1) @Max(TransactionDetailsService.MAX_PAGE_LIMIT) @RequestParam(required = false) limit: Int?,
+        @ApiParam(value = "Cursor returned with the previous page") @RequestParam(required = false) cursor: String?,
+        @ApiParam(value = "Whether the total count should be returned") @RequestParam(required = false) includeCount: Boolean?
+    ) = transactionDetailsService.getTransactionPageByFilters(merchantId, createdAtStart, createdAtEnd, paymentMethod,
+        action, status, text, limit ?: TransactionDetailsService.DEFAULT_PAGE_LIMIT, cursor, includeCount ?: false)
+
+    @ApiOperation(value = "Rebuild transaction states")
+    @ApiResponses(
+        ApiResponse(code = 200, message = "Successfully rebuilt transaction states"),
+        ApiResponse(code = 401, message = "Unauthorized access"),
+        ApiResponse(code = 403, message = "Forbidden access")
+    )
+    @RequestMapping(TRANSACTION_STATE_REBUILD_URL, method = [RequestMethod.POST])
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAuthority('admin')")
+    fun rebuildTransactionStates() = transactionStateService.rebuildTransactionStates()
+
+    @ApiOperation(value = "Resolve transaction with unknown outcome")
+    @ApiResponses(
+        ApiResponse(code = 200, message = "Successfully resolved transaction"),
+        ApiResponse(code = 400, message = "Failed to resolve transaction"),
+        ApiResponse(code = 401, message = "Unauthorized access"),
+        ApiResponse(code = 403, message = "Forbidden access")
+    )
+    @RequestMapping(TRANSACTION_RESOLUTION_URL, method = [RequestMethod.PUT])
+    @ResponseStatus(HttpStatus.OK)
+    @PreAuthorize("hasAuthority('admin')")
+    fun resolveTransaction(
+        @PathVariable(value = "Merchant-Id") merchantId: String,
+        @PathVariable(value = "Transaction-Id") transactionId: String,
+        @Valid @ApiParam(name = "Resolution-Info", value = "Transaction Resolution Model") @RequestBody resolutionInfo: TransactionResolutionRequestModel
+    ) = pendingTransactionService.resolveUnknownTransaction(merchantId, transactionId, resolutionInfo)
+
     @ApiOperation(value = "Export transactions to CSV file")
     @ApiResponses(
         ApiResponse(code = 200, message = "Successfully exported transactions"),
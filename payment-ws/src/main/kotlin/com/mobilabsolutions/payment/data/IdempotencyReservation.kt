@@ -0,0 +1,49 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data
+
+import com.mobilabsolutions.payment.data.configuration.AutoGeneratedIdTimeAuditable
+import org.hibernate.annotations.Type
+import javax.persistence.Column
+import javax.persistence.EmbeddedId
+import javax.persistence.Entity
+import javax.persistence.Lob
+import javax.persistence.Table
+
+/**
+ * Idempotent key of a merchant request, reserved before the PSP is called. Holds the response once the
+ * request is completed, so that retries are answered without calling the PSP again.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Entity
+@Table(name = "idempotency_reservation")
+class IdempotencyReservation(
+    @EmbeddedId
+    var reservationId: IdempotencyReservationId,
+
+    @Column(name = "request_hash")
+    var requestHash: String? = null,
+
+    @Lob
+    @Type(type = "org.hibernate.type.TextType")
+    @Column(name = "response")
+    var response: String? = null
+) : AutoGeneratedIdTimeAuditable() {
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (javaClass != other?.javaClass) return false
+
+        other as IdempotencyReservation
+
+        if (reservationId != other.reservationId) return false
+
+        return true
+    }
+
+    override fun hashCode(): Int {
+        return reservationId.hashCode()
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data
+
+import java.io.Serializable
+import javax.persistence.Column
+import javax.persistence.Embeddable
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Embeddable
+class IdempotencyReservationId(
+    @Column(name = "merchant_id")
+    var merchantId: String?,
+    @Column(name = "idempotent_key")
+    var idempotentKey: String?
+) : Serializable {
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (javaClass != other?.javaClass) return false
+
+        other as IdempotencyReservationId
+
+        if (merchantId != other.merchantId) return false
+        if (idempotentKey != other.idempotentKey) return false
+
+        return true
+    }
+
+    override fun hashCode(): Int {
+        var result = merchantId?.hashCode() ?: 0
+        result = 31 * result + (idempotentKey?.hashCode() ?: 0)
+        return result
+    }
+}
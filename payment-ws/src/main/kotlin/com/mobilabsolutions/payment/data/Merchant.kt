@@ -50,7 +50,13 @@ class Merchant(
     var webhookUsername: String? = null,
 
     @Column(name = "webhook_password")
-    var webhookPassword: String? = null
+    var webhookPassword: String? = null,
+
+    @Column(name = "webhook_batch_size")
+    var webhookBatchSize: Int? = null,
+
+    @Column(name = "webhook_compression")
+    var webhookCompression: Boolean? = false
 ) : AutoGeneratedIdTimeAuditable() {
 
     override fun equals(other: Any?): Boolean {
@@ -9,6 +9,7 @@ import com.mobilabsolutions.payment.data.enum.PaymentMethod
 import com.mobilabsolutions.payment.data.enum.TransactionAction
 import com.mobilabsolutions.payment.data.enum.TransactionStatus
 import org.hibernate.annotations.Type
+import java.time.Instant
 import javax.persistence.Column
 import javax.persistence.Entity
 import javax.persistence.EnumType
@@ -31,7 +32,7 @@ class Transaction(
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id")
-    private val id: Long? = null,
+    val id: Long? = null,
 
     @Column(name = "transaction_id", length = 20)
     var transactionId: String? = null,
@@ -70,6 +71,9 @@ class Transaction(
     @Column(name = "psp_response")
     var pspResponse: String? = null,
 
+    @Column(name = "psp_transaction_id")
+    var pspTransactionId: String? = null,
+
     @Column(name = "merchant_transaction_id")
     var merchantTransactionId: String? = null,
 
@@ -88,6 +92,12 @@ class Transaction(
     @Column(name = "processed_notification")
     var processedNotification: Boolean? = false,
 
+    @Column(name = "notification_attempts")
+    var notificationAttempts: Int? = 0,
+
+    @Column(name = "notification_lease_until")
+    var notificationLeaseUntil: Instant? = null,
+
     @ManyToOne
     @JoinColumn(name = "merchant_id", nullable = false, foreignKey = ForeignKey(name = "fk_merchant_transactionrecord"))
     var merchant: Merchant = Merchant(),
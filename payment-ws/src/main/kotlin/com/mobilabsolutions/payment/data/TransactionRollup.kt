@@ -0,0 +1,44 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data
+
+import com.mobilabsolutions.payment.data.configuration.AutoGeneratedIdTimeAuditable
+import javax.persistence.Column
+import javax.persistence.EmbeddedId
+import javax.persistence.Entity
+import javax.persistence.Table
+
+/**
+ * Hourly totals of the transaction records of a merchant, per action, status and payment method
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Entity
+@Table(name = "transaction_rollup")
+class TransactionRollup(
+    @EmbeddedId
+    var rollupId: TransactionRollupId,
+
+    @Column(name = "transaction_count")
+    var transactionCount: Long? = null,
+
+    @Column(name = "amount_sum")
+    var amountSum: Long? = null
+) : AutoGeneratedIdTimeAuditable() {
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (javaClass != other?.javaClass) return false
+
+        other as TransactionRollup
+
+        if (rollupId != other.rollupId) return false
+
+        return true
+    }
+
+    override fun hashCode(): Int {
+        return rollupId.hashCode()
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data
+
+import java.io.Serializable
+import java.time.Instant
+import javax.persistence.Column
+import javax.persistence.Embeddable
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Embeddable
+class TransactionRollupId(
+    @Column(name = "merchant_id")
+    var merchantId: String?,
+    @Column(name = "bucket_start")
+    var bucketStart: Instant?,
+    @Column(name = "action")
+    var action: String?,
+    @Column(name = "status")
+    var status: String?,
+    @Column(name = "payment_method")
+    var paymentMethod: String?
+) : Serializable {
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (javaClass != other?.javaClass) return false
+
+        other as TransactionRollupId
+
+        if (merchantId != other.merchantId) return false
+        if (bucketStart != other.bucketStart) return false
+        if (action != other.action) return false
+        if (status != other.status) return false
+        if (paymentMethod != other.paymentMethod) return false
+
+        return true
+    }
+
+    override fun hashCode(): Int {
+        var result = merchantId?.hashCode() ?: 0
+        result = 31 * result + (bucketStart?.hashCode() ?: 0)
+        result = 31 * result + (action?.hashCode() ?: 0)
+        result = 31 * result + (status?.hashCode() ?: 0)
+        result = 31 * result + (paymentMethod?.hashCode() ?: 0)
+        return result
+    }
+}
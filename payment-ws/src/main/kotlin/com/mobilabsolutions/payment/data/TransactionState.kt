@@ -0,0 +1,56 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data
+
+import com.mobilabsolutions.payment.data.configuration.AutoGeneratedIdTimeAuditable
+import java.time.Instant
+import javax.persistence.Column
+import javax.persistence.Entity
+import javax.persistence.Id
+import javax.persistence.Table
+
+/**
+ * Latest state of a transaction, maintained alongside the append-only transaction records
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Entity
+@Table(name = "transaction_state")
+class TransactionState(
+    @Id
+    @Column(name = "transaction_id", length = 20)
+    var transactionId: String? = null,
+
+    @Column(name = "merchant_id")
+    var merchantId: String? = null,
+
+    @Column(name = "latest_record_id")
+    var latestRecordId: Long? = null,
+
+    @Column(name = "display_record_id")
+    var displayRecordId: Long? = null,
+
+    @Column(name = "display_created_date")
+    var displayCreatedDate: Instant? = null,
+
+    @Column(name = "success_record_id")
+    var successRecordId: Long? = null
+) : AutoGeneratedIdTimeAuditable() {
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (javaClass != other?.javaClass) return false
+
+        other as TransactionState
+
+        if (transactionId != other.transactionId) return false
+
+        return true
+    }
+
+    override fun hashCode(): Int {
+        return transactionId?.hashCode() ?: 0
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data.repository
+
+import com.mobilabsolutions.payment.data.IdempotencyReservation
+import com.mobilabsolutions.payment.data.IdempotencyReservationId
+import com.mobilabsolutions.payment.data.configuration.BaseRepository
+import org.springframework.data.jpa.repository.Modifying
+import org.springframework.data.jpa.repository.Query
+import org.springframework.data.repository.query.Param
+import org.springframework.stereotype.Repository
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Repository
+interface IdempotencyReservationRepository : BaseRepository<IdempotencyReservation, IdempotencyReservationId> {
+
+    @Modifying
+    @Query("INSERT INTO idempotency_reservation (merchant_id, idempotent_key, request_hash, created_date, last_modified_date) " +
+        "VALUES (:merchantId, :idempotentKey, :requestHash, timezone('UTC', now()), timezone('UTC', now())) " +
+        "ON CONFLICT (merchant_id, idempotent_key) DO NOTHING", nativeQuery = true)
+    fun reserveIdempotentKey(@Param("merchantId") merchantId: String, @Param("idempotentKey") idempotentKey: String, @Param("requestHash") requestHash: String): Int
+
+    @Query("SELECT * FROM idempotency_reservation ir WHERE ir.merchant_id = :merchantId AND ir.idempotent_key = :idempotentKey", nativeQuery = true)
+    fun getReservation(@Param("merchantId") merchantId: String, @Param("idempotentKey") idempotentKey: String): IdempotencyReservation?
+
+    @Modifying
+    @Query("UPDATE idempotency_reservation SET response = :response, last_modified_date = timezone('UTC', now()) " +
+        "WHERE merchant_id = :merchantId AND idempotent_key = :idempotentKey", nativeQuery = true)
+    fun completeReservation(@Param("merchantId") merchantId: String, @Param("idempotentKey") idempotentKey: String, @Param("response") response: String)
+
+    @Modifying
+    @Query("DELETE FROM idempotency_reservation WHERE merchant_id = :merchantId AND idempotent_key = :idempotentKey AND response IS NULL", nativeQuery = true)
+    fun releaseReservation(@Param("merchantId") merchantId: String, @Param("idempotentKey") idempotentKey: String)
+}
@@ -4,9 +4,10 @@
 
 package com.mobilabsolutions.payment.data.repository
 
+import com.mobilabsolutions.payment.configuration.CacheConfiguration
 import com.mobilabsolutions.payment.data.configuration.BaseRepository
 import com.mobilabsolutions.payment.data.MerchantApiKey
-import com.mobilabsolutions.payment.data.enum.KeyType
+import org.springframework.cache.annotation.Cacheable
 import org.springframework.data.jpa.repository.Modifying
 import org.springframework.data.jpa.repository.Query
 import org.springframework.data.repository.query.Param
@@ -17,7 +18,9 @@ import org.springframework.stereotype.Repository
  */
 @Repository
 interface MerchantApiKeyRepository : BaseRepository<MerchantApiKey, Long> {
-    fun getFirstByActiveAndKeyTypeAndKey(active: Boolean, keyType: KeyType, key: String): MerchantApiKey?
+    @Cacheable(cacheNames = [CacheConfiguration.MERCHANT_API_KEY_CACHE], key = "{#p0, #p1}", unless = "#result == null")
+    @Query("SELECT mak.merchant_id FROM merchant_api_key mak WHERE mak.active = true AND mak.key_type = :keyType AND mak.key = :key LIMIT 1", nativeQuery = true)
+    fun getActiveMerchantId(@Param("keyType") keyType: String, @Param("key") key: String): String?
 
     fun getAllByMerchantId(merchantId: String): ArrayList<MerchantApiKey>
 
@@ -27,8 +27,16 @@ interface MerchantRepository : BaseRepository<Merchant, String> {
     fun saveLogo(@Param("logo") logo: ByteArray?, @Param("merchantId") merchantId: String)
 
     @Modifying
-    @Query("UPDATE Merchant m SET m.webhookUrl = :webhookUrl, m.webhookUsername = :webhookUsername, m.webhookPassword = :webhookPassword, m.lastModifiedDate = CURRENT_TIMESTAMP WHERE m.id = :merchantId")
-    fun updateMerchantWebookCredentials(@Param("merchantId") merchantId: String, @Param("webhookUrl") webhookUrl: String, @Param("webhookUsername") webhookUsername: String, @Param("webhookPassword") webhookPassword: String)
+    @Query("UPDATE Merchant m SET m.webhookUrl = :webhookUrl, m.webhookUsername = :webhookUsername, m.webhookPassword = :webhookPassword, " +
+        "m.webhookBatchSize = :webhookBatchSize, m.webhookCompression = :webhookCompression, m.lastModifiedDate = CURRENT_TIMESTAMP WHERE m.id = :merchantId")
+    fun updateMerchantWebookCredentials(
+        @Param("merchantId") merchantId: String,
+        @Param("webhookUrl") webhookUrl: String,
+        @Param("webhookUsername") webhookUsername: String,
+        @Param("webhookPassword") webhookPassword: String,
+        @Param("webhookBatchSize") webhookBatchSize: Int?,
+        @Param("webhookCompression") webhookCompression: Boolean
+    )
 
     @Query("SELECT * FROM Merchant m WHERE m.webhook_url <> ''", nativeQuery = true)
     fun getMerchantsByWebhookUrl(): List<Merchant>
@@ -4,8 +4,10 @@
 
 package com.mobilabsolutions.payment.data.repository
 
+import com.mobilabsolutions.payment.configuration.CacheConfiguration
 import com.mobilabsolutions.payment.data.MerchantUser
 import com.mobilabsolutions.payment.data.configuration.BaseRepository
+import org.springframework.cache.annotation.Cacheable
 import org.springframework.data.jpa.repository.Modifying
 import org.springframework.data.jpa.repository.Query
 import org.springframework.data.repository.query.Param
@@ -20,9 +22,10 @@ interface MerchantUserRepository : BaseRepository<MerchantUser, String> {
     @Query("select distinct user from MerchantUser user inner join fetch user.authorities as authorities where user.email = :email")
     fun findByEmail(@Param("email") email: String?): MerchantUser?
 
-    @Query("SELECT * FROM merchant_user mu JOIN merchant_user_authorities mua ON mu.id = mua.merchant_user_id JOIN authority a ON mua.authority_id = a.id " +
+    @Cacheable(cacheNames = [CacheConfiguration.MERCHANT_USERS_CACHE])
+    @Query("SELECT DISTINCT mu.email FROM merchant_user mu JOIN merchant_user_authorities mua ON mu.id = mua.merchant_user_id JOIN authority a ON mua.authority_id = a.id " +
         "WHERE a.name = :merchantId OR a.name = 'admin'", nativeQuery = true)
-    fun getMerchantUsers(@Param("merchantId") merchantId: String): List<MerchantUser>
+    fun getMerchantUserEmails(@Param("merchantId") merchantId: String): List<String>
 
     @Modifying
     @Query("UPDATE MerchantUser mu SET mu.firstName = :firstname, mu.lastName = :lastname, mu.locale = :locale, mu.lastModifiedDate = CURRENT_TIMESTAMP WHERE mu.email = :userId")
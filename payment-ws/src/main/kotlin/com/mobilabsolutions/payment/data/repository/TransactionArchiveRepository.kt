@@ -0,0 +1,76 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data.repository
+
+import java.time.YearMonth
+
+/**
+ * Moves transaction records out of the transaction_record table into monthly archive partitions. Archive
+ * partitions inherit from transaction_record_archive and carry a check constraint on their month, so queries
+ * on the archive with a created date range only scan the matching partitions.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+interface TransactionArchiveRepository {
+
+    /**
+     * @return month of the oldest transaction record, null if there are no transaction records
+     */
+    fun getOldestTransactionMonth(): YearMonth?
+
+    /**
+     * Creates the archive partition of the month, if it does not exist yet
+     *
+     * @param month Month
+     */
+    fun createArchivePartition(month: YearMonth)
+
+    /**
+     * Moves a batch of transaction records created in the month to its archive partition
+     *
+     * @param month Month
+     * @param limit maximum number of records to move
+     * @return number of moved records
+     */
+    fun archiveTransactions(month: YearMonth, limit: Int): Int
+
+    /**
+     * Deletes a batch of transaction records created in the month
+     *
+     * @param month Month
+     * @param limit maximum number of records to delete
+     * @return number of deleted records
+     */
+    fun deleteTransactions(month: YearMonth, limit: Int): Int
+
+    /**
+     * Deletes the transaction states whose latest record is no longer in the transaction_record table
+     *
+     * @param before Month before which the states were last modified
+     * @return number of deleted states
+     */
+    fun deleteOrphanedTransactionStates(before: YearMonth): Int
+
+    /**
+     * @return months of the existing archive partitions
+     */
+    fun getArchivePartitions(): List<YearMonth>
+
+    /**
+     * Drops the archive partition of the month with all of its records
+     *
+     * @param month Month
+     */
+    fun dropArchivePartition(month: YearMonth)
+
+    /**
+     * Runs the action while holding the retention lock, so that only one application instance applies the
+     * retention at a time
+     *
+     * @param action Action
+     * @return result of the action, null if another instance holds the lock
+     */
+    fun withRetentionLock(action: () -> Int): Int?
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data.repository
+
+import org.springframework.jdbc.core.ConnectionCallback
+import org.springframework.jdbc.core.JdbcTemplate
+import java.sql.Timestamp
+import java.time.YearMonth
+import java.time.format.DateTimeFormatter
+
+/**
+ * Archive partitions are named after their month, e.g. transaction_record_archive_2019_07. Records are moved
+ * with an explicit list of the transaction_record columns, so the column order of the archive does not matter,
+ * but columns added to transaction_record have to be added to transaction_record_archive in the same changeset,
+ * otherwise archiving fails. The retention lock is a session level advisory lock held on its own connection.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class TransactionArchiveRepositoryImpl(
+    private val jdbcTemplate: JdbcTemplate
+) : TransactionArchiveRepository {
+    companion object {
+        private const val ARCHIVE_TABLE = "transaction_record_archive"
+        private val PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyyy_MM")
+        private const val MONTH_RECORDS = "SELECT id FROM transaction_record WHERE created_date >= ? AND created_date < ? LIMIT ?"
+        private const val OLDEST_TRANSACTION = "SELECT created_date FROM transaction_record ORDER BY id LIMIT 1"
+        private const val DELETE_ORPHANED_STATES = "DELETE FROM transaction_state ts WHERE ts.last_modified_date < ? " +
+            "AND NOT EXISTS (SELECT 1 FROM transaction_record tr WHERE tr.id = ts.latest_record_id)"
+        private const val RECORD_COLUMNS = "SELECT column_name FROM information_schema.columns " +
+            "WHERE table_schema = current_schema() AND table_name = 'transaction_record' ORDER BY ordinal_position"
+        private const val TRY_RETENTION_LOCK = "SELECT pg_try_advisory_lock(hashtext('transaction_record_retention'))"
+        private const val RETENTION_UNLOCK = "SELECT pg_advisory_unlock(hashtext('transaction_record_retention'))"
+        private const val ARCHIVE_PARTITIONS = "SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+            "JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = '$ARCHIVE_TABLE'"
+    }
+
+    override fun getOldestTransactionMonth(): YearMonth? {
+        return jdbcTemplate.query(OLDEST_TRANSACTION) { rs, _ -> YearMonth.from(rs.getTimestamp(1).toLocalDateTime()) }.firstOrNull()
+    }
+
+    override fun createArchivePartition(month: YearMonth) {
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS ${partitionName(month)} (" +
+            "CHECK (created_date >= '${month.atDay(1)}' AND created_date < '${month.plusMonths(1).atDay(1)}')" +
+            ") INHERITS ($ARCHIVE_TABLE)")
+        jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS ${partitionName(month)}_merchant_idx ON ${partitionName(month)} (merchant_id, created_date)")
+    }
+
+    override fun archiveTransactions(month: YearMonth, limit: Int): Int {
+        val columns = jdbcTemplate.queryForList(RECORD_COLUMNS, String::class.java).joinToString(", ") { "\"$it\"" }
+        return jdbcTemplate.update("WITH moved AS (DELETE FROM transaction_record WHERE id IN ($MONTH_RECORDS) RETURNING $columns) " +
+            "INSERT INTO ${partitionName(month)} ($columns) SELECT $columns FROM moved", start(month), start(month.plusMonths(1)), limit)
+    }
+
+    override fun deleteTransactions(month: YearMonth, limit: Int): Int {
+        return jdbcTemplate.update("DELETE FROM transaction_record WHERE id IN ($MONTH_RECORDS)", start(month), start(month.plusMonths(1)), limit)
+    }
+
+    override fun deleteOrphanedTransactionStates(before: YearMonth): Int {
+        return jdbcTemplate.update(DELETE_ORPHANED_STATES, start(before))
+    }
+
+    override fun getArchivePartitions(): List<YearMonth> {
+        return jdbcTemplate.queryForList(ARCHIVE_PARTITIONS, String::class.java)
+            .map { YearMonth.parse(it.removePrefix("${ARCHIVE_TABLE}_"), PARTITION_FORMAT) }
+            .sorted()
+    }
+
+    override fun dropArchivePartition(month: YearMonth) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS ${partitionName(month)}")
+    }
+
+    override fun withRetentionLock(action: () -> Int): Int? {
+        return jdbcTemplate.execute(ConnectionCallback<Int?> { connection ->
+            val locked = connection.prepareStatement(TRY_RETENTION_LOCK).use { statement ->
+                statement.executeQuery().use { it.next() && it.getBoolean(1) }
+            }
+            if (!locked) return@ConnectionCallback null
+            try {
+                action()
+            } finally {
+                connection.prepareStatement(RETENTION_UNLOCK).use { it.execute() }
+            }
+        })
+    }
+
+    private fun partitionName(month: YearMonth) = "${ARCHIVE_TABLE}_${month.format(PARTITION_FORMAT)}"
+
+    private fun start(month: YearMonth) = Timestamp.valueOf(month.atDay(1).atStartOfDay())
+}
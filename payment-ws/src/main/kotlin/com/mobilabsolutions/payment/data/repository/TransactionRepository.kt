@@ -7,27 +7,35 @@ package com.mobilabsolutions.payment.data.repository
 import com.mobilabsolutions.payment.data.Merchant
 import com.mobilabsolutions.payment.data.Transaction
 import com.mobilabsolutions.payment.data.configuration.BaseRepository
+import org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE
+import org.springframework.data.jpa.repository.Modifying
 import org.springframework.data.jpa.repository.Query
+import org.springframework.data.jpa.repository.QueryHints
 import org.springframework.data.repository.query.Param
 import org.springframework.stereotype.Repository
+import java.math.BigInteger
+import java.sql.Timestamp
+import java.util.stream.Stream
+import javax.persistence.QueryHint
 
 /**
  * @author <a href="mailto:jovana@mobilabsolutions.com">Jovana Veskovic</a>
  */
 @Repository
-interface TransactionRepository : BaseRepository<Transaction, Long> {
-    fun getTransactionById(id: Long): Transaction
+interface TransactionRepository : BaseRepository<Transaction, Long>, TransactionArchiveRepository {
+    companion object {
+        const val REPORT_FETCH_SIZE = "1000"
+    }
 
-    @Query("SELECT DISTINCT tr FROM Transaction tr WHERE tr.idempotentKey = :idempotentKey AND tr.merchant = :merchant")
-    fun getByIdempotentKeyAndMerchant(@Param("idempotentKey") idempotentKey: String, @Param("merchant") merchant: Merchant): Transaction?
+    fun getTransactionById(id: Long): Transaction
 
-    @Query("SELECT * FROM transaction_record tr WHERE tr.transaction_id = :transactionId AND tr.status = :status GROUP BY :transactionId, tr.id ORDER BY tr.created_date DESC LIMIT 1", nativeQuery = true)
-    fun getByTransactionIdAndStatus(@Param("transactionId") transactionId: String, @Param("status") status: String): Transaction?
+    @Query("SELECT tr.* FROM transaction_state ts JOIN transaction_record tr ON tr.id = ts.success_record_id WHERE ts.transaction_id = :transactionId", nativeQuery = true)
+    fun getLatestSuccessfulByTransactionId(@Param("transactionId") transactionId: String): Transaction?
 
     @Query("SELECT * FROM transaction_record tr WHERE tr.transaction_id = :transactionId AND tr.status = :status", nativeQuery = true)
     fun getListByTransactionIdAndStatus(@Param("transactionId") transactionId: String, @Param("status") status: String): MutableList<Transaction>
 
-    @Query("SELECT * FROM transaction_record tr WHERE tr.transaction_id = :transactionId GROUP BY :transactionId, tr.id ORDER BY tr.created_date DESC LIMIT 1", nativeQuery = true)
+    @Query("SELECT tr.* FROM transaction_state ts JOIN transaction_record tr ON tr.id = ts.latest_record_id WHERE ts.transaction_id = :transactionId", nativeQuery = true)
     fun getByTransactionId(@Param("transactionId") transactionId: String): Transaction?
 
     @Query("SELECT tr.amount, tr.reason, tr.action, tr.status, tr.created_date FROM transaction_record tr WHERE tr.transaction_id = :transactionId ORDER BY tr.created_date desc", nativeQuery = true)
@@ -35,30 +43,15 @@ interface TransactionRepository : BaseRepository<Transaction, Long> {
 
     @Query(
         "SELECT tr.transaction_id, tr.amount, tr.currency_id, tr.status, tr.action, tr.reason, tr.merchant_customer_id, " +
-            "COALESCE(CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccType}', tr.payment_method), tr.created_date, count(*) OVER() AS full_count FROM transaction_record tr " +
-            "JOIN (" +
-            "SELECT transaction_id, max(created_date) max_created_date " +
-            "FROM transaction_record WHERE action != 'ADDITIONAL'" +
-            "GROUP BY transaction_id" +
-            ") tr1 ON tr.transaction_id = tr1.transaction_id AND tr.created_date = tr1.max_created_date " +
-            "WHERE tr.merchant_id = :merchantId " +
+            "COALESCE(CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccType}', tr.payment_method), tr.created_date, count(*) OVER() AS full_count FROM transaction_state ts " +
+            "JOIN transaction_record tr ON tr.id = ts.display_record_id " +
+            "WHERE ts.merchant_id = :merchantId " +
             "AND tr.payment_method = CASE WHEN :paymentMethod <> '' THEN CAST(:paymentMethod AS varchar) ELSE tr.payment_method END " +
             "AND tr.action = CASE WHEN :action <> '' THEN CAST(:action AS varchar) ELSE tr.action END " +
             "AND tr.status = CASE WHEN :status <> '' THEN CAST(:status AS varchar) ELSE tr.status END " +
-            "AND tr.created_date >= CASE WHEN :createdAtStart <> '' THEN TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-            "AND tr.created_date <= CASE WHEN :createdAtEnd <> '' THEN TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-            "AND CASE WHEN :text <> '' THEN (CAST(tr.payment_info AS json)#>>'{pspConfig, type}' ~* CAST(:text AS text) " +
-            "OR tr.reason ~* CAST(:text AS varchar) " +
-            "OR tr.transaction_id ~* CAST(:text AS varchar) " +
-            "OR tr.currency_id ~* CAST(:text AS varchar) " +
-            "OR tr.merchant_transaction_id ~* CAST(:text AS varchar) " +
-            "OR tr.merchant_customer_id ~* CAST(:text AS varchar) " +
-            "OR tr.alias_id ~* CAST(:text AS varchar) " +
-            "OR tr.payment_method ~* CASE WHEN CAST(:text AS varchar) ~* 'pay' THEN 'PAY_PAL' WHEN CAST(:text AS varchar) ~* 'credit' THEN 'CC' ELSE CAST(:text AS varchar) END " +
-            "OR CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccMask}' ~* CAST(:text AS text) " +
-            "OR CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccExpiryDate}' ~* CAST(:text AS text) " +
-            "OR CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccType}' ~* CAST(:text AS text) " +
-            "OR CAST(tr.payment_info AS json)#>>'{extra, sepaConfig, iban}' ~* CAST(:text AS text)) ELSE tr.reason = tr.reason END " +
+            "AND (COALESCE(CAST(:createdAtStart AS varchar), '') = '' OR tr.created_date >= CAST(TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "AND (COALESCE(CAST(:createdAtEnd AS varchar), '') = '' OR tr.created_date <= CAST(TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "AND ((COALESCE(CAST(:text AS varchar), '') <> '' AND tr.search_text ~* CAST(:text AS varchar)) OR (COALESCE(CAST(:text AS varchar), '') = '' AND tr.reason IS NOT NULL)) " +
             "ORDER BY tr.created_date desc LIMIT :limit OFFSET :offset",
         nativeQuery = true)
     fun getTransactionsByFilters(
@@ -73,104 +66,173 @@ interface TransactionRepository : BaseRepository<Transaction, Long> {
         @Param("offset") offset: Int?
     ): List<Array<Any>>
 
-    @Query("SELECT * FROM transaction_record tr WHERE CAST(tr.psp_response AS json)#>>'{pspTransactionId}' = :pspTransactionId AND (tr.action = :action1 OR tr.action = :action2) ORDER BY created_date DESC LIMIT 1", nativeQuery = true)
-    fun getByPspReferenceAndActions(@Param("pspTransactionId") pspTransactionId: String, @Param("action1") action1: String, @Param("action2") action2: String): Transaction?
-
-    @Query("SELECT * FROM transaction_record tr WHERE CAST(tr.psp_response AS json)#>>'{pspTransactionId}' = :pspTransactionId ORDER BY created_date DESC LIMIT 1", nativeQuery = true)
-    fun getByPspReference(@Param("pspTransactionId") pspTransactionId: String): Transaction?
-
-    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.status = 'SUCCESS' " +
-        "AND tr.created_date >= TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') " +
-        "AND tr.created_date <= CASE WHEN :createdAtEnd <> '' THEN TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END",
-        nativeQuery = true)
-    fun getTransactionsByMerchantId(
-        @Param("merchantId") merchantId: String,
-        @Param("createdAtStart") createdAtStart: String,
-        @Param("createdAtEnd") createdAtEnd: String?
-    ): List<Transaction>
-
-    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.notification = true " +
-        "AND tr.created_date >= TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') " +
-        "AND tr.created_date <= CASE WHEN :createdAtEnd <> '' THEN TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END",
-        nativeQuery = true)
-    fun getTransactionsWithNotification(
-        @Param("merchantId") merchantId: String,
-        @Param("createdAtStart") createdAtStart: String,
-        @Param("createdAtEnd") createdAtEnd: String?
-    ): List<Transaction>
-
-    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.status = 'SUCCESS' AND tr.action = 'REFUND'" +
-        " AND tr.created_date >= CASE WHEN :createdAtStart <> '' THEN TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-        "ORDER BY tr.created_date",
+    @Query(
+        "SELECT tr.transaction_id, tr.amount, tr.currency_id, tr.status, tr.action, tr.reason, tr.merchant_customer_id, " +
+            "COALESCE(CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccType}', tr.payment_method), tr.created_date, tr.id FROM transaction_state ts " +
+            "JOIN transaction_record tr ON tr.id = ts.display_record_id " +
+            "WHERE ts.merchant_id = :merchantId " +
+            "AND tr.payment_method = CASE WHEN :paymentMethod <> '' THEN CAST(:paymentMethod AS varchar) ELSE tr.payment_method END " +
+            "AND tr.action = CASE WHEN :action <> '' THEN CAST(:action AS varchar) ELSE tr.action END " +
+            "AND tr.status = CASE WHEN :status <> '' THEN CAST(:status AS varchar) ELSE tr.status END " +
+            "AND (COALESCE(CAST(:createdAtStart AS varchar), '') = '' OR tr.created_date >= CAST(TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "AND (COALESCE(CAST(:createdAtEnd AS varchar), '') = '' OR tr.created_date <= CAST(TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "AND ((COALESCE(CAST(:text AS varchar), '') <> '' AND tr.search_text ~* CAST(:text AS varchar)) OR (COALESCE(CAST(:text AS varchar), '') = '' AND tr.reason IS NOT NULL)) " +
+            "AND (ts.display_created_date, ts.display_record_id) < (:cursorCreatedDate, :cursorId) " +
+            "ORDER BY ts.display_created_date DESC, ts.display_record_id DESC LIMIT :limit",
         nativeQuery = true)
-    fun getTransactionsForRefunds(
+    fun getTransactionPageByFilters(
         @Param("merchantId") merchantId: String,
-        @Param("createdAtStart") createdAtStart: String?
-    ): List<Transaction>
+        @Param("createdAtStart") createdAtStart: String?,
+        @Param("createdAtEnd") createdAtEnd: String?,
+        @Param("paymentMethod") paymentMethod: String?,
+        @Param("action") action: String?,
+        @Param("status") status: String?,
+        @Param("text") text: String?,
+        @Param("cursorCreatedDate") cursorCreatedDate: Timestamp,
+        @Param("cursorId") cursorId: Long,
+        @Param("limit") limit: Int
+    ): List<Array<Any>>
 
-    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.status = 'SUCCESS' AND (tr.action = 'AUTH'  OR tr.action = 'CAPTURE')" +
-        " AND tr.created_date >= CASE WHEN :createdAtStart <> '' THEN TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-        "AND tr.created_date <= CASE WHEN :createdAtEnd <> '' THEN TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-        "ORDER BY tr.created_date",
+    @Query(
+        "SELECT count(*) FROM (SELECT 1 FROM transaction_state ts " +
+            "JOIN transaction_record tr ON tr.id = ts.display_record_id " +
+            "WHERE ts.merchant_id = :merchantId " +
+            "AND tr.payment_method = CASE WHEN :paymentMethod <> '' THEN CAST(:paymentMethod AS varchar) ELSE tr.payment_method END " +
+            "AND tr.action = CASE WHEN :action <> '' THEN CAST(:action AS varchar) ELSE tr.action END " +
+            "AND tr.status = CASE WHEN :status <> '' THEN CAST(:status AS varchar) ELSE tr.status END " +
+            "AND (COALESCE(CAST(:createdAtStart AS varchar), '') = '' OR tr.created_date >= CAST(TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "AND (COALESCE(CAST(:createdAtEnd AS varchar), '') = '' OR tr.created_date <= CAST(TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "AND ((COALESCE(CAST(:text AS varchar), '') <> '' AND tr.search_text ~* CAST(:text AS varchar)) OR (COALESCE(CAST(:text AS varchar), '') = '' AND tr.reason IS NOT NULL)) " +
+            "LIMIT :countLimit) counted",
         nativeQuery = true)
-    fun getTransactionsForPaymentMethods(
+    fun countTransactionsByFilters(
         @Param("merchantId") merchantId: String,
         @Param("createdAtStart") createdAtStart: String?,
-        @Param("createdAtEnd") createdAtEnd: String?
-    ): List<Transaction>
+        @Param("createdAtEnd") createdAtEnd: String?,
+        @Param("paymentMethod") paymentMethod: String?,
+        @Param("action") action: String?,
+        @Param("status") status: String?,
+        @Param("text") text: String?,
+        @Param("countLimit") countLimit: Int
+    ): BigInteger
 
-    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.processed_notification = FALSE ORDER BY tr.created_date FOR UPDATE OF tr SKIP LOCKED", nativeQuery = true)
-    fun getTransactionsByUnprocessedNotifications(@Param("merchantId") merchantId: String): List<Transaction>
+    @Query("SELECT * FROM transaction_record tr WHERE tr.psp_transaction_id = :pspTransactionId AND (tr.action = :action1 OR tr.action = :action2) ORDER BY created_date DESC LIMIT 1", nativeQuery = true)
+    fun getByPspReferenceAndActions(@Param("pspTransactionId") pspTransactionId: String, @Param("action1") action1: String, @Param("action2") action2: String): Transaction?
 
-    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.status = 'SUCCESS' AND tr.action = 'CHARGEBACK'" +
-        " AND tr.created_date >= CASE WHEN :createdAtStart <> '' THEN TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-        "ORDER BY tr.created_date",
-        nativeQuery = true)
-    fun getTransactionsForChargebacks(
-        @Param("merchantId") merchantId: String,
-        @Param("createdAtStart") createdAtStart: String?
-    ): List<Transaction>
+    @Query("SELECT * FROM transaction_record tr WHERE tr.psp_transaction_id = :pspTransactionId ORDER BY created_date DESC LIMIT 1", nativeQuery = true)
+    fun getByPspReference(@Param("pspTransactionId") pspTransactionId: String): Transaction?
 
-    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId" +
-        " AND tr.created_date >= CASE WHEN :createdAtStart <> '' THEN TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-        "ORDER BY tr.created_date",
+    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.notification = true " +
+        "AND tr.created_date >= CAST(TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp) " +
+        "AND (COALESCE(CAST(:createdAtEnd AS varchar), '') = '' OR tr.created_date <= CAST(TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp))",
         nativeQuery = true)
-    fun getTransactionsOverview(
+    fun getTransactionsWithNotification(
         @Param("merchantId") merchantId: String,
-        @Param("createdAtStart") createdAtStart: String?
+        @Param("createdAtStart") createdAtStart: String,
+        @Param("createdAtEnd") createdAtEnd: String?
     ): List<Transaction>
 
+    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.processed_notification = FALSE AND tr.psp_response IS NOT NULL " +
+        "AND (tr.notification_lease_until IS NULL OR tr.notification_lease_until < timezone('UTC', now())) " +
+        "ORDER BY tr.created_date LIMIT :limit FOR UPDATE OF tr SKIP LOCKED", nativeQuery = true)
+    fun getClaimableNotifications(@Param("merchantId") merchantId: String, @Param("limit") limit: Int): List<Transaction>
+
+    @Modifying
+    @Query("UPDATE transaction_record SET notification_lease_until = timezone('UTC', now()) + CAST(:leaseSeconds AS integer) * INTERVAL '1 second' " +
+        "WHERE id IN :ids", nativeQuery = true)
+    fun leaseNotifications(@Param("ids") ids: List<Long>, @Param("leaseSeconds") leaseSeconds: Int): Int
+
+    @Modifying
+    @Query("UPDATE transaction_record SET processed_notification = TRUE, notification_lease_until = NULL WHERE id IN :ids", nativeQuery = true)
+    fun markNotificationsProcessed(@Param("ids") ids: List<Long>): Int
+
+    @Modifying
+    @Query("UPDATE transaction_record SET notification_attempts = notification_attempts + 1, " +
+        "notification_lease_until = timezone('UTC', now()) + LEAST(CAST(:maxBackoffSeconds AS integer), CAST(:backoffSeconds AS integer) * power(2, LEAST(notification_attempts, 30))) * INTERVAL '1 second' " +
+        "WHERE id IN :ids", nativeQuery = true)
+    fun rescheduleNotifications(@Param("ids") ids: List<Long>, @Param("backoffSeconds") backoffSeconds: Int, @Param("maxBackoffSeconds") maxBackoffSeconds: Int): Int
+
+    @Query("SELECT count(*) FROM transaction_record tr JOIN merchant m ON m.id = tr.merchant_id WHERE tr.processed_notification = FALSE AND tr.psp_response IS NOT NULL AND m.webhook_url <> ''", nativeQuery = true)
+    fun countPendingNotifications(): Long
+
+    @Modifying
+    @Query("UPDATE transaction_record SET status = :status, psp_response = :pspResponse, psp_transaction_id = CAST(:pspTransactionId AS varchar), " +
+        "last_modified_date = timezone('UTC', now()) WHERE id = :id AND psp_response IS NULL", nativeQuery = true)
+    fun completePendingTransaction(
+        @Param("id") id: Long,
+        @Param("status") status: String,
+        @Param("pspResponse") pspResponse: String,
+        @Param("pspTransactionId") pspTransactionId: String?
+    ): Int
+
+    @Modifying
+    @Query("DELETE FROM transaction_record WHERE id = :id AND psp_response IS NULL", nativeQuery = true)
+    fun deletePendingTransaction(@Param("id") id: Long): Int
+
+    @Modifying
+    @Query("UPDATE transaction_record SET status = 'UNKNOWN', last_modified_date = timezone('UTC', now()) " +
+        "WHERE id = :id AND status = 'PENDING' AND psp_response IS NULL", nativeQuery = true)
+    fun markPendingTransactionUnknown(@Param("id") id: Long): Int
+
+    @Query("SELECT * FROM transaction_record tr WHERE tr.status = 'PENDING' AND tr.psp_response IS NULL " +
+        "AND tr.created_date < timezone('UTC', now()) - CAST(:timeoutSeconds AS integer) * INTERVAL '1 second' " +
+        "ORDER BY tr.created_date LIMIT :limit FOR UPDATE OF tr SKIP LOCKED", nativeQuery = true)
+    fun getStalePendingTransactions(@Param("timeoutSeconds") timeoutSeconds: Int, @Param("limit") limit: Int): List<Transaction>
+
+    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.transaction_id = :transactionId " +
+        "AND tr.status = 'UNKNOWN' AND tr.psp_response IS NULL ORDER BY tr.created_date DESC LIMIT 1 FOR UPDATE OF tr", nativeQuery = true)
+    fun getUnknownTransaction(@Param("merchantId") merchantId: String, @Param("transactionId") transactionId: String): Transaction?
+
     @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId AND tr.transaction_id = :transactionId AND tr.status = 'SUCCESS' AND (tr.action = 'AUTH'  OR tr.action = 'PREAUTH')", nativeQuery = true)
     fun getOriginalTransaction(
         @Param("merchantId") merchantId: String,
         @Param("transactionId") transactionId: String
     ): Transaction?
 
-    @Query("SELECT * FROM transaction_record tr WHERE tr.merchant_id = :merchantId " +
-        "AND tr.status = CASE WHEN :status <> '' THEN CAST(:status AS varchar) ELSE tr.status END " +
-        "AND tr.payment_method = CASE WHEN :paymentMethod <> '' THEN CAST(:paymentMethod AS varchar) ELSE tr.payment_method END " +
-        "AND tr.created_date >= CASE WHEN :createdAtStart <> '' THEN TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-        "AND tr.created_date <= CASE WHEN :createdAtEnd <> '' THEN TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') ELSE tr.created_date END " +
-        "AND tr.currency_id = CASE WHEN :currency <> '' THEN CAST(:currency AS varchar) ELSE tr.currency_id END " +
-        "AND tr.amount = CASE WHEN :amount <> '' THEN CAST(CAST(CAST(:amount AS varchar) AS float) AS integer) * 100 ELSE tr.amount END " +
-        "AND tr.merchant_customer_id = CASE WHEN :customerId <> '' THEN CAST(:customerId AS varchar) ELSE tr.merchant_customer_id END " +
-        "AND tr.transaction_id = CASE WHEN :transactionId <> '' THEN CAST(:transactionId AS varchar) ELSE tr.transaction_id END " +
-        "AND tr.merchant_transaction_id = CASE WHEN :merchantTransactionId <> '' THEN CAST(:merchantTransactionId AS varchar) ELSE tr.merchant_transaction_id END " +
-        "AND CASE WHEN :text <> '' THEN (CAST(tr.payment_info AS json)#>>'{pspConfig, type}' ~* CAST(:text AS text) " +
-        "OR tr.reason ~* CAST(:text AS varchar) " +
-        "OR tr.transaction_id ~* CAST(:text AS varchar) " +
-        "OR tr.currency_id ~* CAST(:text AS varchar) " +
-        "OR tr.merchant_transaction_id ~* CAST(:text AS varchar) " +
-        "OR tr.merchant_customer_id ~* CAST(:text AS varchar) " +
-        "OR tr.alias_id ~* CAST(:text AS varchar) " +
-        "OR tr.payment_method ~* CASE WHEN CAST(:text AS varchar) ~* 'pay' THEN 'PAY_PAL' WHEN CAST(:text AS varchar) ~* 'credit' THEN 'CC' ELSE CAST(:text AS varchar) END " +
-        "OR CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccMask}' ~* CAST(:text AS text) " +
-        "OR CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccExpiryDate}' ~* CAST(:text AS text) " +
-        "OR CAST(tr.payment_info AS json)#>>'{extra, ccConfig, ccType}' ~* CAST(:text AS text) " +
-        "OR CAST(tr.payment_info AS json)#>>'{extra, sepaConfig, iban}' ~* CAST(:text AS text)) ELSE tr.reason = tr.reason END " +
-        "ORDER BY tr.created_date",
+    @QueryHints(QueryHint(name = HINT_FETCH_SIZE, value = REPORT_FETCH_SIZE))
+    @Query(
+        "SELECT tr.transaction_id, tr.reason, tr.merchant_customer_id, tr.status, tr.action, tr.payment_method, tr.amount, tr.created_date, " +
+            "orig.amount AS initial_amount, orig.created_date AS initial_created_date FROM transaction_record tr " +
+            "LEFT JOIN LATERAL (" +
+            "SELECT tr1.amount, tr1.created_date FROM transaction_record tr1 " +
+            "WHERE tr1.transaction_id = tr.transaction_id AND tr1.merchant_id = tr.merchant_id AND tr1.status = 'SUCCESS' AND tr1.action IN ('AUTH', 'PREAUTH') " +
+            "ORDER BY tr1.created_date LIMIT 1" +
+            ") orig ON TRUE " +
+            "WHERE tr.merchant_id = :merchantId AND tr.psp_response IS NOT NULL " +
+            "AND tr.status = CASE WHEN :action <> '' THEN 'SUCCESS' ELSE tr.status END " +
+            "AND tr.action = CASE WHEN :action <> '' THEN CAST(:action AS varchar) ELSE tr.action END " +
+            "AND (COALESCE(CAST(:createdAtStart AS varchar), '') = '' OR tr.created_date >= CAST(TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "ORDER BY tr.created_date",
+        nativeQuery = true)
+    fun streamDefaultReport(
+        @Param("merchantId") merchantId: String,
+        @Param("createdAtStart") createdAtStart: String?,
+        @Param("action") action: String
+    ): Stream<Array<Any?>>
+
+    @QueryHints(QueryHint(name = HINT_FETCH_SIZE, value = REPORT_FETCH_SIZE))
+    @Query(
+        "SELECT tr.transaction_id, tr.reason, tr.merchant_customer_id, tr.status, tr.action, tr.payment_method, tr.amount, tr.created_date, " +
+            "orig.amount AS initial_amount, orig.created_date AS initial_created_date FROM transaction_record tr " +
+            "LEFT JOIN LATERAL (" +
+            "SELECT tr1.amount, tr1.created_date FROM transaction_record tr1 " +
+            "WHERE tr1.transaction_id = tr.transaction_id AND tr1.merchant_id = tr.merchant_id AND tr1.status = 'SUCCESS' AND tr1.action IN ('AUTH', 'PREAUTH') " +
+            "ORDER BY tr1.created_date LIMIT 1" +
+            ") orig ON TRUE " +
+            "WHERE tr.merchant_id = :merchantId AND tr.psp_response IS NOT NULL " +
+            "AND tr.status = CASE WHEN :status <> '' THEN CAST(:status AS varchar) ELSE tr.status END " +
+            "AND tr.payment_method = CASE WHEN :paymentMethod <> '' THEN CAST(:paymentMethod AS varchar) ELSE tr.payment_method END " +
+            "AND (COALESCE(CAST(:createdAtStart AS varchar), '') = '' OR tr.created_date >= CAST(TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "AND (COALESCE(CAST(:createdAtEnd AS varchar), '') = '' OR tr.created_date <= CAST(TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+            "AND tr.currency_id = CASE WHEN :currency <> '' THEN CAST(:currency AS varchar) ELSE tr.currency_id END " +
+            "AND tr.amount = CASE WHEN :amount <> '' THEN CAST(CAST(CAST(:amount AS varchar) AS float) AS integer) * 100 ELSE tr.amount END " +
+            "AND tr.merchant_customer_id = CASE WHEN :customerId <> '' THEN CAST(:customerId AS varchar) ELSE tr.merchant_customer_id END " +
+            "AND tr.transaction_id = CASE WHEN :transactionId <> '' THEN CAST(:transactionId AS varchar) ELSE tr.transaction_id END " +
+            "AND tr.merchant_transaction_id = CASE WHEN :merchantTransactionId <> '' THEN CAST(:merchantTransactionId AS varchar) ELSE tr.merchant_transaction_id END " +
+            "AND ((COALESCE(CAST(:text AS varchar), '') <> '' AND tr.search_text ~* CAST(:text AS varchar)) OR (COALESCE(CAST(:text AS varchar), '') = '' AND tr.reason IS NOT NULL)) " +
+            "ORDER BY tr.created_date",
         nativeQuery = true)
-    fun getCustomTransactions(
+    fun streamCustomReport(
         @Param("merchantId") merchantId: String,
         @Param("createdAtStart") createdAtStart: String?,
         @Param("createdAtEnd") createdAtEnd: String?,
@@ -182,5 +244,5 @@ interface TransactionRepository : BaseRepository<Transaction, Long> {
         @Param("customerId") customerId: String?,
         @Param("transactionId") transactionId: String?,
         @Param("merchantTransactionId") merchantTransactionId: String?
-    ): List<Transaction>
+    ): Stream<Array<Any?>>
 }
@@ -0,0 +1,65 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data.repository
+
+import com.mobilabsolutions.payment.data.TransactionRollup
+import com.mobilabsolutions.payment.data.TransactionRollupId
+import com.mobilabsolutions.payment.data.configuration.BaseRepository
+import org.springframework.data.jpa.repository.Modifying
+import org.springframework.data.jpa.repository.Query
+import org.springframework.data.repository.query.Param
+import org.springframework.stereotype.Repository
+import java.sql.Timestamp
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Repository
+interface TransactionRollupRepository : BaseRepository<TransactionRollup, TransactionRollupId> {
+
+    @Modifying
+    @Query("INSERT INTO transaction_rollup AS r (merchant_id, bucket_start, action, status, payment_method, transaction_count, amount_sum, created_date, last_modified_date) " +
+        "VALUES (:merchantId, date_trunc('hour', CAST(:createdDate AS timestamp)), :action, :status, :paymentMethod, 1, :amount, timezone('UTC', now()), timezone('UTC', now())) " +
+        "ON CONFLICT (merchant_id, bucket_start, action, status, payment_method) DO UPDATE SET " +
+        "transaction_count = r.transaction_count + 1, " +
+        "amount_sum = r.amount_sum + EXCLUDED.amount_sum, " +
+        "last_modified_date = timezone('UTC', now())",
+        nativeQuery = true)
+    fun addToTransactionRollup(
+        @Param("merchantId") merchantId: String,
+        @Param("createdDate") createdDate: Timestamp,
+        @Param("action") action: String,
+        @Param("status") status: String,
+        @Param("paymentMethod") paymentMethod: String,
+        @Param("amount") amount: Long
+    ): Int
+
+    @Query("SELECT r.bucket_start, r.action, r.payment_method, r.transaction_count, r.amount_sum FROM transaction_rollup r " +
+        "WHERE r.merchant_id = :merchantId AND r.status = 'SUCCESS' " +
+        "AND r.bucket_start >= date_trunc('hour', CAST(TO_TIMESTAMP(CAST(:createdAtStart AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+        "AND (COALESCE(CAST(:createdAtEnd AS varchar), '') = '' OR r.bucket_start <= CAST(TO_TIMESTAMP(CAST(:createdAtEnd AS text), 'yyyy-MM-dd HH24:MI:SS') AS timestamp)) " +
+        "ORDER BY r.bucket_start",
+        nativeQuery = true)
+    fun getSuccessfulTransactionRollups(
+        @Param("merchantId") merchantId: String,
+        @Param("createdAtStart") createdAtStart: String,
+        @Param("createdAtEnd") createdAtEnd: String?
+    ): List<Array<Any>>
+
+    @Modifying
+    @Query("DELETE FROM transaction_rollup", nativeQuery = true)
+    fun deleteTransactionRollups(): Int
+
+    @Modifying
+    @Query("INSERT INTO transaction_rollup (merchant_id, bucket_start, action, status, payment_method, transaction_count, amount_sum, created_date, last_modified_date) " +
+        "SELECT tr.merchant_id, date_trunc('hour', tr.created_date), tr.action, tr.status, tr.payment_method, count(*), COALESCE(sum(tr.amount), 0), " +
+        "timezone('UTC', now()), timezone('UTC', now()) " +
+        "FROM transaction_record tr " +
+        "WHERE tr.merchant_id IS NOT NULL AND tr.action IS NOT NULL AND tr.status IS NOT NULL AND tr.payment_method IS NOT NULL " +
+        "AND tr.psp_response IS NOT NULL " +
+        "GROUP BY tr.merchant_id, date_trunc('hour', tr.created_date), tr.action, tr.status, tr.payment_method",
+        nativeQuery = true)
+    fun rebuildTransactionRollups(): Int
+}
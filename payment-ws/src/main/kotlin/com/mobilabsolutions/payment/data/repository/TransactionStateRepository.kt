@@ -0,0 +1,67 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data.repository
+
+import com.mobilabsolutions.payment.data.TransactionState
+import com.mobilabsolutions.payment.data.configuration.BaseRepository
+import org.springframework.data.jpa.repository.Modifying
+import org.springframework.data.jpa.repository.Query
+import org.springframework.data.repository.query.Param
+import org.springframework.stereotype.Repository
+import java.sql.Timestamp
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Repository
+interface TransactionStateRepository : BaseRepository<TransactionState, String> {
+
+    @Modifying
+    @Query("INSERT INTO transaction_state AS ts (transaction_id, merchant_id, latest_record_id, display_record_id, display_created_date, success_record_id, created_date, last_modified_date) " +
+        "VALUES (:transactionId, :merchantId, :recordId, " +
+        "CASE WHEN :action <> 'ADDITIONAL' THEN CAST(:recordId AS bigint) END, " +
+        "CASE WHEN :action <> 'ADDITIONAL' THEN CAST(:createdDate AS timestamp) END, " +
+        "CASE WHEN :status = 'SUCCESS' THEN CAST(:recordId AS bigint) END, " +
+        "timezone('UTC', now()), timezone('UTC', now())) " +
+        "ON CONFLICT (transaction_id) DO UPDATE SET " +
+        "latest_record_id = GREATEST(ts.latest_record_id, EXCLUDED.latest_record_id), " +
+        "display_created_date = CASE WHEN ts.display_record_id IS NULL OR EXCLUDED.display_record_id > ts.display_record_id THEN EXCLUDED.display_created_date ELSE ts.display_created_date END, " +
+        "display_record_id = CASE WHEN ts.display_record_id IS NULL OR EXCLUDED.display_record_id > ts.display_record_id THEN EXCLUDED.display_record_id ELSE ts.display_record_id END, " +
+        "success_record_id = GREATEST(ts.success_record_id, EXCLUDED.success_record_id), " +
+        "last_modified_date = timezone('UTC', now())",
+        nativeQuery = true)
+    fun upsertTransactionState(
+        @Param("transactionId") transactionId: String,
+        @Param("merchantId") merchantId: String,
+        @Param("recordId") recordId: Long,
+        @Param("createdDate") createdDate: Timestamp,
+        @Param("action") action: String,
+        @Param("status") status: String
+    ): Int
+
+    @Modifying
+    @Query("INSERT INTO transaction_state AS ts (transaction_id, merchant_id, latest_record_id, display_record_id, display_created_date, success_record_id, created_date, last_modified_date) " +
+        "SELECT tr.transaction_id, max(tr.merchant_id), " +
+        "max(tr.id), " +
+        "max(tr.id) FILTER (WHERE tr.action <> 'ADDITIONAL'), " +
+        "(array_agg(tr.created_date ORDER BY tr.id DESC) FILTER (WHERE tr.action <> 'ADDITIONAL'))[1], " +
+        "max(tr.id) FILTER (WHERE tr.status = 'SUCCESS'), " +
+        "timezone('UTC', now()), timezone('UTC', now()) " +
+        "FROM transaction_record tr WHERE tr.transaction_id IS NOT NULL AND tr.merchant_id IS NOT NULL AND tr.psp_response IS NOT NULL " +
+        "GROUP BY tr.transaction_id " +
+        "ON CONFLICT (transaction_id) DO UPDATE SET " +
+        "merchant_id = EXCLUDED.merchant_id, " +
+        "latest_record_id = EXCLUDED.latest_record_id, " +
+        "display_record_id = EXCLUDED.display_record_id, " +
+        "display_created_date = EXCLUDED.display_created_date, " +
+        "success_record_id = EXCLUDED.success_record_id, " +
+        "last_modified_date = timezone('UTC', now())",
+        nativeQuery = true)
+    fun rebuildTransactionStates(): Int
+
+    @Modifying
+    @Query("DELETE FROM transaction_state ts WHERE NOT EXISTS (SELECT 1 FROM transaction_record tr WHERE tr.id = ts.latest_record_id)", nativeQuery = true)
+    fun deleteOrphanedTransactionStates(): Int
+}
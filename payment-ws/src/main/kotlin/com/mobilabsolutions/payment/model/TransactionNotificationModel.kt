@@ -4,17 +4,51 @@
 
 package com.mobilabsolutions.payment.model
 
+import com.mobilabsolutions.payment.data.enum.PaymentMethod
+import com.mobilabsolutions.payment.data.enum.TransactionAction
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
 import io.swagger.annotations.ApiModel
 import io.swagger.annotations.ApiModelProperty
+import java.time.LocalDateTime
 
 /**
  * @author <a href="mailto:jovana@mobilabsolutions.com">Jovana Veskovic</a>
  */
 @ApiModel("Transaction notification model")
 data class TransactionNotificationModel(
-    @ApiModelProperty(value = "Transaction id")
+    @ApiModelProperty(value = "Transaction record id")
     val id: Long?,
 
     @ApiModelProperty(value = "Merchant id")
-    val merchantId: String?
+    val merchantId: String?,
+
+    @ApiModelProperty(value = "Transaction id")
+    val transactionId: String? = null,
+
+    @ApiModelProperty(value = "Transaction action")
+    val action: TransactionAction? = null,
+
+    @ApiModelProperty(value = "Transaction status")
+    val status: TransactionStatus? = null,
+
+    @ApiModelProperty(value = "Amount in smallest currency unit (e.g. cent)")
+    val amount: Int? = null,
+
+    @ApiModelProperty(value = "Currency")
+    val currencyId: String? = null,
+
+    @ApiModelProperty(value = "Payment method")
+    val paymentMethod: PaymentMethod? = null,
+
+    @ApiModelProperty(value = "Whether the transaction was created from a PSP notification")
+    val notification: Boolean? = null,
+
+    @ApiModelProperty(value = "Creation date in UTC")
+    val createdDate: LocalDateTime? = null,
+
+    @ApiModelProperty(value = "Merchant timezone")
+    val merchantTimezone: String? = null,
+
+    @ApiModelProperty(value = "Merchant default currency")
+    val merchantDefaultCurrency: String? = null
 )
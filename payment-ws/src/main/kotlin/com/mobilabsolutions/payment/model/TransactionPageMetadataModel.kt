@@ -0,0 +1,30 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.model
+
+import io.swagger.annotations.ApiModel
+import io.swagger.annotations.ApiModelProperty
+import java.math.BigInteger
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@ApiModel(value = "Transaction page metadata model")
+data class TransactionPageMetadataModel(
+    @ApiModelProperty(value = "Total transaction count, only present if requested")
+    val totalCount: BigInteger?,
+
+    @ApiModelProperty(value = "Indicates that the total count reached its limit and is a lower bound")
+    val totalCountCapped: Boolean?,
+
+    @ApiModelProperty(value = "Returned transaction count")
+    val pageCount: Int?,
+
+    @ApiModelProperty(value = "Transaction page limit")
+    val limit: Int?,
+
+    @ApiModelProperty(value = "Cursor of the next page, empty if this is the last page")
+    val nextCursor: String?
+)
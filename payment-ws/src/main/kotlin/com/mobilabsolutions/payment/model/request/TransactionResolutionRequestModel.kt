@@ -0,0 +1,24 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.model.request
+
+import io.swagger.annotations.ApiModel
+import io.swagger.annotations.ApiModelProperty
+import javax.validation.constraints.NotNull
+import javax.validation.constraints.Pattern
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@ApiModel("Transaction resolution request model")
+data class TransactionResolutionRequestModel(
+    @ApiModelProperty("Outcome of the transaction as reported by the PSP", example = "Values: SUCCESS, FAIL")
+    @field:NotNull
+    @field:Pattern(regexp = "SUCCESS|FAIL")
+    val status: String?,
+
+    @ApiModelProperty("PSP transaction id", example = "325105132")
+    val pspTransactionId: String?
+)
@@ -5,6 +5,7 @@
 package com.mobilabsolutions.payment.model.request
 
 import io.swagger.annotations.ApiModelProperty
+import javax.validation.constraints.Min
 import javax.validation.constraints.NotNull
 
 /**
@@ -21,5 +22,12 @@ data class WebhookCredentialsRequestModel(
 
     @ApiModelProperty("Webhook password", example = "password")
     @field:NotNull
-    val webhookPassword: String?
+    val webhookPassword: String?,
+
+    @ApiModelProperty("Maximum number of notifications sent in one webhook call, capped by the server limit", example = "50")
+    @field:Min(1)
+    val webhookBatchSize: Int? = null,
+
+    @ApiModelProperty("Whether webhook calls are sent with a gzip compressed body", example = "false")
+    val webhookCompression: Boolean? = false
 )
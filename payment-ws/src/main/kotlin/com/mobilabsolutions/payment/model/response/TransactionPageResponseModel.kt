@@ -0,0 +1,22 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.model.response
+
+import com.mobilabsolutions.payment.model.TransactionModel
+import com.mobilabsolutions.payment.model.TransactionPageMetadataModel
+import io.swagger.annotations.ApiModel
+import io.swagger.annotations.ApiModelProperty
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@ApiModel(value = "Transaction page response model")
+data class TransactionPageResponseModel(
+    @ApiModelProperty(value = "Transaction page metadata")
+    val metadata: TransactionPageMetadataModel?,
+
+    @ApiModelProperty(value = "Transaction model")
+    val transactions: MutableList<TransactionModel> = mutableListOf()
+)
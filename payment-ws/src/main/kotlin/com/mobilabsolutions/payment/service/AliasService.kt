@@ -12,9 +12,9 @@ import com.mobilabsolutions.payment.data.enum.KeyType
 import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
 import com.mobilabsolutions.payment.data.repository.AliasRepository
 import com.mobilabsolutions.payment.data.repository.MerchantApiKeyRepository
+import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.model.AliasExtraModel
 import com.mobilabsolutions.payment.model.PspAliasConfigModel
-import com.mobilabsolutions.payment.model.PspConfigListModel
 import com.mobilabsolutions.payment.model.ThreeDSecureConfigModel
 import com.mobilabsolutions.payment.model.request.AliasRequestModel
 import com.mobilabsolutions.payment.model.request.PspDeleteAliasRequestModel
@@ -38,11 +38,13 @@ import org.springframework.transaction.annotation.Transactional
 class AliasService(
     private val aliasRepository: AliasRepository,
     private val merchantApiKeyRepository: MerchantApiKeyRepository,
+    private val merchantRepository: MerchantRepository,
     private val pspRegistry: PspRegistry,
     private val configValidator: ConfigValidator,
     private val pspAliasValidator: PspAliasValidator,
     private val randomStringGenerator: RandomStringGenerator,
-    private val objectMapper: ObjectMapper
+    private val objectMapper: ObjectMapper,
+    private val pspConfigCache: PspConfigCache
 ) {
     companion object : KLogging() {
         const val ALIAS_ID_LENGTH = 20
@@ -61,15 +63,15 @@ class AliasService(
     @Transactional
     fun createAlias(publishableKey: String, pspType: String, idempotentKey: String, userAgent: String?, pspTestMode: Boolean?): AliasResponseModel {
         logger.info("Creating alias for {} psp", pspType)
-        val merchantApiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.PUBLISHABLE, publishableKey) ?: throw ApiError.ofErrorCode(ApiErrorCode.PUBLISHABLE_KEY_NOT_FOUND).asException()
-        val result = objectMapper.readValue(merchantApiKey.merchant.pspConfig ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_EMPTY).asException(), PspConfigListModel::class.java)
-        val pspConfig = result.psp.firstOrNull { it.type == pspType }
+        val merchant = getMerchantByApiKey(KeyType.PUBLISHABLE, publishableKey) ?: throw ApiError.ofErrorCode(ApiErrorCode.PUBLISHABLE_KEY_NOT_FOUND).asException()
+        if (merchant.pspConfig == null) throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_EMPTY).asException()
+        val pspConfig = PaymentServiceProvider.values().firstOrNull { it.name == pspType }?.let { pspConfigCache.getPspConfig(merchant, it) }
         val pspConfigType = PaymentServiceProvider.valueOf(pspConfig?.type ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_NOT_FOUND, "PSP configuration for '$pspType' cannot be found from given merchant").asException())
         val psp = pspRegistry.find(pspConfigType) ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_IMPL_NOT_FOUND, "PSP implementation '$pspType' cannot be found").asException()
         val calculatedConfig = psp.calculatePspConfig(pspConfig, pspTestMode)
 
         return executeIdempotentAliasOperation(
-            merchantApiKey.merchant,
+            merchant,
             pspConfigType,
             calculatedConfig,
             idempotentKey,
@@ -89,12 +91,11 @@ class AliasService(
     @Transactional
     fun exchangeAlias(publishableKey: String, pspTestMode: Boolean?, userAgent: String?, aliasId: String, aliasRequestModel: AliasRequestModel): Alias3DSResponseModel? {
         logger.info("Exchanging alias {}", aliasId)
-        val apiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.PUBLISHABLE, publishableKey) ?: throw ApiError.ofErrorCode(ApiErrorCode.PUBLISHABLE_KEY_NOT_FOUND).asException()
+        val merchant = getMerchantByApiKey(KeyType.PUBLISHABLE, publishableKey) ?: throw ApiError.ofErrorCode(ApiErrorCode.PUBLISHABLE_KEY_NOT_FOUND).asException()
         val alias = aliasRepository.getFirstByIdAndActive(aliasId, true) ?: throw ApiError.ofErrorCode(ApiErrorCode.ALIAS_NOT_FOUND).asException()
-        if (apiKey.merchant.id != alias.merchant?.id) throw ApiError.ofErrorCode(ApiErrorCode.WRONG_ALIAS_MERCHANT_MAPPING).asException()
-        val result = objectMapper.readValue(apiKey.merchant.pspConfig
-            ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_EMPTY).asException(), PspConfigListModel::class.java)
-        val pspConfig = result.psp.firstOrNull { it.type == alias.psp.toString() }
+        if (merchant.id != alias.merchant?.id) throw ApiError.ofErrorCode(ApiErrorCode.WRONG_ALIAS_MERCHANT_MAPPING).asException()
+        if (merchant.pspConfig == null) throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_EMPTY).asException()
+        val pspConfig = alias.psp?.let { pspConfigCache.getPspConfig(merchant, it) }
         val pspConfigType = PaymentServiceProvider.valueOf(pspConfig?.type
             ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_NOT_FOUND, "PSP configuration for '${alias.psp}' cannot be found from given merchant").asException())
         if (!pspAliasValidator.validate(aliasRequestModel.extra, aliasRequestModel.pspAlias, pspConfigType.name)) throw ApiError.ofErrorCode(ApiErrorCode.PSP_ALIAS_NOT_FOUND).asException()
@@ -140,12 +141,11 @@ class AliasService(
     @Transactional
     fun verifyAlias(publishableKey: String, pspTestMode: Boolean?, userAgent: String?, aliasId: String, verifyAliasRequest: VerifyAliasRequestModel): Alias3DSResponseModel {
         logger.info("Verifying alias {}", aliasId)
-        val apiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.PUBLISHABLE, publishableKey) ?: throw ApiError.ofErrorCode(ApiErrorCode.PUBLISHABLE_KEY_NOT_FOUND).asException()
+        val merchant = getMerchantByApiKey(KeyType.PUBLISHABLE, publishableKey) ?: throw ApiError.ofErrorCode(ApiErrorCode.PUBLISHABLE_KEY_NOT_FOUND).asException()
         val alias = aliasRepository.getFirstByIdAndActive(aliasId, true) ?: throw ApiError.ofErrorCode(ApiErrorCode.ALIAS_NOT_FOUND).asException()
-        if (apiKey.merchant.id != alias.merchant?.id) throw ApiError.ofErrorCode(ApiErrorCode.WRONG_ALIAS_MERCHANT_MAPPING).asException()
-        val result = objectMapper.readValue(apiKey.merchant.pspConfig
-            ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_EMPTY).asException(), PspConfigListModel::class.java)
-        val pspConfig = result.psp.firstOrNull { it.type == alias.psp.toString() }
+        if (merchant.id != alias.merchant?.id) throw ApiError.ofErrorCode(ApiErrorCode.WRONG_ALIAS_MERCHANT_MAPPING).asException()
+        if (merchant.pspConfig == null) throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_EMPTY).asException()
+        val pspConfig = alias.psp?.let { pspConfigCache.getPspConfig(merchant, it) }
         val pspConfigType = PaymentServiceProvider.valueOf(pspConfig?.type
             ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_NOT_FOUND, "PSP configuration for '${alias.psp}' cannot be found from given merchant").asException())
         val psp = pspRegistry.find(pspConfigType)
@@ -190,15 +190,14 @@ class AliasService(
     @Transactional
     fun deleteAlias(secretKey: String, pspTestMode: Boolean?, aliasId: String) {
         BsPayonePsp.logger.info("Deleting alias {}", aliasId)
-        val apiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.SECRET, secretKey) ?: throw ApiError.ofErrorCode(ApiErrorCode.SECRET_KEY_NOT_FOUND).asException()
+        val merchant = getMerchantByApiKey(KeyType.SECRET, secretKey) ?: throw ApiError.ofErrorCode(ApiErrorCode.SECRET_KEY_NOT_FOUND).asException()
         val alias = aliasRepository.getFirstByIdAndActive(aliasId, true) ?: throw ApiError.ofErrorCode(ApiErrorCode.ALIAS_NOT_FOUND).asException()
-        if (apiKey.merchant.id != alias.merchant?.id) throw ApiError.ofErrorCode(ApiErrorCode.WRONG_ALIAS_MERCHANT_MAPPING).asException()
+        if (merchant.id != alias.merchant?.id) throw ApiError.ofErrorCode(ApiErrorCode.WRONG_ALIAS_MERCHANT_MAPPING).asException()
         val aliasExtra = objectMapper.readValue(alias.extra
             ?: throw ApiError.ofErrorCode(ApiErrorCode.INCOMPLETE_ALIAS).asException(),
             AliasExtraModel::class.java)
-        val result = objectMapper.readValue(apiKey.merchant.pspConfig
-            ?: throw throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_EMPTY).asException(), PspConfigListModel::class.java)
-        val pspConfig = result.psp.firstOrNull { it.type == alias.psp.toString() }
+        if (merchant.pspConfig == null) throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_EMPTY).asException()
+        val pspConfig = alias.psp?.let { pspConfigCache.getPspConfig(merchant, it) }
         val pspConfigType = PaymentServiceProvider.valueOf(pspConfig?.type
             ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_NOT_FOUND, "PSP configuration for '${alias.psp}' cannot be found from given merchant").asException())
         val psp = pspRegistry.find(pspConfigType)
@@ -250,4 +249,7 @@ class AliasService(
             }
         }
     }
+
+    private fun getMerchantByApiKey(keyType: KeyType, key: String): Merchant? =
+        merchantApiKeyRepository.getActiveMerchantId(keyType.name, key)?.let { merchantRepository.getMerchantById(it) }
 }
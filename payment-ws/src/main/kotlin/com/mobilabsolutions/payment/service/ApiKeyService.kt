@@ -4,6 +4,7 @@
 
 package com.mobilabsolutions.payment.service
 
+import com.mobilabsolutions.payment.configuration.CacheConfiguration
 import com.mobilabsolutions.payment.data.MerchantApiKey
 import com.mobilabsolutions.payment.data.enum.KeyType
 import com.mobilabsolutions.payment.data.repository.MerchantApiKeyRepository
@@ -17,6 +18,7 @@ import com.mobilabsolutions.server.commons.exception.ApiError
 import com.mobilabsolutions.server.commons.exception.ApiErrorCode
 import mu.KLogging
 import org.apache.commons.lang3.RandomStringUtils
+import org.springframework.cache.annotation.CacheEvict
 import org.springframework.stereotype.Service
 import org.springframework.transaction.annotation.Transactional
 
@@ -125,6 +127,7 @@ class ApiKeyService(
      * @return none
      */
     @Transactional
+    @CacheEvict(cacheNames = [CacheConfiguration.MERCHANT_API_KEY_CACHE], allEntries = true)
     fun deleteMerchantApiKeyById(apiKeyId: Long) {
         if (merchantApiKeyRepository.deleteMerchantApiKeyById(apiKeyId) == 0)
             throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_API_KEY_NOT_FOUND).asException()
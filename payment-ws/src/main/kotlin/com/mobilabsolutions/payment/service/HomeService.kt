@@ -10,10 +10,12 @@ import com.mobilabsolutions.payment.data.enum.TransactionAction
 import com.mobilabsolutions.payment.data.enum.TransactionStatus
 import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRollupRepository
 import com.mobilabsolutions.payment.model.KeyPerformanceModel
 import com.mobilabsolutions.payment.model.NotificationModel
 import com.mobilabsolutions.payment.model.NotificationsModel
 import com.mobilabsolutions.payment.model.TodaysActivityModel
+import com.mobilabsolutions.payment.model.TransactionNotificationModel
 import com.mobilabsolutions.payment.model.response.LiveDataResponseModel
 import com.mobilabsolutions.payment.model.response.NotificationsResponseModel
 import com.mobilabsolutions.payment.model.response.PaymentMethodsOverviewResponseModel
@@ -24,12 +26,14 @@ import com.mobilabsolutions.server.commons.exception.ApiErrorCode
 import mu.KLogging
 import org.springframework.stereotype.Service
 import org.springframework.transaction.annotation.Transactional
+import java.sql.Timestamp
 import java.time.DayOfWeek
 import java.time.Instant
 import java.time.LocalDate
 import java.time.LocalDateTime
 import java.time.LocalTime
 import java.time.ZoneId
+import java.time.ZoneOffset
 import java.time.format.DateTimeFormatter
 import java.time.format.TextStyle
 import java.time.temporal.ChronoUnit
@@ -41,7 +45,8 @@ import java.util.Locale
 @Service
 class HomeService(
     private val transactionRepository: TransactionRepository,
-    private val merchantRepository: MerchantRepository
+    private val merchantRepository: MerchantRepository,
+    private val transactionRollupRepository: TransactionRollupRepository
 ) {
 
     companion object : KLogging() {
@@ -67,12 +72,12 @@ class HomeService(
         logger.info("Getting key performance for merchant {}", merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId)
             ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        val transactions = transactionRepository.getTransactionsByMerchantId(merchantId, getPastDate(merchant, 30), null)
-        val salesVolume = transactions.filter { it.action == TransactionAction.AUTH || it.action == TransactionAction.CAPTURE || it.action == TransactionAction.CHARGEBACK_REVERSED }.sumBy { it.amount!! }
-        val returnedMoney = transactions.filter { it.action == TransactionAction.REFUND || it.action == TransactionAction.CHARGEBACK }.sumBy { it.amount!! }
-        val refundedTransactions = transactions.filter { it.action == TransactionAction.REFUND }.size
-        val chargedbackTransactions = transactions.filter { it.action == TransactionAction.CHARGEBACK }.size
-        return KeyPerformanceModel(salesVolume - returnedMoney, merchant.defaultCurrency, transactions.size, refundedTransactions, chargedbackTransactions)
+        val rollups = getSuccessfulTransactionRollups(merchantId, getPastDate(merchant, 30), null)
+        val salesVolume = rollups.filter { it.action == TransactionAction.AUTH.name || it.action == TransactionAction.CAPTURE.name || it.action == TransactionAction.CHARGEBACK_REVERSED.name }.sumBy { it.amount }
+        val returnedMoney = rollups.filter { it.action == TransactionAction.REFUND.name || it.action == TransactionAction.CHARGEBACK.name }.sumBy { it.amount }
+        val refundedTransactions = rollups.filter { it.action == TransactionAction.REFUND.name }.sumBy { it.count }
+        val chargedbackTransactions = rollups.filter { it.action == TransactionAction.CHARGEBACK.name }.sumBy { it.count }
+        return KeyPerformanceModel(salesVolume - returnedMoney, merchant.defaultCurrency, rollups.sumBy { it.count }, refundedTransactions, chargedbackTransactions)
     }
 
     /**
@@ -115,14 +120,15 @@ class HomeService(
     fun getRefundsOverview(merchantId: String): RefundOverviewResponseModel {
         logger.info("Getting refunded transactions for merchant {}", merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        val transactions = transactionRepository.getTransactionsForRefunds(merchantId, getPastDate(merchant, 6))
+        val rollups = getSuccessfulTransactionRollups(merchantId, getPastDate(merchant, 6), null)
+            .filter { it.action == TransactionAction.REFUND.name }
         val timezone = merchant.timezone ?: ZoneId.systemDefault().toString()
         val refundsMap = LinkedHashMap<String, Int>()
         initRefundsMap(refundsMap)
-        for (transaction in transactions) {
-            val day = DateTimeFormatter.ofPattern(DAY_PATTERN).withZone(ZoneId.of(timezone)).format(transaction.createdDate)
+        for (rollup in rollups) {
+            val day = DateTimeFormatter.ofPattern(DAY_PATTERN).withZone(ZoneId.of(timezone)).format(rollup.bucketStart)
             val amount = refundsMap[day] ?: 0
-            refundsMap[day] = amount.plus(transaction.amount!!)
+            refundsMap[day] = amount.plus(rollup.amount)
         }
         return RefundOverviewResponseModel(refundsMap)
     }
@@ -137,14 +143,16 @@ class HomeService(
     fun getPaymentMethodsOverview(merchantId: String): PaymentMethodsOverviewResponseModel {
         MerchantService.logger.info("Getting payment methods transactions for merchant {}", merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        val transactions = transactionRepository.getTransactionsForPaymentMethods(merchantId, getPastDate(merchant, 6), null)
+        val rollups = getSuccessfulTransactionRollups(merchantId, getPastDate(merchant, 6), null)
+            .filter { it.action == TransactionAction.AUTH.name || it.action == TransactionAction.CAPTURE.name }
         val timezone = merchant.timezone ?: ZoneId.systemDefault().toString()
         val transactionsMap = LinkedHashMap<String, LinkedHashMap<String, Int>>()
         initDailyMap(transactionsMap)
-        for (transaction in transactions) {
-            val day = DateTimeFormatter.ofPattern(DAY_PATTERN).withZone(ZoneId.of(timezone)).format(transaction.createdDate)
-            val amount = transactionsMap[day]!![transaction.paymentMethod!!.name] ?: 0
-            transactionsMap[day]!![transaction.paymentMethod!!.name] = amount + transaction.amount!!
+        for (rollup in rollups) {
+            val day = DateTimeFormatter.ofPattern(DAY_PATTERN).withZone(ZoneId.of(timezone)).format(rollup.bucketStart)
+            val paymentMethods = transactionsMap[day] ?: continue
+            val amount = paymentMethods[rollup.paymentMethod] ?: 0
+            paymentMethods[rollup.paymentMethod] = amount + rollup.amount
         }
         return PaymentMethodsOverviewResponseModel(transactionsMap)
     }
@@ -165,26 +173,26 @@ class HomeService(
         val timezone = merchant.timezone ?: ZoneId.systemDefault().toString()
         val startOfDay = dateFormatterUtc.format(LocalDateTime.parse(date, dateFormatterUtc).with(LocalTime.MIN).atZone(ZoneId.of(timezone)))
         val endOfDay = dateFormatterUtc.format(LocalDateTime.parse(date, dateFormatterUtc).with(LocalTime.MAX).atZone(ZoneId.of(timezone)))
-        val transactions = transactionRepository.getTransactionsForPaymentMethods(merchantId, startOfDay, endOfDay)
+        val rollups = getSuccessfulTransactionRollups(merchantId, startOfDay, endOfDay)
+            .filter { it.action == TransactionAction.AUTH.name || it.action == TransactionAction.CAPTURE.name }
         val transactionsMap = LinkedHashMap<String, Int>()
         initHourlyMap(transactionsMap)
-        for (transaction in transactions) {
-            val hour = (transaction.createdDate!!.atZone(ZoneId.of(timezone)).hour).toString()
+        for (rollup in rollups) {
+            val hour = (rollup.bucketStart.atZone(ZoneId.of(timezone)).hour).toString()
             val amount = transactionsMap[hour] ?: 0
-            transactionsMap[hour] = amount.plus(transaction.amount!!)
+            transactionsMap[hour] = amount.plus(rollup.amount)
         }
         return SelectedDateActivityResponseModel(transactionsMap)
     }
 
     /**
-     * Maps transaction to the live data model
+     * Maps the transaction notification to the live data model, the notification carries all required fields
      *
-     * @param transactionId Transaction Id
+     * @param transactionNotification Transaction notification
      * @return live data response model
      */
-    @Transactional(readOnly = true)
-    fun toLiveData(transactionId: Long): LiveDataResponseModel {
-        val transaction = transactionRepository.getTransactionById(transactionId)
+    fun toLiveData(transactionNotification: TransactionNotificationModel): LiveDataResponseModel {
+        val transaction = transactionNotification.toTransaction()
         logger.info("Sending the live data for merchant {}", transaction.merchant.id)
 
         return when (transaction.action) {
@@ -378,6 +386,17 @@ class HomeService(
         }
     }
 
+    private fun TransactionNotificationModel.toTransaction() = Transaction(
+        transactionId = transactionId,
+        amount = amount,
+        currencyId = currencyId,
+        action = action,
+        status = status,
+        paymentMethod = paymentMethod,
+        notification = notification,
+        merchant = Merchant(id = merchantId, timezone = merchantTimezone, defaultCurrency = merchantDefaultCurrency)
+    ).apply { createdDate = this@toTransaction.createdDate?.toInstant(ZoneOffset.UTC) }
+
     private fun getTransactionTime(transaction: Transaction): String {
         val timezone = transaction.merchant.timezone ?: ZoneId.systemDefault().toString()
         val createdDate = LocalDateTime.ofInstant(transaction.createdDate, ZoneId.of(timezone))
@@ -391,11 +410,31 @@ class HomeService(
         val timezone = merchant.timezone ?: ZoneId.systemDefault().toString()
         val startDate = dateFormatterUtc.format(LocalDateTime.now().minusDays(7).with(LocalTime.MIN).atZone(ZoneId.of(timezone)))
         val endDate = dateFormatterUtc.format(LocalDateTime.now().with(LocalTime.MAX).atZone(ZoneId.of(timezone)))
-        val transactions = transactionRepository.getTransactionsByMerchantId(merchant.id!!, startDate, endDate)
-        for (transaction in transactions) {
-            val day = DateTimeFormatter.ofPattern(DAY_PATTERN).withZone(ZoneId.of(timezone)).format(transaction.createdDate)
-            transactionsMap.computeIfPresent(day) { _, v -> v + 1 }
+        val rollups = getSuccessfulTransactionRollups(merchant.id!!, startDate, endDate)
+        for (rollup in rollups) {
+            val day = DateTimeFormatter.ofPattern(DAY_PATTERN).withZone(ZoneId.of(timezone)).format(rollup.bucketStart)
+            transactionsMap.computeIfPresent(day) { _, v -> v + rollup.count }
         }
         return transactionsMap
     }
+
+    private fun getSuccessfulTransactionRollups(merchantId: String, createdAtStart: String, createdAtEnd: String?): List<TransactionRollupBucket> {
+        return transactionRollupRepository.getSuccessfulTransactionRollups(merchantId, createdAtStart, createdAtEnd).map {
+            TransactionRollupBucket(
+                bucketStart = (it[0] as Timestamp).toInstant(),
+                action = it[1] as String,
+                paymentMethod = it[2] as String,
+                count = (it[3] as Number).toInt(),
+                amount = (it[4] as Number).toInt()
+            )
+        }
+    }
+
+    private class TransactionRollupBucket(
+        val bucketStart: Instant,
+        val action: String,
+        val paymentMethod: String,
+        val count: Int,
+        val amount: Int
+    )
 }
@@ -33,7 +33,8 @@ import org.springframework.web.multipart.MultipartFile
 class MerchantService(
     private val merchantRepository: MerchantRepository,
     private val objectMapper: ObjectMapper,
-    private val authorityRepository: AuthorityRepository
+    private val authorityRepository: AuthorityRepository,
+    private val pspConfigCache: PspConfigCache
 ) {
 
     companion object : KLogging()
@@ -49,34 +50,34 @@ class MerchantService(
     fun addPspConfigForMerchant(merchantId: String, pspConfigRequestModel: PspConfigRequestModel): PspConfigResponseModel {
         logger.info("Adding PSP config for merchant {}", merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        val configList = if (merchant.pspConfig != null) objectMapper.readValue(merchant.pspConfig, PspConfigListModel::class.java) else PspConfigListModel()
+        val configList = PspConfigListModel(pspConfigCache.getPspConfigList(merchant).toMutableList())
 
-        val pspConfig = objectMapper.writeValueAsString(
-            PspConfigListModel(
-                psp = upsertPSPConfig(
-                    configList.psp, PspConfigModel(
-                        default = pspConfigRequestModel.pspConfig.default,
-                        type = pspConfigRequestModel.pspId.toString(),
-                        merchantId = pspConfigRequestModel.pspConfig.merchantId,
-                        portalId = pspConfigRequestModel.pspConfig.portalId,
-                        key = pspConfigRequestModel.pspConfig.key,
-                        accountId = pspConfigRequestModel.pspConfig.accountId,
-                        sandboxMerchantId = pspConfigRequestModel.pspConfig.sandboxMerchantId,
-                        sandboxPublicKey = pspConfigRequestModel.pspConfig.sandboxPublicKey,
-                        sandboxPrivateKey = pspConfigRequestModel.pspConfig.sandboxPrivateKey,
-                        publicKey = pspConfigRequestModel.pspConfig.publicKey,
-                        privateKey = pspConfigRequestModel.pspConfig.privateKey,
-                        currency = pspConfigRequestModel.pspConfig.currency,
-                        country = pspConfigRequestModel.pspConfig.country,
-                        locale = pspConfigRequestModel.pspConfig.locale,
-                        urlPrefix = pspConfigRequestModel.pspConfig.urlPrefix,
-                        sandboxClientEncryptionKey = pspConfigRequestModel.pspConfig.sandboxClientEncryptionKey,
-                        clientEncryptionKey = pspConfigRequestModel.pspConfig.clientEncryptionKey
-                    )
+        val updatedConfigList = PspConfigListModel(
+            psp = upsertPSPConfig(
+                configList.psp, PspConfigModel(
+                    default = pspConfigRequestModel.pspConfig.default,
+                    type = pspConfigRequestModel.pspId.toString(),
+                    merchantId = pspConfigRequestModel.pspConfig.merchantId,
+                    portalId = pspConfigRequestModel.pspConfig.portalId,
+                    key = pspConfigRequestModel.pspConfig.key,
+                    accountId = pspConfigRequestModel.pspConfig.accountId,
+                    sandboxMerchantId = pspConfigRequestModel.pspConfig.sandboxMerchantId,
+                    sandboxPublicKey = pspConfigRequestModel.pspConfig.sandboxPublicKey,
+                    sandboxPrivateKey = pspConfigRequestModel.pspConfig.sandboxPrivateKey,
+                    publicKey = pspConfigRequestModel.pspConfig.publicKey,
+                    privateKey = pspConfigRequestModel.pspConfig.privateKey,
+                    currency = pspConfigRequestModel.pspConfig.currency,
+                    country = pspConfigRequestModel.pspConfig.country,
+                    locale = pspConfigRequestModel.pspConfig.locale,
+                    urlPrefix = pspConfigRequestModel.pspConfig.urlPrefix,
+                    sandboxClientEncryptionKey = pspConfigRequestModel.pspConfig.sandboxClientEncryptionKey,
+                    clientEncryptionKey = pspConfigRequestModel.pspConfig.clientEncryptionKey
                 )
             )
         )
+        val pspConfig = objectMapper.writeValueAsString(updatedConfigList)
         merchantRepository.updateMerchant(pspConfig, merchantId)
+        pspConfigCache.refresh(merchantId, pspConfig, updatedConfigList)
         return PspConfigResponseModel(pspConfigRequestModel.pspId.toString())
     }
 
@@ -90,10 +91,12 @@ class MerchantService(
     fun deletePspConfigForMerchant(merchantId: String, pspId: String) {
         logger.info("Deleting {} PSP config for merchant {}", pspId, merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        val configList = if (merchant.pspConfig != null) objectMapper.readValue(merchant.pspConfig, PspConfigListModel::class.java) else PspConfigListModel()
+        val configList = PspConfigListModel(pspConfigCache.getPspConfigList(merchant).toMutableList())
         val pspConfig = configList.psp.firstOrNull { it.type == pspId }
         configList.psp.remove(pspConfig ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_NOT_FOUND, "PSP configuration for '$pspId' cannot be found from given merchant").asException())
-        merchantRepository.updateMerchant(objectMapper.writeValueAsString(configList), merchantId)
+        val updatedPspConfig = objectMapper.writeValueAsString(configList)
+        merchantRepository.updateMerchant(updatedPspConfig, merchantId)
+        pspConfigCache.refresh(merchantId, updatedPspConfig, configList)
     }
 
     /**
@@ -106,7 +109,7 @@ class MerchantService(
     fun getMerchantConfiguration(merchantId: String): PspConfigListModel {
         logger.info("Retrieving PSP config for merchant {}", merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        return if (merchant.pspConfig != null) objectMapper.readValue(merchant.pspConfig, PspConfigListModel::class.java) else PspConfigListModel()
+        return PspConfigListModel(pspConfigCache.getPspConfigList(merchant).toMutableList())
     }
 
     /**
@@ -120,7 +123,7 @@ class MerchantService(
     fun getMerchantPspConfiguration(merchantId: String, pspId: String): PspConfigModel? {
         logger.info("Adding {} PSP config for merchant {}", pspId, merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        val configList = if (merchant.pspConfig != null) objectMapper.readValue(merchant.pspConfig, PspConfigListModel::class.java) else PspConfigListModel()
+        val configList = PspConfigListModel(pspConfigCache.getPspConfigList(merchant).toMutableList())
         val pspConfig = configList.psp.firstOrNull { it.type == pspId }
         PaymentServiceProvider.valueOf(pspConfig?.type ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_NOT_FOUND, "PSP configuration for '$pspId' cannot be found from given merchant").asException())
         return pspConfig
@@ -137,36 +140,36 @@ class MerchantService(
     fun updatePspConfig(merchantId: String, pspId: String, pspUpsertConfigRequestModel: PspUpsertConfigRequestModel) {
         logger.info("Updating {} PSP config for merchant {}", pspId, merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        val configList = if (merchant.pspConfig != null) objectMapper.readValue(merchant.pspConfig, PspConfigListModel::class.java) else PspConfigListModel()
+        val configList = PspConfigListModel(pspConfigCache.getPspConfigList(merchant).toMutableList())
         PaymentServiceProvider.valueOf(configList.psp.firstOrNull { it.type == pspId }?.type ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_NOT_FOUND, "PSP configuration for '$pspId' cannot be found from given merchant").asException())
 
-        val pspConfig = objectMapper.writeValueAsString(
-            PspConfigListModel(
-                psp = upsertPSPConfig(
-                    configList.psp, PspConfigModel(
-                        default = pspUpsertConfigRequestModel.default,
-                        type = pspId,
-                        merchantId = pspUpsertConfigRequestModel.merchantId,
-                        portalId = pspUpsertConfigRequestModel.portalId,
-                        key = pspUpsertConfigRequestModel.key,
-                        accountId = pspUpsertConfigRequestModel.accountId,
-                        sandboxMerchantId = pspUpsertConfigRequestModel.sandboxMerchantId,
-                        sandboxPublicKey = pspUpsertConfigRequestModel.sandboxPublicKey,
-                        sandboxPrivateKey = pspUpsertConfigRequestModel.sandboxPrivateKey,
-                        publicKey = pspUpsertConfigRequestModel.publicKey,
-                        privateKey = pspUpsertConfigRequestModel.privateKey,
-                        currency = pspUpsertConfigRequestModel.currency,
-                        country = pspUpsertConfigRequestModel.country,
-                        locale = pspUpsertConfigRequestModel.locale,
-                        urlPrefix = pspUpsertConfigRequestModel.urlPrefix,
-                        sandboxClientEncryptionKey = pspUpsertConfigRequestModel.sandboxClientEncryptionKey,
-                        clientEncryptionKey = pspUpsertConfigRequestModel.clientEncryptionKey
-                    )
+        val updatedConfigList = PspConfigListModel(
+            psp = upsertPSPConfig(
+                configList.psp, PspConfigModel(
+                    default = pspUpsertConfigRequestModel.default,
+                    type = pspId,
+                    merchantId = pspUpsertConfigRequestModel.merchantId,
+                    portalId = pspUpsertConfigRequestModel.portalId,
+                    key = pspUpsertConfigRequestModel.key,
+                    accountId = pspUpsertConfigRequestModel.accountId,
+                    sandboxMerchantId = pspUpsertConfigRequestModel.sandboxMerchantId,
+                    sandboxPublicKey = pspUpsertConfigRequestModel.sandboxPublicKey,
+                    sandboxPrivateKey = pspUpsertConfigRequestModel.sandboxPrivateKey,
+                    publicKey = pspUpsertConfigRequestModel.publicKey,
+                    privateKey = pspUpsertConfigRequestModel.privateKey,
+                    currency = pspUpsertConfigRequestModel.currency,
+                    country = pspUpsertConfigRequestModel.country,
+                    locale = pspUpsertConfigRequestModel.locale,
+                    urlPrefix = pspUpsertConfigRequestModel.urlPrefix,
+                    sandboxClientEncryptionKey = pspUpsertConfigRequestModel.sandboxClientEncryptionKey,
+                    clientEncryptionKey = pspUpsertConfigRequestModel.clientEncryptionKey
                 )
             )
         )
 
+        val pspConfig = objectMapper.writeValueAsString(updatedConfigList)
         merchantRepository.updateMerchant(pspConfig, merchantId)
+        pspConfigCache.refresh(merchantId, pspConfig, updatedConfigList)
     }
 
     /**
@@ -225,7 +228,8 @@ class MerchantService(
     fun createWebhookCredentials(merchantId: String, webhookCredentialsRequest: WebhookCredentialsRequestModel) {
         logger.info("Creating webhookUrl credentials for merchant {}", merchantId)
         merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        merchantRepository.updateMerchantWebookCredentials(merchantId, webhookCredentialsRequest.webhookUrl!!, webhookCredentialsRequest.webhookUsername!!, webhookCredentialsRequest.webhookPassword!!)
+        merchantRepository.updateMerchantWebookCredentials(merchantId, webhookCredentialsRequest.webhookUrl!!, webhookCredentialsRequest.webhookUsername!!, webhookCredentialsRequest.webhookPassword!!,
+            webhookCredentialsRequest.webhookBatchSize, webhookCredentialsRequest.webhookCompression ?: false)
     }
 
     private fun checkMerchantAndAuthority(merchantId: String): Boolean {
@@ -0,0 +1,49 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.server.commons.exception.ApiException
+
+/**
+ * Outcome and error tags shared by the payment timers. Errors reported as {@link ApiException} are tagged with
+ * their error code, unexpected exceptions with their class name.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+object MetricTags {
+    const val SUCCESS = "success"
+    const val DECLINED = "declined"
+    const val ERROR = "error"
+    const val FAILURE = "failure"
+    const val NONE = "none"
+
+    /**
+     * Returns the outcome of an operation that ended with the given exception
+     *
+     * @param exception exception, null if the operation succeeded
+     * @return outcome tag
+     */
+    fun outcome(exception: Throwable?): String {
+        return when {
+            exception == null -> SUCCESS
+            ResilientPsp.isFailure(exception) -> FAILURE
+            else -> ERROR
+        }
+    }
+
+    /**
+     * Returns the error of an operation that ended with the given exception
+     *
+     * @param exception exception, null if the operation succeeded
+     * @return error tag
+     */
+    fun error(exception: Throwable?): String {
+        return when (exception) {
+            null -> NONE
+            is ApiException -> exception.errorCode()?.name ?: ERROR
+            else -> exception.javaClass.simpleName
+        }
+    }
+}
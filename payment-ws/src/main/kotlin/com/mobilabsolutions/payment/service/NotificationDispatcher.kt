@@ -0,0 +1,164 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.data.Merchant
+import com.mobilabsolutions.payment.data.Transaction
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.model.MerchantNotificationsModel
+import io.micrometer.core.instrument.MeterRegistry
+import mu.KLogging
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpStatus
+import org.springframework.stereotype.Component
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import javax.annotation.PreDestroy
+
+/**
+ * Delivers merchant webhook notifications on a bounded worker pool. Each merchant has a limited number of
+ * deliveries in flight and no new work is accepted once the pool queue is full, so a slow webhook cannot
+ * pile up work or starve the other merchants.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Component
+class NotificationDispatcher(
+    private val notificationService: NotificationService,
+    private val transactionRepository: TransactionRepository,
+    private val objectMapper: ObjectMapper,
+    private val meterRegistry: MeterRegistry,
+    @Value("\${payment.notification.processing.parallelism:5}") parallelism: Int,
+    @Value("\${payment.notification.processing.queue-capacity:100}") queueCapacity: Int,
+    @Value("\${payment.notification.processing.merchant-concurrency:1}") private val merchantConcurrency: Int,
+    @Value("\${payment.notification.processing.batch-size:100}") private val batchSize: Int,
+    @Value("\${payment.notification.processing.batch-max-bytes:262144}") private val batchMaxBytes: Int,
+    @Value("\${payment.notification.processing.lease-seconds:60}") private val leaseSeconds: Int,
+    @Value("\${payment.notification.processing.backoff-seconds:10}") private val backoffSeconds: Int,
+    @Value("\${payment.notification.processing.max-backoff-seconds:3600}") private val maxBackoffSeconds: Int
+) {
+    companion object : KLogging() {
+        private val PAYLOAD_ENVELOPE_BYTES = "{\"notifications\":[]}".length
+    }
+
+    private val executor = ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+        ArrayBlockingQueue<Runnable>(queueCapacity), ThreadPoolExecutor.AbortPolicy())
+    private val inFlight = ConcurrentHashMap<String, AtomicInteger>()
+    private val pending = AtomicLong()
+
+    init {
+        require(notificationService.webhookTimeoutSeconds < leaseSeconds) {
+            "Webhook timeout of ${notificationService.webhookTimeoutSeconds}s has to be shorter than the notification lease of ${leaseSeconds}s"
+        }
+        meterRegistry.gauge("payment.notification.dispatcher.queue", executor) { it.queue.size.toDouble() }
+        meterRegistry.gauge("payment.notification.dispatcher.active", executor) { it.activeCount.toDouble() }
+        meterRegistry.gauge("payment.notification.pending", pending)
+    }
+
+    /**
+     * Schedules notification delivery for the given merchants, as long as the worker pool accepts work
+     *
+     * @param merchants merchants with a webhook URL
+     */
+    fun dispatch(merchants: List<Merchant>) {
+        pending.set(transactionRepository.countPendingNotifications())
+        for (merchant in merchants) {
+            val merchantId = merchant.id ?: continue
+            val counter = inFlight.computeIfAbsent(merchantId) { AtomicInteger() }
+            while (counter.get() < merchantConcurrency) {
+                counter.incrementAndGet()
+                try {
+                    executor.execute {
+                        try {
+                            deliverNotifications(merchant)
+                        } catch (exception: Exception) {
+                            logger.error(exception) { "Notification delivery failed for merchant '$merchantId'" }
+                        } finally {
+                            counter.decrementAndGet()
+                        }
+                    }
+                } catch (exception: RejectedExecutionException) {
+                    counter.decrementAndGet()
+                    logger.warn { "Notification queue is full, remaining merchants are dispatched on the next run" }
+                    return
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers the unprocessed notifications of the merchant batch by batch. Each batch is limited by the
+     * merchant batch size and split further to keep webhook payloads below the configured size. Webhooks are
+     * called outside of any database transaction, failed batches are rescheduled with a backoff. The lease of the
+     * notifications not delivered yet is extended before each further webhook call, and a call is bounded by the
+     * webhook timeout, which is shorter than the lease, so the notifications are not claimed by another worker
+     * while they are being sent.
+     *
+     * @param merchant Merchant
+     */
+    fun deliverNotifications(merchant: Merchant) {
+        val merchantBatchSize = merchant.webhookBatchSize?.coerceIn(1, batchSize) ?: batchSize
+        do {
+            val transactions = notificationService.claimNotifications(merchant.id!!, merchantBatchSize, leaseSeconds)
+            if (transactions.isEmpty()) return
+            val payloads = splitByPayloadSize(transactions)
+            var delivered = true
+            payloads.forEachIndexed { index, payload ->
+                if (delivered) {
+                    if (index > 0) notificationService.extendLease(payloads.drop(index).flatMap { it.keys }, leaseSeconds)
+                    delivered = send(merchant, payload.values.toMutableList())
+                }
+                notificationService.completeNotifications(payload.keys.toList(), delivered, backoffSeconds, maxBackoffSeconds)
+            }
+        } while (delivered && transactions.size == merchantBatchSize)
+    }
+
+    private fun send(merchant: Merchant, merchantNotifications: MutableList<MerchantNotificationsModel>): Boolean {
+        val start = System.nanoTime()
+        var outcome = MetricTags.FAILURE
+        return try {
+            val status = notificationService.sendNotificationToMerchant(merchant.webhookUrl!!, merchantNotifications,
+                merchant.webhookCompression == true)
+            outcome = if (status == HttpStatus.CREATED.value()) MetricTags.SUCCESS else MetricTags.ERROR
+            status == HttpStatus.CREATED.value()
+        } catch (exception: Exception) {
+            logger.warn { "Webhook call failed for merchant '${merchant.id}': ${exception.message}" }
+            false
+        } finally {
+            meterRegistry.timer("payment.notification.webhook.calls", "outcome", outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS)
+        }
+    }
+
+    private fun splitByPayloadSize(transactions: List<Transaction>): List<Map<Long, MerchantNotificationsModel>> {
+        val payloads = mutableListOf<Map<Long, MerchantNotificationsModel>>()
+        var payload = linkedMapOf<Long, MerchantNotificationsModel>()
+        var payloadBytes = PAYLOAD_ENVELOPE_BYTES
+        transactions.forEach {
+            val notification = MerchantNotificationsModel(it.transactionId, it.status!!.name, it.action!!.name,
+                it.paymentMethod!!.name, it.amount, it.currencyId, it.reason, it.createdDate.toString())
+            val notificationBytes = objectMapper.writeValueAsBytes(notification).size + 1
+            if (payload.isNotEmpty() && payloadBytes + notificationBytes > batchMaxBytes) {
+                payloads.add(payload)
+                payload = linkedMapOf()
+                payloadBytes = PAYLOAD_ENVELOPE_BYTES
+            }
+            payload[it.id!!] = notification
+            payloadBytes += notificationBytes
+        }
+        payloads.add(payload)
+        return payloads
+    }
+
+    @PreDestroy
+    fun shutdown() {
+        executor.shutdown()
+    }
+}
@@ -4,31 +4,101 @@
 
 package com.mobilabsolutions.payment.service
 
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.data.Transaction
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
 import com.mobilabsolutions.payment.model.MerchantNotificationListModel
 import com.mobilabsolutions.payment.model.MerchantNotificationsModel
 import mu.KLogging
-import org.json.JSONObject
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.http.HttpHeaders
+import org.springframework.http.MediaType
 import org.springframework.stereotype.Component
+import org.springframework.transaction.annotation.Transactional
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPOutputStream
 
 /**
  * @author <a href="mailto:mohamed.osman@mobilabsolutions.com">Mohamed Osman</a>
  */
 @Component
-class NotificationService {
-    companion object : KLogging()
+class NotificationService(
+    private val transactionRepository: TransactionRepository,
+    private val objectMapper: ObjectMapper,
+    @Value("\${payment.notification.processing.webhook-timeout-seconds:10}") val webhookTimeoutSeconds: Int
+) {
+    companion object : KLogging() {
+        private const val GZIP_ENCODING = "gzip"
+    }
+
+    /**
+     * Claims the oldest unprocessed notifications of the merchant by leasing them. The row locks are only held
+     * until the lease is written, leased notifications are skipped by other workers until the lease expires.
+     *
+     * @param merchantId Merchant ID
+     * @param batchSize maximum number of notifications to claim
+     * @param leaseSeconds lease duration in seconds
+     * @return claimed transactions
+     */
+    @Transactional
+    fun claimNotifications(merchantId: String, batchSize: Int, leaseSeconds: Int): List<Transaction> {
+        val transactions = transactionRepository.getClaimableNotifications(merchantId, batchSize)
+        if (transactions.isNotEmpty()) transactionRepository.leaseNotifications(transactions.map { it.id!! }, leaseSeconds)
+        return transactions
+    }
+
+    /**
+     * Extends the lease of claimed notifications that are not completed yet
+     *
+     * @param ids transaction record IDs
+     * @param leaseSeconds lease duration in seconds
+     */
+    @Transactional
+    fun extendLease(ids: List<Long>, leaseSeconds: Int) {
+        if (ids.isEmpty()) return
+        transactionRepository.leaseNotifications(ids, leaseSeconds)
+    }
 
     /**
-     * Sends notification to the merchant
+     * Completes claimed notifications. Delivered notifications are marked as processed, the others are
+     * retried after an exponential backoff.
+     *
+     * @param ids transaction record IDs
+     * @param delivered whether the merchant accepted the notifications
+     * @param backoffSeconds backoff of the first retry in seconds
+     * @param maxBackoffSeconds maximum backoff in seconds
+     */
+    @Transactional
+    fun completeNotifications(ids: List<Long>, delivered: Boolean, backoffSeconds: Int, maxBackoffSeconds: Int) {
+        if (ids.isEmpty()) return
+        if (delivered) transactionRepository.markNotificationsProcessed(ids)
+        else transactionRepository.rescheduleNotifications(ids, backoffSeconds, maxBackoffSeconds)
+    }
+
+    /**
+     * Sends notification to the merchant. Connecting and each read of the response are limited by the webhook
+     * timeout.
      *
      * @param webhookUrl url to send the notification to
      * @param merchantNotifications the list of merchant notifications
+     * @param compress whether the request body is gzip compressed
      */
-    fun sendNotificationToMerchant(webhookUrl: String, merchantNotifications: MutableList<MerchantNotificationsModel>): Int {
+    fun sendNotificationToMerchant(webhookUrl: String, merchantNotifications: MutableList<MerchantNotificationsModel>, compress: Boolean): Int {
+        val payload = objectMapper.writeValueAsBytes(MerchantNotificationListModel(merchantNotifications))
+        val headers = mutableMapOf(HttpHeaders.CONTENT_TYPE to MediaType.APPLICATION_JSON_VALUE)
+        if (compress) headers[HttpHeaders.CONTENT_ENCODING] = GZIP_ENCODING
         return khttp.put(
             url = webhookUrl,
-            json = JSONObject(MerchantNotificationListModel().apply {
-                notifications.addAll(merchantNotifications)
-            }
-        )).statusCode
+            headers = headers,
+            data = ByteArrayInputStream(if (compress) gzip(payload) else payload),
+            timeout = webhookTimeoutSeconds.toDouble()
+        ).statusCode
+    }
+
+    private fun gzip(payload: ByteArray): ByteArray {
+        val output = ByteArrayOutputStream(payload.size / 4)
+        GZIPOutputStream(output).use { it.write(payload) }
+        return output.toByteArray()
     }
 }
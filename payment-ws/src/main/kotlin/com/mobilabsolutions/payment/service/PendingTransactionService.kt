@@ -0,0 +1,175 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.data.IdempotencyReservation
+import com.mobilabsolutions.payment.data.Transaction
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.data.repository.IdempotencyReservationRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.model.request.TransactionResolutionRequestModel
+import com.mobilabsolutions.payment.model.response.PaymentResponseModel
+import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
+import com.mobilabsolutions.server.commons.exception.ApiError
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import mu.KLogging
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import org.springframework.transaction.annotation.Transactional
+
+/**
+ * Records payment operations in short database transactions around the PSP call. An operation is first
+ * recorded as a pending transaction, the PSP is called without holding a database connection and the PSP
+ * response is applied to the pending transaction afterwards. A pending transaction is left without a PSP response
+ * whenever the outcome of the PSP call is unknown: the call timed out, the PSP could not be reached or the
+ * application stopped during the call. The reconciliation marks such transactions as unknown, it never decides
+ * their outcome: an administrator resolves them with the outcome reported by the PSP, which also answers retries
+ * waiting on their idempotent key.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Service
+class PendingTransactionService(
+    private val transactionRepository: TransactionRepository,
+    private val idempotencyReservationRepository: IdempotencyReservationRepository,
+    private val transactionStateService: TransactionStateService,
+    private val objectMapper: ObjectMapper,
+    @Value("\${payment.transaction.reconciliation.pending-timeout-seconds:300}") private val pendingTimeoutSeconds: Int,
+    @Value("\${payment.transaction.reconciliation.batch-size:100}") private val reconciliationBatchSize: Int,
+    @Value("\${payment.transaction.idempotency.wait-millis:2000}") private val idempotencyWaitMillis: Long
+) {
+    companion object : KLogging() {
+        const val UNKNOWN_OUTCOME_MESSAGE = "PSP call did not complete, the transaction outcome has to be verified with the PSP"
+        const val RESOLVED_OUTCOME_MESSAGE = "Transaction outcome was resolved manually after verifying it with the PSP"
+        const val IDEMPOTENCY_POLL_MILLIS = 100L
+    }
+
+    /**
+     * Records the transaction as pending. If an idempotent key is given, it is reserved in the same database
+     * transaction and the existing reservation is returned instead when the key was reserved before.
+     *
+     * @param transaction Pending transaction
+     * @param idempotentKey Idempotent key
+     * @param requestHash Request hash
+     * @return existing idempotency reservation, null if the transaction was recorded
+     */
+    @Transactional
+    fun begin(transaction: Transaction, idempotentKey: String? = null, requestHash: String? = null): IdempotencyReservation? {
+        val merchantId = transaction.merchant.id!!
+        if (idempotentKey != null && idempotencyReservationRepository.reserveIdempotentKey(merchantId, idempotentKey, requestHash!!) == 0) {
+            return idempotencyReservationRepository.getReservation(merchantId, idempotentKey)
+                ?: throw ApiError.ofErrorCode(ApiErrorCode.IDEMPOTENT_REQUEST_IN_PROGRESS).asException()
+        }
+        transaction.status = TransactionStatus.PENDING
+        transactionRepository.save(transaction)
+        return null
+    }
+
+    /**
+     * Applies the PSP response to the pending transaction and completes the idempotency reservation
+     *
+     * @param transaction Pending transaction
+     * @param pspPaymentResponse PSP payment response
+     * @param idempotentKey Idempotent key
+     * @return Payment response model
+     */
+    @Transactional
+    fun complete(transaction: Transaction, pspPaymentResponse: PspPaymentResponseModel, idempotentKey: String? = null): PaymentResponseModel {
+        transaction.status = pspPaymentResponse.status ?: TransactionStatus.FAIL
+        transaction.pspResponse = objectMapper.writeValueAsString(pspPaymentResponse)
+        transaction.pspTransactionId = pspPaymentResponse.pspTransactionId
+        val paymentResponse = PaymentResponseModel(
+            transaction.transactionId, transaction.amount,
+            transaction.currencyId, transaction.status,
+            transaction.action, pspPaymentResponse.errorMessage
+        )
+
+        val updated = transactionRepository.completePendingTransaction(transaction.id!!, transaction.status!!.name,
+            transaction.pspResponse!!, transaction.pspTransactionId)
+        if (updated == 0) {
+            logger.error { "Transaction record '${transaction.id}' of transaction '${transaction.transactionId}' was already completed before the PSP responded with ${transaction.status}" }
+            return paymentResponse
+        }
+        transactionStateService.updateTransactionState(transaction)
+        if (idempotentKey != null) {
+            idempotencyReservationRepository.completeReservation(transaction.merchant.id!!, idempotentKey, objectMapper.writeValueAsString(paymentResponse))
+        }
+        return paymentResponse
+    }
+
+    /**
+     * Removes the pending transaction and releases the idempotent key after the PSP rejected the operation
+     *
+     * @param transaction Pending transaction
+     * @param idempotentKey Idempotent key
+     */
+    @Transactional
+    fun abort(transaction: Transaction, idempotentKey: String? = null) {
+        transactionRepository.deletePendingTransaction(transaction.id!!)
+        if (idempotentKey != null) idempotencyReservationRepository.releaseReservation(transaction.merchant.id!!, idempotentKey)
+    }
+
+    /**
+     * Waits for the response of a request that holds the same idempotent key. The reservation is polled outside of
+     * a database transaction until it is completed or the idempotency wait elapses, so a concurrent duplicate of a
+     * request whose PSP call finishes in time gets the stored response instead of a conflict.
+     *
+     * @param reservation Idempotency reservation without a response
+     * @return stored response, null if the request did not complete within the wait or was released
+     */
+    fun awaitResponse(reservation: IdempotencyReservation): String? {
+        val merchantId = reservation.reservationId.merchantId!!
+        val idempotentKey = reservation.reservationId.idempotentKey!!
+        val deadline = System.currentTimeMillis() + idempotencyWaitMillis
+        var remaining = idempotencyWaitMillis
+        while (remaining > 0) {
+            Thread.sleep(Math.min(IDEMPOTENCY_POLL_MILLIS, remaining))
+            val current = idempotencyReservationRepository.getReservation(merchantId, idempotentKey) ?: return null
+            if (current.response != null) return current.response
+            remaining = deadline - System.currentTimeMillis()
+        }
+        return null
+    }
+
+    /**
+     * Resolves a transaction with unknown outcome with the outcome reported by the PSP. The transaction is
+     * completed like a late PSP response would complete it, so its idempotency reservation stores the response
+     * and retries with the same idempotent key are answered with it.
+     *
+     * @param merchantId Merchant id
+     * @param transactionId Transaction id
+     * @param resolution Outcome reported by the PSP
+     * @return Payment response model
+     */
+    @Transactional
+    fun resolveUnknownTransaction(merchantId: String, transactionId: String, resolution: TransactionResolutionRequestModel): PaymentResponseModel {
+        val transaction = transactionRepository.getUnknownTransaction(merchantId, transactionId)
+            ?: throw ApiError.ofErrorCode(ApiErrorCode.TRANSACTION_NOT_FOUND, "Transaction with unknown outcome cannot be found").asException()
+        logger.info { "Resolving transaction record '${transaction.id}' of transaction '$transactionId' for merchant '$merchantId' as ${resolution.status}" }
+        return complete(
+            transaction,
+            PspPaymentResponseModel(resolution.pspTransactionId, TransactionStatus.valueOf(resolution.status!!), null, null, RESOLVED_OUTCOME_MESSAGE),
+            transaction.idempotentKey
+        )
+    }
+
+    /**
+     * Marks the pending transactions whose PSP call did not finish within the pending timeout as unknown. Their
+     * idempotency reservations stay unresolved, so retries with the same idempotent key are not answered with an
+     * invented outcome, and a PSP response arriving later still completes them.
+     *
+     * @return number of reconciled transactions
+     */
+    @Transactional
+    fun reconcilePendingTransactions(): Int {
+        val transactions = transactionRepository.getStalePendingTransactions(pendingTimeoutSeconds, reconciliationBatchSize)
+        transactions.forEach {
+            logger.error { "Transaction record '${it.id}' of transaction '${it.transactionId}' for merchant '${it.merchant.id}' needs review: $UNKNOWN_OUTCOME_MESSAGE" }
+            transactionRepository.markPendingTransactionUnknown(it.id!!)
+        }
+        return transactions.size
+    }
+}
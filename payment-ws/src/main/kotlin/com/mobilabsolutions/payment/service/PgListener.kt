@@ -5,7 +5,6 @@
 package com.mobilabsolutions.payment.service
 
 import com.fasterxml.jackson.databind.ObjectMapper
-import com.mobilabsolutions.payment.data.repository.MerchantUserRepository
 import com.mobilabsolutions.payment.model.TransactionNotificationModel
 import io.vertx.core.AsyncResult
 import io.vertx.core.Vertx
@@ -18,13 +17,13 @@ import org.springframework.stereotype.Component
 import java.util.concurrent.SynchronousQueue
 
 /**
- * Listens to postgres notifications, and sends them via WebSocket to the client.
+ * Listens to postgres notifications, and sends them via WebSocket to the client. The live data is published
+ * once per notification on the topic of the merchant, every node publishes to its own subscribers.
  *
  * @author <a href="mailto:jovana@mobilabsolutions.com">Jovana Veskovic</a>
  */
 @Component
 class PgListener(
-    private val merchantUserRepository: MerchantUserRepository,
     private val homeService: HomeService,
     private val objectMapper: ObjectMapper,
     private val simpleMessagingTemplate: SimpMessagingTemplate,
@@ -37,7 +36,7 @@ class PgListener(
 
     companion object : KLogging() {
         private const val POSTGRES_CHANNEL = "transaction_record"
-        private const val TOPIC_NAME = "/topic/transactions"
+        const val TOPIC_PREFIX = "/topic/transactions/"
     }
 
     init {
@@ -62,10 +61,8 @@ class PgListener(
                 logger.info { "Listening to live data." }
                 try {
                     val transactionNotification = objectMapper.readValue(payload, TransactionNotificationModel::class.java)
-                    val merchantUsers = merchantUserRepository.getMerchantUsers(transactionNotification.merchantId!!)
-                    merchantUsers.forEach { user ->
-                        simpleMessagingTemplate.convertAndSendToUser(user.email!!, PgListener.TOPIC_NAME, homeService.toLiveData(transactionNotification.id!!))
-                    }
+                    simpleMessagingTemplate.convertAndSend(PgListener.TOPIC_PREFIX + transactionNotification.merchantId!!,
+                        homeService.toLiveData(transactionNotification))
                 } catch (exception: Exception) {
                     logger.error("An error occurred while listening to live data: {}", exception.message)
                 }
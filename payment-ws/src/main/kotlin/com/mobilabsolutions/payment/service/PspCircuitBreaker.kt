@@ -0,0 +1,113 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+/**
+ * Count based circuit breaker for PSP calls. The outcome of the last calls is kept in a sliding window, the
+ * circuit opens once the failure rate or the slow call rate of the window reaches its threshold. After the
+ * open period a single probe call is let through, which either closes the circuit again or keeps it open.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class PspCircuitBreaker(
+    private val windowSize: Int,
+    private val minimumCalls: Int,
+    private val failureRateThreshold: Int,
+    private val slowCallMillis: Long,
+    private val slowCallRateThreshold: Int,
+    private val openMillis: Long,
+    private val clock: () -> Long = System::currentTimeMillis
+) {
+    enum class State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private val failedCalls = BooleanArray(windowSize)
+    private val slowCalls = BooleanArray(windowSize)
+    private var position = 0
+    private var calls = 0
+    private var failures = 0
+    private var slow = 0
+    private var openedAt = 0L
+    private var probeInFlight = false
+
+    @get:Synchronized
+    var state = State.CLOSED
+        private set
+
+    /**
+     * Returns whether a call is permitted in the current state
+     *
+     * @return true if the call may be made
+     */
+    @Synchronized
+    fun tryAcquire(): Boolean {
+        if (state == State.OPEN && clock() - openedAt >= openMillis) {
+            state = State.HALF_OPEN
+            probeInFlight = false
+        }
+        return when (state) {
+            State.CLOSED -> true
+            State.OPEN -> false
+            State.HALF_OPEN -> if (probeInFlight) false else {
+                probeInFlight = true
+                true
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a permitted call
+     *
+     * @param failed whether the call failed
+     * @param durationMillis call duration in milliseconds
+     */
+    @Synchronized
+    fun onResult(failed: Boolean, durationMillis: Long) {
+        val isSlow = durationMillis >= slowCallMillis
+        when (state) {
+            State.HALF_OPEN -> if (failed || isSlow) open() else close()
+            State.CLOSED -> {
+                record(failed, isSlow)
+                if (calls >= minimumCalls &&
+                    (failures * 100 >= failureRateThreshold * calls || slow * 100 >= slowCallRateThreshold * calls)) open()
+            }
+            State.OPEN -> Unit
+        }
+    }
+
+    private fun record(failed: Boolean, isSlow: Boolean) {
+        if (calls == windowSize) {
+            if (failedCalls[position]) failures--
+            if (slowCalls[position]) slow--
+        } else {
+            calls++
+        }
+        failedCalls[position] = failed
+        slowCalls[position] = isSlow
+        if (failed) failures++
+        if (isSlow) slow++
+        position = (position + 1) % windowSize
+    }
+
+    private fun open() {
+        state = State.OPEN
+        openedAt = clock()
+        probeInFlight = false
+    }
+
+    private fun close() {
+        state = State.CLOSED
+        probeInFlight = false
+        failedCalls.fill(false)
+        slowCalls.fill(false)
+        position = 0
+        calls = 0
+        failures = 0
+        slow = 0
+    }
+}
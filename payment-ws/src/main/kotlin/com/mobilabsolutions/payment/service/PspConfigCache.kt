@@ -0,0 +1,82 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.github.benmanes.caffeine.cache.Cache
+import com.github.benmanes.caffeine.cache.Caffeine
+import com.mobilabsolutions.payment.data.Merchant
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.model.PspConfigListModel
+import com.mobilabsolutions.payment.model.PspConfigModel
+import org.springframework.stereotype.Component
+
+/**
+ * Keeps the decoded PSP configuration of each merchant, so that it is not parsed from JSON on every request.
+ * Entries are versioned by the raw configuration they were decoded from, a merchant loaded with a different
+ * configuration is decoded again and replaces the cached entry.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Component
+class PspConfigCache(private val objectMapper: ObjectMapper) {
+    private val cache: Cache<String, CachedPspConfig> = Caffeine.newBuilder()
+        .maximumSize(MAX_MERCHANTS)
+        .build()
+
+    /**
+     * Returns the PSP configuration of the merchant for the given PSP
+     *
+     * @param merchant Merchant
+     * @param psp Payment service provider
+     * @return PSP configuration or null if the merchant has none for the given PSP
+     */
+    fun getPspConfig(merchant: Merchant, psp: PaymentServiceProvider): PspConfigModel? {
+        return getCachedPspConfig(merchant).configs[psp]
+    }
+
+    /**
+     * Returns all PSP configurations of the merchant in their stored order
+     *
+     * @param merchant Merchant
+     * @return PSP configuration list
+     */
+    fun getPspConfigList(merchant: Merchant): List<PspConfigModel> {
+        return getCachedPspConfig(merchant).configList
+    }
+
+    /**
+     * Replaces the cached PSP configuration after it has been written for the merchant
+     *
+     * @param merchantId Merchant Id
+     * @param pspConfig Stored PSP configuration
+     * @param configList PSP configuration list the stored configuration was written from
+     */
+    fun refresh(merchantId: String, pspConfig: String, configList: PspConfigListModel) {
+        cache.put(merchantId, CachedPspConfig(pspConfig, configList.psp))
+    }
+
+    private fun getCachedPspConfig(merchant: Merchant): CachedPspConfig {
+        val cached = merchant.id?.let { cache.getIfPresent(it) }
+        if (cached != null && cached.version == merchant.pspConfig) return cached
+
+        val configList = if (merchant.pspConfig != null) objectMapper.readValue(merchant.pspConfig, PspConfigListModel::class.java) else PspConfigListModel()
+        val decoded = CachedPspConfig(merchant.pspConfig, configList.psp)
+        merchant.id?.let { cache.put(it, decoded) }
+        return decoded
+    }
+
+    private class CachedPspConfig(val version: String?, configList: List<PspConfigModel>) {
+        val configList: List<PspConfigModel> = configList.toList()
+        val configs: Map<PaymentServiceProvider, PspConfigModel> = configList
+            .mapNotNull { config -> PaymentServiceProvider.values().firstOrNull { it.name == config.type }?.let { it to config } }
+            .distinctBy { it.first }
+            .toMap()
+    }
+
+    companion object {
+        const val MAX_MERCHANTS = 10000L
+    }
+}
@@ -5,14 +5,30 @@
 package com.mobilabsolutions.payment.service
 
 import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import io.micrometer.core.instrument.MeterRegistry
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Component
 import javax.annotation.PostConstruct
 
 /**
+ * Registry of the PSP implementations. Every implementation is wrapped in a {@link ResilientPsp}, so each
+ * provider gets its own bulkhead and circuit breaker.
+ *
  * @author <a href="mailto:doruk@mobilabsolutions.com">Doruk Coskun</a>
  */
 @Component
-class PspRegistry(private val psp: List<Psp>) {
+class PspRegistry(
+    private val psp: List<Psp>,
+    private val meterRegistry: MeterRegistry,
+    @Value("\${payment.psp.bulkhead.max-concurrent-calls:20}") private val maxConcurrentCalls: Int,
+    @Value("\${payment.psp.bulkhead.max-wait-millis:100}") private val maxWaitMillis: Long,
+    @Value("\${payment.psp.circuit-breaker.window-size:20}") private val windowSize: Int,
+    @Value("\${payment.psp.circuit-breaker.minimum-calls:10}") private val minimumCalls: Int,
+    @Value("\${payment.psp.circuit-breaker.failure-rate-threshold:50}") private val failureRateThreshold: Int,
+    @Value("\${payment.psp.circuit-breaker.slow-call-millis:10000}") private val slowCallMillis: Long,
+    @Value("\${payment.psp.circuit-breaker.slow-call-rate-threshold:80}") private val slowCallRateThreshold: Int,
+    @Value("\${payment.psp.circuit-breaker.open-millis:30000}") private val openMillis: Long
+) {
     private var pspMap: Map<PaymentServiceProvider, Psp> = mapOf()
 
     fun find(provider: PaymentServiceProvider): Psp? {
@@ -21,6 +37,9 @@ class PspRegistry(private val psp: List<Psp>) {
 
     @PostConstruct
     fun init() {
-        pspMap = psp.map { it.getProvider() to it }.toMap()
+        pspMap = psp.map {
+            it.getProvider() to ResilientPsp(it, PspCircuitBreaker(windowSize, minimumCalls, failureRateThreshold, slowCallMillis,
+                slowCallRateThreshold, openMillis), maxConcurrentCalls, maxWaitMillis, meterRegistry)
+        }.toMap()
     }
 }
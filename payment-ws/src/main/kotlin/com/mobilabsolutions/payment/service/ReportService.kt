@@ -6,7 +6,6 @@ package com.mobilabsolutions.payment.service
 
 import com.mobilabsolutions.payment.data.Filter
 import com.mobilabsolutions.payment.data.Merchant
-import com.mobilabsolutions.payment.data.Transaction
 import com.mobilabsolutions.payment.data.enum.ReportType
 import com.mobilabsolutions.payment.data.enum.TransactionAction
 import com.mobilabsolutions.payment.data.enum.TransactionStatus
@@ -23,10 +22,12 @@ import org.springframework.stereotype.Service
 import org.springframework.transaction.annotation.Transactional
 import org.supercsv.io.CsvBeanWriter
 import org.supercsv.prefs.CsvPreference
+import java.sql.Timestamp
 import java.time.Instant
 import java.time.ZoneId
 import java.time.format.DateTimeFormatter
 import java.time.temporal.ChronoUnit
+import java.util.stream.Stream
 import javax.servlet.http.HttpServletResponse
 
 /**
@@ -60,13 +61,14 @@ class ReportService(
         logger.info("Downloading default report of type {} for merchant {}", reportType, merchantId)
         val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
         val timezone = merchant.timezone ?: ZoneId.systemDefault().toString()
-        val transactions = when (reportType) {
-            ReportType.OVERVIEW.name -> transactionRepository.getTransactionsOverview(merchantId, getPastDate(merchant, 30))
-            ReportType.REFUND.name -> transactionRepository.getTransactionsForRefunds(merchantId, getPastDate(merchant, 30))
-            else -> transactionRepository.getTransactionsForChargebacks(merchantId, getPastDate(merchant, 30))
+        val action = when (reportType) {
+            ReportType.OVERVIEW.name -> ""
+            ReportType.REFUND.name -> TransactionAction.REFUND.name
+            else -> TransactionAction.CHARGEBACK.name
         }
+        val rows = transactionRepository.streamDefaultReport(merchantId, getPastDate(merchant, 30), action)
 
-        writeToCsv(response, transactions, merchantId, timezone, defaultCsvHeaders)
+        writeToCsv(response, rows, timezone, defaultCsvHeaders)
     }
 
     /**
@@ -107,9 +109,9 @@ class ReportService(
         val timezone = merchant.timezone ?: ZoneId.systemDefault().toString()
         val filter = filterRepository.getFilterById(filterName)
             ?: filterRepository.save(Filter(filterName, createdAtStart, createdAtEnd, status, paymentMethod, text, currency, amount, customerId, transactionId, merchantTransactionId, merchant))
-        val transactions = transactionRepository.getCustomTransactions(merchantId, filter.createdAtStart, filter.createdAtEnd, filter.paymentMethod, filter.status, filter.text, filter.currency, filter.amount, filter.customerId, filter.transactionId, filter.merchantTransactionId)
+        val rows = transactionRepository.streamCustomReport(merchantId, filter.createdAtStart, filter.createdAtEnd, filter.paymentMethod, filter.status, filter.text, filter.currency, filter.amount, filter.customerId, filter.transactionId, filter.merchantTransactionId)
 
-        writeToCsv(response, transactions, merchantId, timezone, customCsvHeaders)
+        writeToCsv(response, rows, timezone, customCsvHeaders)
     }
 
     /**
@@ -126,24 +128,32 @@ class ReportService(
         return FiltersListResponseModel(filtersList)
     }
 
-    private fun writeToCsv(response: HttpServletResponse, transactions: List<Transaction>, merchantId: String, timezone: String, csvHeaders: Array<String>) {
-        CsvBeanWriter(response.writer, CsvPreference.STANDARD_PREFERENCE).use { csvWriter ->
-            csvWriter.writeHeader(*csvHeaders)
-            for (transaction in transactions) {
-                val originalTransaction = transactionRepository.getOriginalTransaction(merchantId, transaction.transactionId!!)
-                val currentTransaction = DashboardReportModel(
-                    csvWriter.lineNumber,
-                    transaction.transactionId,
-                    if (originalTransaction != null) originalTransaction.amount!!.toDouble().div(100).toString() else "-",
-                    if (originalTransaction != null) originalTransaction.createdDate!!.atZone(ZoneId.of(timezone)).format(dateFormatter).toString() else "-",
-                    transaction.reason,
-                    transaction.merchantCustomerId,
-                    mapStatus(transaction.status!!.name, transaction.action!!.name),
-                    transaction.paymentMethod!!.name,
-                    transaction.amount!!.toDouble().div(100).toString(),
-                    transaction.createdDate!!.atZone(ZoneId.of(timezone)).format(dateFormatter).toString()
-                )
-                csvWriter.write(currentTransaction, *csvHeaders)
+    /**
+     * Writes the report rows to the response as they are fetched from the database cursor. Each row holds
+     * the transaction record columns followed by the amount and creation date of the original transaction.
+     */
+    private fun writeToCsv(response: HttpServletResponse, rows: Stream<Array<Any?>>, timezone: String, csvHeaders: Array<String>) {
+        val zoneId = ZoneId.of(timezone)
+        rows.use { stream ->
+            CsvBeanWriter(response.writer, CsvPreference.STANDARD_PREFERENCE).use { csvWriter ->
+                csvWriter.writeHeader(*csvHeaders)
+                stream.forEach { row ->
+                    val initialAmount = row[8] as Number?
+                    val initialCreatedDate = row[9] as Timestamp?
+                    val currentTransaction = DashboardReportModel(
+                        csvWriter.lineNumber,
+                        row[0] as String?,
+                        initialAmount?.toDouble()?.div(100)?.toString() ?: "-",
+                        initialCreatedDate?.toInstant()?.atZone(zoneId)?.format(dateFormatter) ?: "-",
+                        row[1] as String?,
+                        row[2] as String?,
+                        mapStatus(row[3] as String?, row[4] as String?),
+                        row[5] as String?,
+                        (row[6] as Number).toDouble().div(100).toString(),
+                        (row[7] as Timestamp).toInstant().atZone(zoneId).format(dateFormatter)
+                    )
+                    csvWriter.write(currentTransaction, *csvHeaders)
+                }
             }
         }
     }
@@ -0,0 +1,122 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.model.PspAliasConfigModel
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.payment.model.request.PspCaptureRequestModel
+import com.mobilabsolutions.payment.model.request.PspDeleteAliasRequestModel
+import com.mobilabsolutions.payment.model.request.PspPaymentRequestModel
+import com.mobilabsolutions.payment.model.request.PspRefundRequestModel
+import com.mobilabsolutions.payment.model.request.PspRegisterAliasRequestModel
+import com.mobilabsolutions.payment.model.request.PspReversalRequestModel
+import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
+import com.mobilabsolutions.payment.model.response.PspRegisterAliasResponseModel
+import com.mobilabsolutions.server.commons.exception.ApiError
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import com.mobilabsolutions.server.commons.exception.ApiException
+import io.micrometer.core.instrument.MeterRegistry
+import io.micrometer.core.instrument.Tags
+import mu.KLogging
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Isolates the calls to a PSP. Each provider has its own bulkhead limiting the concurrent calls and its own
+ * circuit breaker, so a slow or failing provider fails fast instead of tying up threads and connections
+ * needed by the other providers. Errors reported by the PSP module itself ({@link ApiException}) are regular
+ * outcomes and do not count as failures, only unexpected exceptions, PSP communication errors and slow calls do.
+ * Every call is timed per provider and operation, tagged with its outcome and error code.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+class ResilientPsp(
+    private val delegate: Psp,
+    private val circuitBreaker: PspCircuitBreaker,
+    maxConcurrentCalls: Int,
+    private val maxWaitMillis: Long,
+    private val meterRegistry: MeterRegistry
+) : Psp by delegate {
+    companion object : KLogging() {
+        /**
+         * Returns whether the exception of a PSP call leaves its outcome unknown, as opposed to an error the PSP
+         * module reported for a rejected operation
+         *
+         * @param exception exception of the PSP call
+         * @return true if the call failed
+         */
+        fun isFailure(exception: Throwable): Boolean {
+            return exception !is ApiException || exception.errorCode() == ApiErrorCode.PSP_COMMUNICATION_ERROR
+        }
+    }
+
+    private val provider = delegate.getProvider().name
+    private val bulkhead = Semaphore(maxConcurrentCalls)
+
+    init {
+        meterRegistry.gauge("payment.psp.bulkhead.available", Tags.of("provider", provider), bulkhead) { it.availablePermits().toDouble() }
+        meterRegistry.gauge("payment.psp.circuit.state", Tags.of("provider", provider), circuitBreaker) { it.state.ordinal.toDouble() }
+    }
+
+    override fun calculatePspConfig(pspConfigModel: PspConfigModel?, pspTestMode: Boolean?): PspAliasConfigModel? =
+        call("calculatePspConfig") { delegate.calculatePspConfig(pspConfigModel, pspTestMode) }
+
+    override fun registerAlias(pspRegisterAliasRequestModel: PspRegisterAliasRequestModel, pspTestMode: Boolean?): PspRegisterAliasResponseModel? =
+        call("registerAlias") { delegate.registerAlias(pspRegisterAliasRequestModel, pspTestMode) }
+
+    override fun verify3DSAlias(pspRegisterAliasRequestModel: PspRegisterAliasRequestModel, pspTestMode: Boolean?): PspRegisterAliasResponseModel? =
+        call("verify3DSAlias") { delegate.verify3DSAlias(pspRegisterAliasRequestModel, pspTestMode) }
+
+    override fun preauthorize(pspPaymentRequestModel: PspPaymentRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+        call("preauthorize") { delegate.preauthorize(pspPaymentRequestModel, pspTestMode) }
+
+    override fun authorize(pspPaymentRequestModel: PspPaymentRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+        call("authorize") { delegate.authorize(pspPaymentRequestModel, pspTestMode) }
+
+    override fun capture(pspCaptureRequestModel: PspCaptureRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+        call("capture") { delegate.capture(pspCaptureRequestModel, pspTestMode) }
+
+    override fun reverse(pspReversalRequestModel: PspReversalRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+        call("reverse") { delegate.reverse(pspReversalRequestModel, pspTestMode) }
+
+    override fun refund(pspRefundRequestModel: PspRefundRequestModel, pspTestMode: Boolean?): PspPaymentResponseModel =
+        call("refund") { delegate.refund(pspRefundRequestModel, pspTestMode) }
+
+    override fun deleteAlias(pspDeleteAliasRequestModel: PspDeleteAliasRequestModel, pspTestMode: Boolean?) =
+        call("deleteAlias") { delegate.deleteAlias(pspDeleteAliasRequestModel, pspTestMode) }
+
+    private fun <T> call(operation: String, pspCall: () -> T): T {
+        if (!bulkhead.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+            meterRegistry.counter("payment.psp.rejected", "provider", provider, "operation", operation, "reason", "bulkhead").increment()
+            throw ApiError.ofErrorCode(ApiErrorCode.PSP_BUSY, "Too many concurrent requests to $provider").asException()
+        }
+        try {
+            if (!circuitBreaker.tryAcquire()) {
+                meterRegistry.counter("payment.psp.rejected", "provider", provider, "operation", operation, "reason", "circuit").increment()
+                throw ApiError.ofErrorCode(ApiErrorCode.PSP_UNAVAILABLE, "$provider is temporarily unavailable").asException()
+            }
+            val start = System.nanoTime()
+            var outcome: String = MetricTags.FAILURE
+            var error: Throwable? = null
+            try {
+                return pspCall().also { outcome = if (it is PspPaymentResponseModel && it.status == TransactionStatus.FAIL) MetricTags.DECLINED else MetricTags.SUCCESS }
+            } catch (exception: Exception) {
+                outcome = MetricTags.outcome(exception)
+                error = exception
+                throw exception
+            } finally {
+                val durationNanos = System.nanoTime() - start
+                val failed = outcome == MetricTags.FAILURE
+                circuitBreaker.onResult(failed, TimeUnit.NANOSECONDS.toMillis(durationNanos))
+                meterRegistry.timer("payment.psp.calls", "provider", provider, "operation", operation, "outcome", outcome, "error", MetricTags.error(error))
+                    .record(durationNanos, TimeUnit.NANOSECONDS)
+                if (failed) logger.warn { "$provider $operation call failed, circuit is ${circuitBreaker.state}" }
+            }
+        } finally {
+            bulkhead.release()
+        }
+    }
+}
@@ -10,20 +10,28 @@ import com.mobilabsolutions.payment.data.enum.TransactionStatus
 import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.data.repository.TransactionRepository
 import com.mobilabsolutions.payment.model.PaymentInfoModel
+import com.mobilabsolutions.payment.model.TransactionModel
+import com.mobilabsolutions.payment.model.TransactionPageMetadataModel
 import com.mobilabsolutions.payment.model.TransactionReportModel
 import com.mobilabsolutions.payment.model.TransactionTimelineModel
 import com.mobilabsolutions.payment.model.response.TransactionDetailsResponseModel
 import com.mobilabsolutions.payment.model.response.TransactionListResponseModel
+import com.mobilabsolutions.payment.model.response.TransactionPageResponseModel
 import com.mobilabsolutions.server.commons.exception.ApiError
 import com.mobilabsolutions.server.commons.exception.ApiErrorCode
 import org.springframework.stereotype.Service
 import org.springframework.transaction.annotation.Transactional
 import org.supercsv.io.CsvBeanWriter
 import org.supercsv.prefs.CsvPreference
+import java.math.BigInteger
+import java.nio.charset.StandardCharsets
+import java.sql.Timestamp
 import java.text.SimpleDateFormat
+import java.time.Instant
 import java.time.ZoneId
 import java.time.ZoneId.systemDefault
 import java.time.format.DateTimeFormatter
+import java.util.Base64
 import java.util.Date
 import java.util.concurrent.TimeUnit
 import javax.servlet.http.HttpServletResponse
@@ -49,6 +57,12 @@ class TransactionDetailsService(
         const val DATE_FORMAT = "yyyy-MM-dd HH:mm:ss"
         const val DATE_FORMAT_UTC = "yyyy-MM-dd'T'HH:mm:ss'Z'"
 
+        const val MAX_COUNTED_TRANSACTIONS = 10000
+        const val DEFAULT_PAGE_LIMIT = 10
+        const val MAX_PAGE_LIMIT = 100L
+        const val CURSOR_SEPARATOR = "|"
+        val FIRST_PAGE_CREATED_DATE: Instant = Instant.parse("9999-12-31T23:59:59Z")
+
         val csvHeaders = arrayOf("no", "id", "amount", "currency", "status", "reason", "customerId", "paymentMethod", "createdDate")
     }
 
@@ -126,6 +140,58 @@ class TransactionDetailsService(
         return transactionList
     }
 
+    /**
+     * Get a page of transactions by given filters, starting after the given cursor
+     *
+     * @param merchantId
+     * @param createdAtStart created date start
+     * @param createdAtEnd created date end
+     * @param paymentMethod payment method
+     * @param action action
+     * @param status status
+     * @param text any transaction related information
+     * @param limit requested transaction page limit, between 1 and [MAX_PAGE_LIMIT]
+     * @param cursor cursor returned with the previous page, null for the first page
+     * @param includeCount whether the total count should be returned
+     * @return filtered transaction page
+     */
+    @Transactional(readOnly = true)
+    fun getTransactionPageByFilters(
+        merchantId: String,
+        createdAtStart: String?,
+        createdAtEnd: String?,
+        paymentMethod: String?,
+        action: String?,
+        status: String?,
+        text: String?,
+        limit: Int,
+        cursor: String?,
+        includeCount: Boolean
+    ): TransactionPageResponseModel {
+        if (limit < 1 || limit > MAX_PAGE_LIMIT) throw ApiError.ofErrorCode(ApiErrorCode.VALIDATION_ERROR, "Limit must be between 1 and $MAX_PAGE_LIMIT").asException()
+        val merchant = merchantRepository.getMerchantById(merchantId)
+            ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
+        val (cursorCreatedDate, cursorId) = if (cursor != null) decodeCursor(cursor) else Pair(FIRST_PAGE_CREATED_DATE, Long.MAX_VALUE)
+        val transactions = transactionRepository.getTransactionPageByFilters(merchantId, createdAtStart, createdAtEnd, paymentMethod,
+            action, status, text, Timestamp.from(cursorCreatedDate), cursorId, limit)
+        if (transactions.isEmpty() && cursor == null) throw ApiError.ofErrorCode(ApiErrorCode.TRANSACTIONS_NOT_FOUND).asException()
+
+        val totalCount = if (includeCount) transactionRepository.countTransactionsByFilters(merchantId, createdAtStart, createdAtEnd,
+            paymentMethod, action, status, text, MAX_COUNTED_TRANSACTIONS) else null
+        val timezone = merchant.timezone ?: systemDefault().toString()
+
+        return TransactionPageResponseModel(
+            TransactionPageMetadataModel(
+                totalCount,
+                totalCount?.let { it >= BigInteger.valueOf(MAX_COUNTED_TRANSACTIONS.toLong()) },
+                transactions.size,
+                limit,
+                if (transactions.size == limit) encodeCursor(transactions.last()) else null
+            ),
+            transactions.asSequence().map { TransactionModel(it, timezone) }.toMutableList()
+        )
+    }
+
     /**
      * Writes the transaction list to csv file
      *
@@ -184,6 +250,20 @@ class TransactionDetailsService(
         if (diff > 366) throw ApiError.ofErrorCode(ApiErrorCode.EXCEEDED_MAX_TRANSACTION_SEARCH_PERIOD).asException()
     }
 
+    private fun encodeCursor(transaction: Array<Any>): String {
+        val cursor = "${(transaction[8] as Timestamp).toInstant()}$CURSOR_SEPARATOR${(transaction[9] as Number).toLong()}"
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.toByteArray(StandardCharsets.UTF_8))
+    }
+
+    private fun decodeCursor(cursor: String): Pair<Instant, Long> {
+        try {
+            val decoded = String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(CURSOR_SEPARATOR)
+            return Pair(Instant.parse(decoded[0]), decoded[1].toLong())
+        } catch (exception: RuntimeException) {
+            throw ApiError.ofErrorCode(ApiErrorCode.INVALID_TRANSACTION_CURSOR).asException()
+        }
+    }
+
     private fun mapStatus(status: String?, action: String?): String {
         return when {
             status == TransactionStatus.SUCCESS.name && action == TransactionAction.PREAUTH.name -> PREAUTHORIZED
@@ -0,0 +1,78 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import mu.KLogging
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import java.time.YearMonth
+import java.time.ZoneOffset
+
+/**
+ * Keeps the transaction_record table limited to the transactions of the last months. Older transaction
+ * records are either moved to monthly archive partitions or deleted, batch by batch so that no long running
+ * database transaction is needed. Archive partitions past the archive retention are dropped as a whole. Only
+ * the instance holding the retention lock applies the retention, the other instances skip it.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Service
+class TransactionRetentionService(
+    private val transactionRepository: TransactionRepository,
+    @Value("\${payment.transaction.retention.mode:NONE}") private val mode: Mode,
+    @Value("\${payment.transaction.retention.months:24}") private val retentionMonths: Long,
+    @Value("\${payment.transaction.retention.archive-months:0}") private val archiveMonths: Long,
+    @Value("\${payment.transaction.retention.batch-size:1000}") private val batchSize: Int
+) {
+    companion object : KLogging()
+
+    enum class Mode {
+        NONE,
+        ARCHIVE,
+        DELETE
+    }
+
+    /**
+     * Archives or deletes the transaction records created before the retention period and drops the archive
+     * partitions created before the archive retention period
+     *
+     * @param today Current month
+     * @return number of archived or deleted transaction records
+     */
+    fun applyRetention(today: YearMonth = YearMonth.now(ZoneOffset.UTC)): Int {
+        if (mode == Mode.NONE) return 0
+        return transactionRepository.withRetentionLock { applyLockedRetention(today) } ?: run {
+            logger.info { "Skipped transaction retention, it is applied by another instance" }
+            0
+        }
+    }
+
+    private fun applyLockedRetention(today: YearMonth): Int {
+        val cutoff = today.minusMonths(retentionMonths)
+        var processed = 0
+        var month = transactionRepository.getOldestTransactionMonth() ?: cutoff
+        while (month < cutoff) {
+            if (mode == Mode.ARCHIVE) transactionRepository.createArchivePartition(month)
+            do {
+                val batch = if (mode == Mode.ARCHIVE) transactionRepository.archiveTransactions(month, batchSize)
+                else transactionRepository.deleteTransactions(month, batchSize)
+                processed += batch
+            } while (batch == batchSize)
+            logger.info { "Applied ${mode.name.toLowerCase()} retention to transaction records of $month" }
+            month = month.plusMonths(1)
+        }
+        if (processed > 0) transactionRepository.deleteOrphanedTransactionStates(cutoff)
+        if (mode == Mode.ARCHIVE && archiveMonths > 0) dropArchivePartitions(today.minusMonths(archiveMonths))
+        return processed
+    }
+
+    private fun dropArchivePartitions(before: YearMonth) {
+        transactionRepository.getArchivePartitions().filter { it < before }.forEach {
+            logger.info { "Dropping transaction record archive of $it" }
+            transactionRepository.dropArchivePartition(it)
+        }
+    }
+}
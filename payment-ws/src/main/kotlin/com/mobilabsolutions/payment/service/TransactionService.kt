@@ -17,9 +17,7 @@ import com.mobilabsolutions.payment.data.repository.MerchantApiKeyRepository
 import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.data.repository.TransactionRepository
 import com.mobilabsolutions.payment.model.AliasExtraModel
-import com.mobilabsolutions.payment.model.MerchantNotificationsModel
 import com.mobilabsolutions.payment.model.PaymentInfoModel
-import com.mobilabsolutions.payment.model.PspConfigListModel
 import com.mobilabsolutions.payment.model.PspConfigModel
 import com.mobilabsolutions.payment.model.request.PaymentDataRequestModel
 import com.mobilabsolutions.payment.model.request.PaymentRequestModel
@@ -38,7 +36,6 @@ import mu.KLogging
 import org.apache.commons.lang3.RandomStringUtils
 import org.apache.commons.lang3.StringUtils
 import org.springframework.beans.factory.annotation.Value
-import org.springframework.http.HttpStatus
 import org.springframework.stereotype.Service
 import org.springframework.transaction.annotation.Transactional
 
@@ -54,7 +51,9 @@ class TransactionService(
     private val pspRegistry: PspRegistry,
     private val requestHashing: RequestHashing,
     private val objectMapper: ObjectMapper,
-    private val notificationService: NotificationService
+    private val pspConfigCache: PspConfigCache,
+    private val transactionStateService: TransactionStateService,
+    private val pendingTransactionService: PendingTransactionService
 ) {
 
     @Value("\${payment.ws.notification.apiKey:}")
@@ -69,14 +68,13 @@ class TransactionService(
      * @param authorizeInfo Payment information
      * @return Payment response model
      */
-    @Transactional
     fun authorize(
         secretKey: String,
         idempotentKey: String,
         pspTestMode: Boolean?,
         authorizeInfo: PaymentRequestModel
     ): PaymentResponseModel {
-        val apiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.SECRET, secretKey)
+        val merchant = getMerchantByApiKey(KeyType.SECRET, secretKey)
                 ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_API_KEY_NOT_FOUND).asException()
         val alias = aliasRepository.getFirstByIdAndActive(authorizeInfo.aliasId!!, true)
                 ?: throw ApiError.ofErrorCode(ApiErrorCode.ALIAS_NOT_FOUND).asException()
@@ -93,7 +91,7 @@ class TransactionService(
         )
         return executeIdempotentTransactionOperation(
             alias = alias,
-            merchant = apiKey.merchant,
+            merchant = merchant,
             idempotentKey = idempotentKey,
             paymentInfo = authorizeInfo,
             pspTestMode = pspTestMode,
@@ -109,14 +107,13 @@ class TransactionService(
      * @param preauthorizeInfo Payment information
      * @return Payment response model
      */
-    @Transactional
     fun preauthorize(
         secretKey: String,
         idempotentKey: String,
         pspTestMode: Boolean?,
         preauthorizeInfo: PaymentRequestModel
     ): PaymentResponseModel {
-        val apiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.SECRET, secretKey)
+        val merchant = getMerchantByApiKey(KeyType.SECRET, secretKey)
             ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_API_KEY_NOT_FOUND).asException()
         val alias = aliasRepository.getFirstByIdAndActive(preauthorizeInfo.aliasId!!, true)
             ?: throw throw ApiError.ofErrorCode(ApiErrorCode.ALIAS_NOT_FOUND).asException()
@@ -135,7 +132,7 @@ class TransactionService(
         )
         return executeIdempotentTransactionOperation(
             alias = alias,
-            merchant = apiKey.merchant,
+            merchant = merchant,
             idempotentKey = idempotentKey,
             paymentInfo = preauthorizeInfo,
             pspTestMode = pspTestMode,
@@ -151,7 +148,6 @@ class TransactionService(
      * @param transactionId Transaction ID
      * @return Payment response model
      */
-    @Transactional
     fun dashboardCapture(
         merchantId: String,
         pspTestMode: Boolean?,
@@ -170,15 +166,14 @@ class TransactionService(
      * @param transactionId Transaction ID
      * @return Payment response model
      */
-    @Transactional
     fun capture(
         secretKey: String,
         pspTestMode: Boolean?,
         transactionId: String
     ): PaymentResponseModel {
-        val apiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.SECRET, secretKey)
+        val merchant = getMerchantByApiKey(KeyType.SECRET, secretKey)
             ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_API_KEY_NOT_FOUND).asException()
-        return capture(pspTestMode, transactionId, apiKey.merchant)
+        return capture(pspTestMode, transactionId, merchant)
     }
 
     /**
@@ -190,7 +185,6 @@ class TransactionService(
      * @param reverseInfo Reversion request model
      * @return Payment response model
      */
-    @Transactional
     fun dashboardReverse(
         merchantId: String,
         pspTestMode: Boolean?,
@@ -211,16 +205,15 @@ class TransactionService(
      * @param reverseInfo Reversion request model
      * @return Payment response model
      */
-    @Transactional
     fun reverse(
         secretKey: String,
         pspTestMode: Boolean?,
         transactionId: String,
         reverseInfo: ReversalRequestModel
     ): PaymentResponseModel {
-        val apiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.SECRET, secretKey)
+        val merchant = getMerchantByApiKey(KeyType.SECRET, secretKey)
             ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_API_KEY_NOT_FOUND).asException()
-        return reverse(pspTestMode, transactionId, reverseInfo, apiKey.merchant)
+        return reverse(pspTestMode, transactionId, reverseInfo, merchant)
     }
 
     /**
@@ -233,7 +226,6 @@ class TransactionService(
      * @param refundInfo Payment information
      * @return Payment response model
      */
-    @Transactional
     fun dashboardRefund(
         merchantId: String,
         idempotentKey: String,
@@ -256,7 +248,6 @@ class TransactionService(
      * @param refundInfo Payment information
      * @return Payment response model
      */
-    @Transactional
     fun refund(
         secretKey: String,
         idempotentKey: String,
@@ -264,9 +255,9 @@ class TransactionService(
         transactionId: String,
         refundInfo: PaymentDataRequestModel
     ): PaymentResponseModel {
-        val apiKey = merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.SECRET, secretKey)
+        val merchant = getMerchantByApiKey(KeyType.SECRET, secretKey)
             ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_API_KEY_NOT_FOUND).asException()
-        return refund(idempotentKey, pspTestMode, transactionId, refundInfo, apiKey.merchant)
+        return refund(idempotentKey, pspTestMode, transactionId, refundInfo, merchant)
     }
 
     /**
@@ -304,12 +295,14 @@ class TransactionService(
                     merchantCustomerId = transaction.merchantCustomerId,
                     pspTestMode = transaction.pspTestMode,
                     pspResponse = transaction.pspResponse,
+                    pspTransactionId = transaction.pspTransactionId,
                     merchant = transaction.merchant,
                     alias = transaction.alias,
                     notification = true,
                     processedNotification = false
                 )
                 transactionRepository.save(newTransaction)
+                transactionStateService.updateTransactionState(newTransaction)
 
                 logger.info { "PSP transaction '${it.pspTransactionId}' is successfully processed for transaction action '${it.transactionAction}'" }
             } else {
@@ -318,34 +311,12 @@ class TransactionService(
         }
     }
 
-    /**
-     * Processes notification for transactions for specific merchant and forward the notifications
-     * to the merchant
-     *
-     * @param merchantId Merchant ID
-     */
-    @Transactional
-    fun processNotifications(merchantId: String) {
-        val merchant = merchantRepository.getMerchantById(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_NOT_FOUND).asException()
-        val transactions = transactionRepository.getTransactionsByUnprocessedNotifications(merchantId)
-        val merchantNotifications = transactions.asSequence().map { MerchantNotificationsModel(it.transactionId, it.status!!.name,
-            it.action!!.name, it.paymentMethod!!.name, it.amount, it.currencyId, it.reason, it.createdDate.toString()) }.toMutableList()
-        val statusCode = notificationService.sendNotificationToMerchant(merchant.webhookUrl!!, merchantNotifications)
-        transactions.forEach {
-            it.processedNotification = (statusCode == HttpStatus.CREATED.value())
-            transactionRepository.save(it)
-        }
-    }
-
     private fun capture(
         pspTestMode: Boolean?,
         transactionId: String,
         merchant: Merchant
     ): PaymentResponseModel {
-        val lastTransaction = transactionRepository.getByTransactionIdAndStatus(
-            transactionId,
-            TransactionStatus.SUCCESS.toString()
-        )
+        val lastTransaction = transactionRepository.getLatestSuccessfulByTransactionId(transactionId)
             ?: throw ApiError.ofErrorCode(ApiErrorCode.TRANSACTION_NOT_FOUND).asException()
         if (lastTransaction.action != TransactionAction.PREAUTH && lastTransaction.action != TransactionAction.CAPTURE)
             throw ApiError.ofErrorCode(ApiErrorCode.TRANSACTION_NOT_ALLOWED, "${lastTransaction.action} transaction cannot be captured").asException()
@@ -379,31 +350,23 @@ class TransactionService(
                     pspConfig = getPspConfig(lastTransaction.alias!!),
                     purchaseId = lastTransaction.merchantTransactionId
                 )
-                val pspPaymentResponse = psp.capture(pspCaptureRequest, pspTestMode)
-                val newTransaction = Transaction(
+                val pendingTransaction = Transaction(
                     transactionId = transactionId,
                     idempotentKey = lastTransaction.idempotentKey,
                     currencyId = lastTransaction.currencyId,
                     amount = lastTransaction.amount,
                     reason = lastTransaction.reason,
-                    status = pspPaymentResponse.status,
                     action = TransactionAction.CAPTURE,
                     paymentMethod = lastTransaction.paymentMethod,
                     paymentInfo = objectMapper.writeValueAsString(readPaymentInfo(lastTransaction)),
-                    pspResponse = objectMapper.writeValueAsString(pspPaymentResponse),
                     merchantTransactionId = lastTransaction.merchantTransactionId,
                     merchantCustomerId = lastTransaction.merchantCustomerId,
                     pspTestMode = pspTestMode ?: lastTransaction.pspTestMode,
                     merchant = lastTransaction.merchant,
                     alias = lastTransaction.alias
                 )
-                transactionRepository.save(newTransaction)
-
-                return PaymentResponseModel(
-                    newTransaction.transactionId, newTransaction.amount,
-                    newTransaction.currencyId, newTransaction.status,
-                    newTransaction.action, pspPaymentResponse.errorMessage
-                )
+                pendingTransactionService.begin(pendingTransaction)
+                return executePspOperation(pendingTransaction) { psp.capture(pspCaptureRequest, pspTestMode) }
             }
         }
     }
@@ -414,10 +377,7 @@ class TransactionService(
         reverseInfo: ReversalRequestModel,
         merchant: Merchant
     ): PaymentResponseModel {
-        val lastTransaction = transactionRepository.getByTransactionIdAndStatus(
-            transactionId,
-            TransactionStatus.SUCCESS.toString()
-        )
+        val lastTransaction = transactionRepository.getLatestSuccessfulByTransactionId(transactionId)
             ?: throw ApiError.ofErrorCode(ApiErrorCode.TRANSACTION_NOT_FOUND).asException()
         if (lastTransaction.action != TransactionAction.PREAUTH && lastTransaction.action != TransactionAction.REVERSAL)
             throw ApiError.ofErrorCode(ApiErrorCode.TRANSACTION_NOT_ALLOWED, "${lastTransaction.action} transaction cannot be reversed").asException()
@@ -450,31 +410,23 @@ class TransactionService(
                     pspConfig = getPspConfig(lastTransaction.alias!!),
                     purchaseId = lastTransaction.merchantTransactionId
                 )
-                val pspReversalResponse = psp.reverse(pspReversalRequest, pspTestMode)
-                val newTransaction = Transaction(
+                val pendingTransaction = Transaction(
                     transactionId = transactionId,
                     idempotentKey = lastTransaction.idempotentKey,
                     currencyId = lastTransaction.currencyId,
                     amount = lastTransaction.amount,
                     reason = reverseInfo.reason,
-                    status = pspReversalResponse.status,
                     action = TransactionAction.REVERSAL,
                     paymentMethod = lastTransaction.paymentMethod,
                     paymentInfo = objectMapper.writeValueAsString(readPaymentInfo(lastTransaction)),
-                    pspResponse = objectMapper.writeValueAsString(pspReversalResponse),
                     merchantTransactionId = lastTransaction.merchantTransactionId,
                     merchantCustomerId = lastTransaction.merchantCustomerId,
                     pspTestMode = pspTestMode ?: lastTransaction.pspTestMode,
                     merchant = lastTransaction.merchant,
                     alias = lastTransaction.alias
                 )
-                transactionRepository.save(newTransaction)
-
-                return PaymentResponseModel(
-                    newTransaction.transactionId, newTransaction.amount,
-                    newTransaction.currencyId, newTransaction.status,
-                    newTransaction.action, pspReversalResponse.errorMessage
-                )
+                pendingTransactionService.begin(pendingTransaction)
+                return executePspOperation(pendingTransaction) { psp.reverse(pspReversalRequest, pspTestMode) }
             }
         }
     }
@@ -538,6 +490,11 @@ class TransactionService(
         return true
     }
 
+    /**
+     * Executes the operation once per idempotent key. A retry of a completed request gets the stored response. A
+     * concurrent duplicate waits for the stored response up to the idempotency wait and is rejected as still in
+     * progress afterwards, which is also the answer for a request whose outcome is unknown until it is resolved.
+     */
     private fun executeIdempotentTransactionOperation(
         alias: Alias,
         merchant: Merchant,
@@ -556,52 +513,65 @@ class TransactionService(
                 getPspConfig(alias)
             )
 
-        val transaction = transactionRepository.getByIdempotentKeyAndMerchant(idempotentKey, merchant)
         val requestHash = requestHashing.hashRequest(paymentInfo)
+        val pendingTransaction = Transaction(
+            transactionId = transactionId
+                ?: RandomStringUtils.randomAlphanumeric(TRANSACTION_ID_LENGTH),
+            idempotentKey = idempotentKey,
+            currencyId = paymentInfo.paymentData!!.currency,
+            amount = paymentInfo.paymentData.amount,
+            reason = paymentInfo.paymentData.reason,
+            action = transactionAction,
+            paymentMethod = PaymentMethod.valueOf(extra.paymentMethod!!),
+            paymentInfo = objectMapper.writeValueAsString(paymentInfoModel),
+            merchantTransactionId = paymentInfo.purchaseId,
+            merchantCustomerId = paymentInfo.customerId,
+            pspTestMode = pspTestMode ?: false,
+            requestHash = requestHash,
+            merchant = merchant,
+            alias = alias
+        )
+        val reservation = pendingTransactionService.begin(pendingTransaction, idempotentKey, requestHash)
 
-        when {
-            transaction != null && StringUtils.equals(requestHash, transaction.requestHash) -> return PaymentResponseModel(
-                transaction.transactionId,
-                transaction.amount,
-                transaction.currencyId,
-                transaction.status,
-                transaction.action,
-                objectMapper.readValue(transaction.pspResponse, PspPaymentResponseModel::class.java)?.errorMessage
-            )
+        return when {
+            reservation == null -> executePspOperation(pendingTransaction, idempotentKey, pspAction)
 
-            transaction != null && !StringUtils.equals(requestHash, transaction.requestHash) ->
+            !StringUtils.equals(requestHash, reservation.requestHash) ->
                 throw ApiError.ofErrorCode(ApiErrorCode.IDEMPOTENCY_VIOLATION).asException()
 
-            else -> {
-                val pspPaymentResponse = pspAction.invoke()
-                val newTransaction = Transaction(
-                    transactionId = transactionId
-                        ?: RandomStringUtils.randomAlphanumeric(TRANSACTION_ID_LENGTH),
-                    idempotentKey = idempotentKey,
-                    currencyId = paymentInfo.paymentData!!.currency,
-                    amount = paymentInfo.paymentData.amount,
-                    reason = paymentInfo.paymentData.reason,
-                    status = pspPaymentResponse.status ?: TransactionStatus.FAIL,
-                    action = transactionAction,
-                    paymentMethod = PaymentMethod.valueOf(extra.paymentMethod!!),
-                    paymentInfo = objectMapper.writeValueAsString(paymentInfoModel),
-                    pspResponse = objectMapper.writeValueAsString(pspPaymentResponse),
-                    merchantTransactionId = paymentInfo.purchaseId,
-                    merchantCustomerId = paymentInfo.customerId,
-                    pspTestMode = pspTestMode ?: false,
-                    requestHash = requestHash,
-                    merchant = merchant,
-                    alias = alias
-                )
-                transactionRepository.save(newTransaction)
+            else -> objectMapper.readValue(reservation.response
+                ?: pendingTransactionService.awaitResponse(reservation)
+                ?: throw ApiError.ofErrorCode(ApiErrorCode.IDEMPOTENT_REQUEST_IN_PROGRESS).asException(),
+                PaymentResponseModel::class.java)
+        }
+    }
 
-                return PaymentResponseModel(
-                    newTransaction.transactionId, newTransaction.amount,
-                    newTransaction.currencyId, newTransaction.status,
-                    newTransaction.action, pspPaymentResponse.errorMessage
-                )
+    /**
+     * Calls the PSP for a pending transaction, no database connection is held during the call. If the PSP
+     * rejects the operation, the pending transaction is removed. Timeouts, PSP communication errors and any
+     * other failure leave the transaction pending, since the outcome at the PSP is unknown, until it is reconciled.
+     *
+     * @param pendingTransaction Pending transaction
+     * @param idempotentKey Idempotent key
+     * @param pspAction PSP call
+     * @return Payment response model
+     */
+    private fun executePspOperation(
+        pendingTransaction: Transaction,
+        idempotentKey: String? = null,
+        pspAction: (() -> PspPaymentResponseModel)
+    ): PaymentResponseModel {
+        val pspPaymentResponse = try {
+            pspAction.invoke()
+        } catch (exception: Exception) {
+            if (ResilientPsp.isFailure(exception)) {
+                logger.error(exception) { "PSP call for transaction '${pendingTransaction.transactionId}' failed, the transaction stays pending until it is reconciled" }
+            } else {
+                pendingTransactionService.abort(pendingTransaction, idempotentKey)
             }
+            throw exception
         }
+        return pendingTransactionService.complete(pendingTransaction, pspPaymentResponse, idempotentKey)
     }
 
     private fun getAliasExtra(alias: Alias): AliasExtraModel {
@@ -623,11 +593,13 @@ class TransactionService(
     }
 
     private fun getPspConfig(alias: Alias): PspConfigModel {
-        val result = objectMapper.readValue(alias.merchant?.pspConfig, PspConfigListModel::class.java)
-        return result.psp.firstOrNull { it.type == alias.psp!!.toString() }
+        return alias.merchant?.let { pspConfigCache.getPspConfig(it, alias.psp!!) }
             ?: throw ApiError.ofErrorCode(ApiErrorCode.PSP_CONF_FOR_MERCHANT_NOT_FOUND, "PSP configuration for '${alias.psp}' cannot be found from used merchant").asException()
     }
 
+    private fun getMerchantByApiKey(keyType: KeyType, key: String): Merchant? =
+        merchantApiKeyRepository.getActiveMerchantId(keyType.name, key)?.let { merchantRepository.getMerchantById(it) }
+
     companion object : KLogging() {
         const val TRANSACTION_ID_LENGTH = 20
     }
@@ -0,0 +1,73 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.payment.data.Transaction
+import com.mobilabsolutions.payment.data.repository.TransactionRollupRepository
+import com.mobilabsolutions.payment.data.repository.TransactionStateRepository
+import mu.KLogging
+import org.springframework.stereotype.Service
+import org.springframework.transaction.annotation.Propagation
+import org.springframework.transaction.annotation.Transactional
+import java.sql.Timestamp
+
+/**
+ * Maintains the projections derived from the transaction records: the transaction state, holding the
+ * latest records of every transaction, and the hourly transaction rollups used by the dashboard
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@Service
+class TransactionStateService(
+    private val transactionStateRepository: TransactionStateRepository,
+    private val transactionRollupRepository: TransactionRollupRepository
+) {
+    companion object : KLogging()
+
+    /**
+     * Applies a newly saved transaction record to the state of its transaction and to the transaction
+     * rollups. Must be called within the transaction that saved the record.
+     *
+     * @param transaction Saved transaction record
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    fun updateTransactionState(transaction: Transaction) {
+        transactionStateRepository.upsertTransactionState(
+            transaction.transactionId!!,
+            transaction.merchant.id!!,
+            transaction.id!!,
+            Timestamp.from(transaction.createdDate),
+            transaction.action!!.name,
+            transaction.status!!.name
+        )
+        if (transaction.paymentMethod != null) {
+            transactionRollupRepository.addToTransactionRollup(
+                transaction.merchant.id!!,
+                Timestamp.from(transaction.createdDate),
+                transaction.action!!.name,
+                transaction.status!!.name,
+                transaction.paymentMethod!!.name,
+                transaction.amount?.toLong() ?: 0
+            )
+        }
+    }
+
+    /**
+     * Regenerates the transaction state projection and the transaction rollups from the transaction records
+     *
+     * @return number of rebuilt transaction states
+     */
+    @Transactional
+    fun rebuildTransactionStates(): Int {
+        logger.info("Rebuilding transaction states")
+        val deleted = transactionStateRepository.deleteOrphanedTransactionStates()
+        val rebuilt = transactionStateRepository.rebuildTransactionStates()
+        logger.info("Rebuilt {} transaction states, deleted {} orphaned transaction states", rebuilt, deleted)
+        transactionRollupRepository.deleteTransactionRollups()
+        val rollups = transactionRollupRepository.rebuildTransactionRollups()
+        logger.info("Rebuilt {} transaction rollups", rollups)
+        return rebuilt
+    }
+}
@@ -4,6 +4,7 @@
 
 package com.mobilabsolutions.payment.service
 
+import com.mobilabsolutions.payment.configuration.CacheConfiguration
 import com.mobilabsolutions.payment.data.Authority
 import com.mobilabsolutions.payment.data.MerchantUser
 import com.mobilabsolutions.payment.data.PasswordResetToken
@@ -25,6 +26,7 @@ import com.sendgrid.SendGrid
 import mu.KLogging
 import org.springframework.beans.factory.annotation.Qualifier
 import org.springframework.beans.factory.annotation.Value
+import org.springframework.cache.annotation.CacheEvict
 import org.springframework.security.core.userdetails.User
 import org.springframework.security.core.userdetails.UserDetails
 import org.springframework.security.core.userdetails.UserDetailsService
@@ -116,6 +118,7 @@ class UserDetailsServiceImpl(
      * @param merchantUserModel Merchant user model
      */
     @Transactional
+    @CacheEvict(cacheNames = [CacheConfiguration.MERCHANT_USERS_CACHE], allEntries = true)
     fun createMerchantUser(merchantId: String, merchantUserModel: MerchantUserRequestModel) {
         val authority = authorityRepository.getAuthorityByName(merchantId) ?: throw ApiError.ofErrorCode(ApiErrorCode.NO_RIGHTS, "There is no role defined for merchant '$merchantId'").asException()
         if (merchantUserRepository.findByEmail(merchantUserModel.email) != null) throw ApiError.ofErrorCode(ApiErrorCode.MERCHANT_USER_ALREADY_EXISTS, "Merchant user with given email already exists").asException()
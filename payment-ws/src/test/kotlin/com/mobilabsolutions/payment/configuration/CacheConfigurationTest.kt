@@ -0,0 +1,102 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.configuration
+
+import com.mobilabsolutions.payment.data.enum.KeyType
+import com.mobilabsolutions.payment.data.repository.MerchantApiKeyRepository
+import com.mobilabsolutions.payment.data.repository.MerchantUserRepository
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.Mockito
+import org.springframework.cache.CacheManager
+import org.springframework.context.annotation.AnnotationConfigApplicationContext
+import org.springframework.transaction.support.TransactionSynchronizationManager
+import java.util.function.Supplier
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CacheConfigurationTest {
+    private val merchantApiKeyRepository = Mockito.mock(MerchantApiKeyRepository::class.java)
+    private val merchantUserRepository = Mockito.mock(MerchantUserRepository::class.java)
+    private val context = AnnotationConfigApplicationContext()
+
+    @BeforeAll
+    fun beforeAll() {
+        context.register(CacheConfiguration::class.java)
+        context.registerBean(MerchantApiKeyRepository::class.java, Supplier { merchantApiKeyRepository })
+        context.registerBean(MerchantUserRepository::class.java, Supplier { merchantUserRepository })
+        context.refresh()
+    }
+
+    @AfterAll
+    fun afterAll() {
+        context.close()
+    }
+
+    @Test
+    fun `cache only the merchant id of an active API key`() {
+        Mockito.`when`(merchantApiKeyRepository.getActiveMerchantId(KeyType.SECRET.name, "cached key")).thenReturn("mobilab")
+        val repository = context.getBean(MerchantApiKeyRepository::class.java)
+
+        Assertions.assertEquals("mobilab", repository.getActiveMerchantId(KeyType.SECRET.name, "cached key"))
+        Assertions.assertEquals("mobilab", repository.getActiveMerchantId(KeyType.SECRET.name, "cached key"))
+
+        Mockito.verify(merchantApiKeyRepository).getActiveMerchantId(KeyType.SECRET.name, "cached key")
+    }
+
+    @Test
+    fun `do not cache unknown API keys`() {
+        val repository = context.getBean(MerchantApiKeyRepository::class.java)
+
+        Assertions.assertNull(repository.getActiveMerchantId(KeyType.SECRET.name, "unknown key"))
+        Assertions.assertNull(repository.getActiveMerchantId(KeyType.SECRET.name, "unknown key"))
+
+        Mockito.verify(merchantApiKeyRepository, Mockito.times(2)).getActiveMerchantId(KeyType.SECRET.name, "unknown key")
+    }
+
+    @Test
+    fun `evict API keys only after the transaction commits`() {
+        val cache = context.getBean(CacheManager::class.java).getCache(CacheConfiguration.MERCHANT_API_KEY_CACHE)!!
+        cache.put("deleted key", "mobilab")
+
+        TransactionSynchronizationManager.initSynchronization()
+        try {
+            cache.clear()
+            Assertions.assertEquals("mobilab", cache.get("deleted key")?.get())
+
+            TransactionSynchronizationManager.getSynchronizations().forEach { it.afterCommit() }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization()
+        }
+
+        Assertions.assertNull(cache.get("deleted key"))
+    }
+
+    @Test
+    fun `evict merchant users only after the transaction commits`() {
+        Mockito.`when`(merchantUserRepository.getMerchantUserEmails("mobilab"))
+            .thenReturn(listOf("user@mobilabsolutions.com"), listOf("user@mobilabsolutions.com", "new@mobilabsolutions.com"))
+        val repository = context.getBean(MerchantUserRepository::class.java)
+        val cache = context.getBean(CacheManager::class.java).getCache(CacheConfiguration.MERCHANT_USERS_CACHE)!!
+        Assertions.assertEquals(1, repository.getMerchantUserEmails("mobilab").size)
+
+        TransactionSynchronizationManager.initSynchronization()
+        try {
+            cache.clear()
+            Assertions.assertEquals(1, repository.getMerchantUserEmails("mobilab").size)
+
+            TransactionSynchronizationManager.getSynchronizations().forEach { it.afterCommit() }
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization()
+        }
+
+        Assertions.assertEquals(2, repository.getMerchantUserEmails("mobilab").size)
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.configuration
+
+import com.mobilabsolutions.payment.data.repository.MerchantUserRepository
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.Mockito
+import org.springframework.messaging.Message
+import org.springframework.messaging.MessageChannel
+import org.springframework.messaging.simp.stomp.StompCommand
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor
+import org.springframework.messaging.support.MessageBuilder
+import org.springframework.security.access.AccessDeniedException
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class LiveDataSubscriptionInterceptorTest {
+    private val merchantId = "mobilab"
+    private val email = "user@mobilabsolutions.com"
+    private val channel = Mockito.mock(MessageChannel::class.java)
+    private val merchantUserRepository = Mockito.mock(MerchantUserRepository::class.java).also {
+        Mockito.`when`(it.getMerchantUserEmails(merchantId)).thenReturn(listOf(email))
+    }
+    private val interceptor = LiveDataSubscriptionInterceptor(merchantUserRepository)
+
+    @Test
+    fun `allow subscription to topic of own merchant`() {
+        val message = subscribe("/topic/transactions/$merchantId")
+
+        Assertions.assertSame(message, interceptor.preSend(message, channel))
+    }
+
+    @Test
+    fun `reject subscription to topic of other merchant`() {
+        Assertions.assertThrows(AccessDeniedException::class.java) {
+            interceptor.preSend(subscribe("/topic/transactions/other-merchant"), channel)
+        }
+    }
+
+    @Test
+    fun `reject wildcard subscriptions`() {
+        listOf("/topic/**", "/topic/*/*", "/topic/transactions/*", "/topic/transactions/mobila?", "/topic/transactions/{merchantId}").forEach {
+            Assertions.assertThrows(AccessDeniedException::class.java, { interceptor.preSend(subscribe(it), channel) }, it)
+        }
+    }
+
+    @Test
+    fun `reject subscription to other topics`() {
+        listOf("/topic", "/topic/", "/topic/other/$merchantId", "/topic/transactions/", "/topic/transactions/$merchantId/nested").forEach {
+            Assertions.assertThrows(AccessDeniedException::class.java, { interceptor.preSend(subscribe(it), channel) }, it)
+        }
+    }
+
+    private fun subscribe(destination: String): Message<ByteArray> {
+        val accessor = StompHeaderAccessor.create(StompCommand.SUBSCRIBE)
+        accessor.destination = destination
+        accessor.user = UsernamePasswordAuthenticationToken(email, null)
+        accessor.setLeaveMutable(true)
+        return MessageBuilder.createMessage(ByteArray(0), accessor.messageHeaders)
+    }
+}
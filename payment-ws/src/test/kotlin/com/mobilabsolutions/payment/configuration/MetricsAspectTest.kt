@@ -0,0 +1,83 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.configuration
+
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.service.TransactionService
+import com.mobilabsolutions.server.commons.exception.ApiError
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import com.mobilabsolutions.server.commons.exception.ApiException
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.aspectj.lang.ProceedingJoinPoint
+import org.aspectj.lang.Signature
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.Mockito
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory
+import org.springframework.dao.QueryTimeoutException
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class MetricsAspectTest {
+
+    @Test
+    fun `time transaction repository queries`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        Mockito.`when`(transactionRepository.getStalePendingTransactions(300, 100)).thenReturn(emptyList())
+        Mockito.`when`(transactionRepository.countPendingNotifications()).thenThrow(QueryTimeoutException("canceling statement due to statement timeout"))
+        val repository = proxy(transactionRepository, meterRegistry)
+
+        repository.getStalePendingTransactions(300, 100)
+        Assertions.assertThrows(QueryTimeoutException::class.java) { repository.countPendingNotifications() }
+
+        Assertions.assertEquals(1, meterRegistry.get(MetricsAspect.REPOSITORY_TIMER).tag("repository", "TransactionRepository")
+            .tag("operation", "getStalePendingTransactions").tag("outcome", "success").tag("error", "none").timer().count())
+        Assertions.assertEquals(1, meterRegistry.get(MetricsAspect.REPOSITORY_TIMER).tag("operation", "countPendingNotifications")
+            .tag("outcome", "failure").tag("error", "QueryTimeoutException").timer().count())
+    }
+
+    @Test
+    fun `time service operations with their error code`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val joinPoint = joinPoint(TransactionService::class.java, "authorize")
+        Mockito.`when`(joinPoint.proceed()).thenThrow(ApiError.ofErrorCode(ApiErrorCode.ALIAS_NOT_FOUND).asException())
+
+        Assertions.assertThrows(ApiException::class.java) { MetricsAspect(meterRegistry).timeServiceOperation(joinPoint) }
+
+        Assertions.assertEquals(1, meterRegistry.get(MetricsAspect.SERVICE_TIMER).tag("service", "TransactionService")
+            .tag("operation", "authorize").tag("outcome", "error").tag("error", ApiErrorCode.ALIAS_NOT_FOUND.name).timer().count())
+    }
+
+    @Test
+    fun `time successful service operations`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val joinPoint = joinPoint(TransactionService::class.java, "capture")
+        Mockito.`when`(joinPoint.proceed()).thenReturn("captured")
+
+        Assertions.assertEquals("captured", MetricsAspect(meterRegistry).timeServiceOperation(joinPoint))
+
+        Assertions.assertEquals(1, meterRegistry.get(MetricsAspect.SERVICE_TIMER).tag("service", "TransactionService")
+            .tag("operation", "capture").tag("outcome", "success").tag("error", "none").timer().count())
+    }
+
+    private fun <T : Any> proxy(target: T, meterRegistry: SimpleMeterRegistry): T {
+        val proxyFactory = AspectJProxyFactory(target)
+        proxyFactory.addAspect(MetricsAspect(meterRegistry))
+        return proxyFactory.getProxy()
+    }
+
+    private fun joinPoint(declaringType: Class<*>, name: String): ProceedingJoinPoint {
+        val signature = Mockito.mock(Signature::class.java)
+        Mockito.`when`(signature.declaringType).thenReturn(declaringType)
+        Mockito.`when`(signature.name).thenReturn(name)
+        val joinPoint = Mockito.mock(ProceedingJoinPoint::class.java)
+        Mockito.`when`(joinPoint.signature).thenReturn(signature)
+        return joinPoint
+    }
+}
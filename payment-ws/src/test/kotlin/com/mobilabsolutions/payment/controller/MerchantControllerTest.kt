@@ -0,0 +1,37 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.controller
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.Mockito
+import javax.validation.Validation
+
+/**
+ * Validates the request parameters of [MerchantController] the way the method validation of the validated controller
+ * does, which rejects violations with a bad request
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class MerchantControllerTest {
+    private val validator = Validation.buildDefaultValidatorFactory().validator.forExecutables()
+    private val merchantController = Mockito.mock(MerchantController::class.java)
+    private val transactionPageMethod = MerchantController::class.java.methods.single { it.name == "getTransactionPageByFilters" }
+
+    @Test
+    fun `accept transaction page limit within bounds`() {
+        listOf(null, 1, 100).forEach { Assertions.assertTrue(transactionPageViolations(it).isEmpty(), "limit $it") }
+    }
+
+    @Test
+    fun `reject transaction page limit out of bounds`() {
+        listOf(-1, 0, 101).forEach { Assertions.assertEquals(1, transactionPageViolations(it).size, "limit $it") }
+    }
+
+    private fun transactionPageViolations(limit: Int?) = validator.validateParameters(merchantController, transactionPageMethod,
+        arrayOf("mobilab", null, null, null, null, null, null, limit, "cursor", null))
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data.repository
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.ObjectMapper
+import liquibase.Liquibase
+import liquibase.database.DatabaseFactory
+import liquibase.database.jvm.JdbcConnection
+import liquibase.resource.ClassLoaderResourceAccessor
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.springframework.data.jpa.repository.Query
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.jdbc.datasource.SingleConnectionDataSource
+import org.testcontainers.DockerClientFactory
+import org.testcontainers.containers.PostgreSQLContainer
+import java.sql.Timestamp
+import java.time.Instant
+
+/**
+ * Plans every native query of [TransactionRepository] on a seeded PostgreSQL database and checks that each of them
+ * is served by the index it was written for, with its predicate evaluated as an index condition rather than as a
+ * filter over the scanned rows. Sequential scans are disabled for the planner, so a query that no index can serve
+ * shows up as a sequential scan. The report queries are also run on the seeded database to check that they leave out
+ * records still waiting for their PSP response. Skipped when Docker is not available.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class TransactionRepositoryQueryPlanTest {
+    companion object {
+        private val TRANSACTION_TABLES = setOf("transaction_record", "transaction_state")
+        private const val RECORD_PKEY = "transaction_record_pkey"
+        private const val STATE_PKEY = "transaction_state_pkey"
+        private const val RECORD_MERCHANT = "idx_transaction_record_merchant_created_date"
+        private const val RECORD_TRANSACTION = "idx_transaction_record_transaction_id_created_date"
+        private const val RECORD_PSP_TRANSACTION = "idx_transaction_record_psp_transaction_id"
+        private const val RECORD_UNPROCESSED_NOTIFICATION = "transaction_record_unprocessed_notification_idx"
+        private const val RECORD_PENDING = "transaction_record_pending_idx"
+        private const val STATE_MERCHANT = "idx_transaction_state_merchant_display"
+
+        /**
+         * Index each native query must use, together with the column its index condition must constrain. A null
+         * column means the predicate is the partial index's own WHERE clause, so there is no index condition to check.
+         */
+        private val EXPECTED_INDEXES = mapOf(
+            "getLatestSuccessfulByTransactionId" to listOf(IndexUsage(STATE_PKEY, "transaction_id"), IndexUsage(RECORD_PKEY, "id")),
+            "getListByTransactionIdAndStatus" to listOf(IndexUsage(RECORD_TRANSACTION, "transaction_id")),
+            "getByTransactionId" to listOf(IndexUsage(STATE_PKEY, "transaction_id"), IndexUsage(RECORD_PKEY, "id")),
+            "getTransactionDetails" to listOf(IndexUsage(RECORD_TRANSACTION, "transaction_id")),
+            "getTransactionsByFilters" to listOf(IndexUsage(STATE_MERCHANT, "merchant_id"), IndexUsage(RECORD_PKEY, "id")),
+            "getTransactionPageByFilters" to listOf(IndexUsage(STATE_MERCHANT, "merchant_id"), IndexUsage(RECORD_PKEY, "id")),
+            "countTransactionsByFilters" to listOf(IndexUsage(STATE_MERCHANT, "merchant_id"), IndexUsage(RECORD_PKEY, "id")),
+            "getByPspReferenceAndActions" to listOf(IndexUsage(RECORD_PSP_TRANSACTION, "psp_transaction_id")),
+            "getByPspReference" to listOf(IndexUsage(RECORD_PSP_TRANSACTION, "psp_transaction_id")),
+            "getTransactionsWithNotification" to listOf(IndexUsage(RECORD_MERCHANT, "merchant_id")),
+            "getClaimableNotifications" to listOf(IndexUsage(RECORD_UNPROCESSED_NOTIFICATION, "merchant_id")),
+            "leaseNotifications" to listOf(IndexUsage(RECORD_PKEY, "id")),
+            "markNotificationsProcessed" to listOf(IndexUsage(RECORD_PKEY, "id")),
+            "rescheduleNotifications" to listOf(IndexUsage(RECORD_PKEY, "id")),
+            "countPendingNotifications" to listOf(IndexUsage(RECORD_UNPROCESSED_NOTIFICATION, null)),
+            "completePendingTransaction" to listOf(IndexUsage(RECORD_PKEY, "id")),
+            "deletePendingTransaction" to listOf(IndexUsage(RECORD_PKEY, "id")),
+            "markPendingTransactionUnknown" to listOf(IndexUsage(RECORD_PKEY, "id")),
+            "getStalePendingTransactions" to listOf(IndexUsage(RECORD_PENDING, "created_date")),
+            "getUnknownTransaction" to listOf(IndexUsage(RECORD_TRANSACTION, "transaction_id")),
+            "getOriginalTransaction" to listOf(IndexUsage(RECORD_TRANSACTION, "transaction_id")),
+            "streamDefaultReport" to listOf(IndexUsage(RECORD_MERCHANT, "merchant_id"), IndexUsage(RECORD_TRANSACTION, "transaction_id")),
+            "streamCustomReport" to listOf(IndexUsage(RECORD_TRANSACTION, "transaction_id"))
+        )
+        private val PARAMETERS = mapOf(
+            "merchantId" to "mobilab",
+            "transactionId" to "transaction-1",
+            "pspTransactionId" to "psp-1",
+            "merchantTransactionId" to "merchant-transaction-1",
+            "customerId" to "customer-1",
+            "status" to "SUCCESS",
+            "action" to "AUTH",
+            "action1" to "AUTH",
+            "action2" to "PREAUTH",
+            "paymentMethod" to "CC",
+            "currency" to "EUR",
+            "amount" to "10",
+            "text" to "visa",
+            "createdAtStart" to "2019-01-01 00:00:00",
+            "createdAtEnd" to "2019-12-31 23:59:59",
+            "cursorCreatedDate" to Timestamp.from(Instant.parse("2019-12-31T23:59:59Z")),
+            "cursorId" to Long.MAX_VALUE,
+            "id" to 1L,
+            "ids" to listOf(1L, 2L),
+            "pspResponse" to "{}",
+            "limit" to 10,
+            "offset" to 0,
+            "countLimit" to 1000,
+            "leaseSeconds" to 60,
+            "backoffSeconds" to 10,
+            "maxBackoffSeconds" to 3600,
+            "timeoutSeconds" to 300
+        )
+    }
+
+    private data class IndexUsage(val index: String, val column: String?)
+
+    private data class ScanNode(val nodeType: String, val relation: String?, val index: String?, val indexCondition: String?)
+
+    private class PostgresContainer : PostgreSQLContainer<PostgresContainer>("postgres:9.6")
+
+    private val postgres = PostgresContainer()
+    private val objectMapper = ObjectMapper()
+    private lateinit var dataSource: SingleConnectionDataSource
+
+    @BeforeAll
+    fun beforeAll() {
+        Assumptions.assumeTrue(runCatching { DockerClientFactory.instance().client() }.isSuccess, "Docker is not available")
+        postgres.start()
+        dataSource = SingleConnectionDataSource(postgres.jdbcUrl, postgres.username, postgres.password, true)
+        val database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(JdbcConnection(dataSource.connection))
+        Liquibase("db/changelog/changelog-dev.xml", ClassLoaderResourceAccessor(), database).update("")
+
+        val jdbcTemplate = JdbcTemplate(dataSource)
+        jdbcTemplate.execute("INSERT INTO merchant (id, created_date, last_modified_date, webhook_url) " +
+            "SELECT 'mobilab' || CASE WHEN i = 0 THEN '' ELSE CAST(i AS varchar) END, timezone('UTC', now()), timezone('UTC', now()), 'https://test.mblb.net' " +
+            "FROM generate_series(0, 99) i")
+        jdbcTemplate.execute("INSERT INTO transaction_record (created_date, last_modified_date, merchant_id, transaction_id, psp_transaction_id, " +
+            "action, status, payment_method, amount, currency_id, reason, psp_response, payment_info, processed_notification) " +
+            "SELECT TIMESTAMP '2019-01-01' + i * INTERVAL '1 minute', timezone('UTC', now()), " +
+            "'mobilab' || CASE WHEN i % 100 = 0 THEN '' ELSE CAST(i % 100 AS varchar) END, 'transaction-' || i, 'psp-' || i, " +
+            "CASE WHEN i % 3 = 0 THEN 'CAPTURE' ELSE 'AUTH' END, 'SUCCESS', 'CC', 100, 'EUR', 'Order ' || i, '{}', " +
+            "'{\"extra\": {\"ccConfig\": {\"ccType\": \"VISA\", \"ccMask\": \"1111\"}}}', i % 50 <> 0 " +
+            "FROM generate_series(1, 20000) i")
+        jdbcTemplate.execute("INSERT INTO transaction_state (transaction_id, merchant_id, latest_record_id, display_record_id, display_created_date, success_record_id, created_date, last_modified_date) " +
+            "SELECT tr.transaction_id, tr.merchant_id, tr.id, tr.id, tr.created_date, tr.id, tr.created_date, tr.created_date FROM transaction_record tr")
+        jdbcTemplate.execute("ANALYZE")
+        jdbcTemplate.execute("SET enable_seqscan = off")
+    }
+
+    @AfterAll
+    fun afterAll() {
+        if (::dataSource.isInitialized) dataSource.destroy()
+        postgres.stop()
+    }
+
+    @Test
+    fun `serve native transaction queries from their indexes`() {
+        val jdbcTemplate = NamedParameterJdbcTemplate(dataSource)
+        val queries = TransactionRepository::class.java.declaredMethods
+            .mapNotNull { method -> method.getAnnotation(Query::class.java)?.takeIf { it.nativeQuery }?.let { method.name to it.value } }
+        Assertions.assertFalse(queries.isEmpty())
+        Assertions.assertEquals(EXPECTED_INDEXES.keys, queries.map { it.first }.toSet(), "Every native query needs an expected index")
+
+        val violations = queries.flatMap { (name, query) ->
+            val plan = jdbcTemplate.queryForObject("EXPLAIN (FORMAT JSON) $query", PARAMETERS, String::class.java)
+            val nodes = scanNodes(objectMapper.readTree(plan)[0]["Plan"])
+            val sequentialScans = nodes.filter { it.nodeType == "Seq Scan" && it.relation in TRANSACTION_TABLES }
+                .map { "$name scans ${it.relation} sequentially" }
+            val missingIndexes = EXPECTED_INDEXES.getValue(name).filterNot { usage ->
+                nodes.any { it.index == usage.index && (usage.column == null || it.indexCondition?.contains(Regex("\\b${usage.column}\\b")) == true) }
+            }.map { "$name does not use ${it.index}" + (it.column?.let { column -> " with $column in its index condition" } ?: "") }
+            sequentialScans + missingIndexes
+        }
+
+        Assertions.assertTrue(violations.isEmpty()) { violations.joinToString("\n") }
+    }
+
+    @Test
+    fun `exclude records without PSP response from the reports`() {
+        val jdbcTemplate = NamedParameterJdbcTemplate(dataSource)
+        listOf(mapOf("transactionId" to "completed-1", "status" to "SUCCESS", "pspResponse" to "{}"),
+            mapOf("transactionId" to "pending-1", "status" to "PENDING", "pspResponse" to null)).forEach {
+            jdbcTemplate.update("INSERT INTO transaction_record (created_date, last_modified_date, merchant_id, transaction_id, merchant_transaction_id, " +
+                "merchant_customer_id, action, status, payment_method, amount, currency_id, reason, psp_response) " +
+                "VALUES (TIMESTAMP '2019-06-01', timezone('UTC', now()), 'mobilab', :transactionId, 'merchant-transaction-1', 'customer-1', " +
+                "'AUTH', :status, 'CC', 100, 'EUR', 'Order', :pspResponse)", it)
+        }
+        val parameters = PARAMETERS + mapOf("action" to "", "status" to "", "amount" to "", "text" to "", "transactionId" to "", "createdAtEnd" to "")
+
+        listOf("streamDefaultReport", "streamCustomReport").forEach { name ->
+            val query = TransactionRepository::class.java.declaredMethods.single { it.name == name }.getAnnotation(Query::class.java).value
+            val transactionIds = jdbcTemplate.queryForList(query, parameters).map { it["transaction_id"] }
+            Assertions.assertTrue("completed-1" in transactionIds, name)
+            Assertions.assertFalse("pending-1" in transactionIds, name)
+        }
+    }
+
+    private fun scanNodes(plan: JsonNode): List<ScanNode> =
+        listOf(ScanNode(plan["Node Type"].asText(), plan["Relation Name"]?.asText(), plan["Index Name"]?.asText(), plan["Index Cond"]?.asText())) +
+            (plan["Plans"]?.flatMap { scanNodes(it) } ?: emptyList())
+}
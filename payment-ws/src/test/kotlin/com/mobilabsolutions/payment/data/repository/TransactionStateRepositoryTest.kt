@@ -0,0 +1,104 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.data.repository
+
+import liquibase.Liquibase
+import liquibase.database.DatabaseFactory
+import liquibase.database.jvm.JdbcConnection
+import liquibase.resource.ClassLoaderResourceAccessor
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.springframework.data.jpa.repository.Query
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate
+import org.springframework.jdbc.datasource.SingleConnectionDataSource
+import org.testcontainers.DockerClientFactory
+import org.testcontainers.containers.PostgreSQLContainer
+import java.sql.Timestamp
+import java.time.Instant
+
+/**
+ * Applies the incremental updates of [TransactionStateRepository] and its rebuild to the same transaction records
+ * on a PostgreSQL database and checks that both end in the same transaction states. Skipped when Docker is not
+ * available.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class TransactionStateRepositoryTest {
+    private data class Record(val id: Long, val transactionId: String, val createdDate: Timestamp, val action: String, val status: String, val completed: Boolean)
+
+    private class PostgresContainer : PostgreSQLContainer<PostgresContainer>("postgres:9.6")
+
+    private val postgres = PostgresContainer()
+    private lateinit var dataSource: SingleConnectionDataSource
+    private lateinit var jdbcTemplate: JdbcTemplate
+
+    @BeforeAll
+    fun beforeAll() {
+        Assumptions.assumeTrue(runCatching { DockerClientFactory.instance().client() }.isSuccess, "Docker is not available")
+        postgres.start()
+        dataSource = SingleConnectionDataSource(postgres.jdbcUrl, postgres.username, postgres.password, true)
+        val database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(JdbcConnection(dataSource.connection))
+        Liquibase("db/changelog/changelog-dev.xml", ClassLoaderResourceAccessor(), database).update("")
+
+        jdbcTemplate = JdbcTemplate(dataSource)
+        jdbcTemplate.execute("INSERT INTO merchant (id, created_date, last_modified_date, webhook_url) " +
+            "VALUES ('mobilab', timezone('UTC', now()), timezone('UTC', now()), 'https://test.mblb.net')")
+    }
+
+    @AfterAll
+    fun afterAll() {
+        if (::dataSource.isInitialized) dataSource.destroy()
+        postgres.stop()
+    }
+
+    @Test
+    fun `rebuild transaction states like the incremental updates`() {
+        val records = listOf(
+            record("transaction-1", "2019-01-01T10:00:00Z", "AUTH", "SUCCESS", true),
+            record("transaction-1", "2019-01-01T09:59:00Z", "CAPTURE", "SUCCESS", true),
+            record("transaction-1", "2019-01-01T10:05:00Z", "ADDITIONAL", "SUCCESS", true),
+            record("transaction-1", "2019-01-01T10:10:00Z", "REFUND", "PENDING", false),
+            record("transaction-2", "2019-01-01T11:00:00Z", "PREAUTH", "FAIL", true),
+            record("transaction-2", "2019-01-01T11:01:00Z", "CAPTURE", "UNKNOWN", false),
+            record("transaction-3", "2019-01-01T12:00:00Z", "ADDITIONAL", "SUCCESS", true),
+            record("transaction-4", "2019-01-01T13:00:00Z", "AUTH", "PENDING", false)
+        )
+
+        val namedJdbcTemplate = NamedParameterJdbcTemplate(dataSource)
+        val upsert = query("upsertTransactionState")
+        records.filter { it.completed }.sortedByDescending { it.createdDate }.forEach {
+            namedJdbcTemplate.update(upsert, mapOf("transactionId" to it.transactionId, "merchantId" to "mobilab", "recordId" to it.id,
+                "createdDate" to it.createdDate, "action" to it.action, "status" to it.status))
+        }
+        val incremental = states()
+
+        jdbcTemplate.update("DELETE FROM transaction_state")
+        jdbcTemplate.update(query("rebuildTransactionStates"))
+
+        Assertions.assertEquals(listOf("transaction-1", "transaction-2", "transaction-3"), incremental.map { it["transaction_id"] })
+        Assertions.assertEquals(incremental, states())
+    }
+
+    private fun record(transactionId: String, createdDate: String, action: String, status: String, completed: Boolean): Record {
+        val timestamp = Timestamp.from(Instant.parse(createdDate))
+        val id = jdbcTemplate.queryForObject("INSERT INTO transaction_record (created_date, last_modified_date, merchant_id, transaction_id, " +
+            "action, status, payment_method, amount, currency_id, psp_response) " +
+            "VALUES (?, timezone('UTC', now()), 'mobilab', ?, ?, ?, 'CC', 100, 'EUR', ?) RETURNING id",
+            Long::class.java, timestamp, transactionId, action, status, if (completed) "{}" else null)!!
+        return Record(id, transactionId, timestamp, action, status, completed)
+    }
+
+    private fun states() = jdbcTemplate.queryForList("SELECT transaction_id, merchant_id, latest_record_id, display_record_id, " +
+        "display_created_date, success_record_id FROM transaction_state ORDER BY transaction_id")
+
+    private fun query(name: String) = TransactionStateRepository::class.java.declaredMethods.single { it.name == name }
+        .getAnnotation(Query::class.java).value
+}
@@ -7,11 +7,11 @@ package com.mobilabsolutions.payment.service
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.mobilabsolutions.payment.data.Alias
 import com.mobilabsolutions.payment.data.Merchant
-import com.mobilabsolutions.payment.data.MerchantApiKey
 import com.mobilabsolutions.payment.data.enum.KeyType
 import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
 import com.mobilabsolutions.payment.data.repository.AliasRepository
 import com.mobilabsolutions.payment.data.repository.MerchantApiKeyRepository
+import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.model.AliasExtraModel
 import com.mobilabsolutions.payment.model.request.AliasRequestModel
 import com.mobilabsolutions.payment.model.request.VerifyAliasRequestModel
@@ -74,6 +74,9 @@ class AliasServiceTest {
     @Mock
     private lateinit var merchantApiKeyRepository: MerchantApiKeyRepository
 
+    @Mock
+    private lateinit var merchantRepository: MerchantRepository
+
     @Mock
     private lateinit var pspRegistry: PspRegistry
 
@@ -92,20 +95,24 @@ class AliasServiceTest {
     @Spy
     val objectMapper: ObjectMapper = CommonConfiguration().jsonMapper()
 
+    @Spy
+    val pspConfigCache = PspConfigCache(CommonConfiguration().jsonMapper())
+
     @BeforeAll
     fun beforeAll() {
         MockitoAnnotations.initMocks(this)
 
         Mockito.`when`(configValidator.validate(objectMapper.readValue(extra, AliasExtraModel::class.java), knownPspType)).thenReturn(true)
         Mockito.`when`(pspAliasValidator.validate(objectMapper.readValue(extra, AliasExtraModel::class.java), pspAlias, knownPspType)).thenReturn(true)
-        Mockito.`when`(merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.PUBLISHABLE, unknownPublishableKey))
+        Mockito.`when`(merchantApiKeyRepository.getActiveMerchantId(KeyType.PUBLISHABLE.name, unknownPublishableKey))
             .thenReturn(null)
-        Mockito.`when`(merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.PUBLISHABLE, knownPublishableKey))
-            .thenReturn(MerchantApiKey(merchant = merchant))
-        Mockito.`when`(merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.SECRET, unknownSecretKey))
+        Mockito.`when`(merchantApiKeyRepository.getActiveMerchantId(KeyType.PUBLISHABLE.name, knownPublishableKey))
+            .thenReturn(merchant.id)
+        Mockito.`when`(merchantApiKeyRepository.getActiveMerchantId(KeyType.SECRET.name, unknownSecretKey))
             .thenReturn(null)
-        Mockito.`when`(merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(true, KeyType.SECRET, knownSecretKey))
-            .thenReturn(MerchantApiKey(merchant = merchant))
+        Mockito.`when`(merchantApiKeyRepository.getActiveMerchantId(KeyType.SECRET.name, knownSecretKey))
+            .thenReturn(merchant.id)
+        Mockito.`when`(merchantRepository.getMerchantById(merchant.id!!)).thenReturn(merchant)
         doNothing().`when`(aliasRepository).updateAlias(
             ArgumentMatchers.anyString(),
             ArgumentMatchers.anyString(),
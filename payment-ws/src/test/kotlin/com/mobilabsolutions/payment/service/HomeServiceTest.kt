@@ -9,6 +9,8 @@ import com.mobilabsolutions.payment.data.enum.TransactionAction
 import com.mobilabsolutions.payment.data.enum.TransactionStatus
 import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRollupRepository
+import com.mobilabsolutions.payment.model.TransactionNotificationModel
 import com.mobilabsolutions.server.commons.exception.ApiException
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeAll
@@ -23,6 +25,7 @@ import org.mockito.Spy
 import org.mockito.junit.jupiter.MockitoExtension
 import org.mockito.junit.jupiter.MockitoSettings
 import org.mockito.quality.Strictness
+import java.sql.Timestamp
 import java.time.LocalDateTime
 import java.time.ZoneId
 import java.time.format.DateTimeFormatter
@@ -99,17 +102,26 @@ class HomeServiceTest {
     @Mock
     private lateinit var transactionRepository: TransactionRepository
 
+    @Mock
+    private lateinit var transactionRollupRepository: TransactionRollupRepository
+
     @BeforeAll
     fun beforeAll() {
         MockitoAnnotations.initMocks(this)
         transaction.createdDate = LocalDateTime.parse(createdAtStart, DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")).atZone(ZoneId.of("Europe/Berlin")).toInstant()
         Mockito.`when`(merchantRepository.getMerchantById(merchantId)).thenReturn(merchant)
         Mockito.`when`(merchantRepository.getMerchantById(incorrectMerchantId)).thenReturn(null)
-        Mockito.`when`(transactionRepository.getTransactionsForPaymentMethods(merchantId, createdAtStart, null)).thenReturn(listOf(transaction))
-        Mockito.`when`(transactionRepository.getTransactionsForRefunds(merchantId, createdAtStart)).thenReturn(listOf(transaction))
-        Mockito.`when`(transactionRepository.getTransactionsByMerchantId(merchantId, createdAtStart, null)).thenReturn(listOf(transaction, capturedTransaction))
+        val bucketStart = Timestamp.from(transaction.createdDate)
+        Mockito.`when`(transactionRollupRepository.getSuccessfulTransactionRollups(merchantId, createdAtStart, null)).thenReturn(
+            listOf(
+                arrayOf(bucketStart, action.name, paymentMethod.name, 1L, amount.toLong()),
+                arrayOf(bucketStart, TransactionAction.CAPTURE.name, paymentMethod.name, 1L, capturedTransaction.amount!!.toLong())
+            )
+        )
         Mockito.`when`(transactionRepository.getTransactionsWithNotification(merchantId, createdAtStart, null)).thenReturn(listOf(transaction))
-        Mockito.`when`(transactionRepository.getTransactionsForPaymentMethods(merchantId, createdAtStart, endDate)).thenReturn(listOf(transaction))
+        Mockito.`when`(transactionRollupRepository.getSuccessfulTransactionRollups(merchantId, createdAtStart, endDate)).thenReturn(
+            listOf(arrayOf(bucketStart, TransactionAction.CAPTURE.name, paymentMethod.name, 1L, amount.toLong()))
+        )
     }
 
     @Test
@@ -141,6 +153,7 @@ class HomeServiceTest {
         val transactions = homeService.getPaymentMethodsOverview(merchantId)
 
         Assertions.assertEquals(transactions.transactions.size, 7)
+        Assertions.assertEquals(transactions.transactions.sumBy { it.paymentMethodData.sumBy { data -> data.amount ?: 0 } }, 200)
     }
 
     @Test
@@ -206,4 +219,16 @@ class HomeServiceTest {
             homeService.getSelectedDateActivity(incorrectMerchantId, createdAtStart)
         }
     }
+
+    @Test
+    fun `map transaction notification to live data`() {
+        val liveData = homeService.toLiveData(
+            TransactionNotificationModel(1, merchantId, "12345", TransactionAction.REFUND, TransactionStatus.SUCCESS, 300, "EUR",
+                PaymentMethod.CC, true, LocalDateTime.parse("2019-07-29T10:15:30"), "Europe/Berlin", "EUR")
+        )
+
+        Assertions.assertEquals(-300, liveData.keyPerformance!!.salesVolume)
+        Assertions.assertEquals("12:15:30", liveData.todaysActivity!!.time)
+        Assertions.assertEquals(PaymentMethod.CC.name, liveData.notifications!!.notification!!.paymentMethod)
+    }
 }
@@ -63,6 +63,9 @@ class MerchantServiceTest {
     @Spy
     val objectMapper: ObjectMapper = CommonConfiguration().jsonMapper()
 
+    @Spy
+    val pspConfigCache = PspConfigCache(CommonConfiguration().jsonMapper())
+
     @InjectMocks
     private lateinit var merchantService: MerchantService
 
@@ -87,7 +90,7 @@ class MerchantServiceTest {
         )
         Mockito.`when`(authorityRepository.getAuthorityByName(unknownMerchantId)).thenReturn(null)
         doNothing().`when`(merchantRepository).saveLogo(logoBytes, knownMerchantId)
-        doNothing().`when`(merchantRepository).updateMerchantWebookCredentials(knownMerchantId, webhookUrl, webhookUsername, webhookPassword)
+        doNothing().`when`(merchantRepository).updateMerchantWebookCredentials(knownMerchantId, webhookUrl, webhookUsername, webhookPassword, null, false)
     }
 
     @Test
@@ -0,0 +1,154 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.payment.data.Merchant
+import com.mobilabsolutions.payment.data.Transaction
+import com.mobilabsolutions.payment.data.enum.PaymentMethod
+import com.mobilabsolutions.payment.data.enum.TransactionAction
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.model.MerchantNotificationsModel
+import com.mobilabsolutions.server.commons.CommonConfiguration
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.ArgumentMatchers
+import org.mockito.Mockito
+import java.time.Instant
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class NotificationDispatcherTest {
+    private val merchantId = "mobilab"
+    private val webhookUrl = "https://test.mblb.net/notifications"
+    private val batchSize = 2
+    private val backoffSeconds = 10
+    private val maxBackoffSeconds = 3600
+    private val merchant = Merchant(id = merchantId, webhookUrl = webhookUrl)
+
+    @Test
+    fun `deliver notifications and mark them processed`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        Mockito.`when`(notificationService.claimNotifications(merchantId, batchSize, 60)).thenReturn(listOf(transaction(1L)))
+        Mockito.`when`(notificationService.sendNotificationToMerchant(Mockito.eq(webhookUrl), ArgumentMatchers.anyList(), ArgumentMatchers.anyBoolean())).thenReturn(201)
+
+        dispatcher(notificationService).deliverNotifications(merchant)
+
+        Mockito.verify(notificationService).completeNotifications(listOf(1L), true, backoffSeconds, maxBackoffSeconds)
+    }
+
+    @Test
+    fun `deliver notifications until batch is not full`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        Mockito.`when`(notificationService.claimNotifications(merchantId, batchSize, 60))
+            .thenReturn(listOf(transaction(1L), transaction(2L)), listOf(transaction(3L)))
+        Mockito.`when`(notificationService.sendNotificationToMerchant(Mockito.eq(webhookUrl), ArgumentMatchers.anyList(), ArgumentMatchers.anyBoolean())).thenReturn(201)
+
+        dispatcher(notificationService).deliverNotifications(merchant)
+
+        Mockito.verify(notificationService).completeNotifications(listOf(1L, 2L), true, backoffSeconds, maxBackoffSeconds)
+        Mockito.verify(notificationService).completeNotifications(listOf(3L), true, backoffSeconds, maxBackoffSeconds)
+    }
+
+    @Test
+    fun `reschedule notifications when webhook call fails`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        Mockito.`when`(notificationService.claimNotifications(merchantId, batchSize, 60)).thenReturn(listOf(transaction(1L), transaction(2L)))
+        Mockito.`when`(notificationService.sendNotificationToMerchant(Mockito.eq(webhookUrl), ArgumentMatchers.anyList(), ArgumentMatchers.anyBoolean()))
+            .thenThrow(RuntimeException("Connection refused"))
+
+        dispatcher(notificationService, meterRegistry = meterRegistry).deliverNotifications(merchant)
+
+        Mockito.verify(notificationService, Mockito.times(1)).claimNotifications(merchantId, batchSize, 60)
+        Mockito.verify(notificationService).completeNotifications(listOf(1L, 2L), false, backoffSeconds, maxBackoffSeconds)
+        Assertions.assertEquals(1, meterRegistry.get("payment.notification.webhook.calls").tag("outcome", "failure").timer().count())
+    }
+
+    @Test
+    fun `time webhook calls by outcome`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        Mockito.`when`(notificationService.claimNotifications(merchantId, batchSize, 60)).thenReturn(listOf(transaction(1L), transaction(2L)))
+        Mockito.`when`(notificationService.sendNotificationToMerchant(Mockito.eq(webhookUrl), ArgumentMatchers.anyList(), ArgumentMatchers.anyBoolean()))
+            .thenReturn(201, 500)
+
+        dispatcher(notificationService, 300, meterRegistry).deliverNotifications(merchant)
+
+        Assertions.assertEquals(1, meterRegistry.get("payment.notification.webhook.calls").tag("outcome", "success").timer().count())
+        Assertions.assertEquals(1, meterRegistry.get("payment.notification.webhook.calls").tag("outcome", "error").timer().count())
+        Mockito.verify(notificationService).completeNotifications(listOf(2L), false, backoffSeconds, maxBackoffSeconds)
+    }
+
+    @Test
+    fun `skip webhook call without notifications`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        Mockito.`when`(notificationService.claimNotifications(merchantId, batchSize, 60)).thenReturn(emptyList())
+
+        dispatcher(notificationService).deliverNotifications(merchant)
+
+        Mockito.verify(notificationService, Mockito.never()).sendNotificationToMerchant(Mockito.eq(webhookUrl), ArgumentMatchers.anyList(), ArgumentMatchers.anyBoolean())
+    }
+
+    @Test
+    fun `claim notifications up to merchant batch size`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        Mockito.`when`(notificationService.claimNotifications(merchantId, 1, 60)).thenReturn(listOf(transaction(1L)), emptyList())
+        Mockito.`when`(notificationService.sendNotificationToMerchant(webhookUrl, mutableListOf(notification(1L)), true)).thenReturn(201)
+
+        dispatcher(notificationService).deliverNotifications(Merchant(id = merchantId, webhookUrl = webhookUrl, webhookBatchSize = 1, webhookCompression = true))
+
+        Mockito.verify(notificationService).completeNotifications(listOf(1L), true, backoffSeconds, maxBackoffSeconds)
+        Mockito.verify(notificationService, Mockito.times(2)).claimNotifications(merchantId, 1, 60)
+    }
+
+    @Test
+    fun `split notifications exceeding payload size`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        Mockito.`when`(notificationService.claimNotifications(merchantId, batchSize, 60)).thenReturn(listOf(transaction(1L), transaction(2L)), emptyList())
+        Mockito.`when`(notificationService.sendNotificationToMerchant(Mockito.eq(webhookUrl), ArgumentMatchers.anyList(), ArgumentMatchers.anyBoolean())).thenReturn(201)
+
+        dispatcher(notificationService, 300).deliverNotifications(merchant)
+
+        Mockito.verify(notificationService).sendNotificationToMerchant(webhookUrl, mutableListOf(notification(1L)), false)
+        Mockito.verify(notificationService).sendNotificationToMerchant(webhookUrl, mutableListOf(notification(2L)), false)
+        Mockito.verify(notificationService).completeNotifications(listOf(1L), true, backoffSeconds, maxBackoffSeconds)
+        Mockito.verify(notificationService).completeNotifications(listOf(2L), true, backoffSeconds, maxBackoffSeconds)
+        Mockito.verify(notificationService).extendLease(listOf(2L), 60)
+    }
+
+    @Test
+    fun `reject webhook timeout not shorter than the lease`() {
+        val notificationService = Mockito.mock(NotificationService::class.java)
+        Mockito.`when`(notificationService.webhookTimeoutSeconds).thenReturn(60)
+
+        Assertions.assertThrows(IllegalArgumentException::class.java) { dispatcher(notificationService) }
+    }
+
+    private fun dispatcher(
+        notificationService: NotificationService,
+        batchMaxBytes: Int = 262144,
+        meterRegistry: SimpleMeterRegistry = SimpleMeterRegistry()
+    ) = NotificationDispatcher(notificationService, Mockito.mock(TransactionRepository::class.java), CommonConfiguration().jsonMapper(), meterRegistry,
+        1, 10, 1, batchSize, batchMaxBytes, 60, backoffSeconds, maxBackoffSeconds)
+
+    private fun notification(id: Long) = MerchantNotificationsModel("transaction-$id", TransactionStatus.SUCCESS.name, TransactionAction.AUTH.name,
+        PaymentMethod.CC.name, 1, "EUR", null, "2019-07-29T00:00:00Z")
+
+    private fun transaction(id: Long) = Transaction(
+        id = id,
+        amount = 1,
+        transactionId = "transaction-$id",
+        currencyId = "EUR",
+        action = TransactionAction.AUTH,
+        paymentMethod = PaymentMethod.CC,
+        status = TransactionStatus.SUCCESS,
+        merchant = merchant
+    ).apply { createdDate = Instant.parse("2019-07-29T00:00:00Z") }
+}
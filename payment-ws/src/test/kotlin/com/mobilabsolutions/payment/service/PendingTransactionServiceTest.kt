@@ -0,0 +1,206 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.payment.data.IdempotencyReservation
+import com.mobilabsolutions.payment.data.IdempotencyReservationId
+import com.mobilabsolutions.payment.data.Merchant
+import com.mobilabsolutions.payment.data.Transaction
+import com.mobilabsolutions.payment.data.enum.PaymentMethod
+import com.mobilabsolutions.payment.data.enum.TransactionAction
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.data.repository.IdempotencyReservationRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.model.request.TransactionResolutionRequestModel
+import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
+import com.mobilabsolutions.server.commons.CommonConfiguration
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import com.mobilabsolutions.server.commons.exception.ApiException
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.ArgumentMatchers
+import org.mockito.Mockito
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PendingTransactionServiceTest {
+    private val merchantId = "mobilab"
+    private val idempotentKey = "idempotent key"
+    private val requestHash = "request hash"
+    private val objectMapper = CommonConfiguration().jsonMapper()
+    private val pspResponse = PspPaymentResponseModel("psp-1", TransactionStatus.SUCCESS, null, null, null)
+
+    @Test
+    fun `record pending transaction after reserving idempotent key`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+        Mockito.`when`(idempotencyReservationRepository.reserveIdempotentKey(merchantId, idempotentKey, requestHash)).thenReturn(1)
+        val transaction = transaction(null, TransactionAction.AUTH)
+
+        val reservation = service(transactionRepository, idempotencyReservationRepository).begin(transaction, idempotentKey, requestHash)
+
+        Assertions.assertNull(reservation)
+        Assertions.assertEquals(TransactionStatus.PENDING, transaction.status)
+        Mockito.verify(transactionRepository).save(transaction)
+    }
+
+    @Test
+    fun `return existing reservation for used idempotent key`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+        val existingReservation = IdempotencyReservation(IdempotencyReservationId(merchantId, idempotentKey), requestHash, "{}")
+        Mockito.`when`(idempotencyReservationRepository.reserveIdempotentKey(merchantId, idempotentKey, requestHash)).thenReturn(0)
+        Mockito.`when`(idempotencyReservationRepository.getReservation(merchantId, idempotentKey)).thenReturn(existingReservation)
+
+        val reservation = service(transactionRepository, idempotencyReservationRepository)
+            .begin(transaction(null, TransactionAction.AUTH), idempotentKey, requestHash)
+
+        Assertions.assertEquals(existingReservation, reservation)
+        Mockito.verifyZeroInteractions(transactionRepository)
+    }
+
+    @Test
+    fun `apply PSP response to pending transaction`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+        val transactionStateService = Mockito.mock(TransactionStateService::class.java)
+        val transaction = transaction(1L, TransactionAction.AUTH)
+        Mockito.`when`(transactionRepository.completePendingTransaction(1L, TransactionStatus.SUCCESS.name,
+            objectMapper.writeValueAsString(pspResponse), "psp-1")).thenReturn(1)
+
+        val paymentResponse = service(transactionRepository, idempotencyReservationRepository, transactionStateService)
+            .complete(transaction, pspResponse, idempotentKey)
+
+        Assertions.assertEquals(TransactionStatus.SUCCESS, paymentResponse.status)
+        Mockito.verify(transactionStateService).updateTransactionState(transaction)
+        Mockito.verify(idempotencyReservationRepository).completeReservation(merchantId, idempotentKey, objectMapper.writeValueAsString(paymentResponse))
+    }
+
+    @Test
+    fun `remove pending transaction rejected by PSP`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+
+        service(transactionRepository, idempotencyReservationRepository).abort(transaction(1L, TransactionAction.AUTH), idempotentKey)
+
+        Mockito.verify(transactionRepository).deletePendingTransaction(1L)
+        Mockito.verify(idempotencyReservationRepository).releaseReservation(merchantId, idempotentKey)
+    }
+
+    @Test
+    fun `mark stale pending transactions unknown without resolving their reservations`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+        val transactionStateService = Mockito.mock(TransactionStateService::class.java)
+        Mockito.`when`(transactionRepository.getStalePendingTransactions(300, 100))
+            .thenReturn(listOf(transaction(1L, TransactionAction.AUTH), transaction(2L, TransactionAction.CAPTURE)))
+
+        val reconciled = service(transactionRepository, idempotencyReservationRepository, transactionStateService).reconcilePendingTransactions()
+
+        Assertions.assertEquals(2, reconciled)
+        Mockito.verify(transactionRepository).markPendingTransactionUnknown(1L)
+        Mockito.verify(transactionRepository).markPendingTransactionUnknown(2L)
+        Mockito.verify(transactionRepository, Mockito.never()).completePendingTransaction(ArgumentMatchers.anyLong(),
+            ArgumentMatchers.anyString(), ArgumentMatchers.anyString(), ArgumentMatchers.any())
+        Mockito.verifyZeroInteractions(idempotencyReservationRepository, transactionStateService)
+    }
+
+    @Test
+    fun `complete unknown transaction when the PSP responds late`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+        val transaction = transaction(1L, TransactionAction.AUTH).apply { status = TransactionStatus.UNKNOWN }
+        Mockito.`when`(transactionRepository.completePendingTransaction(1L, TransactionStatus.SUCCESS.name,
+            objectMapper.writeValueAsString(pspResponse), "psp-1")).thenReturn(1)
+
+        val paymentResponse = service(transactionRepository, idempotencyReservationRepository).complete(transaction, pspResponse, idempotentKey)
+
+        Assertions.assertEquals(TransactionStatus.SUCCESS, paymentResponse.status)
+        Mockito.verify(idempotencyReservationRepository).completeReservation(merchantId, idempotentKey, objectMapper.writeValueAsString(paymentResponse))
+    }
+
+    @Test
+    fun `resolve unknown transaction and answer retries with the resolved response`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+        val transactionStateService = Mockito.mock(TransactionStateService::class.java)
+        val transaction = transaction(1L, TransactionAction.AUTH).apply { status = TransactionStatus.UNKNOWN }
+        Mockito.`when`(transactionRepository.getUnknownTransaction(merchantId, "transaction-1")).thenReturn(transaction)
+        Mockito.`when`(transactionRepository.completePendingTransaction(ArgumentMatchers.eq(1L), ArgumentMatchers.eq(TransactionStatus.SUCCESS.name),
+            ArgumentMatchers.anyString(), ArgumentMatchers.eq("psp-1"))).thenReturn(1)
+
+        val paymentResponse = service(transactionRepository, idempotencyReservationRepository, transactionStateService)
+            .resolveUnknownTransaction(merchantId, "transaction-1", TransactionResolutionRequestModel(TransactionStatus.SUCCESS.name, "psp-1"))
+
+        Assertions.assertEquals(TransactionStatus.SUCCESS, paymentResponse.status)
+        Assertions.assertEquals(PendingTransactionService.RESOLVED_OUTCOME_MESSAGE, paymentResponse.additionalInfo)
+        Mockito.verify(transactionStateService).updateTransactionState(transaction)
+        Mockito.verify(idempotencyReservationRepository).completeReservation(merchantId, idempotentKey, objectMapper.writeValueAsString(paymentResponse))
+    }
+
+    @Test
+    fun `reject resolution of transaction without unknown outcome`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+
+        val exception = Assertions.assertThrows(ApiException::class.java) {
+            service(transactionRepository, idempotencyReservationRepository)
+                .resolveUnknownTransaction(merchantId, "transaction-1", TransactionResolutionRequestModel(TransactionStatus.FAIL.name, null))
+        }
+
+        Assertions.assertEquals(ApiErrorCode.TRANSACTION_NOT_FOUND, exception.errorCode())
+        Mockito.verifyZeroInteractions(idempotencyReservationRepository)
+    }
+
+    @Test
+    fun `wait for the response of a concurrent request`() {
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+        Mockito.`when`(idempotencyReservationRepository.getReservation(merchantId, idempotentKey))
+            .thenReturn(reservation(null), reservation("{\"status\":\"SUCCESS\"}"))
+
+        val response = service(Mockito.mock(TransactionRepository::class.java), idempotencyReservationRepository).awaitResponse(reservation(null))
+
+        Assertions.assertEquals("{\"status\":\"SUCCESS\"}", response)
+        Mockito.verify(idempotencyReservationRepository, Mockito.times(2)).getReservation(merchantId, idempotentKey)
+    }
+
+    @Test
+    fun `stop waiting for a request that does not complete`() {
+        val idempotencyReservationRepository = Mockito.mock(IdempotencyReservationRepository::class.java)
+        Mockito.`when`(idempotencyReservationRepository.getReservation(merchantId, idempotentKey)).thenReturn(reservation(null))
+
+        val response = service(Mockito.mock(TransactionRepository::class.java), idempotencyReservationRepository, idempotencyWaitMillis = 300)
+            .awaitResponse(reservation(null))
+
+        Assertions.assertNull(response)
+        Mockito.verify(idempotencyReservationRepository, Mockito.atLeastOnce()).getReservation(merchantId, idempotentKey)
+    }
+
+    private fun service(
+        transactionRepository: TransactionRepository,
+        idempotencyReservationRepository: IdempotencyReservationRepository,
+        transactionStateService: TransactionStateService = Mockito.mock(TransactionStateService::class.java),
+        idempotencyWaitMillis: Long = 2000
+    ) = PendingTransactionService(transactionRepository, idempotencyReservationRepository, transactionStateService, objectMapper, 300, 100,
+        idempotencyWaitMillis)
+
+    private fun reservation(response: String?) =
+        IdempotencyReservation(IdempotencyReservationId(merchantId, idempotentKey), "request hash", response)
+
+    private fun transaction(id: Long?, action: TransactionAction) = Transaction(
+        id = id,
+        amount = 1,
+        transactionId = "transaction-$id",
+        idempotentKey = idempotentKey,
+        currencyId = "EUR",
+        action = action,
+        paymentMethod = PaymentMethod.CC,
+        status = if (id == null) null else TransactionStatus.PENDING,
+        merchant = Merchant(id = merchantId)
+    )
+}
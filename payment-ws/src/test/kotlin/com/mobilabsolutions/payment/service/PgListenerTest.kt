@@ -0,0 +1,98 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.payment.data.repository.MerchantRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import com.mobilabsolutions.payment.data.repository.TransactionRollupRepository
+import com.mobilabsolutions.payment.model.response.LiveDataResponseModel
+import com.mobilabsolutions.server.commons.CommonConfiguration
+import liquibase.Liquibase
+import liquibase.database.DatabaseFactory
+import liquibase.database.jvm.JdbcConnection
+import liquibase.resource.ClassLoaderResourceAccessor
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Assumptions
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.ArgumentCaptor
+import org.mockito.ArgumentMatchers
+import org.mockito.Mockito
+import org.springframework.jdbc.core.JdbcTemplate
+import org.springframework.jdbc.datasource.SingleConnectionDataSource
+import org.springframework.messaging.simp.SimpMessagingTemplate
+import org.testcontainers.DockerClientFactory
+import org.testcontainers.containers.PostgreSQLContainer
+
+/**
+ * Inserts transaction records into a PostgreSQL database and checks that the notifications of its trigger are
+ * published as live data on the topic of the merchant. Skipped when Docker is not available.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PgListenerTest {
+    companion object {
+        private const val NOTIFICATION_TIMEOUT_MILLIS = 10000L
+    }
+
+    private class PostgresContainer : PostgreSQLContainer<PostgresContainer>("postgres:9.6")
+
+    private val merchantId = "mobilab"
+    private val postgres = PostgresContainer()
+    private val simpMessagingTemplate = Mockito.mock(SimpMessagingTemplate::class.java)
+    private val homeService = HomeService(Mockito.mock(TransactionRepository::class.java), Mockito.mock(MerchantRepository::class.java),
+        Mockito.mock(TransactionRollupRepository::class.java))
+    private lateinit var dataSource: SingleConnectionDataSource
+    private lateinit var jdbcTemplate: JdbcTemplate
+
+    @BeforeAll
+    fun beforeAll() {
+        Assumptions.assumeTrue(runCatching { DockerClientFactory.instance().client() }.isSuccess, "Docker is not available")
+        postgres.start()
+        dataSource = SingleConnectionDataSource(postgres.jdbcUrl, postgres.username, postgres.password, true)
+        val database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(JdbcConnection(dataSource.connection))
+        Liquibase("db/changelog/changelog-dev.xml", ClassLoaderResourceAccessor(), database).update("")
+
+        jdbcTemplate = JdbcTemplate(dataSource)
+        jdbcTemplate.update("INSERT INTO merchant (id, created_date, last_modified_date, webhook_url, time_zone, default_currency_id) " +
+            "VALUES (?, timezone('UTC', now()), timezone('UTC', now()), 'https://test.mblb.net', 'UTC', 'EUR')", merchantId)
+
+        PgListener(homeService, CommonConfiguration().jsonMapper(), simpMessagingTemplate,
+            postgres.getMappedPort(PostgreSQLContainer.POSTGRESQL_PORT).toString(), postgres.containerIpAddress, postgres.databaseName,
+            postgres.username, postgres.password)
+    }
+
+    @AfterAll
+    fun afterAll() {
+        if (::dataSource.isInitialized) dataSource.destroy()
+        postgres.stop()
+    }
+
+    @Test
+    fun `publish completed transaction on topic of merchant`() {
+        insertTransactionRecord("transaction-1", "PENDING", null)
+        insertTransactionRecord("transaction-2", "SUCCESS", "{}")
+
+        val liveData = ArgumentCaptor.forClass(Any::class.java)
+        Mockito.verify(simpMessagingTemplate, Mockito.timeout(NOTIFICATION_TIMEOUT_MILLIS))
+            .convertAndSend(ArgumentMatchers.eq(PgListener.TOPIC_PREFIX + merchantId), liveData.capture())
+        Mockito.verify(simpMessagingTemplate).convertAndSend(ArgumentMatchers.anyString(), ArgumentMatchers.any(Any::class.java))
+
+        val response = liveData.value as LiveDataResponseModel
+        Assertions.assertEquals(300, response.keyPerformance?.salesVolume)
+        Assertions.assertEquals("EUR", response.keyPerformance?.currencyId)
+        Assertions.assertEquals("10:15:30", response.todaysActivity?.time)
+    }
+
+    private fun insertTransactionRecord(transactionId: String, status: String, pspResponse: String?) {
+        jdbcTemplate.update("INSERT INTO transaction_record (created_date, last_modified_date, merchant_id, transaction_id, " +
+            "action, status, payment_method, amount, currency_id, psp_response) " +
+            "VALUES (TIMESTAMP '2019-01-01 10:15:30', timezone('UTC', now()), ?, ?, 'AUTH', ?, 'CC', 300, 'EUR', ?)",
+            merchantId, transactionId, status, pspResponse)
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.payment.data.Merchant
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.model.PspConfigListModel
+import com.mobilabsolutions.server.commons.CommonConfiguration
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PspConfigCacheTest {
+    private val objectMapper = CommonConfiguration().jsonMapper()
+    private val merchantId = "mobilab"
+    private val pspConfig = "{\"psp\" : [{\"type\" : \"BS_PAYONE\", \"portalId\" : \"test portal\"}," +
+        " {\"type\" : \"other\", \"merchantId\" : \"test merchant\"}]}"
+    private val updatedPspConfig = "{\"psp\" : [{\"type\" : \"BRAINTREE\", \"merchantId\" : \"braintree merchant\"}]}"
+
+    @Test
+    fun `get psp config by provider`() {
+        val pspConfigCache = PspConfigCache(objectMapper)
+        val merchant = Merchant(id = merchantId, pspConfig = pspConfig)
+
+        Assertions.assertEquals("test portal", pspConfigCache.getPspConfig(merchant, PaymentServiceProvider.BS_PAYONE)?.portalId)
+        Assertions.assertNull(pspConfigCache.getPspConfig(merchant, PaymentServiceProvider.BRAINTREE))
+        Assertions.assertEquals(2, pspConfigCache.getPspConfigList(merchant).size)
+    }
+
+    @Test
+    fun `get psp config for merchant without config`() {
+        val pspConfigCache = PspConfigCache(objectMapper)
+        val merchant = Merchant(id = merchantId)
+
+        Assertions.assertNull(pspConfigCache.getPspConfig(merchant, PaymentServiceProvider.BS_PAYONE))
+        Assertions.assertTrue(pspConfigCache.getPspConfigList(merchant).isEmpty())
+    }
+
+    @Test
+    fun `decode changed psp config again`() {
+        val pspConfigCache = PspConfigCache(objectMapper)
+        pspConfigCache.getPspConfigList(Merchant(id = merchantId, pspConfig = pspConfig))
+        val merchant = Merchant(id = merchantId, pspConfig = updatedPspConfig)
+
+        Assertions.assertNull(pspConfigCache.getPspConfig(merchant, PaymentServiceProvider.BS_PAYONE))
+        Assertions.assertEquals("braintree merchant", pspConfigCache.getPspConfig(merchant, PaymentServiceProvider.BRAINTREE)?.merchantId)
+    }
+
+    @Test
+    fun `refresh psp config after update`() {
+        val pspConfigCache = PspConfigCache(objectMapper)
+        pspConfigCache.getPspConfigList(Merchant(id = merchantId, pspConfig = pspConfig))
+        pspConfigCache.refresh(merchantId, updatedPspConfig, objectMapper.readValue(updatedPspConfig, PspConfigListModel::class.java))
+
+        val cached = pspConfigCache.getPspConfigList(Merchant(id = merchantId, pspConfig = updatedPspConfig))
+        Assertions.assertEquals(1, cached.size)
+        Assertions.assertEquals(PaymentServiceProvider.BRAINTREE.name, cached[0].type)
+    }
+}
@@ -3,6 +3,7 @@ package com.mobilabsolutions.payment.service
 import com.mobilabsolutions.payment.data.Filter
 import com.mobilabsolutions.payment.data.Merchant
 import com.mobilabsolutions.payment.data.enum.ReportType
+import com.mobilabsolutions.payment.data.enum.TransactionAction
 import com.mobilabsolutions.payment.data.repository.FilterRepository
 import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.data.repository.TransactionRepository
@@ -20,6 +21,9 @@ import org.mockito.junit.jupiter.MockitoExtension
 import org.mockito.junit.jupiter.MockitoSettings
 import org.mockito.quality.Strictness
 import org.springframework.mock.web.MockHttpServletResponse
+import java.sql.Timestamp
+import java.time.Instant
+import java.util.stream.Stream
 
 /**
  * @author <a href="mailto:mohamed.osman@mobilabsolutions.com">Mohamed Osman</a>
@@ -79,6 +83,21 @@ class ReportServiceTest {
         reportService.downloadDefaultReports(response, ReportType.OVERVIEW.name, merchantId)
     }
 
+    @Test
+    fun `export refund report with original transaction to csv successfully`() {
+        val refundResponse = MockHttpServletResponse()
+        Mockito.`when`(transactionRepository.streamDefaultReport(Mockito.eq(merchantId), Mockito.anyString(), Mockito.eq(TransactionAction.REFUND.name))).thenReturn(
+            Stream.of(
+                arrayOf<Any?>(transactionId, "refund", customerId, status, TransactionAction.REFUND.name, paymentMethod, 500,
+                    Timestamp.from(Instant.parse("2019-07-29T10:00:00Z")), 1000, Timestamp.from(Instant.parse("2019-07-28T10:00:00Z")))
+            )
+        )
+        reportService.downloadDefaultReports(refundResponse, ReportType.REFUND.name, merchantId)
+
+        val lines = refundResponse.contentAsString.lines()
+        Assertions.assertEquals(lines[1], "1,123,10.0,2019-07-28T12:00:00Z,refund,123,Refunded,PAY_PAL,5.0,2019-07-29T12:00:00Z")
+    }
+
     @Test
     fun `export default dashboard transactions to csv with incorrect merchant id`() {
         Assertions.assertThrows(ApiException::class.java) {
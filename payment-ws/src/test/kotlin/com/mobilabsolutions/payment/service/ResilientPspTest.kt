@@ -0,0 +1,243 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.adyen.configuration.AdyenProperties
+import com.mobilabsolutions.payment.adyen.service.AdyenClient
+import com.mobilabsolutions.payment.adyen.service.AdyenPsp
+import com.mobilabsolutions.payment.data.enum.PaymentServiceProvider
+import com.mobilabsolutions.payment.data.enum.TransactionStatus
+import com.mobilabsolutions.payment.model.PspAliasConfigModel
+import com.mobilabsolutions.payment.model.PspConfigModel
+import com.mobilabsolutions.payment.model.PspNotificationModel
+import com.mobilabsolutions.payment.model.request.PspCaptureRequestModel
+import com.mobilabsolutions.payment.model.request.PspDeleteAliasRequestModel
+import com.mobilabsolutions.payment.model.request.PspPaymentRequestModel
+import com.mobilabsolutions.payment.model.request.PspRefundRequestModel
+import com.mobilabsolutions.payment.model.request.PspRegisterAliasRequestModel
+import com.mobilabsolutions.payment.model.request.PspReversalRequestModel
+import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
+import com.mobilabsolutions.payment.model.response.PspRegisterAliasResponseModel
+import com.mobilabsolutions.server.commons.exception.ApiError
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
+import com.mobilabsolutions.server.commons.exception.ApiException
+import com.mobilabsolutions.server.commons.util.RandomStringGenerator
+import com.sun.net.httpserver.HttpServer
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.Mockito
+import org.springframework.web.client.ResourceAccessException
+import java.net.InetSocketAddress
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ResilientPspTest {
+    private val paymentRequest = PspPaymentRequestModel("alias", null, null, "psp-alias", null, "purchase")
+    private val captureRequest = PspCaptureRequestModel("psp-transaction", 300, "EUR",
+        PspConfigModel(PaymentServiceProvider.ADYEN.name, null, null, null, null, null, null, null, null, null, true, null, null, null, null, null, null), "purchase")
+
+    @Test
+    fun `pass successful calls through`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val psp = ResilientPsp(FakePsp(), circuitBreaker(), 1, 0, meterRegistry)
+
+        Assertions.assertEquals(TransactionStatus.SUCCESS, psp.authorize(paymentRequest, true).status)
+        Assertions.assertEquals(1, meterRegistry.get("payment.psp.calls").tag("provider", PaymentServiceProvider.ADYEN.name)
+            .tag("operation", "authorize").tag("outcome", "success").tag("error", "none").timer().count())
+    }
+
+    @Test
+    fun `time declined calls without counting them as failures`() {
+        val meterRegistry = SimpleMeterRegistry()
+        val circuitBreaker = circuitBreaker()
+        val psp = ResilientPsp(FakePsp(status = TransactionStatus.FAIL), circuitBreaker, 1, 0, meterRegistry)
+
+        repeat(3) { Assertions.assertEquals(TransactionStatus.FAIL, psp.capture(captureRequest, true).status) }
+
+        Assertions.assertEquals(PspCircuitBreaker.State.CLOSED, circuitBreaker.state)
+        Assertions.assertEquals(3, meterRegistry.get("payment.psp.calls").tag("operation", "capture")
+            .tag("outcome", "declined").tag("error", "none").timer().count())
+    }
+
+    @Test
+    fun `open circuit after failures and fail fast`() {
+        val fakePsp = FakePsp(failure = ResourceAccessException("Read timed out"))
+        val circuitBreaker = circuitBreaker()
+        val psp = ResilientPsp(fakePsp, circuitBreaker, 1, 0, SimpleMeterRegistry())
+
+        repeat(2) { Assertions.assertThrows(ResourceAccessException::class.java) { psp.authorize(paymentRequest, true) } }
+        val exception = Assertions.assertThrows(ApiException::class.java) { psp.authorize(paymentRequest, true) }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_UNAVAILABLE.code, exception.apiError().details()["error_code"])
+        Assertions.assertEquals(PspCircuitBreaker.State.OPEN, circuitBreaker.state)
+        Assertions.assertEquals(2, fakePsp.calls)
+    }
+
+    @Test
+    fun `keep circuit closed for PSP module errors`() {
+        val circuitBreaker = circuitBreaker()
+        val meterRegistry = SimpleMeterRegistry()
+        val psp = ResilientPsp(FakePsp(failure = ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR).asException()),
+            circuitBreaker, 1, 0, meterRegistry)
+
+        repeat(3) { Assertions.assertThrows(ApiException::class.java) { psp.authorize(paymentRequest, true) } }
+
+        Assertions.assertEquals(PspCircuitBreaker.State.CLOSED, circuitBreaker.state)
+        Assertions.assertEquals(3, meterRegistry.get("payment.psp.calls").tag("operation", "authorize")
+            .tag("outcome", "error").tag("error", ApiErrorCode.PSP_MODULE_ERROR.name).timer().count())
+    }
+
+    @Test
+    fun `open circuit after PSP communication errors`() {
+        val fakePsp = FakePsp(failure = ApiError.ofErrorCode(ApiErrorCode.PSP_COMMUNICATION_ERROR, "Unexpected error during authorization").asException())
+        val circuitBreaker = circuitBreaker()
+        val meterRegistry = SimpleMeterRegistry()
+        val psp = ResilientPsp(fakePsp, circuitBreaker, 1, 0, meterRegistry)
+
+        repeat(2) { Assertions.assertThrows(ApiException::class.java) { psp.authorize(paymentRequest, true) } }
+        val exception = Assertions.assertThrows(ApiException::class.java) { psp.authorize(paymentRequest, true) }
+
+        Assertions.assertEquals(ApiErrorCode.PSP_UNAVAILABLE, exception.errorCode())
+        Assertions.assertEquals(PspCircuitBreaker.State.OPEN, circuitBreaker.state)
+        Assertions.assertEquals(2, fakePsp.calls)
+        Assertions.assertEquals(2, meterRegistry.get("payment.psp.calls").tag("outcome", "failure")
+            .tag("error", ApiErrorCode.PSP_COMMUNICATION_ERROR.name).timer().count())
+    }
+
+    @Test
+    fun `open circuit after Adyen server errors`() {
+        val server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/") { exchange ->
+            val body = "{\"status\":503,\"message\":\"Service unavailable\"}".toByteArray()
+            exchange.sendResponseHeaders(503, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.start()
+        val adyenProperties = Mockito.spy(AdyenProperties())
+        Mockito.doReturn("http://localhost:${server.address.port}").`when`(adyenProperties).testPaymentBaseUrl
+        val adyenClient = AdyenClient(adyenProperties, ObjectMapper())
+        val adyenCaptureRequest = PspCaptureRequestModel("psp-transaction", 300, "EUR",
+            PspConfigModel(PaymentServiceProvider.ADYEN.name, null, null, null, null, "merchant account", "public key", null, null, null, true, null, null, null, null, null, null), "purchase")
+        val circuitBreaker = circuitBreaker()
+        val psp = ResilientPsp(AdyenPsp(adyenClient, adyenProperties, Mockito.mock(RandomStringGenerator::class.java), ObjectMapper()),
+            circuitBreaker, 1, 0, SimpleMeterRegistry())
+
+        try {
+            repeat(2) {
+                val exception = Assertions.assertThrows(ApiException::class.java) { psp.capture(adyenCaptureRequest, true) }
+                Assertions.assertEquals(ApiErrorCode.PSP_COMMUNICATION_ERROR, exception.errorCode())
+            }
+            Assertions.assertEquals(PspCircuitBreaker.State.OPEN, circuitBreaker.state)
+        } finally {
+            adyenClient.shutdown()
+            server.stop(0)
+        }
+    }
+
+    @Test
+    fun `open circuit after slow calls`() {
+        val circuitBreaker = circuitBreaker(slowCallMillis = 20)
+        val psp = ResilientPsp(FakePsp(latencyMillis = 30), circuitBreaker, 1, 0, SimpleMeterRegistry())
+
+        repeat(2) { psp.authorize(paymentRequest, true) }
+
+        Assertions.assertEquals(PspCircuitBreaker.State.OPEN, circuitBreaker.state)
+    }
+
+    @Test
+    fun `close circuit after successful probe`() {
+        var now = 0L
+        val fakePsp = FakePsp(failure = ResourceAccessException("Connection refused"))
+        val circuitBreaker = circuitBreaker { now }
+        val psp = ResilientPsp(fakePsp, circuitBreaker, 1, 0, SimpleMeterRegistry())
+        repeat(2) { Assertions.assertThrows(ResourceAccessException::class.java) { psp.authorize(paymentRequest, true) } }
+
+        now = 1000L
+        fakePsp.failure = null
+        psp.authorize(paymentRequest, true)
+
+        Assertions.assertEquals(PspCircuitBreaker.State.CLOSED, circuitBreaker.state)
+    }
+
+    @Test
+    fun `reject calls exceeding the bulkhead`() {
+        val release = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        val fakePsp = FakePsp(onCall = {
+            started.countDown()
+            release.await(5, TimeUnit.SECONDS)
+        })
+        val psp = ResilientPsp(fakePsp, circuitBreaker(), 1, 0, SimpleMeterRegistry())
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            val pending = executor.submit { psp.authorize(paymentRequest, true) }
+            started.await(5, TimeUnit.SECONDS)
+
+            val exception = Assertions.assertThrows(ApiException::class.java) { psp.authorize(paymentRequest, true) }
+            Assertions.assertEquals(ApiErrorCode.PSP_BUSY.code, exception.apiError().details()["error_code"])
+
+            release.countDown()
+            pending.get(5, TimeUnit.SECONDS)
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun circuitBreaker(slowCallMillis: Long = 10000, clock: () -> Long = System::currentTimeMillis) =
+        PspCircuitBreaker(4, 2, 50, slowCallMillis, 50, 1000, clock)
+
+    /**
+     * Local stand-in for a PSP module, with configurable latency, failures and response status
+     */
+    private class FakePsp(
+        private val latencyMillis: Long = 0,
+        var failure: RuntimeException? = null,
+        private val status: TransactionStatus = TransactionStatus.SUCCESS,
+        private val onCall: () -> Unit = {}
+    ) : Psp {
+        var calls = 0
+
+        override fun getProvider() = PaymentServiceProvider.ADYEN
+
+        override fun calculatePspConfig(pspConfigModel: PspConfigModel?, pspTestMode: Boolean?): PspAliasConfigModel? = respond { null }
+
+        override fun registerAlias(pspRegisterAliasRequestModel: PspRegisterAliasRequestModel, pspTestMode: Boolean?): PspRegisterAliasResponseModel? = respond { null }
+
+        override fun verify3DSAlias(pspRegisterAliasRequestModel: PspRegisterAliasRequestModel, pspTestMode: Boolean?): PspRegisterAliasResponseModel? = respond { null }
+
+        override fun preauthorize(pspPaymentRequestModel: PspPaymentRequestModel, pspTestMode: Boolean?) = respond { success() }
+
+        override fun authorize(pspPaymentRequestModel: PspPaymentRequestModel, pspTestMode: Boolean?) = respond { success() }
+
+        override fun capture(pspCaptureRequestModel: PspCaptureRequestModel, pspTestMode: Boolean?) = respond { success() }
+
+        override fun reverse(pspReversalRequestModel: PspReversalRequestModel, pspTestMode: Boolean?) = respond { success() }
+
+        override fun refund(pspRefundRequestModel: PspRefundRequestModel, pspTestMode: Boolean?) = respond { success() }
+
+        override fun deleteAlias(pspDeleteAliasRequestModel: PspDeleteAliasRequestModel, pspTestMode: Boolean?) = respond { Unit }
+
+        override fun getPspNotification(pspTransactionId: String?, pspEvent: String?, pspMessage: String?) =
+            PspNotificationModel(pspTransactionId, null, null, null)
+
+        private fun <T> respond(response: () -> T): T {
+            calls++
+            onCall()
+            if (latencyMillis > 0) Thread.sleep(latencyMillis)
+            failure?.let { throw it }
+            return response()
+        }
+
+        private fun success() = PspPaymentResponseModel("psp-transaction", status, null, null, null)
+    }
+}
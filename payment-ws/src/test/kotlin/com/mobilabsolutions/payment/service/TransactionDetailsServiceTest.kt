@@ -15,6 +15,7 @@ import com.mobilabsolutions.payment.data.enum.TransactionStatus
 import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.data.repository.TransactionRepository
 import com.mobilabsolutions.server.commons.CommonConfiguration
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
 import com.mobilabsolutions.server.commons.exception.ApiException
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeAll
@@ -109,6 +110,11 @@ class TransactionDetailsServiceTest {
             .thenReturn(listOf(arrayOf(correctTransactionId, amount, currency, status.name, action.name, "some reason", "some customer id", paymentMethod.name, Timestamp(
                 Date().time
             ), 1.toBigInteger())))
+        Mockito.`when`(transactionRepository.getTransactionPageByFilters(merchantId, null, null, paymentMethod.name, action.name, status.name, "some",
+            Timestamp.from(TransactionDetailsService.FIRST_PAGE_CREATED_DATE), Long.MAX_VALUE, 1))
+            .thenReturn(listOf(arrayOf(correctTransactionId, amount, currency, status.name, action.name, "some reason", "some customer id", paymentMethod.name, Timestamp(
+                Date().time
+            ), 1.toBigInteger())))
     }
 
     @Test
@@ -137,6 +143,45 @@ class TransactionDetailsServiceTest {
         }
     }
 
+    @Test
+    fun `filter transaction page successfully`() {
+        val transactionPage = transactionDetailsService.getTransactionPageByFilters(merchantId, null, null, paymentMethod.name, action.name, status.name, "some", 1, null, false)
+        Assertions.assertEquals(transactionPage.transactions.size, 1)
+        Assertions.assertNotNull(transactionPage.metadata?.nextCursor)
+        Assertions.assertNull(transactionPage.metadata?.totalCount)
+    }
+
+    @Test
+    fun `filter transaction page with invalid cursor`() {
+        Assertions.assertThrows(ApiException::class.java) {
+            transactionDetailsService.getTransactionPageByFilters(merchantId, null, null, paymentMethod.name, action.name, status.name, "some", limit, "invalid", false)
+        }
+    }
+
+    @Test
+    fun `filter transaction page with empty limit`() {
+        val exception = Assertions.assertThrows(ApiException::class.java) {
+            transactionDetailsService.getTransactionPageByFilters(merchantId, null, null, paymentMethod.name, action.name, status.name, "some", 0, "invalid", false)
+        }
+        Assertions.assertEquals(ApiErrorCode.VALIDATION_ERROR, exception.errorCode())
+    }
+
+    @Test
+    fun `filter transaction page with negative limit`() {
+        val exception = Assertions.assertThrows(ApiException::class.java) {
+            transactionDetailsService.getTransactionPageByFilters(merchantId, null, null, paymentMethod.name, action.name, status.name, "some", -1, null, false)
+        }
+        Assertions.assertEquals(ApiErrorCode.VALIDATION_ERROR, exception.errorCode())
+    }
+
+    @Test
+    fun `filter transaction page with too large limit`() {
+        val exception = Assertions.assertThrows(ApiException::class.java) {
+            transactionDetailsService.getTransactionPageByFilters(merchantId, null, null, paymentMethod.name, action.name, status.name, "some", 101, null, false)
+        }
+        Assertions.assertEquals(ApiErrorCode.VALIDATION_ERROR, exception.errorCode())
+    }
+
     @Test
     fun `write transactions to csv successfully`() {
         transactionDetailsService.writeTransactionsToCsv(response, merchantId, null, null, paymentMethod.name, action.name, status.name, "some", limit, offset)
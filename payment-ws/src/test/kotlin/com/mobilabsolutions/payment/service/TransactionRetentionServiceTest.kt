@@ -0,0 +1,91 @@
+/*
+ * Copyright © MobiLab Solutions GmbH
+ */
+
+package com.mobilabsolutions.payment.service
+
+import com.mobilabsolutions.payment.data.repository.TransactionRepository
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.mockito.ArgumentMatchers
+import org.mockito.Mockito
+import java.time.YearMonth
+
+/**
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class TransactionRetentionServiceTest {
+    private val batchSize = 2
+    private val today = YearMonth.of(2019, 4)
+
+    @Test
+    fun `keep transaction records without retention mode`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+
+        val processed = service(transactionRepository, TransactionRetentionService.Mode.NONE).applyRetention(today)
+
+        Assertions.assertEquals(0, processed)
+        Mockito.verifyZeroInteractions(transactionRepository)
+    }
+
+    @Test
+    fun `archive transaction records before retention period`() {
+        val transactionRepository = lockedRepository()
+        Mockito.`when`(transactionRepository.getOldestTransactionMonth()).thenReturn(YearMonth.of(2019, 1))
+        Mockito.`when`(transactionRepository.archiveTransactions(YearMonth.of(2019, 1), batchSize)).thenReturn(2, 1)
+
+        val processed = service(transactionRepository, TransactionRetentionService.Mode.ARCHIVE).applyRetention(today)
+
+        Assertions.assertEquals(3, processed)
+        Mockito.verify(transactionRepository).createArchivePartition(YearMonth.of(2019, 1))
+        Mockito.verify(transactionRepository, Mockito.never()).archiveTransactions(YearMonth.of(2019, 2), batchSize)
+        Mockito.verify(transactionRepository).deleteOrphanedTransactionStates(YearMonth.of(2019, 2))
+    }
+
+    @Test
+    fun `delete transaction records before retention period`() {
+        val transactionRepository = lockedRepository()
+        Mockito.`when`(transactionRepository.getOldestTransactionMonth()).thenReturn(YearMonth.of(2019, 1))
+        Mockito.`when`(transactionRepository.deleteTransactions(YearMonth.of(2019, 1), batchSize)).thenReturn(1)
+
+        val processed = service(transactionRepository, TransactionRetentionService.Mode.DELETE).applyRetention(today)
+
+        Assertions.assertEquals(1, processed)
+        Mockito.verify(transactionRepository, Mockito.never()).createArchivePartition(ArgumentMatchers.any(YearMonth::class.java) ?: today)
+        Mockito.verify(transactionRepository).deleteOrphanedTransactionStates(YearMonth.of(2019, 2))
+    }
+
+    @Test
+    fun `drop archive partitions before archive retention period`() {
+        val transactionRepository = lockedRepository()
+        Mockito.`when`(transactionRepository.getArchivePartitions()).thenReturn(listOf(YearMonth.of(2018, 3), YearMonth.of(2018, 4)))
+
+        service(transactionRepository, TransactionRetentionService.Mode.ARCHIVE, 12).applyRetention(today)
+
+        Mockito.verify(transactionRepository).dropArchivePartition(YearMonth.of(2018, 3))
+        Mockito.verify(transactionRepository, Mockito.never()).dropArchivePartition(YearMonth.of(2018, 4))
+    }
+
+    @Test
+    fun `skip retention while another instance applies it`() {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        Mockito.`when`(transactionRepository.withRetentionLock(ArgumentMatchers.any<() -> Int>() ?: { 0 })).thenReturn(null)
+
+        val processed = service(transactionRepository, TransactionRetentionService.Mode.DELETE).applyRetention(today)
+
+        Assertions.assertEquals(0, processed)
+        Mockito.verify(transactionRepository, Mockito.never()).getOldestTransactionMonth()
+    }
+
+    private fun lockedRepository(): TransactionRepository {
+        val transactionRepository = Mockito.mock(TransactionRepository::class.java)
+        Mockito.`when`(transactionRepository.withRetentionLock(ArgumentMatchers.any<() -> Int>() ?: { 0 }))
+            .thenAnswer { it.getArgument<() -> Int>(0)() }
+        return transactionRepository
+    }
+
+    private fun service(transactionRepository: TransactionRepository, mode: TransactionRetentionService.Mode, archiveMonths: Long = 0) =
+        TransactionRetentionService(transactionRepository, mode, 2, archiveMonths, batchSize)
+}
@@ -5,9 +5,16 @@
 package com.mobilabsolutions.payment.service
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.mobilabsolutions.payment.adyen.configuration.AdyenProperties
+import com.mobilabsolutions.payment.adyen.data.enum.AdyenMode
+import com.mobilabsolutions.payment.adyen.model.request.AdyenAmountRequestModel
+import com.mobilabsolutions.payment.adyen.model.request.AdyenPaymentMethodRequestModel
+import com.mobilabsolutions.payment.adyen.model.request.AdyenPaymentRequestModel
+import com.mobilabsolutions.payment.adyen.service.AdyenClient
 import com.mobilabsolutions.payment.data.Alias
+import com.mobilabsolutions.payment.data.IdempotencyReservation
+import com.mobilabsolutions.payment.data.IdempotencyReservationId
 import com.mobilabsolutions.payment.data.Merchant
-import com.mobilabsolutions.payment.data.MerchantApiKey
 import com.mobilabsolutions.payment.data.Transaction
 import com.mobilabsolutions.payment.data.enum.KeyType
 import com.mobilabsolutions.payment.data.enum.PaymentMethod
@@ -19,7 +26,6 @@ import com.mobilabsolutions.payment.data.repository.MerchantApiKeyRepository
 import com.mobilabsolutions.payment.data.repository.MerchantRepository
 import com.mobilabsolutions.payment.data.repository.TransactionRepository
 import com.mobilabsolutions.payment.model.AliasExtraModel
-import com.mobilabsolutions.payment.model.MerchantNotificationsModel
 import com.mobilabsolutions.payment.model.PersonalDataModel
 import com.mobilabsolutions.payment.model.PspConfigModel
 import com.mobilabsolutions.payment.model.PspNotificationModel
@@ -33,13 +39,17 @@ import com.mobilabsolutions.payment.model.request.PspReversalRequestModel
 import com.mobilabsolutions.payment.model.request.ReversalRequestModel
 import com.mobilabsolutions.payment.model.response.PspPaymentResponseModel
 import com.mobilabsolutions.server.commons.CommonConfiguration
+import com.mobilabsolutions.server.commons.exception.ApiError
+import com.mobilabsolutions.server.commons.exception.ApiErrorCode
 import com.mobilabsolutions.server.commons.exception.ApiException
 import com.mobilabsolutions.server.commons.util.RequestHashing
+import com.sun.net.httpserver.HttpServer
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.BeforeAll
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.TestInstance
 import org.junit.jupiter.api.extension.ExtendWith
+import org.mockito.ArgumentMatchers
 import org.mockito.InjectMocks
 import org.mockito.Mock
 import org.mockito.Mockito
@@ -51,9 +61,8 @@ import org.mockito.junit.jupiter.MockitoExtension
 import org.mockito.junit.jupiter.MockitoSettings
 import org.mockito.quality.Strictness
 import org.springframework.test.util.ReflectionTestUtils
-import java.time.LocalDateTime
-import java.time.ZoneId
-import java.time.format.DateTimeFormatter
+import org.springframework.web.client.ResourceAccessException
+import java.net.InetSocketAddress
 
 /**
  * @author <a href="mailto:doruk@mobilabsolutions.com">Doruk Coskun</a>
@@ -82,8 +91,6 @@ class TransactionServiceTest {
     private val correctTransactionIdWrongTestMode = "prod transaction"
     private val pspAlias = "psp alias"
     private val test = true
-    private val preauthAction = TransactionAction.PREAUTH
-    private val authAction = TransactionAction.AUTH
     private val correctPaymentData = PaymentDataRequestModel(1, "EUR", "reason")
     private val wrongPaymentData = PaymentDataRequestModel(2, "EUR", "reason")
     private val notifApiKey = "test-key"
@@ -111,29 +118,6 @@ class TransactionServiceTest {
         webhookUsername = webhookUsername,
         webhookPassword = webhookPassword
     )
-    private val notificationTransaction = Transaction(
-        amount = 1,
-        transactionId = correctTransactionId,
-        currencyId = "EUR",
-        pspTestMode = test,
-        action = TransactionAction.REFUND,
-        paymentMethod = PaymentMethod.CC,
-        requestHash = requestHash,
-        merchant = merchant,
-        alias = Alias(
-            id = correctAliasId,
-            active = true,
-            extra = extra,
-            psp = PaymentServiceProvider.BS_PAYONE,
-            pspAlias = pspAlias,
-            merchant = merchant
-        ),
-        pspResponse = pspResponse,
-        status = TransactionStatus.SUCCESS,
-        reason = "reason",
-        processedNotification = false
-    )
-
     @InjectMocks
     private lateinit var transactionService: TransactionService
 
@@ -158,41 +142,24 @@ class TransactionServiceTest {
     private lateinit var requestHashing: RequestHashing
 
     @Mock
-    private lateinit var notificationService: NotificationService
+    private lateinit var transactionStateService: TransactionStateService
+
+    @Mock
+    private lateinit var pendingTransactionService: PendingTransactionService
 
     @Spy
     val objectMapper: ObjectMapper = CommonConfiguration().jsonMapper()
 
+    @Spy
+    val pspConfigCache = PspConfigCache(CommonConfiguration().jsonMapper())
+
     @BeforeAll
     fun beforeAll() {
         MockitoAnnotations.initMocks(this)
         ReflectionTestUtils.setField(transactionService, "paymentApiKey", notifApiKey)
-        notificationTransaction.createdDate = LocalDateTime.parse("2019-07-29T00:00:00Z", DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss'Z'")).atZone(ZoneId.of("Europe/Berlin")).toInstant()
 
-        Mockito.`when`(
-            merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(
-                true,
-                KeyType.SECRET,
-                correctSecretKey
-            )
-        ).thenReturn(
-            MerchantApiKey(
-                active = true,
-                merchant = merchant
-            )
-        )
-        Mockito.`when`(
-            merchantApiKeyRepository.getFirstByActiveAndKeyTypeAndKey(
-                true,
-                KeyType.SECRET,
-                someSecretKey
-            )
-        ).thenReturn(
-            MerchantApiKey(
-                active = true,
-                merchant = merchant
-            )
-        )
+        Mockito.`when`(merchantApiKeyRepository.getActiveMerchantId(KeyType.SECRET.name, correctSecretKey)).thenReturn(correctMerchantId)
+        Mockito.`when`(merchantApiKeyRepository.getActiveMerchantId(KeyType.SECRET.name, someSecretKey)).thenReturn(correctMerchantId)
         Mockito.`when`(merchantRepository.getMerchantById(correctMerchantId)).thenReturn(merchant)
         Mockito.`when`(merchantRepository.getMerchantById(wrongMerchantId)).thenReturn(null)
         Mockito.`when`(aliasIdRepository.getFirstByIdAndActive(correctAliasId, true)).thenReturn(
@@ -230,97 +197,18 @@ class TransactionServiceTest {
             psp.refund(PspRefundRequestModel(pspTransactionId, 1, "EUR", TransactionAction.AUTH.name, pspConfigModel, null, PaymentMethod.CC.name), test
             )
         ).thenReturn(PspPaymentResponseModel(pspTransactionId, TransactionStatus.SUCCESS, customerId, null, null))
-        Mockito.`when`(
-            transactionRepository.getByIdempotentKeyAndMerchant(
-                newIdempotentKey,
-                merchant = merchant
-            ))
+        Mockito.`when`(pendingTransactionService.begin(anyTransaction(), Mockito.eq(newIdempotentKey), ArgumentMatchers.anyString()))
             .thenReturn(null)
-        Mockito.`when`(transactionRepository.getByIdempotentKeyAndMerchant(
-            usedIdempotentKey,
-            merchant = merchant
-        ))
+        Mockito.`when`(pendingTransactionService.begin(anyTransaction(), Mockito.eq(usedIdempotentKey), ArgumentMatchers.anyString()))
             .thenReturn(
-                Transaction(
-                    amount = 1,
-                    currencyId = "EUR",
-                    transactionId = correctTransactionId,
-                    pspTestMode = test,
-                    action = preauthAction,
-                    merchant = merchant,
-                    paymentMethod = PaymentMethod.CC,
+                IdempotencyReservation(
+                    reservationId = IdempotencyReservationId(correctMerchantId, usedIdempotentKey),
                     requestHash = requestHash,
-                    alias = Alias(
-                        id = correctAliasId,
-                        active = true,
-                        extra = extra,
-                        psp = PaymentServiceProvider.BS_PAYONE,
-                        pspAlias = pspAlias,
-                        merchant = merchant
-                    ),
-                    pspResponse = pspResponse
-                )
-            )
-        Mockito.`when`(transactionRepository.getByIdempotentKeyAndMerchant(
-            newIdempotentKey,
-            merchant = merchant
-        ))
-            .thenReturn(null)
-        Mockito.`when`(transactionRepository.getByIdempotentKeyAndMerchant(
-            usedIdempotentKey,
-            merchant = merchant
-        ))
-            .thenReturn(
-                Transaction(
-                    amount = 1,
-                    currencyId = "EUR",
-                    transactionId = correctTransactionId,
-                    pspTestMode = test,
-                    action = authAction,
-                    paymentMethod = PaymentMethod.CC,
-                    requestHash = requestHash,
-                    merchant = merchant,
-                    alias = Alias(
-                        id = correctAliasId,
-                        active = true,
-                        extra = extra,
-                        psp = PaymentServiceProvider.BS_PAYONE,
-                        pspAlias = pspAlias,
-                        merchant = merchant
-                    ),
-                    pspResponse = pspResponse
-                )
-            )
-        Mockito.`when`(transactionRepository.getByIdempotentKeyAndMerchant(
-            usedIdempotentKey,
-            merchant = merchant
-        ))
-            .thenReturn(
-                Transaction(
-                    amount = 1,
-                    currencyId = "EUR",
-                    transactionId = correctTransactionId,
-                    pspTestMode = test,
-                    action = TransactionAction.REFUND,
-                    paymentMethod = PaymentMethod.CC,
-                    requestHash = requestHash,
-                    merchant = merchant,
-                    alias = Alias(
-                        id = correctAliasId,
-                        active = true,
-                        extra = extra,
-                        psp = PaymentServiceProvider.BS_PAYONE,
-                        pspAlias = pspAlias,
-                        merchant = merchant
-                    ),
-                    pspResponse = pspResponse
+                    response = "{\"id\":\"$correctTransactionId\",\"amount\":1,\"currency\":\"EUR\",\"status\":\"SUCCESS\",\"action\":\"REFUND\"}"
                 )
             )
         Mockito.`when`(
-            transactionRepository.getByTransactionIdAndStatus(
-                correctTransactionId,
-                TransactionStatus.SUCCESS.toString()
-            )
+            transactionRepository.getLatestSuccessfulByTransactionId(correctTransactionId)
         ).thenReturn(
             Transaction(
                 amount = 1,
@@ -344,10 +232,7 @@ class TransactionServiceTest {
             )
         )
         Mockito.`when`(
-            transactionRepository.getByTransactionIdAndStatus(
-                correctTransactionIdAlreadyCaptured,
-                TransactionStatus.SUCCESS.toString()
-            )
+            transactionRepository.getLatestSuccessfulByTransactionId(correctTransactionIdAlreadyCaptured)
         ).thenReturn(
             Transaction(
                 amount = 1,
@@ -371,10 +256,7 @@ class TransactionServiceTest {
             )
         )
         Mockito.`when`(
-            transactionRepository.getByTransactionIdAndStatus(
-                correctTransactionIdAlreadyReversed,
-                TransactionStatus.SUCCESS.toString()
-            )
+            transactionRepository.getLatestSuccessfulByTransactionId(correctTransactionIdAlreadyReversed)
         ).thenReturn(
             Transaction(
                 amount = 1,
@@ -446,8 +328,6 @@ class TransactionServiceTest {
         ).thenReturn(differentRequestHash)
         Mockito.`when`(requestHashing.hashRequest(PaymentRequestModel(correctAliasId, correctPaymentData, null, null))
         ).thenReturn(requestHash)
-        Mockito.`when`(notificationService.sendNotificationToMerchant(webhookUrl, mutableListOf((Mockito.mock(MerchantNotificationsModel::class.java))))).thenReturn(201)
-        Mockito.`when`(transactionRepository.getTransactionsByUnprocessedNotifications(correctMerchantId)).thenReturn(listOf(notificationTransaction))
     }
 
     @Test
@@ -943,7 +823,87 @@ class TransactionServiceTest {
     }
 
     @Test
-    fun `process notifications for transactions`() {
-        transactionService.processNotifications(correctMerchantId)
+    fun `keep transaction pending when PSP communication fails`() {
+        val purchaseId = "timed out purchase id"
+        val paymentRequest = PaymentRequestModel(correctAliasId, correctPaymentData, purchaseId, customerId)
+        Mockito.`when`(requestHashing.hashRequest(paymentRequest)).thenReturn(requestHash)
+        Mockito.`when`(psp.authorize(PspPaymentRequestModel(correctAliasId, aliasExtra, correctPaymentData, pspAlias, pspConfigModel, purchaseId), test))
+            .thenThrow(ApiError.ofErrorCode(ApiErrorCode.PSP_COMMUNICATION_ERROR).asException())
+
+        Assertions.assertThrows(ApiException::class.java) {
+            transactionService.authorize(correctSecretKey, newIdempotentKey, test, paymentRequest)
+        }
+
+        Mockito.verify(pendingTransactionService, Mockito.never()).abort(transactionWith(purchaseId), Mockito.eq(newIdempotentKey))
+    }
+
+    @Test
+    fun `keep transaction pending when PSP call times out`() {
+        val purchaseId = "read timed out purchase id"
+        val paymentRequest = PaymentRequestModel(correctAliasId, correctPaymentData, purchaseId, customerId)
+        Mockito.`when`(requestHashing.hashRequest(paymentRequest)).thenReturn(requestHash)
+        Mockito.`when`(psp.authorize(PspPaymentRequestModel(correctAliasId, aliasExtra, correctPaymentData, pspAlias, pspConfigModel, purchaseId), test))
+            .thenThrow(ResourceAccessException("Read timed out"))
+
+        Assertions.assertThrows(ResourceAccessException::class.java) {
+            transactionService.authorize(correctSecretKey, newIdempotentKey, test, paymentRequest)
+        }
+
+        Mockito.verify(pendingTransactionService, Mockito.never()).abort(transactionWith(purchaseId), Mockito.eq(newIdempotentKey))
+    }
+
+    @Test
+    fun `keep transaction pending when Adyen responds with a server error`() {
+        val purchaseId = "adyen server error purchase id"
+        val paymentRequest = PaymentRequestModel(correctAliasId, correctPaymentData, purchaseId, customerId)
+        val server = HttpServer.create(InetSocketAddress("localhost", 0), 0)
+        server.createContext("/") { exchange ->
+            val body = "{\"status\":500,\"message\":\"Internal error\"}".toByteArray()
+            exchange.sendResponseHeaders(500, body.size.toLong())
+            exchange.responseBody.use { it.write(body) }
+        }
+        server.start()
+        val adyenProperties = Mockito.spy(AdyenProperties())
+        Mockito.doReturn("http://localhost:${server.address.port}").`when`(adyenProperties).testCheckoutBaseUrl
+        val adyenClient = AdyenClient(adyenProperties, objectMapper)
+        val adyenConfig = PspConfigModel(PaymentServiceProvider.ADYEN.name, null, null, null, null, "merchant account", "public key",
+            null, null, null, true, "EUR", "DE", "de-DE", "random-mobilab", null, null)
+        val sepaRequest = AdyenPaymentRequestModel(AdyenAmountRequestModel(1, "EUR"), null, null, null, null, null, null, purchaseId, "merchant account", null,
+            AdyenPaymentMethodRequestModel("sepadirectdebit", "Max Mustermann", "DE87123456781234567890", null, null, null, null, null), null, null, null, null)
+        Mockito.`when`(requestHashing.hashRequest(paymentRequest)).thenReturn(requestHash)
+        Mockito.`when`(psp.authorize(PspPaymentRequestModel(correctAliasId, aliasExtra, correctPaymentData, pspAlias, pspConfigModel, purchaseId), test))
+            .thenAnswer { adyenClient.sepaPayment(sepaRequest, adyenConfig, AdyenMode.TEST.mode) }
+
+        try {
+            val exception = Assertions.assertThrows(ApiException::class.java) {
+                transactionService.authorize(correctSecretKey, newIdempotentKey, test, paymentRequest)
+            }
+
+            Assertions.assertEquals(ApiErrorCode.PSP_COMMUNICATION_ERROR, exception.errorCode())
+            Mockito.verify(pendingTransactionService, Mockito.never()).abort(transactionWith(purchaseId), Mockito.eq(newIdempotentKey))
+        } finally {
+            adyenClient.shutdown()
+            server.stop(0)
+        }
+    }
+
+    @Test
+    fun `remove pending transaction when PSP rejects the operation`() {
+        val purchaseId = "rejected purchase id"
+        val paymentRequest = PaymentRequestModel(correctAliasId, correctPaymentData, purchaseId, customerId)
+        Mockito.`when`(requestHashing.hashRequest(paymentRequest)).thenReturn(requestHash)
+        Mockito.`when`(psp.authorize(PspPaymentRequestModel(correctAliasId, aliasExtra, correctPaymentData, pspAlias, pspConfigModel, purchaseId), test))
+            .thenThrow(ApiError.ofErrorCode(ApiErrorCode.PSP_MODULE_ERROR, "Payment method not supported").asException())
+
+        Assertions.assertThrows(ApiException::class.java) {
+            transactionService.authorize(correctSecretKey, newIdempotentKey, test, paymentRequest)
+        }
+
+        Mockito.verify(pendingTransactionService).abort(transactionWith(purchaseId), Mockito.eq(newIdempotentKey))
     }
+
+    private fun anyTransaction(): Transaction = Mockito.any(Transaction::class.java) ?: Transaction()
+
+    private fun transactionWith(purchaseId: String): Transaction =
+        Mockito.argThat<Transaction> { it.merchantTransactionId == purchaseId } ?: Transaction()
 }